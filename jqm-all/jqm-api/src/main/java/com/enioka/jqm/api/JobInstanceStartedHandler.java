@@ -9,7 +9,10 @@ import java.util.Map;
  * The interface implemented by the event handlers hooked on the "a job instance has started" event. <br>
  * <br>
  * This runs inside the same context as the payload: the class is loaded by the payload class loader, and all methods are called by threads
- * which context class loader is the payload class loader. No access to the engine class loader is possible.
+ * which context class loader is the payload class loader. No access to the engine class loader is possible.<br>
+ * <br>
+ * A single instance of the handler is created per payload class loader. When the class loader is shared, this instance is used by all the
+ * job instances running inside it (possibly at the same time), so it should not keep any job instance specific state.
  */
 public interface JobInstanceStartedHandler
 {
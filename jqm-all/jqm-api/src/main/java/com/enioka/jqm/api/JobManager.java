@@ -249,7 +249,8 @@ public interface JobManager
     /**
      * Be a good citizen: call this function regularly. It does nothing but check if your job should be paused, killed & such. Java makes it
      * impossible to kill a thread properly, so calling this function is the only way to allow it. <br>
-     * Note: this function is also called by the other functions of the API.
+     * Note: this function is also called by {@link #sendMsg(String)}, {@link #sendProgress(Integer)}, {@link #waitChild(int)} and
+     * {@link #waitChildren()}.
      */
     void yield();
 
@@ -9,7 +9,8 @@ import java.util.Map;
  * This interface is implemented by the different job runners, i.e. the agents which actually launch the job instances. The job runners must
  * be placed in the plugins directory of the engine.<br>
  * <br>
- * Implementors should always specify a no-args constructor for runners.
+ * Implementors should always specify a no-args constructor for runners. A single instance of each runner is created by the engine and is
+ * used for all the job instances, so runners must be thread safe.
  */
 public interface JobRunner
 {
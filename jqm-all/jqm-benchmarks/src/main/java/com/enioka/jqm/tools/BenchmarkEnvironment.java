@@ -0,0 +1,195 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.naming.NamingException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.hsqldb.jdbc.JDBCDataSource;
+
+import com.enioka.jqm.api.JqmClientFactory;
+import com.enioka.jqm.jdbc.Db;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.History;
+import com.enioka.jqm.model.Instruction;
+import com.enioka.jqm.model.JobDef;
+import com.enioka.jqm.model.JobDef.PathType;
+import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Node;
+import com.enioka.jqm.model.Queue;
+import com.enioka.jqm.model.State;
+import com.enioka.jqm.test.helpers.TestHelpers;
+
+/**
+ * The environment shared by all the benchmarks of a JVM: an in-memory HSQLDB database, used by the engine helpers as well as by the client
+ * API, the JNDI context and a node with its directories. JMH runs each benchmark inside its own forked JVM, so there is no interference
+ * between benchmarks.
+ */
+final class BenchmarkEnvironment
+{
+    static final String APPLICATION_NAME = "BenchmarkApp";
+    static final String JAR_PATH = "payload/payload.jar";
+
+    private static Db db;
+    private static File root;
+
+    static Node node;
+    static int queueId;
+    static int jdId;
+
+    private BenchmarkEnvironment()
+    {}
+
+    private static synchronized Db getDb()
+    {
+        if (db != null)
+        {
+            return db;
+        }
+
+        // The engine logs every class loader creation at INFO level - this is not what is measured.
+        LogManager.getLogger("com.enioka").setLevel(Level.WARN);
+
+        try
+        {
+            root = new File(FileUtils.getTempDirectory(), "jqm-benchmarks-" + System.currentTimeMillis());
+            FileUtils.forceMkdir(new File(root, "payload/lib"));
+            createPayloadJar(new File(root, JAR_PATH));
+
+            // The JNDI context needs an ext directory inside the working directory.
+            FileUtils.forceMkdir(new File("./ext"));
+            JndiContext.createJndiContext();
+        }
+        catch (IOException e)
+        {
+            throw new JqmInitError("Could not create benchmark directories", e);
+        }
+        catch (NamingException e)
+        {
+            throw new JqmInitError("Could not create JNDI context", e);
+        }
+
+        JDBCDataSource ds = new JDBCDataSource();
+        ds.setDatabase("jdbc:hsqldb:mem:jqmbenchmarks");
+        db = new Db(ds, true);
+        Helpers.setDb(db);
+
+        Properties p = new Properties();
+        p.put("com.enioka.jqm.jdbc.contextobject", db);
+        JqmClientFactory.setProperties(p);
+
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            @Override
+            public void run()
+            {
+                FileUtils.deleteQuietly(root);
+            }
+        });
+
+        return db;
+    }
+
+    /**
+     * An empty jar, with an empty lib directory beside it so that no pom is looked for.
+     */
+    private static void createPayloadJar(File jar) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar), manifest);
+        jos.close();
+    }
+
+    /**
+     * Empties the database and creates a node, a queue and a job definition (an FS one, pointing to a jar inside the node repository).
+     *
+     * @return an open connection, which must be closed by the caller.
+     */
+    static DbConn reset()
+    {
+        DbConn cnx = getDb().getConn();
+        TestHelpers.cleanup(cnx, true);
+
+        GlobalParameter.create(cnx, "defaultConnection", "");
+        queueId = Queue.create(cnx, "BenchmarkQueue", "Queue for the benchmarks", true);
+        node = Node.create(cnx, "benchmarknode", 0, new File(root, "dl").getAbsolutePath(), root.getAbsolutePath(),
+                new File(root, "tmp").getAbsolutePath(), "localhost", "INFO");
+        jdId = JobDef.create(cnx, "benchmark payload", "pyl.Nothing", null, JAR_PATH, queueId, 0, APPLICATION_NAME, null, null, null,
+                null, null, false, null, PathType.FS);
+        cnx.commit();
+        return cnx;
+    }
+
+    /**
+     * Adds submitted job instances to the benchmark queue.
+     */
+    static void enqueue(DbConn cnx, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            JobInstance.enqueue(cnx, State.SUBMITTED, queueId, jdId, null, null, null, null, null, null, null, "benchmark", null, false,
+                    false, null, 0, Instruction.RUN, null);
+        }
+        cnx.commit();
+    }
+
+    /**
+     * Moves submitted job instances of the benchmark queue to the history, as ended instances.
+     */
+    static void archive(DbConn cnx, int count)
+    {
+        cnx.runUpdate("ji_update_poll", node.getId(), queueId, count);
+        for (JobInstance ji : JobInstance.select(cnx, "ji_select_to_run", node.getId(), queueId))
+        {
+            History.create(cnx, ji, State.ENDED, Calendar.getInstance());
+            cnx.runUpdate("ji_delete_by_id", ji.getId());
+        }
+        cnx.commit();
+    }
+
+    /**
+     * Adds a job instance attributed to the benchmark node, as the poller would have done. The queue must not contain other submitted job
+     * instances.
+     *
+     * @return the job instance, with its node and job definition.
+     */
+    static JobInstance enqueueAttributed(DbConn cnx)
+    {
+        int id = JobInstance.enqueue(cnx, State.SUBMITTED, queueId, jdId, null, null, null, null, null, null, null, "benchmark", null,
+                false, false, null, 0, Instruction.RUN, null);
+        cnx.runUpdate("ji_update_poll", node.getId(), queueId, 1);
+        cnx.commit();
+        return JobInstance.select_id(cnx, id);
+    }
+
+    static File getRoot()
+    {
+        return root;
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.JobInstance;
+
+/**
+ * The retrieval of the class loader of a job instance for each of the default isolation modes (parameter launch_isolation_default). The
+ * payload is an FS one with an empty lib directory, so the library resolution is only a cache lookup after the first call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassloaderManagerBenchmark
+{
+    @Param({ "Isolated", "Shared", "SharedJar" })
+    public String mode;
+
+    private DbConn cnx;
+    private ClassloaderManager manager;
+    private JobInstance ji;
+
+    @Setup
+    public void setup()
+    {
+        cnx = BenchmarkEnvironment.reset();
+        GlobalParameter.create(cnx, "launch_isolation_default", mode);
+        cnx.commit();
+
+        manager = new ClassloaderManager();
+        manager.setIsolationDefault(cnx);
+        ji = BenchmarkEnvironment.enqueueAttributed(cnx);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        cnx.close();
+    }
+
+    @Benchmark
+    public JarClassLoader getClassloader() throws MalformedURLException, JqmPayloadException, IOException
+    {
+        JarClassLoader res = manager.getClassloader(ji, cnx);
+        if ("Isolated".equals(mode))
+        {
+            // Transient class loaders would otherwise pile up (with their open jar files) during the measurement.
+            res.close();
+        }
+        return res;
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.QueryResult;
+
+/**
+ * The raw cost of the named query layer: statement preparation (cached or not), parameter binding and a single row access. The update is
+ * the one done on each progress report of a running job instance, the selects the one done on each instruction check.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DbConnBenchmark
+{
+    private DbConn cnx;
+    private int jiId;
+    private int progress = 0;
+
+    @Setup
+    public void setup()
+    {
+        cnx = BenchmarkEnvironment.reset();
+        jiId = BenchmarkEnvironment.enqueueAttributed(cnx).getId();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        cnx.close();
+    }
+
+    @Benchmark
+    public QueryResult runUpdate()
+    {
+        QueryResult res = cnx.runUpdate("jj_update_progress_by_id", progress++, jiId);
+        cnx.commit();
+        return res;
+    }
+
+    @Benchmark
+    public String runSelect() throws SQLException
+    {
+        ResultSet rs = cnx.runSelect("ji_select_instruction_by_id", jiId);
+        try
+        {
+            rs.next();
+            return rs.getString(1);
+        }
+        finally
+        {
+            rs.close();
+        }
+    }
+
+    @Benchmark
+    public String runSelectSingle()
+    {
+        return cnx.runSelectSingle("ji_select_instruction_by_id", String.class, jiId);
+    }
+}
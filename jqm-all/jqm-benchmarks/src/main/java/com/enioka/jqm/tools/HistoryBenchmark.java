@@ -0,0 +1,77 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.util.Calendar;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.History;
+import com.enioka.jqm.model.JobInstance;
+
+/**
+ * The archiving of an ended job instance, as done by the engine at the end of each run. The insert is rolled back so that the same job
+ * instance can be archived again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark
+{
+    private DbConn cnx;
+    private JobInstance ji;
+
+    @Setup
+    public void setup()
+    {
+        cnx = BenchmarkEnvironment.reset();
+        ji = BenchmarkEnvironment.enqueueAttributed(cnx);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        cnx.close();
+    }
+
+    @Benchmark
+    public void create()
+    {
+        try
+        {
+            History.create(cnx, ji, com.enioka.jqm.model.State.ENDED, Calendar.getInstance());
+        }
+        finally
+        {
+            cnx.rollback();
+        }
+    }
+}
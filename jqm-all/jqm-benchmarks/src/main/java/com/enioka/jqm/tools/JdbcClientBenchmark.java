@@ -0,0 +1,128 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.enioka.jqm.api.JobInstance;
+import com.enioka.jqm.api.JobRequest;
+import com.enioka.jqm.api.JqmClient;
+import com.enioka.jqm.api.JqmClientFactory;
+import com.enioka.jqm.api.Query;
+import com.enioka.jqm.jdbc.DbConn;
+
+/**
+ * The client API, as used by the web services and by payloads: enqueue of a new request, and a query on job instances of an application
+ * (both live and ended instances).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JdbcClientBenchmark
+{
+    /**
+     * An empty queue. The enqueued job instances are removed after each iteration so that the queue does not grow too much.
+     */
+    @State(Scope.Benchmark)
+    public static class EmptyQueue
+    {
+        DbConn cnx;
+        JqmClient client;
+
+        @Setup
+        public void setup()
+        {
+            cnx = BenchmarkEnvironment.reset();
+            client = JqmClientFactory.getClient();
+        }
+
+        @TearDown(Level.Iteration)
+        public void purge()
+        {
+            cnx.runUpdate("jiprm_delete_all");
+            cnx.runUpdate("ji_delete_all");
+            cnx.commit();
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            cnx.close();
+            JqmClientFactory.resetClient();
+        }
+    }
+
+    /**
+     * A queue with waiting job instances, half of the other instances of the application being already ended.
+     */
+    @State(Scope.Benchmark)
+    public static class Backlog
+    {
+        @Param({ "10", "1000" })
+        public int instances;
+
+        DbConn cnx;
+        JqmClient client;
+        Query query;
+
+        @Setup
+        public void setup()
+        {
+            cnx = BenchmarkEnvironment.reset();
+            BenchmarkEnvironment.enqueue(cnx, instances);
+            BenchmarkEnvironment.archive(cnx, instances / 2);
+
+            client = JqmClientFactory.getClient();
+            query = Query.create().setApplicationName(BenchmarkEnvironment.APPLICATION_NAME).setQueryLiveInstances(true);
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            cnx.close();
+            JqmClientFactory.resetClient();
+        }
+    }
+
+    @Benchmark
+    public int enqueue(EmptyQueue state)
+    {
+        return state.client.enqueue(new JobRequest(BenchmarkEnvironment.APPLICATION_NAME, "benchmark"));
+    }
+
+    @Benchmark
+    public List<JobInstance> getJobs(Backlog state)
+    {
+        return state.client.getJobs(state.query);
+    }
+}
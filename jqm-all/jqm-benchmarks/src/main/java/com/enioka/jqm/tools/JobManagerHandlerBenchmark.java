@@ -0,0 +1,105 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.enioka.jqm.api.JobManager;
+import com.enioka.jqm.jdbc.DbConn;
+
+/**
+ * Calls from a payload to the engine API (the injected {@link JobManager}), through the dynamic proxy as payloads do, and directly on the
+ * handler so as to separate the dispatch from the proxy overhead. Getters are served without any engine work, while yield also checks the
+ * instructions. Instructions come from the node instruction table, as inside a running engine, so there is no database access.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobManagerHandlerBenchmark
+{
+    private JobManagerHandler handler;
+    private JobManager proxy;
+    private Method jobInstanceID;
+    private Method parameters;
+
+    @Setup
+    public void setup() throws NoSuchMethodException
+    {
+        DbConn cnx = BenchmarkEnvironment.reset();
+        Map<String, String> prms = new HashMap<String, String>();
+        prms.put("key", "value");
+        try
+        {
+            handler = new JobManagerHandler(BenchmarkEnvironment.enqueueAttributed(cnx), prms, null, new InstructionTable());
+        }
+        finally
+        {
+            cnx.close();
+        }
+
+        proxy = (JobManager) Proxy.newProxyInstance(JobManager.class.getClassLoader(), new Class<?>[] { JobManager.class }, handler);
+        jobInstanceID = JobManager.class.getMethod("jobInstanceID");
+        parameters = JobManager.class.getMethod("parameters");
+    }
+
+    @Benchmark
+    public Integer proxyJobInstanceID()
+    {
+        return proxy.jobInstanceID();
+    }
+
+    @Benchmark
+    public Map<String, String> proxyParameters()
+    {
+        return proxy.parameters();
+    }
+
+    @Benchmark
+    public void proxyYield()
+    {
+        proxy.yield();
+    }
+
+    @Benchmark
+    public Object invokeJobInstanceID() throws Throwable
+    {
+        return handler.invoke(proxy, jobInstanceID, null);
+    }
+
+    @Benchmark
+    public Object invokeParameters() throws Throwable
+    {
+        return handler.invoke(proxy, parameters, null);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.enioka.jqm.jdbc.DbConn;
+
+/**
+ * Writes of a payload to its standard output, when the stream is replaced by the engine so as to have one log file per job instance.
+ * Parameters (buffer size, flush interval, rotation...) are the default ones.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiplexPrintStreamBenchmark
+{
+    private static final String LINE = "2017-06-01 12:00:00 INFO  Processing the next element of the batch, nothing special to report here";
+    private static final byte[] BYTES = (LINE + System.getProperty("line.separator")).getBytes();
+
+    private MultiplexPrintStream stream;
+
+    @Setup
+    public void setup()
+    {
+        DbConn cnx = BenchmarkEnvironment.reset();
+        try
+        {
+            stream = new MultiplexPrintStream(NullOutputStream.NULL_OUTPUT_STREAM,
+                    new File(BenchmarkEnvironment.getRoot(), "logs").getAbsolutePath(), false, cnx);
+        }
+        finally
+        {
+            cnx.close();
+        }
+
+        // The setup of a thread scoped state runs inside the benchmark thread.
+        stream.registerThread("benchmark.stdout.log");
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        stream.unregisterThread();
+        stream.stop();
+    }
+
+    @Benchmark
+    public void println()
+    {
+        stream.println(LINE);
+    }
+
+    @Benchmark
+    public void write()
+    {
+        stream.write(BYTES, 0, BYTES.length);
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.JobInstance;
+
+/**
+ * One dequeue of the queue poller (see {@link QueuePoller}): job instances are marked for the node with <code>ji_update_poll</code> then
+ * read back. The transaction is rolled back, so that the backlog stays the same from one invocation to the next.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollBenchmark
+{
+    private static final int FREE_SLOTS = 10;
+
+    @Param({ "10", "1000", "10000" })
+    public int backlog;
+
+    private DbConn cnx;
+    private int nodeId;
+
+    @Setup
+    public void setup()
+    {
+        cnx = BenchmarkEnvironment.reset();
+        BenchmarkEnvironment.enqueue(cnx, backlog);
+        nodeId = BenchmarkEnvironment.node.getId();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        cnx.close();
+    }
+
+    @Benchmark
+    public List<JobInstance> dequeue()
+    {
+        try
+        {
+            cnx.runUpdate("ji_update_poll", nodeId, BenchmarkEnvironment.queueId, FREE_SLOTS);
+            return JobInstance.select(cnx, "ji_select_to_run", nodeId, BenchmarkEnvironment.queueId);
+        }
+        finally
+        {
+            cnx.rollback();
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package com.enioka.jqm.api;
 
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import java.util.Calendar;
 import java.util.List;
 
@@ -47,10 +48,27 @@ public interface JqmClient
      */
     int enqueue(JobRequest jobRequest);
 
+    /**
+     * Bulk version of {@link #enqueue(JobRequest)}, for submitting many job instances at once. Job definitions, queues and default
+     * parameters are only resolved once per distinct value, and instances are created in large transactions.<br>
+     * All requests are validated before anything is created. If the creation itself fails, instances created by the transactions which
+     * were already committed are not removed.
+     *
+     * @param jobRequests
+     *            the requests to enqueue.
+     * @return the IDs of the job instances, in the same order as the requests.
+     *
+     * @throws JqmInvalidRequestException
+     *             when input data is invalid.
+     * @throws JqmClientException
+     *             when an internal API implementation occurs. Usually linked to a configuration issue.
+     */
+    List<Integer> enqueue(List<JobRequest> jobRequests);
+
     /**
      * Will create a new job instance inside an execution queue. All parameters (JQM parameters such as queue name, etc) as well as job
      * parameters) are given inside the job request argument <br>
-     * 
+     *
      * @param applicationName
      *            name of the job to launch
      * @param userName
@@ -416,7 +434,7 @@ public interface JqmClient
 
     /**
      * Return all files created by a job instance if any. The stream is not open: opening and closing it is the caller's responsibility.<br>
-     * <strong>The underlying temporary files are deleted at stream closure</strong>.<br>
+     * <strong>The streams hold resources (temporary files, network connections) until they are closed</strong>.<br>
      * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
      * all implementations, the engine that has run the instance must be up.</strong>
      * 
@@ -431,7 +449,7 @@ public interface JqmClient
 
     /**
      * Return one file created by a job instance. The stream is not open: opening and closing it is the caller's responsibility.<br>
-     * <strong>The underlying temporary files are deleted at stream closure</strong>. <br>
+     * <strong>The stream holds a network connection until it is closed</strong>. <br>
      * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
      * all implementations, the engine that has run the instance must be up.</strong>
      * 
@@ -445,7 +463,7 @@ public interface JqmClient
 
     /**
      * Return one file created by a job instance. The stream is not open: opening and closing it is the caller's responsibility.<br>
-     * <strong>The underlying temporary files are deleted at stream closure</strong>. <br>
+     * <strong>The stream holds a network connection until it is closed</strong>. <br>
      * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
      * all implementations, the engine that has run the instance must be up.</strong>
      * 
@@ -457,6 +475,22 @@ public interface JqmClient
      */
     InputStream getDeliverableContent(int fileId);
 
+    /**
+     * Writes one file created by a job instance to the given channel (for example a {@link java.nio.channels.FileChannel}), without
+     * intermediate copy. The channel is not closed.<br>
+     * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
+     * all implementations, the engine that has run the instance must be up.</strong>
+     * 
+     * @param fileId
+     *            the id of the file to retrieve (usually obtained through {@link #getJobDeliverables(int)})
+     * @param target
+     *            where to write the file
+     * @return the number of bytes written
+     * @throws JqmClientException
+     *             when an internal API implementation occurs (including write errors on the channel).
+     */
+    long getDeliverableContent(int fileId, WritableByteChannel target);
+
     /**
      * Returns the standard output flow of of an ended job instance <br>
      * <strong>In some implementations, this client method may require a direct TCP connection to the engine that has run the instance. In
@@ -17,7 +17,9 @@ package com.enioka.jqm.api;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
@@ -37,7 +39,8 @@ import javax.xml.bind.annotation.XmlRootElement;
  * <br>
  * 
  * Also please note that queries get more expensive with the result count, so it is <strong>strongly recommended to use pagination</strong>
- * ({@link #setFirstRow(Integer)} and {@link #setPageSize(Integer)}).
+ * ({@link #setFirstRow(Integer)} and {@link #setPageSize(Integer)}). For deep pages or exports, use {@link #setKeysetPagination(boolean)}
+ * or {@link #iterate()}, which do not get slower with the page number.
  * 
  */
 @XmlRootElement
@@ -59,6 +62,8 @@ public final class Query
 
     private Integer firstRow, pageSize = 50;
     private Integer resultSize;
+    private boolean keysetPagination = false, skipCount = false;
+    private String continuationToken;
 
     @XmlElementWrapper(name = "instances")
     @XmlElement(name = "instance", type = JobInstance.class)
@@ -235,6 +240,129 @@ public final class Query
         return this;
     }
 
+    /**
+     * Keyset (also called seek) pagination: instead of skipping {@link #setFirstRow(Integer)} rows, each page starts right after the last
+     * row of the previous page, which the database finds through the sort columns. The cost of a page does not depend on its depth.<br>
+     * After each run, {@link #getContinuationToken()} gives the position of the next page (or null if there is none) and is automatically
+     * used by the next run of the same Query object. It can also be given to another Query with the same filters and sorts.<br>
+     * Only allowed without a first row, and with sorts on {@link Sort#ID}, {@link Sort#APPLICATIONNAME}, {@link Sort#QUEUENAME},
+     * {@link Sort#STATUS} and {@link Sort#DATEENQUEUE}. The ID is always used as the last sort column.
+     * 
+     * @param keysetPagination
+     *            true to enable. Default is false.
+     * @return the Query itself (fluent API - used to chain calls).
+     */
+    public Query setKeysetPagination(boolean keysetPagination)
+    {
+        this.keysetPagination = keysetPagination;
+        return this;
+    }
+
+    boolean isKeysetPagination()
+    {
+        return keysetPagination;
+    }
+
+    /**
+     * See {@link #setKeysetPagination(boolean)}.
+     * 
+     * @return an opaque token giving the position of the next page, or null if the last run has returned the last page.
+     */
+    public String getContinuationToken()
+    {
+        return continuationToken;
+    }
+
+    /**
+     * See {@link #setKeysetPagination(boolean)}. Setting a token enables keyset pagination.
+     * 
+     * @param continuationToken
+     *            a token returned by {@link #getContinuationToken()}, or null to start from the first page.
+     * @return the Query itself (fluent API - used to chain calls).
+     */
+    public Query setContinuationToken(String continuationToken)
+    {
+        this.continuationToken = continuationToken;
+        if (continuationToken != null)
+        {
+            this.keysetPagination = true;
+        }
+        return this;
+    }
+
+    /**
+     * By default, a paginated query runs a second query to count all the results (see {@link #getResultSize()}). This count is as costly
+     * as a query without pagination, so it can be disabled. {@link #getResultSize()} then only gives the size of the page.
+     * 
+     * @param skipCount
+     *            true to disable the count. Default is false.
+     * @return the Query itself (fluent API - used to chain calls).
+     */
+    public Query setSkipCount(boolean skipCount)
+    {
+        this.skipCount = skipCount;
+        return this;
+    }
+
+    boolean isSkipCount()
+    {
+        return skipCount;
+    }
+
+    /**
+     * Runs the query page by page (with keyset pagination, without counting the results) and gives the results one by one. At most one
+     * page of results is held in memory at any time, so this is the way to go for large exports.<br>
+     * This Query object is used as the cursor: it must not be modified or run during the iteration.
+     * 
+     * @return an iterator on all the results of the query. Its remove method is not supported.
+     */
+    public Iterator<JobInstance> iterate()
+    {
+        this.keysetPagination = true;
+        this.skipCount = true;
+        this.firstRow = null;
+        this.continuationToken = null;
+        if (this.pageSize == null)
+        {
+            this.pageSize = 50;
+        }
+
+        return new Iterator<JobInstance>()
+        {
+            private Iterator<JobInstance> page = run().iterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                while (!page.hasNext())
+                {
+                    if (continuationToken == null)
+                    {
+                        return false;
+                    }
+                    page = run().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public JobInstance next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
     /**
      * @return the available result count of the query. Available means that it does not take into account pagination. This is mostly used
      *         when pagination is used, so as to be able to set a "total records count" or a "page 2 on 234" indicator. If pagination is not
@@ -0,0 +1,100 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.api;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A file streamed directly from the node which holds it. Closing the stream releases the underlying connection.
+ */
+class RemoteFileStream extends FilterInputStream
+{
+    String nameHint = null;
+    private Closeable[] resources;
+
+    RemoteFileStream(InputStream in, Closeable... resources)
+    {
+        super(in);
+        this.resources = resources;
+    }
+
+    /**
+     * Copies a stream into a channel through a reusable direct buffer, then closes the stream (not the channel).
+     *
+     * @return the number of bytes copied.
+     */
+    static long transferTo(InputStream in, WritableByteChannel target)
+    {
+        ReadableByteChannel source = Channels.newChannel(in);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+        long res = 0;
+        try
+        {
+            while (source.read(buffer) >= 0 || buffer.position() > 0)
+            {
+                buffer.flip();
+                res += target.write(buffer);
+                buffer.compact();
+            }
+            return res;
+        }
+        catch (IOException e)
+        {
+            throw new JqmClientException("Could not copy the file into the given channel", e);
+        }
+        finally
+        {
+            try
+            {
+                source.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            for (Closeable c : resources)
+            {
+                try
+                {
+                    c.close();
+                }
+                catch (Exception e)
+                {
+                    // Nothing
+                }
+            }
+        }
+    }
+}
@@ -18,7 +18,11 @@
 
 package com.enioka.jqm.api;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -27,11 +31,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.WritableByteChannel;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -40,19 +46,26 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.UUID;
 
 import javax.net.ssl.SSLContext;
+import javax.xml.bind.DatatypeConverter;
 
 import org.apache.http.Header;
 import org.apache.http.HttpStatus;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
 import org.apache.http.conn.ssl.SSLContexts;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
@@ -87,8 +100,12 @@ final class JdbcClient implements JqmClient
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(JdbcClient.class);
     private static final int IN_CLAUSE_LIMIT = 500;
+    private static final int BULK_ENQUEUE_CHUNK_SIZE = 1000;
+    private static final int HTTP_MAX_CONNECTIONS = 20;
+    private static final int HTTP_CONNECTION_REQUEST_TIMEOUT_MS = 30000;
     private Db db = null;
     private String protocol = null;
+    private volatile CloseableHttpClient httpClient = null;
     Properties p;
 
     // /////////////////////////////////////////////////////////////////////
@@ -154,6 +171,8 @@ final class JdbcClient implements JqmClient
     public void dispose()
     {
         SimpleApiSecurity.dispose();
+        closeQuietly(httpClient);
+        httpClient = null;
         this.db = null;
         p = null;
     }
@@ -211,7 +230,7 @@ final class JdbcClient implements JqmClient
             // Standard case: execution by applicationName.
             try
             {
-                jobDef = JobDef.select_key(cnx, runRequest.getApplicationName());
+                jobDef = JobDef.select_key_cached(cnx, runRequest.getApplicationName());
             }
             catch (NonUniqueResultException ex)
             {
@@ -258,7 +277,7 @@ final class JdbcClient implements JqmClient
         jqmlogger.trace("Not in highlander mode or no currently enqueued instance");
 
         // Parameters are both from the JobDef and the execution request.
-        Map<String, String> prms = JobDefParameter.select_map(cnx, "jdprm_select_all_for_jd", jobDef.getId());
+        Map<String, String> prms = new HashMap<String, String>(JobDefParameter.select_map_cached(cnx, jobDef.getId()));
         if (sj != null)
         {
             prms.putAll(sj.getParameters());
@@ -270,7 +289,7 @@ final class JdbcClient implements JqmClient
         if (runRequest.getQueueName() != null)
         {
             // use requested key if given.
-            queue_id = cnx.runSelectSingle("q_select_by_key", 1, Integer.class, runRequest.getQueueName());
+            queue_id = Queue.select_key_cached(cnx, runRequest.getQueueName()).getId();
         }
         else if (sj != null && sj.getQueue() != null)
         {
@@ -318,6 +337,11 @@ final class JdbcClient implements JqmClient
 
             jqmlogger.trace("JI just created: " + id);
             cnx.commit();
+            if (startingState == State.SUBMITTED)
+            {
+                // Local engines (if any) can poll right now instead of waiting for their next loop.
+                db.signalEnqueue(queue_id);
+            }
             return id;
         }
         catch (NoResultException e)
@@ -340,6 +364,185 @@ final class JdbcClient implements JqmClient
         return enqueue(new JobRequest(applicationName, userName));
     }
 
+    @Override
+    public List<Integer> enqueue(List<JobRequest> runRequests)
+    {
+        jqmlogger.trace("BEGINING BULK ENQUEUE - " + runRequests.size() + " requests");
+
+        // Form validity - nothing is created if a single request is wrong.
+        for (JobRequest runRequest : runRequests)
+        {
+            if ((runRequest.getApplicationName() == null || runRequest.getApplicationName().trim().isEmpty())
+                    && runRequest.getScheduleId() == null)
+            {
+                throw new JqmClientException("Invalid execution request: applicationName is empty");
+            }
+            runRequest.setParameters(runRequest.getParameters()); // This will validate parameters.
+        }
+
+        List<Integer> res = new ArrayList<Integer>(runRequests.size());
+        int committed = 0;
+
+        DbConn cnx = null;
+        try
+        {
+            cnx = getDbSession();
+
+            // Referenced entities are all resolved before the first insert, so that nothing is created if a single one is missing. Null
+            // JobDef: the request goes through the standard path.
+            JobDef[] jobDefs = new JobDef[runRequests.size()];
+            Integer[] queueIds = new Integer[runRequests.size()];
+            for (int i = 0; i < runRequests.size(); i++)
+            {
+                JobRequest runRequest = runRequests.get(i);
+                if (runRequest.getScheduleId() != null)
+                {
+                    if (ScheduledJob.select(cnx, "sj_select_by_id", runRequest.getScheduleId()).size() != 1)
+                    {
+                        throw new JqmInvalidRequestException("Invalid job request: no schedule with ID " + runRequest.getScheduleId());
+                    }
+                }
+                else
+                {
+                    try
+                    {
+                        JobDef jobDef = JobDef.select_key_cached(cnx, runRequest.getApplicationName());
+                        if (runRequest.getRecurrence() == null || runRequest.getRecurrence().trim().isEmpty())
+                        {
+                            jobDefs[i] = jobDef;
+                        }
+                        queueIds[i] = jobDef.getQueue();
+                    }
+                    catch (NonUniqueResultException ex)
+                    {
+                        throw new JqmInvalidRequestException("There are multiple Job definition named " + runRequest.getApplicationName());
+                    }
+                    catch (NoResultException ex)
+                    {
+                        throw new JqmInvalidRequestException("no job definition named " + runRequest.getApplicationName());
+                    }
+                }
+                if (runRequest.getQueueName() != null)
+                {
+                    try
+                    {
+                        queueIds[i] = Queue.select_key_cached(cnx, runRequest.getQueueName()).getId();
+                    }
+                    catch (NoResultException ex)
+                    {
+                        throw new JqmInvalidRequestException("no queue named " + runRequest.getQueueName());
+                    }
+                }
+            }
+
+            for (int chunkStart = 0; chunkStart < runRequests.size(); chunkStart += BULK_ENQUEUE_CHUNK_SIZE)
+            {
+                List<Object[]> runtimePrms = new ArrayList<Object[]>();
+                List<Integer> submittedQueues = new ArrayList<Integer>();
+
+                for (int i = chunkStart; i < Math.min(chunkStart + BULK_ENQUEUE_CHUNK_SIZE, runRequests.size()); i++)
+                {
+                    JobRequest runRequest = runRequests.get(i);
+                    JobDef jobDef = jobDefs[i];
+
+                    // Schedules, recurrences and highlander job definitions need their own transactions: use the standard path.
+                    if (jobDef == null || jobDef.isHighlander())
+                    {
+                        committed = bulkCommit(cnx, runtimePrms, submittedQueues, res.size());
+                        res.add(enqueue(runRequest));
+                        committed++;
+                        continue;
+                    }
+
+                    // Parameters are both from the JobDef and the execution request.
+                    Map<String, String> prms = new HashMap<String, String>(JobDefParameter.select_map_cached(cnx, jobDef.getId()));
+                    prms.putAll(runRequest.getParameters());
+
+                    // On which queue? (already resolved)
+                    Integer queue_id = queueIds[i];
+
+                    // Priority can come from JD, request. (in order of ascending priority)
+                    Integer priority = jobDef.getPriority();
+                    if (runRequest.getPriority() != null)
+                    {
+                        priority = runRequest.getPriority();
+                    }
+
+                    // Decide what the starting state should be.
+                    State startingState = State.SUBMITTED; // The default.
+                    if (runRequest.getRunAfter() != null)
+                    {
+                        startingState = State.SCHEDULED;
+                    }
+                    else if (runRequest.getStartState() != null)
+                    {
+                        startingState = State.valueOf(runRequest.getStartState().toString());
+                    }
+
+                    // Create the JI. Its parameters are inserted in a single batch at the end of the chunk.
+                    int id = JobInstance.enqueue(cnx, startingState, queue_id, jobDef.getId(), runRequest.getApplication(),
+                            runRequest.getParentID(), runRequest.getModule(), runRequest.getKeyword1(), runRequest.getKeyword2(),
+                            runRequest.getKeyword3(), runRequest.getSessionID(), runRequest.getUser(), runRequest.getEmail(), false,
+                            runRequest.getRunAfter() != null, runRequest.getRunAfter(), priority, Instruction.RUN, null);
+                    for (Map.Entry<String, String> prm : prms.entrySet())
+                    {
+                        runtimePrms.add(new Object[] { id, prm.getKey(), prm.getValue() });
+                    }
+                    if (startingState == State.SUBMITTED && !submittedQueues.contains(queue_id))
+                    {
+                        submittedQueues.add(queue_id);
+                    }
+                    res.add(id);
+                }
+
+                committed = bulkCommit(cnx, runtimePrms, submittedQueues, res.size());
+            }
+            return res;
+        }
+        catch (JqmInvalidRequestException e)
+        {
+            throw e;
+        }
+        catch (NoResultException e)
+        {
+            throw new JqmInvalidRequestException("An entity specified in the execution request does not exist", e);
+        }
+        catch (JqmClientException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException("Could not create new JobInstances (" + committed + " were created)", e);
+        }
+        finally
+        {
+            closeQuietly(cnx);
+        }
+    }
+
+    /**
+     * Bulk enqueue helper: inserts the pending runtime parameters, commits, and wakes up the local pollers of the given queues. The lists
+     * are emptied.
+     *
+     * @return the number of JI now committed.
+     */
+    private int bulkCommit(DbConn cnx, List<Object[]> runtimePrms, List<Integer> submittedQueues, int nbCreated)
+    {
+        cnx.runBatchUpdate("jiprm_insert", runtimePrms);
+        cnx.commit();
+        jqmlogger.trace("Bulk enqueue: " + nbCreated + " JI created so far");
+
+        // Local engines (if any) can poll right now instead of waiting for their next loop.
+        for (Integer queue_id : submittedQueues)
+        {
+            db.signalEnqueue(queue_id);
+        }
+        runtimePrms.clear();
+        submittedQueues.clear();
+        return nbCreated;
+    }
+
     @Override
     public int enqueueFromHistory(int jobIdToCopy)
     {
@@ -1164,6 +1367,167 @@ final class JdbcClient implements JqmClient
         return res;
     }
 
+    // Keyset pagination helpers. The sort columns must be non nullable, and the ID is always the last one so that the key is unique.
+    private List<SortSpec> getKeysetSorts(Query query)
+    {
+        List<SortSpec> res = new ArrayList<SortSpec>();
+        for (SortSpec s : query.getSorts())
+        {
+            if (s.col != Sort.ID && s.col != Sort.APPLICATIONNAME && s.col != Sort.QUEUENAME && s.col != Sort.STATUS
+                    && s.col != Sort.DATEENQUEUE)
+            {
+                throw new JqmInvalidRequestException("keyset pagination cannot be used with a sort on " + s.col);
+            }
+            res.add(s);
+            if (s.col == Sort.ID)
+            {
+                return res;
+            }
+        }
+        res.add(new SortSpec(Query.SortOrder.ASCENDING, Sort.ID));
+        return res;
+    }
+
+    private String getKeysetField(Sort col, boolean live)
+    {
+        switch (col)
+        {
+        case ID:
+            return live ? "ji.ID" : "ID";
+        case APPLICATIONNAME:
+            return live ? "jd.JD_KEY" : "JD_KEY";
+        case QUEUENAME:
+            return live ? "q.NAME" : "QUEUE_NAME";
+        case STATUS:
+            return live ? "ji.STATUS" : "STATUS";
+        default:
+            return live ? "ji.DATE_ENQUEUE" : "DATE_ENQUEUE";
+        }
+    }
+
+    // Rows strictly after the given key: (c1 > v1) OR (c1 = v1 AND c2 > v2) OR ... (with < for descending sorts).
+    private String getSeekPredicate(List<SortSpec> sorts, Object[] lastKey, boolean live, List<Object> prms)
+    {
+        if (lastKey == null)
+        {
+            return "";
+        }
+
+        String res = "";
+        for (int i = 0; i < sorts.size(); i++)
+        {
+            String term = "";
+            for (int j = 0; j < i; j++)
+            {
+                term += getKeysetField(sorts.get(j).col, live) + " = ? AND ";
+                prms.add(lastKey[j]);
+            }
+            term += getKeysetField(sorts.get(i).col, live) + (sorts.get(i).order == Query.SortOrder.ASCENDING ? " > ?" : " < ?");
+            prms.add(lastKey[i]);
+            res += "(" + term + ") OR ";
+        }
+        return "AND (" + res.substring(0, res.length() - 4) + ") ";
+    }
+
+    // Column indices are those of the getJobs select clause. Raw timestamps are kept, as the database precision may exceed milliseconds.
+    private Object[] getKeysetValues(List<SortSpec> sorts, ResultSet rs) throws SQLException
+    {
+        Object[] res = new Object[sorts.size()];
+        for (int i = 0; i < sorts.size(); i++)
+        {
+            switch (sorts.get(i).col)
+            {
+            case ID:
+                res[i] = rs.getInt(1);
+                break;
+            case APPLICATIONNAME:
+                res[i] = rs.getString(3);
+                break;
+            case QUEUENAME:
+                res[i] = rs.getString(22);
+                break;
+            case STATUS:
+                res[i] = rs.getString(25);
+                break;
+            default:
+                res[i] = rs.getTimestamp(7);
+            }
+        }
+        return res;
+    }
+
+    private String encodeContinuationToken(List<SortSpec> sorts, Object[] key) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(sorts.size());
+        for (int i = 0; i < sorts.size(); i++)
+        {
+            SortSpec s = sorts.get(i);
+            out.writeUTF(s.col.name());
+            out.writeBoolean(s.order == Query.SortOrder.ASCENDING);
+            if (s.col == Sort.ID)
+            {
+                out.writeInt((Integer) key[i]);
+            }
+            else if (s.col == Sort.DATEENQUEUE)
+            {
+                out.writeLong(((Timestamp) key[i]).getTime());
+                out.writeInt(((Timestamp) key[i]).getNanos());
+            }
+            else
+            {
+                out.writeUTF((String) key[i]);
+            }
+        }
+        out.flush();
+        return DatatypeConverter.printBase64Binary(bytes.toByteArray());
+    }
+
+    private Object[] decodeContinuationToken(List<SortSpec> sorts, String token)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(DatatypeConverter.parseBase64Binary(token)));
+            if (in.readInt() != sorts.size())
+            {
+                throw new JqmInvalidRequestException("continuation token was not created by a query with the same sorts");
+            }
+            Object[] res = new Object[sorts.size()];
+            for (int i = 0; i < sorts.size(); i++)
+            {
+                SortSpec s = sorts.get(i);
+                if (!s.col.name().equals(in.readUTF()) || (s.order == Query.SortOrder.ASCENDING) != in.readBoolean())
+                {
+                    throw new JqmInvalidRequestException("continuation token was not created by a query with the same sorts");
+                }
+                if (s.col == Sort.ID)
+                {
+                    res[i] = in.readInt();
+                }
+                else if (s.col == Sort.DATEENQUEUE)
+                {
+                    Timestamp ts = new Timestamp(in.readLong());
+                    ts.setNanos(in.readInt());
+                    res[i] = ts;
+                }
+                else
+                {
+                    res[i] = in.readUTF();
+                }
+            }
+            return res;
+        }
+        catch (IOException e)
+        {
+            throw new JqmInvalidRequestException("invalid continuation token", e);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new JqmInvalidRequestException("invalid continuation token", e);
+        }
+    }
+
     @Override
     public List<com.enioka.jqm.api.JobInstance> getJobs(Query query)
     {
@@ -1180,6 +1544,15 @@ final class JdbcClient implements JqmClient
             throw new JqmInvalidRequestException(
                     "cannot query nothing - either query live instances, historical instances or both, but not nothing");
         }
+        if (query.isKeysetPagination() && query.getFirstRow() != null)
+        {
+            throw new JqmInvalidRequestException("cannot use a first row with keyset pagination");
+        }
+
+        // Keyset pagination: the page starts right after the key given by the continuation token, instead of skipping rows.
+        List<SortSpec> keysetSorts = query.isKeysetPagination() ? getKeysetSorts(query) : null;
+        Object[] lastKey = query.isKeysetPagination() && query.getContinuationToken() != null
+                ? decodeContinuationToken(keysetSorts, query.getContinuationToken()) : null;
 
         DbConn cnx = null;
         try
@@ -1187,8 +1560,9 @@ final class JdbcClient implements JqmClient
             cnx = getDbSession();
             Map<Integer, com.enioka.jqm.api.JobInstance> res = new LinkedHashMap<Integer, com.enioka.jqm.api.JobInstance>();
 
-            String wh = "";
-            List<Object> prms = new ArrayList<Object>();
+            String wh = "", whSeek = "";
+            List<Object> prms = new ArrayList<Object>(); // Filter parameters only (used by the count query)
+            List<Object> queryPrms = new ArrayList<Object>(); // Filter and seek parameters
 
             String q = "", q1 = "", q2 = "";
             String filterCountQuery = "SELECT ";
@@ -1235,10 +1609,15 @@ final class JdbcClient implements JqmClient
                         + "ji.SESSION_KEY AS SESSION_KEY, ji.STATUS, ji.USERNAME, ji.JOBDEF, ji.NODE, ji.QUEUE, ji.INTERNAL_POSITION AS POSITION, ji.FROM_SCHEDULE, ji.PRIORITY "
                         + "FROM __T__JOB_INSTANCE ji LEFT JOIN __T__QUEUE q ON ji.QUEUE=q.ID LEFT JOIN __T__JOB_DEFINITION jd ON ji.JOBDEF=jd.ID LEFT JOIN __T__NODE n ON ji.NODE=n.ID ";
 
+                queryPrms.addAll(prms);
+                whSeek = wh + getSeekPredicate(keysetSorts, lastKey, true, queryPrms);
+                if (whSeek.length() > 3)
+                {
+                    q1 += "WHERE " + whSeek.substring(3, whSeek.length() - 1);
+                }
                 if (wh.length() > 3)
                 {
                     wh = wh.substring(3, wh.length() - 1);
-                    q1 += "WHERE " + wh;
                     filterCountQuery += String.format(" (SELECT COUNT(1) FROM __T__JOB_INSTANCE ji WHERE %s) ,", wh);
                 }
                 else
@@ -1252,6 +1631,7 @@ final class JdbcClient implements JqmClient
             if (query.isQueryHistoryInstances())
             {
                 wh = "";
+                int firstHistoryPrm = prms.size();
 
                 wh += getIntPredicate("ID", query.getJobInstanceId(), prms);
                 wh += getIntPredicate("PARENT", query.getParentId(), prms);
@@ -1289,10 +1669,15 @@ final class JdbcClient implements JqmClient
                         + "JD_KEYWORD1, JD_KEYWORD2, JD_KEYWORD3, " + "JD_MODULE, NODE_NAME, PARENT, PROGRESS, QUEUE_NAME, "
                         + "RETURN_CODE, SESSION_KEY, STATUS, USERNAME, JOBDEF, NODE, QUEUE, 0 as POSITION, FROM_SCHEDULE, PRIORITY AS PRIORITY FROM __T__HISTORY ";
 
+                queryPrms.addAll(prms.subList(firstHistoryPrm, prms.size()));
+                whSeek = wh + getSeekPredicate(keysetSorts, lastKey, false, queryPrms);
+                if (whSeek.length() > 3)
+                {
+                    q2 += "WHERE " + whSeek.substring(3, whSeek.length() - 1);
+                }
                 if (wh.length() > 3)
                 {
                     wh = wh.substring(3, wh.length() - 1);
-                    q2 += "WHERE " + wh;
                     filterCountQuery += String.format(" (SELECT COUNT(1) FROM __T__HISTORY WHERE %s) ,", wh);
                 }
                 else
@@ -1319,7 +1704,7 @@ final class JdbcClient implements JqmClient
             ///////////////////////////////////////////////
             // Sort (on the union, not the sub queries)
             String sort = "";
-            for (SortSpec s : query.getSorts())
+            for (SortSpec s : keysetSorts != null ? keysetSorts : query.getSorts())
             {
                 if (query.isQueryLiveInstances() && !query.isQueryHistoryInstances() && s.col == Sort.DATEEND)
                 {
@@ -1341,8 +1726,13 @@ final class JdbcClient implements JqmClient
 
             ///////////////////////////////////////////////
             // Set pagination parameters
-            List<Object> paginatedParameters = new ArrayList<Object>(prms);
-            if (query.getFirstRow() != null || query.getPageSize() != null)
+            // With keyset pagination, one more row is fetched to know if there is a next page.
+            List<Object> paginatedParameters = new ArrayList<Object>(queryPrms);
+            if (keysetSorts != null && query.getPageSize() != null)
+            {
+                q = cnx.paginateQuery(q, 0, query.getPageSize() + 1, paginatedParameters);
+            }
+            else if (query.getFirstRow() != null || query.getPageSize() != null)
             {
                 int start = query.getFirstRow() != null ? query.getFirstRow() : 0;
                 int end = query.getPageSize() != null ? start + query.getPageSize() : Integer.MAX_VALUE;
@@ -1351,18 +1741,38 @@ final class JdbcClient implements JqmClient
 
             ///////////////////////////////////////////////
             // Run the query
+            Object[] pageLastKey = null;
+            boolean hasNextPage = false;
             ResultSet rs = cnx.runRawSelect(q, paginatedParameters.toArray());
             while (rs.next())
             {
+                if (keysetSorts != null && query.getPageSize() != null && res.size() >= query.getPageSize())
+                {
+                    hasNextPage = true;
+                    break;
+                }
                 com.enioka.jqm.api.JobInstance tmp = getJob(rs);
                 res.put(tmp.getId(), tmp);
+                if (keysetSorts != null)
+                {
+                    pageLastKey = getKeysetValues(keysetSorts, rs);
+                }
             }
             rs.close();
             jqmlogger.debug("Free query has returned row count " + res.size());
+            if (keysetSorts != null)
+            {
+                query.setContinuationToken(hasNextPage ? encodeContinuationToken(keysetSorts, pageLastKey) : null);
+            }
 
             // If needed, fetch the total result count (without pagination). Note that without pagination, the Query object does not
             // need this indication.
-            if (query.getFirstRow() != null || (query.getPageSize() != null && res.size() >= query.getPageSize()))
+            if (query.isSkipCount())
+            {
+                query.setResultSize(null);
+            }
+            else if (query.getFirstRow() != null || lastKey != null || hasNextPage
+                    || (query.getPageSize() != null && res.size() >= query.getPageSize()))
             {
                 ResultSet rs2 = cnx.runRawSelect(filterCountQuery.substring(0, filterCountQuery.length() - 2) + " AS D FROM (VALUES(0))",
                         prms.toArray());
@@ -1614,13 +2024,22 @@ final class JdbcClient implements JqmClient
         try
         {
             cnx = getDbSession();
-            for (Deliverable del : Deliverable.select(cnx, "deliverable_select_all_for_ji", idJob))
+            List<Deliverable> deliverables = Deliverable.select(cnx, "deliverable_select_all_for_ji", idJob);
+            closeQuietly(cnx);
+            cnx = null;
+
+            // Each file is downloaded before the next one is requested: streams kept open would each hold a pooled connection.
+            for (Deliverable del : deliverables)
             {
-                streams.add(getDeliverableContent(del));
+                streams.add(download(getDeliverableContent(del)));
             }
         }
         catch (Exception e)
         {
+            for (InputStream is : streams)
+            {
+                closeQuietly(is);
+            }
             throw new JqmClientException("could not retrieve file streams", e);
         }
         finally
@@ -1725,6 +2144,60 @@ final class JdbcClient implements JqmClient
         return getFile(url.toString());
     }
 
+    /**
+     * Copies a remote file into a local temporary file (deleted when the returned stream is closed), releasing the connection at once.
+     */
+    private InputStream download(InputStream remote)
+    {
+        final File file;
+        FileOutputStream fos = null;
+        try
+        {
+            file = File.createTempFile("jqm-deliverable-", null);
+        }
+        catch (IOException e)
+        {
+            closeQuietly(remote);
+            throw new JqmClientException("could not create a temporary file", e);
+        }
+
+        try
+        {
+            fos = new FileOutputStream(file);
+            byte[] buffer = new byte[65536];
+            int n;
+            while ((n = remote.read(buffer)) >= 0)
+            {
+                fos.write(buffer, 0, n);
+            }
+            fos.close();
+
+            RemoteFileStream res = new RemoteFileStream(new FileInputStream(file), new Closeable()
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    if (!file.delete())
+                    {
+                        jqmlogger.warn("Could not delete temporary file " + file.getAbsolutePath());
+                    }
+                }
+            });
+            res.nameHint = ((RemoteFileStream) remote).nameHint;
+            return res;
+        }
+        catch (IOException e)
+        {
+            closeQuietly(fos);
+            file.delete();
+            throw new JqmClientException("could not download the file", e);
+        }
+        finally
+        {
+            closeQuietly(remote);
+        }
+    }
+
     private String getFileProtocol(DbConn cnx)
     {
         if (protocol == null)
@@ -1746,33 +2219,23 @@ final class JdbcClient implements JqmClient
         return protocol;
     }
 
-    private InputStream getFile(String url)
+    /**
+     * The HTTP client used for file retrieval. It is created on first use and kept for the life of this JQM client, so that connections
+     * (and TLS sessions) are pooled and kept alive between calls and the trust store is only read once.
+     */
+    private CloseableHttpClient getHttpClient(DbConn cnx)
     {
-        DbConn cnx = getDbSession();
-        File file = null;
-        FileOutputStream fos = null;
-        CloseableHttpClient cl = null;
-        CloseableHttpResponse rs = null;
-        String nameHint = null;
-
-        File destDir = new File(System.getProperty("java.io.tmpdir"));
-        if (!destDir.isDirectory() && !destDir.mkdir())
+        if (httpClient != null)
         {
-            throw new JqmClientException("could not create temp directory " + destDir.getAbsolutePath());
+            return httpClient;
         }
-        jqmlogger.trace("File will be copied into " + destDir);
-
-        try
+        synchronized (this)
         {
-            file = new File(destDir + "/" + UUID.randomUUID().toString());
-
-            CredentialsProvider credsProvider = null;
-            if (SimpleApiSecurity.getId(cnx).usr != null)
+            if (httpClient != null)
             {
-                credsProvider = new BasicCredentialsProvider();
-                credsProvider.setCredentials(AuthScope.ANY,
-                        new UsernamePasswordCredentials(SimpleApiSecurity.getId(cnx).usr, SimpleApiSecurity.getId(cnx).pass));
+                return httpClient;
             }
+
             SSLContext ctx = null;
             if (getFileProtocol(cnx).equals("https://"))
             {
@@ -1836,11 +2299,43 @@ final class JdbcClient implements JqmClient
                     jqmlogger.error("An supposedly impossible error has happened. Downloading files through the API may not work.", e);
                 }
             }
-            cl = HttpClients.custom().setDefaultCredentialsProvider(credsProvider).setSslcontext(ctx).build();
 
-            // Run HTTP request
+            // A caller keeping too many streams open must get an error, not wait forever for a connection.
+            RequestConfig rc = RequestConfig.custom().setConnectionRequestTimeout(HTTP_CONNECTION_REQUEST_TIMEOUT_MS).build();
+            httpClient = HttpClients.custom().setSslcontext(ctx).setMaxConnTotal(HTTP_MAX_CONNECTIONS)
+                    .setMaxConnPerRoute(HTTP_MAX_CONNECTIONS).setDefaultRequestConfig(rc).build();
+            return httpClient;
+        }
+    }
+
+    private InputStream getFile(String url)
+    {
+        DbConn cnx = getDbSession();
+        CloseableHttpResponse rs = null;
+        String nameHint = null;
+        RemoteFileStream res = null;
+
+        try
+        {
             HttpUriRequest rq = new HttpGet(url.toString());
-            rs = cl.execute(rq);
+
+            // Credentials may change (they expire), so they are given on each request. They are sent pre-emptively (Basic
+            // authentication is always used by the nodes), which avoids a 401 round trip on each call.
+            HttpClientContext context = HttpClientContext.create();
+            if (SimpleApiSecurity.getId(cnx).usr != null)
+            {
+                CredentialsProvider credsProvider = new BasicCredentialsProvider();
+                credsProvider.setCredentials(AuthScope.ANY,
+                        new UsernamePasswordCredentials(SimpleApiSecurity.getId(cnx).usr, SimpleApiSecurity.getId(cnx).pass));
+                context.setCredentialsProvider(credsProvider);
+
+                AuthCache authCache = new BasicAuthCache();
+                authCache.put(URIUtils.extractHost(rq.getURI()), new BasicScheme());
+                context.setAuthCache(authCache);
+            }
+
+            // Run HTTP request
+            rs = getHttpClient(cnx).execute(rq, context);
             if (rs.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
             {
                 throw new JqmClientException(
@@ -1859,34 +2354,28 @@ final class JdbcClient implements JqmClient
                 }
             }
 
-            // Save the file to a temp local file
-            fos = new FileOutputStream(file);
-            rs.getEntity().writeTo(fos);
-            jqmlogger.trace("File was downloaded to " + file.getAbsolutePath());
+            // The file is streamed directly from the node (compressed files are decompressed on the fly by the HTTP client). The
+            // connection goes back to the pool when the caller closes the stream.
+            res = new RemoteFileStream(rs.getEntity().getContent(), rs);
+            res.nameHint = nameHint;
+            return res;
+        }
+        catch (ConnectionPoolTimeoutException e)
+        {
+            throw new JqmClientException("Could not retrieve the file: all HTTP connections are in use. Streams must be closed after use.", e);
         }
         catch (IOException e)
         {
-            throw new JqmClientException("Could not create a webserver-local copy of the file. The remote node may be down. " + url, e);
+            throw new JqmClientException("Could not retrieve the file. The remote node may be down. " + url, e);
         }
         finally
         {
             closeQuietly(cnx);
-            closeQuietly(fos);
-            closeQuietly(rs);
-            closeQuietly(cl);
-        }
-
-        SelfDestructFileStream res = null;
-        try
-        {
-            res = new SelfDestructFileStream(file);
-        }
-        catch (IOException e)
-        {
-            throw new JqmClientException("File seems not to be present where it should have been downloaded", e);
+            if (res == null)
+            {
+                closeQuietly(rs);
+            }
         }
-        res.nameHint = nameHint;
-        return res;
     }
 
     @Override
@@ -1895,6 +2384,12 @@ final class JdbcClient implements JqmClient
         return getJobLog(jobId, ".stdout", "stdout");
     }
 
+    @Override
+    public long getDeliverableContent(int delId, WritableByteChannel target)
+    {
+        return RemoteFileStream.transferTo(getDeliverableContent(delId), target);
+    }
+
     @Override
     public InputStream getJobLogStdErr(int jobId)
     {
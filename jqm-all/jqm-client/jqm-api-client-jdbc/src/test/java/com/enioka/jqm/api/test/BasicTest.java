@@ -15,23 +15,45 @@
  */
 package com.enioka.jqm.api.test;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
 
 import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
 import org.junit.Test;
 
+import com.enioka.jqm.api.JobInstance;
 import com.enioka.jqm.api.JqmClientFactory;
+import com.enioka.jqm.api.JqmInvalidRequestException;
 import com.enioka.jqm.api.Query;
 import com.enioka.jqm.api.Query.Sort;
 import com.enioka.jqm.api.State;
+import com.enioka.jqm.jdbc.Db;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.History;
+import com.enioka.jqm.model.Instruction;
+import com.enioka.jqm.model.JobDef;
+import com.enioka.jqm.model.JobDef.PathType;
+import com.enioka.jqm.model.Queue;
 
 /**
- * Simple tests for checking query syntax (no data)
+ * Simple tests for checking query syntax (no data), and pagination tests (with data).
  */
 public class BasicTest
 {
     private static Logger jqmlogger = Logger.getLogger(BasicTest.class);
 
+    private static final String KEYSET_USER = "keyset";
+    private static final int KEYSET_ROWS = 23;
+
+    private static Db db = null;
+    private int keysetApp1Rows = 0;
+
     @Test
     public void testChain()
     {
@@ -176,4 +198,189 @@ public class BasicTest
         Query.create().setJobInstanceId(1234).setQueryLiveInstances(true).setQueryHistoryInstances(false).setPageSize(15).setFirstRow(0)
                 .run();
     }
+
+    private static synchronized Db getDb()
+    {
+        if (db == null)
+        {
+            // Same database as the client.
+            Properties p = new Properties();
+            p.setProperty("com.enioka.jqm.jdbc.url", "jdbc:hsqldb:mem:testdb");
+            db = new Db(p);
+        }
+        return db;
+    }
+
+    /**
+     * Creates job instances of two job definitions (so sort keys are equal across page boundaries), a third of them inside the history.
+     * 
+     * @return the IDs of the created instances, sorted by application name then ID.
+     */
+    private List<Integer> createKeysetData()
+    {
+        DbConn cnx = getDb().getConn();
+        try
+        {
+            int qId = Queue.create(cnx, "KeysetQueue", "keyset test queue", false);
+            int jd1 = JobDef.create(cnx, "keyset 1", "Main", null, "none.jar", qId, null, "KeysetApp1", null, null, null, null, null, false,
+                    null, PathType.FS);
+            int jd2 = JobDef.create(cnx, "keyset 2", "Main", null, "none.jar", qId, null, "KeysetApp2", null, null, null, null, null, false,
+                    null, PathType.FS);
+
+            List<Integer> app1 = new ArrayList<Integer>(), app2 = new ArrayList<Integer>();
+            for (int i = 0; i < KEYSET_ROWS; i++)
+            {
+                // Interleaved IDs.
+                int jd = i % 3 == 1 ? jd2 : jd1;
+                int id = com.enioka.jqm.model.JobInstance.enqueue(cnx, com.enioka.jqm.model.State.SUBMITTED, qId, jd, null, null, null, null,
+                        null, null, null, KEYSET_USER, null, false, false, null, 0, Instruction.RUN, null);
+                if (i % 3 == 2)
+                {
+                    History.create(cnx, id, com.enioka.jqm.model.State.ENDED, null);
+                    cnx.runUpdate("ji_delete_by_id", id);
+                }
+                (jd == jd1 ? app1 : app2).add(id);
+            }
+            cnx.commit();
+
+            keysetApp1Rows = app1.size();
+            app1.addAll(app2);
+            return app1;
+        }
+        finally
+        {
+            cnx.close();
+        }
+    }
+
+    @After
+    public void cleanKeysetData()
+    {
+        DbConn cnx = getDb().getConn();
+        try
+        {
+            cnx.runUpdate("ji_delete_all");
+            cnx.runUpdate("history_delete_all");
+            cnx.runUpdate("jd_delete_all");
+            cnx.runUpdate("q_delete_all");
+            cnx.commit();
+        }
+        finally
+        {
+            cnx.close();
+        }
+    }
+
+    private static List<Integer> ids(List<JobInstance> jis)
+    {
+        List<Integer> res = new ArrayList<Integer>();
+        for (JobInstance ji : jis)
+        {
+            res.add(ji.getId());
+        }
+        return res;
+    }
+
+    @Test
+    public void testKeysetPagination()
+    {
+        List<Integer> expected = createKeysetData();
+
+        Query q = Query.create().setQueryLiveInstances(true).setUser(KEYSET_USER).setPageSize(5).addSortAsc(Sort.APPLICATIONNAME)
+                .setKeysetPagination(true).setSkipCount(true);
+        List<Integer> all = new ArrayList<Integer>();
+        int pages = 0;
+        do
+        {
+            String token = q.getContinuationToken();
+            List<JobInstance> page = q.run();
+            pages++;
+            all.addAll(ids(page));
+
+            // Full pages, except the last one.
+            if (q.getContinuationToken() != null)
+            {
+                Assert.assertEquals(5, page.size());
+                Assert.assertFalse(q.getContinuationToken().equals(token));
+            }
+            else
+            {
+                Assert.assertEquals(KEYSET_ROWS - 5 * (pages - 1), page.size());
+            }
+        } while (q.getContinuationToken() != null);
+
+        // No gaps, no duplicates, right order - the page boundaries fall inside the groups of equal application names.
+        Assert.assertEquals((KEYSET_ROWS + 4) / 5, pages);
+        Assert.assertEquals(expected, all);
+        Assert.assertEquals(KEYSET_ROWS, new HashSet<Integer>(all).size());
+    }
+
+    @Test
+    public void testKeysetPaginationDescending()
+    {
+        List<Integer> asc = createKeysetData();
+        List<Integer> expected = new ArrayList<Integer>(asc.subList(keysetApp1Rows, KEYSET_ROWS));
+        expected.addAll(asc.subList(0, keysetApp1Rows));
+
+        Query q = Query.create().setQueryLiveInstances(true).setUser(KEYSET_USER).setPageSize(4).addSortDesc(Sort.APPLICATIONNAME)
+                .setKeysetPagination(true);
+        List<Integer> all = new ArrayList<Integer>();
+        do
+        {
+            all.addAll(ids(q.run()));
+        } while (q.getContinuationToken() != null);
+
+        Assert.assertEquals(expected, all);
+    }
+
+    @Test
+    public void testKeysetContinuationToken()
+    {
+        List<Integer> expected = createKeysetData();
+
+        Query q1 = Query.create().setQueryLiveInstances(true).setUser(KEYSET_USER).setPageSize(7).addSortAsc(Sort.APPLICATIONNAME)
+                .setKeysetPagination(true);
+        Assert.assertEquals(expected.subList(0, 7), ids(q1.run()));
+        String token = q1.getContinuationToken();
+        Assert.assertNotNull(token);
+
+        // The token can be used by another query with the same filters and sorts.
+        Query q2 = Query.create().setQueryLiveInstances(true).setUser(KEYSET_USER).setPageSize(7).addSortAsc(Sort.APPLICATIONNAME)
+                .setContinuationToken(token);
+        Assert.assertEquals(expected.subList(7, 14), ids(q2.run()));
+        Assert.assertEquals(expected.subList(7, 14), ids(q1.run()));
+        Assert.assertEquals(q1.getContinuationToken(), q2.getContinuationToken());
+    }
+
+    @Test
+    public void testKeysetPaginationNoData()
+    {
+        Query q = Query.create().setQueryLiveInstances(true).setUser("test").setPageSize(10).addSortAsc(Sort.APPLICATIONNAME)
+                .addSortDesc(Sort.DATEENQUEUE).setKeysetPagination(true).setSkipCount(true);
+        Assert.assertEquals(0, q.run().size());
+        Assert.assertNull(q.getContinuationToken());
+    }
+
+    @Test(expected = JqmInvalidRequestException.class)
+    public void testKeysetPaginationInvalidSort()
+    {
+        Query.create().addSortAsc(Sort.DATEEND).setKeysetPagination(true).run();
+    }
+
+    @Test
+    public void testIterate()
+    {
+        List<Integer> expected = createKeysetData();
+
+        Iterator<JobInstance> it = Query.create().setQueryLiveInstances(true).setUser(KEYSET_USER).addSortAsc(Sort.APPLICATIONNAME)
+                .setPageSize(2).iterate();
+        List<Integer> all = new ArrayList<Integer>();
+        while (it.hasNext())
+        {
+            all.add(it.next().getId());
+        }
+        Assert.assertFalse(it.hasNext());
+
+        Assert.assertEquals(expected, all);
+    }
 }
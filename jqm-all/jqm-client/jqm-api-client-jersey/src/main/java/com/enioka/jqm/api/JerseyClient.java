@@ -22,6 +22,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.util.ArrayList;
@@ -35,6 +36,7 @@ import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 
@@ -265,6 +267,34 @@ final class JerseyClient implements JqmClient
         }
     }
 
+    @Override
+    public List<Integer> enqueue(List<JobRequest> jds)
+    {
+        try
+        {
+            List<JobInstance> jis = target.path("ji/bulk").request()
+                    .post(Entity.entity(new GenericEntity<List<JobRequest>>(jds)
+                    {
+                    }, MediaType.APPLICATION_XML), new GenericType<List<JobInstance>>()
+                    {
+                    });
+            List<Integer> res = new ArrayList<Integer>(jis.size());
+            for (JobInstance ji : jis)
+            {
+                res.add(ji.getId());
+            }
+            return res;
+        }
+        catch (BadRequestException e)
+        {
+            throw new JqmInvalidRequestException(e.getResponse().readEntity(String.class), e);
+        }
+        catch (Exception e)
+        {
+            throw new JqmClientException(e);
+        }
+    }
+
     @Override
     public int enqueue(String applicationName, String userName)
     {
@@ -669,6 +699,7 @@ final class JerseyClient implements JqmClient
             Query res = target.path("ji/query").request().post(Entity.entity(query, MediaType.APPLICATION_XML), Query.class);
             query.setResultSize(res.getResultSize());
             query.setResults(res.getResults());
+            query.setContinuationToken(res.getContinuationToken());
             return query.getResults();
         }
         catch (BadRequestException e)
@@ -787,6 +818,12 @@ final class JerseyClient implements JqmClient
         }
     }
 
+    @Override
+    public long getDeliverableContent(int delId, WritableByteChannel target)
+    {
+        return RemoteFileStream.transferTo(getDeliverableContent(delId), target);
+    }
+
     @Override
     public InputStream getJobLogStdErr(int jobId)
     {
@@ -10,6 +10,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.NamingException;
 import javax.naming.spi.NamingManager;
@@ -23,6 +25,7 @@ import com.enioka.jqm.model.Cl;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobDef;
 import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.State;
 
 /**
  * This class holds all the {@link JarClassLoader} and is the only place to create one. There should be one instance per engine.<br>
@@ -54,11 +57,27 @@ class ClassloaderManager
      */
     private Map<Integer, JarClassLoader> persistentClassLoaders = new HashMap<Integer, JarClassLoader>();
 
+    /**
+     * The CL pools of the non persistent {@link Cl}s with a pool size. Key is Cl object ID + job definition ID. Pools are replaced when
+     * their Cl options or files change.
+     */
+    private ConcurrentMap<String, ClassloaderPool> pools = new ConcurrentHashMap<String, ClassloaderPool>();
+
     /**
      * The different runners which may be involved inside the class loaders. Simple class names.
      */
     private List<String> runnerClasses = new ArrayList<String>();
 
+    /**
+     * The runner instances, created on first use. Key is the runner class name.
+     */
+    private ConcurrentMap<String, RunnerInvoker> runners = new ConcurrentHashMap<String, RunnerInvoker>();
+
+    /**
+     * The index of every jar used by the payloads of this engine, shared by all its CLs.
+     */
+    private final JarIndex.Cache jarIndexes = new JarIndex.Cache();
+
     /**
      * The default CL mode. Values can be: null, Shared, SharedJar.
      */
@@ -113,6 +132,12 @@ class ClassloaderManager
                 jqmlogger.info("Using an existing specific isolation context : " + clSharingKey);
                 jobClassLoader = persistentClassLoaders.get(cldef.getId());
             }
+            else if (!cldef.isPersistent() && cldef.getPoolSize() > 0)
+            {
+                // Pooled CLs already have their class path.
+                jqmlogger.debug("Using a pooled specific isolation context: " + clSharingKey);
+                return getPool(cldef, ji, jarFile, parent, cnx).acquire();
+            }
             else
             {
                 jqmlogger.info("Creating a new specific isolation context: " + clSharingKey);
@@ -173,7 +198,7 @@ class ClassloaderManager
         final URL[] classpath = getClasspath(ji, cnx);
 
         // Remember to also add the jar file itself... as CL can be shared, there is no telling if it already present or not.
-        jobClassLoader.extendUrls(jarFile.toURI().toURL(), classpath);
+        jobClassLoader.extendUrls(jarFile.toURI().toURL(), classpath, jarIndexes);
 
         // Some debug display
         jqmlogger.trace("CL URLs:");
@@ -185,6 +210,52 @@ class ClassloaderManager
         return jobClassLoader;
     }
 
+    private ClassloaderPool getPool(Cl cldef, JobInstance ji, File jarFile, ClassLoader parent, DbConn cnx)
+            throws MalformedURLException, JqmPayloadException
+    {
+        String key = cldef.getId() + "/" + ji.getJdId();
+        URL jarUrl = jarFile.toURI().toURL();
+        ClassloaderPool res = pools.get(key);
+        if (res != null && !res.isUpToDate(cldef, jarUrl))
+        {
+            jqmlogger.info("The class loader pool for specific isolation context " + cldef.getName() + " and job definition "
+                    + ji.getJD().getApplicationName() + " is out of date (configuration or files have changed) and will be replaced");
+            if (pools.remove(key, res))
+            {
+                res.retire();
+            }
+            res = null;
+        }
+        if (res == null)
+        {
+            jqmlogger.info("Creating a class loader pool for specific isolation context " + cldef.getName() + " and job definition "
+                    + ji.getJD().getApplicationName());
+            res = new ClassloaderPool(cldef, ji.getJD().getApplicationName(), parent, jarUrl, getClasspath(ji, cnx), jarIndexes);
+            ClassloaderPool existing = pools.putIfAbsent(key, res);
+            if (existing != null)
+            {
+                res = existing;
+            }
+            else
+            {
+                res.fill();
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Called at the end of each launch with its final state. Only has an effect on pooled class loaders, which are given back to their
+     * pool.
+     */
+    void releaseClassloader(JarClassLoader cl, State state)
+    {
+        if (cl.getPool() != null)
+        {
+            cl.getPool().release(cl, state);
+        }
+    }
+
     private ClassLoader getExtensionCLassloader()
     {
         ClassLoader extLoader = null;
@@ -205,6 +276,19 @@ class ClassloaderManager
      * @throws JqmPayloadException
      */
     private URL[] getClasspath(JobInstance ji, DbConn cnx) throws JqmPayloadException
+    {
+        long start = System.nanoTime();
+        try
+        {
+            return resolveClasspath(ji, cnx);
+        }
+        finally
+        {
+            Metrics.LIBRARY_RESOLUTION.get().recordSince(start);
+        }
+    }
+
+    private URL[] resolveClasspath(JobInstance ji, DbConn cnx) throws JqmPayloadException
     {
         switch (ji.getJD().getPathType())
         {
@@ -237,6 +321,51 @@ class ClassloaderManager
         return this.runnerClasses;
     }
 
+    /**
+     * The runner for the given class name. Runners are created only once per engine.
+     */
+    RunnerInvoker getRunner(String runnerClassName) throws JqmEngineException
+    {
+        RunnerInvoker res = runners.get(runnerClassName);
+        if (res == null)
+        {
+            res = new RunnerInvoker(getPluginClassLoader(), runnerClassName);
+            RunnerInvoker existing = runners.putIfAbsent(runnerClassName, res);
+            if (existing != null)
+            {
+                res = existing;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Selects the first runner among the allowed ones able to launch the given payload class. The choice is remembered inside the payload
+     * class loader, so it is only made once per class loader and payload class - and is forgotten with the class loader itself.
+     * 
+     * @return null if no runner can launch the class.
+     */
+    RunnerInvoker getRunner(JarClassLoader cl, Class<?> toRun, List<String> allowedRunners) throws JqmEngineException
+    {
+        String key = toRun.getName() + "/" + allowedRunners;
+        RunnerInvoker res = cl.getResolvedRunner(key);
+        if (res != null)
+        {
+            return res;
+        }
+
+        for (String runnerClassName : allowedRunners)
+        {
+            res = getRunner(runnerClassName);
+            if (res.canRun(toRun))
+            {
+                cl.setResolvedRunner(key, res);
+                return res;
+            }
+        }
+        return null;
+    }
+
     ClassLoader getPluginClassLoader()
     {
         if (hasPlugins && pluginClassLoader == null)
@@ -0,0 +1,303 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enioka.jqm.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.model.Cl;
+import com.enioka.jqm.model.State;
+
+/**
+ * The pooled {@link JarClassLoader}s of a non persistent {@link Cl} for a single job definition (see {@link Cl#getPoolSize()}).<br>
+ * The pool is filled in the background as soon as it is created (see {@link #fill()}), so that launches find class loaders which are
+ * already built and warmed up. A class loader is given to only one job instance at a time. At the end of the launch it goes back to the
+ * pool, unless the launch did not end normally, the pool is already full or the class loader has reached its maximum number of launches -
+ * in that case it is thrown out, and a replacement is created in the background. Class loaders thrown out are cleaned and closed.<br>
+ * The class path is resolved only once, when the pool is created. The pool remembers the {@link Cl} options and the date and size of the
+ * files it was created with: once they have changed, the pool is out of date and must be replaced (see {@link #isUpToDate(Cl, URL)}).
+ */
+class ClassloaderPool
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ClassloaderPool.class);
+
+    private final Cl cldef;
+    private final String jobDefName;
+    private final ClassLoader parent;
+    private final URL jarUrl;
+    private final URL[] libs;
+    private final JarIndex.Cache jarIndexes;
+    private final String stamp;
+    private volatile boolean retired = false;
+    private final AtomicBoolean filling = new AtomicBoolean(false);
+
+    /**
+     * Most recently used first, so that the warmest class loaders are preferred.
+     */
+    private final Deque<JarClassLoader> idle = new ArrayDeque<JarClassLoader>();
+
+    ClassloaderPool(Cl cldef, String jobDefName, ClassLoader parent, URL jarUrl, URL[] libs, JarIndex.Cache jarIndexes)
+    {
+        this.cldef = cldef;
+        this.jobDefName = jobDefName;
+        this.parent = parent;
+        this.jarUrl = jarUrl;
+        this.libs = libs;
+        this.jarIndexes = jarIndexes;
+        this.stamp = stamp(cldef, jarUrl, libs);
+    }
+
+    /**
+     * @return false if the class loader options or the jar or library files have changed since the pool was created.
+     */
+    boolean isUpToDate(Cl current, URL currentJarUrl)
+    {
+        return stamp.equals(stamp(current, currentJarUrl, libs));
+    }
+
+    private static String stamp(Cl cldef, URL jarUrl, URL[] libs)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(cldef.isChildFirst()).append('|').append(cldef.getHiddenClasses()).append('|').append(cldef.isTracingEnabled())
+                .append('|').append(cldef.getPoolSize()).append('|').append(cldef.getPoolMaxUses()).append('|')
+                .append(cldef.getPreloadedClasses());
+
+        List<URL> urls = new ArrayList<URL>();
+        urls.add(jarUrl);
+        if (libs != null)
+        {
+            for (URL url : libs)
+            {
+                urls.add(url);
+            }
+        }
+        for (URL url : urls)
+        {
+            sb.append('|').append(url);
+            File f = JarIndex.toFile(url);
+            if (f != null)
+            {
+                sb.append('@').append(f.lastModified()).append('/').append(f.length());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Stops using this pool: idle class loaders are thrown out at once, the ones in use when they are given back.
+     */
+    void retire()
+    {
+        retired = true;
+        List<JarClassLoader> toDiscard;
+        synchronized (idle)
+        {
+            toDiscard = new ArrayList<JarClassLoader>(idle);
+            idle.clear();
+        }
+        for (JarClassLoader cl : toDiscard)
+        {
+            discard(cl);
+        }
+    }
+
+    /**
+     * Creates idle class loaders in a background thread until the pool is full. Does nothing if already running.
+     */
+    void fill()
+    {
+        if (retired || !filling.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        Thread t = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean ok = false;
+                try
+                {
+                    while (fillOne())
+                    {
+                        // Loop until full.
+                    }
+                    ok = true;
+                }
+                catch (RuntimeException e)
+                {
+                    jqmlogger.warn("Could not create a pooled class loader of context " + cldef.getName() + " for " + jobDefName
+                            + " - it will be created by the next launch", e);
+                }
+                finally
+                {
+                    filling.set(false);
+                }
+
+                // A class loader may have been thrown out after the last check.
+                if (ok && !isFull())
+                {
+                    fill();
+                }
+            }
+        }, "JQM_CL_POOL;" + cldef.getName() + ";" + jobDefName);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return false if the pool was already full.
+     */
+    private boolean fillOne()
+    {
+        if (isFull())
+        {
+            return false;
+        }
+        JarClassLoader cl = create();
+        if (!offer(cl))
+        {
+            discard(cl);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isFull()
+    {
+        synchronized (idle)
+        {
+            return retired || idle.size() >= cldef.getPoolSize();
+        }
+    }
+
+    /**
+     * Number of class loaders ready for a launch.
+     */
+    int getIdleCount()
+    {
+        synchronized (idle)
+        {
+            return idle.size();
+        }
+    }
+
+    /**
+     * A class loader for the exclusive use of the caller, which must give it back with {@link #release(JarClassLoader, State)}.
+     */
+    JarClassLoader acquire()
+    {
+        JarClassLoader res;
+        synchronized (idle)
+        {
+            res = idle.pollFirst();
+        }
+        if (res == null)
+        {
+            jqmlogger.debug("No idle class loader inside the pool of context " + cldef.getName() + " for " + jobDefName);
+            res = create();
+        }
+        res.incrementLaunchCount();
+        return res;
+    }
+
+    /**
+     * Gives back a class loader at the end of a launch.
+     *
+     * @param state
+     *            the final state of the launch. Only class loaders of launches which have ended normally are reused - after a crash or a
+     *            kill, the static state of the payload classes cannot be trusted.
+     */
+    void release(JarClassLoader cl, State state)
+    {
+        boolean worn = cldef.getPoolMaxUses() > 0 && cl.getLaunchCount() >= cldef.getPoolMaxUses();
+        boolean reusable = !worn && state == State.ENDED;
+        if (reusable && offer(cl))
+        {
+            return;
+        }
+
+        discard(cl);
+        if (!reusable && !retired)
+        {
+            jqmlogger.debug("A pooled class loader of context " + cldef.getName() + " for " + jobDefName + " is replaced after "
+                    + cl.getLaunchCount() + " launches (last one " + state + ")");
+            fill();
+        }
+    }
+
+    /**
+     * Nothing will ever run again inside a class loader thrown out of the pool: it is cleaned (it is not cleaned at the end of each launch,
+     * as it is reused) and closed, so that its jar files are released at once.
+     */
+    private void discard(JarClassLoader cl)
+    {
+        ClassLoaderLeakCleaner.clean(cl);
+
+        // URLClassLoader is only Closeable since Java 7.
+        Object o = cl;
+        if (o instanceof Closeable)
+        {
+            try
+            {
+                ((Closeable) o).close();
+            }
+            catch (IOException e)
+            {
+                jqmlogger.warn("Could not close a class loader of context " + cldef.getName() + " for " + jobDefName, e);
+            }
+        }
+    }
+
+    private boolean offer(JarClassLoader cl)
+    {
+        synchronized (idle)
+        {
+            if (!retired && idle.size() < cldef.getPoolSize())
+            {
+                idle.addFirst(cl);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private JarClassLoader create()
+    {
+        JarClassLoader res = new JarClassLoader(parent);
+        res.setReferenceJobDefName(jobDefName);
+        res.mayBeShared(false);
+        res.setHiddenJavaClasses(cldef.getHiddenClasses());
+        res.setTracing(cldef.isTracingEnabled());
+        res.setChildFirstClassLoader(cldef.isChildFirst());
+        res.setPool(this);
+        res.extendUrls(jarUrl, libs, jarIndexes);
+        res.prewarm(cldef.getPreloadedClasses());
+        return res;
+    }
+}
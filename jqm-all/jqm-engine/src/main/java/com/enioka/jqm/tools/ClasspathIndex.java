@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enioka.jqm.tools;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The whole class path of a {@link JarClassLoader}, as a map of package name to the jars (in class path order) containing this package. So
+ * finding a resource only means looking into the few jars containing its package, whatever the number of jars.<br>
+ * Immutable - a new instance is created when jars are added to the class loader.
+ */
+class ClasspathIndex
+{
+    private static final JarIndex[] NONE = new JarIndex[0];
+
+    private final List<JarIndex> jars;
+    private final Map<String, JarIndex[]> byPackage;
+
+    ClasspathIndex(List<JarIndex> jars)
+    {
+        this.jars = new ArrayList<JarIndex>(jars);
+
+        Map<String, List<JarIndex>> tmp = new HashMap<String, List<JarIndex>>();
+        for (JarIndex jar : jars)
+        {
+            for (String pkg : jar.getPackages())
+            {
+                List<JarIndex> l = tmp.get(pkg);
+                if (l == null)
+                {
+                    l = new ArrayList<JarIndex>(1);
+                    tmp.put(pkg, l);
+                }
+                l.add(jar);
+            }
+        }
+
+        this.byPackage = new HashMap<String, JarIndex[]>(tmp.size() * 4 / 3 + 1);
+        for (Map.Entry<String, List<JarIndex>> e : tmp.entrySet())
+        {
+            byPackage.put(e.getKey(), e.getValue().toArray(NONE));
+        }
+    }
+
+    /**
+     * @return true if at least one jar contains the resource (a path with slashes, like for {@link ClassLoader#getResource(String)}).
+     */
+    boolean contains(String resourceName)
+    {
+        JarIndex[] candidates = byPackage.get(JarIndex.getPackage(resourceName));
+        if (candidates == null)
+        {
+            return false;
+        }
+        for (JarIndex jar : candidates)
+        {
+            if (jar.contains(resourceName))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    List<JarIndex> getJars()
+    {
+        return jars;
+    }
+}
@@ -34,10 +34,12 @@ class CronScheduler implements Runnable, TaskCollector
     private boolean run = true;
     private boolean masterScheduler = false;
     private Thread t;
+    private HistoryPurger purger;
 
     public CronScheduler(JqmEngine e)
     {
         this.node = e.getNode();
+        this.purger = new HistoryPurger(this.node);
 
         DbConn cnx = Helpers.getNewDbSession();
         this.schedulerKeepAlive = Integer.parseInt(GlobalParameter.getParameter(cnx, "schedulerKeepAlive", "30000"));
@@ -187,6 +189,20 @@ class CronScheduler implements Runnable, TaskCollector
                 res.add(new SchedulingPattern(sj.getCronExpression()), new JqmTask(sj));
             }
 
+            // History retention
+            if (HistoryPurger.isEnabled(cnx))
+            {
+                String pattern = GlobalParameter.getParameter(cnx, "historyPurgeCron", "0 * * * *");
+                if (SchedulingPattern.validate(pattern))
+                {
+                    res.add(new SchedulingPattern(pattern), new PurgeTask());
+                }
+                else
+                {
+                    jqmlogger.warn("Invalid historyPurgeCron parameter [" + pattern + "] - history is not purged");
+                }
+            }
+
             // Also check delayed jobs
             cnx.runUpdate("ji_update_delayed");
             cnx.commit();
@@ -217,4 +233,13 @@ class CronScheduler implements Runnable, TaskCollector
 
     }
 
+    private class PurgeTask extends Task
+    {
+        @Override
+        public void execute(TaskExecutionContext context) throws RuntimeException
+        {
+            purger.purge();
+        }
+    }
+
 }
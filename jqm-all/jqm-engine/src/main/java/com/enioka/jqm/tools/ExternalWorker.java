@@ -0,0 +1,155 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.BufferedReader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.api.JobInstance;
+
+/**
+ * <strong>Not part of any API - this an internal JQM class and may change without notice.</strong> <br>
+ * The child side of the {@link ExternalWorkerPool}: a JVM which runs external job instances one after the other with the
+ * {@link JqmSingleRunner}. Orders are read on stdin (one per line: <code>RUN id</code> or <code>STOP</code>), everything written by the
+ * payloads goes to stdout, and the end of each job instance is signalled on stdout by a line beginning with {@link #CONTROL_PREFIX}.
+ */
+public final class ExternalWorker
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ExternalWorker.class);
+
+    static final String CONTROL_PREFIX = "##JQM_WORKER## ";
+
+    private ExternalWorker()
+    {
+        // Static class
+    }
+
+    /**
+     * Runs until a STOP order is received or stdin is closed, then exits the JVM.
+     */
+    public static void run()
+    {
+        LineTrackingStream out = new LineTrackingStream(System.out);
+        PrintStream ps = new PrintStream(out, true);
+        System.setOut(ps);
+        System.setErr(ps);
+
+        // Warm up: everything common to all job instances is done before the first order.
+        Helpers.registerJndiIfNeeded();
+        Helpers.getDb();
+        out.writeControl("READY");
+
+        int rc = 0;
+        try
+        {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF8"));
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.startsWith("RUN "))
+                {
+                    int id = Integer.parseInt(line.substring(4).trim());
+                    String state;
+                    try
+                    {
+                        JobInstance res = JqmSingleRunner.run(id);
+                        state = String.valueOf(res.getState());
+                    }
+                    catch (Throwable e)
+                    {
+                        jqmlogger.error("Job instance " + id + " could not be run", e);
+                        state = "CRASHED";
+                    }
+                    out.writeControl("END " + id + " " + state);
+                }
+                else if ("STOP".equals(line.trim()))
+                {
+                    break;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            jqmlogger.error("Could not read orders from the engine", e);
+            rc = 1;
+        }
+        System.exit(rc);
+    }
+
+    /**
+     * The stdout of the worker. Remembers if the last character was a line end, so that control lines always begin on a new line
+     * whatever the payload has written.
+     */
+    private static class LineTrackingStream extends FilterOutputStream
+    {
+        private boolean atLineStart = true;
+
+        LineTrackingStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException
+        {
+            out.write(b);
+            atLineStart = b == '\n';
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException
+        {
+            if (len <= 0)
+            {
+                return;
+            }
+            out.write(b, off, len);
+            atLineStart = b[off + len - 1] == '\n';
+        }
+
+        @Override
+        public synchronized void flush() throws IOException
+        {
+            out.flush();
+        }
+
+        synchronized void writeControl(String order)
+        {
+            try
+            {
+                if (!atLineStart)
+                {
+                    out.write('\n');
+                }
+                out.write((CONTROL_PREFIX + order + "\n").getBytes("UTF8"));
+                out.flush();
+                atLineStart = true;
+            }
+            catch (IOException e)
+            {
+                // Engine is gone - nothing to do.
+                System.exit(1);
+            }
+        }
+    }
+}
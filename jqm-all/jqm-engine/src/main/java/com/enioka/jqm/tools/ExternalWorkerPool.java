@@ -0,0 +1,353 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.BufferedReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.JobDef;
+
+/**
+ * Pre-started JVMs for job definitions which run out of process. Each JVM is an {@link ExternalWorker}: it has already loaded the JQM
+ * classes and opened its database pool when it receives a job instance, so the JVM startup cost is paid before the launch and not
+ * during it.<br>
+ * Workers are kept per set of JVM options, and one idle worker is always kept ready for each of them: one is started for each external job
+ * definition when the engine starts, and a replacement is started as soon as a worker begins its last run, so that it has warmed up when
+ * the next launch comes. A worker is reused for at most externalWorkerMaxRuns job instances (one by default, i.e. no reuse - each launch
+ * still finds a JVM already started). A worker which dies (kill order, crash...) is simply replaced.
+ */
+class ExternalWorkerPool
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(ExternalWorkerPool.class);
+
+    private final ConcurrentMap<String, LinkedBlockingDeque<Worker>> idle = new ConcurrentHashMap<String, LinkedBlockingDeque<Worker>>();
+    private final int maxRuns;
+    private volatile boolean run = true;
+    private final AtomicInteger startedCount = new AtomicInteger(0);
+
+    ExternalWorkerPool(DbConn cnx)
+    {
+        this.maxRuns = Math.max(1, Integer.parseInt(GlobalParameter.getParameter(cnx, "externalWorkerMaxRuns", "1")));
+
+        // One worker ready for each set of options used by the external job definitions.
+        for (JobDef jd : JobDef.select(cnx, "jd_select_all"))
+        {
+            if (jd.isExternal())
+            {
+                addSpare(LoaderExternal.getJavaOpts(cnx, jd));
+            }
+        }
+    }
+
+    /**
+     * Runs the given job instance inside a worker for the given JVM options, and waits for its end.
+     *
+     * @return false if no worker could be started.
+     */
+    boolean run(String opts, int jobId, String logFile)
+    {
+        LinkedBlockingDeque<Worker> workers = getIdle(opts);
+        Worker w = null;
+        for (int i = 0; i < 2 && w == null; i++)
+        {
+            w = workers.pollFirst();
+            while (w != null && w.dead)
+            {
+                w = workers.pollFirst();
+            }
+            if (w == null)
+            {
+                w = startWorker(opts);
+                if (w == null)
+                {
+                    return false;
+                }
+            }
+
+            try
+            {
+                w.submit(jobId, logFile);
+            }
+            catch (IOException e)
+            {
+                // Worker has died while idle - try once with a new one.
+                jqmlogger.warn("External worker could not receive job instance " + jobId + " - a new worker will be used", e);
+                w.retire();
+                w = null;
+            }
+        }
+        if (w == null)
+        {
+            return false;
+        }
+        if (w.runs + 1 >= maxRuns)
+        {
+            // Last run of this worker: its replacement warms up during the run.
+            addSpare(opts);
+        }
+
+        try
+        {
+            w.awaitEnd();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        if (w.dead || ++w.runs >= maxRuns || !run)
+        {
+            w.retire();
+            // Usually done at the start of the last run - but the worker may have died earlier, or the spare may have been used.
+            addSpare(opts);
+        }
+        else
+        {
+            workers.addFirst(w);
+        }
+        return true;
+    }
+
+    /**
+     * Stops all idle workers. Workers running a job instance are stopped at the end of the job instance.
+     */
+    void stop()
+    {
+        run = false;
+        for (LinkedBlockingDeque<Worker> workers : idle.values())
+        {
+            Worker w;
+            while ((w = workers.pollFirst()) != null)
+            {
+                w.retire();
+            }
+        }
+    }
+
+    /**
+     * Number of worker JVMs started since the creation of the pool.
+     */
+    int getStartedCount()
+    {
+        return startedCount.get();
+    }
+
+    /**
+     * Starts an idle worker for the given JVM options, unless it is already available or the pool is stopping.
+     */
+    private void addSpare(String opts)
+    {
+        LinkedBlockingDeque<Worker> workers = getIdle(opts);
+        if (!run || !workers.isEmpty())
+        {
+            return;
+        }
+        Worker spare = startWorker(opts);
+        if (spare != null)
+        {
+            workers.addLast(spare);
+        }
+    }
+
+    private LinkedBlockingDeque<Worker> getIdle(String opts)
+    {
+        LinkedBlockingDeque<Worker> res = idle.get(opts);
+        if (res == null)
+        {
+            LinkedBlockingDeque<Worker> newQueue = new LinkedBlockingDeque<Worker>();
+            res = idle.putIfAbsent(opts, newQueue);
+            if (res == null)
+            {
+                res = newQueue;
+            }
+        }
+        return res;
+    }
+
+    private Worker startWorker(String opts)
+    {
+        String java_path = FilenameUtils.concat(System.getProperty("java.home"), "bin/java");
+        List<String> args = new ArrayList<String>();
+
+        args.add(java_path);
+        args.addAll(Arrays.asList(opts.split(" ")));
+        args.add("com.enioka.jqm.tools.Main");
+        args.add("-worker");
+
+        ProcessBuilder pb = new ProcessBuilder(args);
+        pb.redirectErrorStream(true);
+        pb.environment().put("CLASSPATH", System.getProperty("java.class.path"));
+
+        try
+        {
+            jqmlogger.debug("Starting external worker JVM with options " + opts);
+            Worker w = new Worker(pb.start());
+            startedCount.incrementAndGet();
+            w.startReader();
+            return w;
+        }
+        catch (IOException e)
+        {
+            jqmlogger.error("Could not launch an external worker JVM", e);
+            return null;
+        }
+    }
+
+    private static class Worker implements Runnable
+    {
+        private final Process process;
+        private final Writer orders;
+
+        private volatile Writer log = null;
+        private volatile CountDownLatch end = new CountDownLatch(0);
+        private volatile boolean dead = false;
+        private int runs = 0;
+
+        private Worker(Process p) throws IOException
+        {
+            this.process = p;
+            this.orders = new OutputStreamWriter(p.getOutputStream(), "UTF8");
+        }
+
+        private void startReader()
+        {
+            Thread t = new Thread(this, "JQM_EXTERNAL_WORKER;reader;");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        private void submit(int jobId, String logFile) throws IOException
+        {
+            this.log = new FileWriter(logFile);
+            this.end = new CountDownLatch(1);
+            if (dead)
+            {
+                closeLog();
+                throw new IOException("worker has exited");
+            }
+            try
+            {
+                orders.write("RUN " + jobId + "\n");
+                orders.flush();
+            }
+            catch (IOException e)
+            {
+                closeLog();
+                throw e;
+            }
+        }
+
+        private void awaitEnd() throws InterruptedException
+        {
+            end.await();
+        }
+
+        private void retire()
+        {
+            try
+            {
+                orders.write("STOP\n");
+                orders.flush();
+            }
+            catch (IOException e)
+            {
+                // Already dead - nothing to do.
+            }
+            IOUtils.closeQuietly(orders);
+        }
+
+        private void closeLog()
+        {
+            IOUtils.closeQuietly(log);
+            log = null;
+        }
+
+        /**
+         * Reads the worker output until the process exits. Blocking reads: the log is written as soon as the payload has produced it.
+         */
+        @Override
+        public void run()
+        {
+            String linesep = System.getProperty("line.separator");
+            BufferedReader br = null;
+            try
+            {
+                br = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF8"));
+                String buf;
+                while ((buf = br.readLine()) != null)
+                {
+                    if (buf.startsWith(ExternalWorker.CONTROL_PREFIX))
+                    {
+                        jqmlogger.debug("External worker: " + buf.substring(ExternalWorker.CONTROL_PREFIX.length()));
+                        if (buf.startsWith(ExternalWorker.CONTROL_PREFIX + "END "))
+                        {
+                            closeLog();
+                            end.countDown();
+                        }
+                        continue;
+                    }
+
+                    Writer f = log;
+                    if (f != null)
+                    {
+                        f.write(buf + linesep);
+                        f.flush();
+                    }
+                    jqmlogger.debug(buf);
+                }
+            }
+            catch (IOException e)
+            {
+                jqmlogger.error("could not retrieve external worker flows", e);
+            }
+            finally
+            {
+                IOUtils.closeQuietly(br);
+                dead = true;
+                closeLog();
+                end.countDown();
+                try
+                {
+                    int res = process.waitFor();
+                    jqmlogger.debug("External worker has exited with RC " + res);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
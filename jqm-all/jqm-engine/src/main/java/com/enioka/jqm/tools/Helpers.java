@@ -87,7 +87,10 @@ final class Helpers
     static DbConn getNewDbSession()
     {
         getDb();
-        return _db.getConn();
+        long start = System.nanoTime();
+        DbConn res = _db.getConn();
+        Metrics.DB_BORROW.get().recordSince(start);
+        return res;
     }
 
     static void setDb(Db db)
@@ -0,0 +1,245 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.Deliverable;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.Node;
+
+/**
+ * Removes old history elements, with their messages, parameters and deliverables. Run by the master scheduler node.<br>
+ * Retention is given in days after enqueue by global parameters: historyRetentionDays for all job instances (0, the default, means
+ * forever), which can be overridden for some queues (historyRetentionByQueue, e.g. "queue1=30,queue2=0") and for some applications
+ * (historyRetentionByApp, same format). An application override takes precedence over a queue override.<br>
+ * Rows are removed in batches of historyPurgeBatchSize, each in its own transaction, so as not to hold long locks on the history table. The
+ * files (deliverables and logs) are only removed for job instances which have run on this node, as other nodes may not share its file
+ * system.
+ */
+class HistoryPurger
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(HistoryPurger.class);
+
+    private final Node node;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    HistoryPurger(Node node)
+    {
+        this.node = node;
+    }
+
+    /**
+     * @return true if at least one retention rule is set.
+     */
+    static boolean isEnabled(DbConn cnx)
+    {
+        return Integer.parseInt(GlobalParameter.getParameter(cnx, "historyRetentionDays", "0")) > 0
+                || !GlobalParameter.getParameter(cnx, "historyRetentionByQueue", "").trim().isEmpty()
+                || !GlobalParameter.getParameter(cnx, "historyRetentionByApp", "").trim().isEmpty();
+    }
+
+    void purge()
+    {
+        if (!running.compareAndSet(false, true))
+        {
+            jqmlogger.info("Previous history purge is still running - skipping this one");
+            return;
+        }
+
+        DbConn cnx = null;
+        try
+        {
+            cnx = Helpers.getNewDbSession();
+            int batchSize = Integer.parseInt(GlobalParameter.getParameter(cnx, "historyPurgeBatchSize", "500"));
+            int defaultDays = Integer.parseInt(GlobalParameter.getParameter(cnx, "historyRetentionDays", "0"));
+            Map<String, Integer> byQueue = parseRules(GlobalParameter.getParameter(cnx, "historyRetentionByQueue", ""));
+            Map<String, Integer> byApp = parseRules(GlobalParameter.getParameter(cnx, "historyRetentionByApp", ""));
+            List<String> apps = new ArrayList<String>(byApp.keySet());
+            List<String> queues = new ArrayList<String>(byQueue.keySet());
+            int total = 0;
+
+            for (Map.Entry<String, Integer> e : byApp.entrySet())
+            {
+                total += purge(cnx, "JD_KEY = ?", e.getValue(), batchSize, e.getKey());
+            }
+            for (Map.Entry<String, Integer> e : byQueue.entrySet())
+            {
+                if (apps.isEmpty())
+                {
+                    total += purge(cnx, "QUEUE_NAME = ?", e.getValue(), batchSize, e.getKey());
+                }
+                else
+                {
+                    total += purge(cnx, "QUEUE_NAME = ? AND NOT (JD_KEY IN(UNNEST(?)))", e.getValue(), batchSize, e.getKey(), apps);
+                }
+            }
+
+            String wh = "1=1";
+            List<Object> prms = new ArrayList<Object>();
+            if (!queues.isEmpty())
+            {
+                wh += " AND NOT (QUEUE_NAME IN(UNNEST(?)))";
+                prms.add(queues);
+            }
+            if (!apps.isEmpty())
+            {
+                wh += " AND NOT (JD_KEY IN(UNNEST(?)))";
+                prms.add(apps);
+            }
+            total += purge(cnx, wh, defaultDays, batchSize, prms.toArray());
+
+            jqmlogger.info("History purge has removed " + total + " history elements");
+        }
+        catch (Exception e)
+        {
+            jqmlogger.error("History purge has failed", e);
+        }
+        finally
+        {
+            Helpers.closeQuietly(cnx);
+            running.set(false);
+        }
+    }
+
+    private static Map<String, Integer> parseRules(String value)
+    {
+        Map<String, Integer> res = new LinkedHashMap<String, Integer>();
+        for (String rule : value.split(","))
+        {
+            if (rule.trim().isEmpty())
+            {
+                continue;
+            }
+            String[] kv = rule.split("=");
+            if (kv.length != 2)
+            {
+                jqmlogger.warn("Invalid history retention rule [" + rule + "] - it is ignored. Expected format is name=days");
+                continue;
+            }
+            res.put(kv[0].trim(), Integer.parseInt(kv[1].trim()));
+        }
+        return res;
+    }
+
+    /**
+     * Removes all the history elements matching the given predicate and enqueued more than the given days ago, batch by batch.
+     */
+    private int purge(DbConn cnx, String predicate, int days, int batchSize, Object... prms) throws SQLException
+    {
+        if (days <= 0)
+        {
+            return 0;
+        }
+
+        Calendar limit = Calendar.getInstance();
+        limit.add(Calendar.DAY_OF_YEAR, -days);
+        int res = 0;
+        List<Integer> ids;
+        do
+        {
+            List<Object> paginatedPrms = new ArrayList<Object>();
+            paginatedPrms.add(limit);
+            for (Object o : prms)
+            {
+                paginatedPrms.add(o);
+            }
+            String sql = cnx.paginateQuery("SELECT ID, NODE FROM __T__HISTORY WHERE DATE_ENQUEUE < ? AND " + predicate + " ORDER BY ID", 0,
+                    batchSize, paginatedPrms);
+
+            ids = new ArrayList<Integer>(batchSize);
+            List<Integer> localIds = new ArrayList<Integer>();
+            ResultSet rs = cnx.runRawSelect(sql, paginatedPrms.toArray());
+            while (rs.next())
+            {
+                ids.add(rs.getInt(1));
+                if (node.getId().equals(rs.getInt(2)))
+                {
+                    localIds.add(rs.getInt(1));
+                }
+            }
+            rs.close();
+            if (ids.isEmpty())
+            {
+                break;
+            }
+
+            List<Deliverable> deliverables = localIds.isEmpty() ? new ArrayList<Deliverable>()
+                    : Deliverable.select(cnx, "deliverable_select_by_ji_list", localIds);
+            cnx.runUpdate("deliverable_delete_by_ji_list", ids);
+            cnx.runUpdate("message_delete_by_ji_list", ids);
+            cnx.runUpdate("jiprm_delete_by_ji_list", ids);
+            cnx.runUpdate("history_delete_by_id_list", ids);
+            cnx.commit();
+            res += ids.size();
+
+            // Files are removed once the rows are gone for good.
+            for (Deliverable d : deliverables)
+            {
+                deleteFile(FilenameUtils.concat(node.getDlRepo(), d.getFilePath()));
+            }
+            for (Integer id : localIds)
+            {
+                String prefix = FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0"));
+                deleteLog(prefix + ".stdout.log");
+                deleteLog(prefix + ".stderr.log");
+                deleteFile(prefix + ".log");
+            }
+        } while (ids.size() >= batchSize);
+
+        return res;
+    }
+
+    /**
+     * Removes a job instance log file, with its rotated and compressed forms.
+     */
+    private static void deleteLog(String path)
+    {
+        deleteFile(path);
+        deleteFile(path + ".gz");
+        for (int i = 1; new File(path + "." + i).isFile(); i++)
+        {
+            deleteFile(path + "." + i);
+        }
+    }
+
+    private static void deleteFile(String path)
+    {
+        if (path == null)
+        {
+            return;
+        }
+        File f = new File(path);
+        if (f.isFile() && !f.delete())
+        {
+            jqmlogger.warn("Could not remove file " + path + " during history purge");
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.Instruction;
+
+/**
+ * The instructions (kill, pause...) given to the job instances running on this node. It is refreshed by the {@link InternalPoller} with a
+ * single query for the whole node, and read without any lock by the {@link JobManagerHandler} of each job instance.<br>
+ * Only instances with an instruction other than {@link Instruction#RUN} are present.
+ */
+class InstructionTable
+{
+    private volatile Map<Integer, Instruction> instructions = Collections.emptyMap();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * The current instruction for the given job instance. Never null.
+     */
+    Instruction get(int jobInstanceId)
+    {
+        Instruction res = instructions.get(jobInstanceId);
+        return res == null ? Instruction.RUN : res;
+    }
+
+    /**
+     * Reloads the table from the database.
+     */
+    void refresh(DbConn cnx, int nodeId)
+    {
+        Map<Integer, Instruction> res = new HashMap<Integer, Instruction>();
+        ResultSet rs = cnx.runSelect("ji_select_instructions_by_node", nodeId);
+        try
+        {
+            while (rs.next())
+            {
+                res.put(rs.getInt(1), Instruction.valueOf(rs.getString(2)));
+            }
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+        finally
+        {
+            cnx.closeQuietly(rs);
+        }
+        set(res);
+    }
+
+    /**
+     * Empties the table (used when nothing runs, so as not to query the database).
+     */
+    void clear()
+    {
+        if (!instructions.isEmpty())
+        {
+            set(new HashMap<Integer, Instruction>());
+        }
+    }
+
+    private void set(Map<Integer, Instruction> newInstructions)
+    {
+        Map<Integer, Instruction> previous = this.instructions;
+        this.instructions = newInstructions;
+
+        // Only wake up paused job instances if something has changed for them.
+        if (!previous.isEmpty() && !previous.equals(newInstructions))
+        {
+            lock.lock();
+            try
+            {
+                changed.signalAll();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Blocks as long as the instruction for the given job instance is {@link Instruction#PAUSE}.
+     *
+     * @return the new instruction.
+     */
+    Instruction waitWhilePaused(int jobInstanceId) throws InterruptedException
+    {
+        lock.lock();
+        try
+        {
+            Instruction res;
+            while ((res = get(jobInstanceId)) == Instruction.PAUSE)
+            {
+                changed.await();
+            }
+            return res;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+}
@@ -32,7 +32,8 @@ import com.enioka.jqm.model.Node;
 /**
  * The internal poller is responsible for doing all the repetitive tasks of an engine (excluding polling queues). Namely: check if
  * {@link Node#isStop()} has become true (stop order) and update {@link Node#setLastSeenAlive(java.util.Calendar)} to make visible to the
- * whole cluster that the engine is still alive and that no other engine should start with the same node name.
+ * whole cluster that the engine is still alive and that no other engine should start with the same node name.<br>
+ * It also refreshes the {@link InstructionTable} of the engine and checks the metadata cache, more often than the other tasks.
  */
 class InternalPoller implements Runnable
 {
@@ -41,6 +42,7 @@ class InternalPoller implements Runnable
     private JqmEngine engine = null;
     private Thread localThread = null;
     private long step;
+    private long instructionStep;
     private Node node = null;
     private Semaphore loop = new Semaphore(0);
 
@@ -52,6 +54,8 @@ class InternalPoller implements Runnable
         // Get configuration data
         this.node = this.engine.getNode();
         this.step = Long.parseLong(GlobalParameter.getParameter(cnx, "internalPollingPeriodMs", "60000"));
+        this.instructionStep = Math.min(this.step,
+                Long.parseLong(GlobalParameter.getParameter(cnx, "instructionPollingMs", "1000")));
         cnx.close();
     }
 
@@ -83,13 +87,15 @@ class InternalPoller implements Runnable
         DbConn cnx = null;
         this.localThread = Thread.currentThread();
         Calendar lastJndiPurge = Calendar.getInstance();
+        long lastFullLoop = System.currentTimeMillis();
 
         // Launch main loop
         while (true)
         {
+            boolean forced = false;
             try
             {
-                loop.tryAcquire(this.step, TimeUnit.MILLISECONDS);
+                forced = loop.tryAcquire(this.instructionStep, TimeUnit.MILLISECONDS);
             }
             catch (InterruptedException e)
             {
@@ -105,6 +111,26 @@ class InternalPoller implements Runnable
                 // Get session
                 cnx = Helpers.getNewDbSession();
 
+                // Metadata changed by other nodes: detected here rather than while enqueuing or launching.
+                cnx.getMetadataCache().refresh(cnx);
+
+                // Instructions (kill, pause...) for all the running job instances of the node, in a single query.
+                if (this.engine.getCurrentlyRunningJobCount() > 0)
+                {
+                    this.engine.getInstructionTable().refresh(cnx, node.getId());
+                }
+                else
+                {
+                    this.engine.getInstructionTable().clear();
+                }
+
+                // The other tasks are done less often.
+                if (!forced && System.currentTimeMillis() - lastFullLoop < this.step)
+                {
+                    continue;
+                }
+                lastFullLoop = System.currentTimeMillis();
+
                 // Check if stop order
                 try
                 {
@@ -18,16 +18,25 @@
 
 package com.enioka.jqm.tools;
 
-import java.lang.reflect.InvocationTargetException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,10 +55,15 @@ class JarClassLoader extends URLClassLoader
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(JarClassLoader.class);
 
+    private static final Pattern BACK_REFERENCE = Pattern.compile("\\\\(\\d|k<)");
+
     private boolean childFirstClassLoader = false;
 
     private ArrayList<Pattern> hiddenJavaClassesPatterns = new ArrayList<Pattern>();
 
+    // All the hiddenJavaClassesPatterns as a single regex. Null if none, or if they cannot be combined (back references).
+    private Pattern hiddenJavaClassesPattern = null;
+
     private boolean tracing = false;
 
     private String referenceJobDefName = null;
@@ -58,24 +72,128 @@ class JarClassLoader extends URLClassLoader
 
     private boolean mayBeShared = false;
 
+    // Only set for pooled CLs.
+    private ClassloaderPool pool = null;
+    private int launchCount = 0;
+
+    // Launch caches. They live and die with the CL itself.
+    private volatile Constructor<?> proxyConstructor = null;
+    private volatile Map<Method, JobManagerHandler.ApiMethod> apiDispatchTable = null;
+    private ConcurrentMap<String, HandlerInvoker> handlers = new ConcurrentHashMap<String, HandlerInvoker>();
+    private ConcurrentMap<String, RunnerInvoker> resolvedRunners = new ConcurrentHashMap<String, RunnerInvoker>();
+
+    // Index of the class path. Null if the class path cannot be indexed (directories...) - the normal URLClassLoader search is then used.
+    private volatile ClasspathIndex classpathIndex = null;
+    private boolean indexDisabled = false;
+    private final Object indexLock = new Object();
+
     JarClassLoader(ClassLoader parent)
     {
         super(new URL[0], parent);
     }
 
-    void extendUrls(URL jarUrl, URL[] libs)
+    /**
+     * Adds the jar and its libraries to the class path.
+     * 
+     * @param jarIndexes
+     *            the node-wide index cache. If null, the class path is not indexed.
+     */
+    void extendUrls(URL jarUrl, URL[] libs, JarIndex.Cache jarIndexes)
     {
+        List<URL> added = new ArrayList<URL>();
         super.addURL(jarUrl);
+        added.add(jarUrl);
 
         if (libs != null)
         {
             for (URL url : libs)
             {
                 super.addURL(url);
+                added.add(url);
+            }
+        }
+
+        if (jarIndexes != null)
+        {
+            index(added, jarIndexes);
+        }
+    }
+
+    private void index(List<URL> added, JarIndex.Cache jarIndexes)
+    {
+        synchronized (indexLock)
+        {
+            if (indexDisabled)
+            {
+                return;
+            }
+
+            // Shared CLs are extended on each launch - only index what is new.
+            List<JarIndex> jars = new ArrayList<JarIndex>();
+            Set<File> indexed = new HashSet<File>();
+            if (classpathIndex != null)
+            {
+                for (JarIndex jar : classpathIndex.getJars())
+                {
+                    jars.add(jar);
+                    indexed.add(jar.getFile());
+                }
+            }
+
+            try
+            {
+                for (URL url : added)
+                {
+                    if (!index(JarIndex.toFile(url), jars, indexed, jarIndexes))
+                    {
+                        jqmlogger.debug("Class path element " + url + " cannot be indexed - no class path index will be used");
+                        indexDisabled = true;
+                        classpathIndex = null;
+                        return;
+                    }
+                }
             }
+            catch (IOException e)
+            {
+                jqmlogger.warn("Could not index the class path - no class path index will be used", e);
+                indexDisabled = true;
+                classpathIndex = null;
+                return;
+            }
+
+            classpathIndex = new ClasspathIndex(jars);
         }
     }
 
+    /**
+     * Adds a jar and the jars referenced by its manifest, in the same order as the URLClassLoader search.
+     * 
+     * @return false if the file cannot be indexed.
+     */
+    private boolean index(File file, List<JarIndex> jars, Set<File> indexed, JarIndex.Cache jarIndexes) throws IOException
+    {
+        if (file == null || file.isDirectory())
+        {
+            return false;
+        }
+        if (!file.exists() || !indexed.add(file.getCanonicalFile()))
+        {
+            // Missing files are ignored by URLClassLoader too.
+            return true;
+        }
+
+        JarIndex jar = jarIndexes.get(file);
+        jars.add(jar);
+        for (File cp : jar.getManifestClassPath())
+        {
+            if (!index(cp, jars, indexed, jarIndexes))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Everything here can run without the database.
      * 
@@ -97,7 +215,8 @@ class JarClassLoader extends URLClassLoader
         try
         {
             injInt = this.loadClass("com.enioka.jqm.api.JobManager");
-            proxy = Proxy.newProxyInstance(this, new Class[] { injInt }, h);
+            h.setDispatchTable(getApiDispatchTable(injInt));
+            proxy = getProxyConstructor(injInt).newInstance(h);
         }
         catch (Exception e)
         {
@@ -131,126 +250,219 @@ class JarClassLoader extends URLClassLoader
         {
             allowedRunners = Arrays.asList(job.getJD().getClassLoader().getAllowedRunners().split(","));
         }
-        for (String runnerClassName : allowedRunners)
+        RunnerInvoker runner = clm.getRunner(this, c, allowedRunners);
+        if (runner == null)
         {
-            Boolean canRun = false;
-            Class runnerClass = null;
-            Method run;
-            Object runner;
-            try
+            throw new JqmEngineException(
+                    "This type of class cannot be launched by JQM. Please consult the documentation for more details. Available runners: "
+                            + allowedRunners);
+        }
+        jqmlogger.trace("Payload is of type: " + runner.getRunnerClassName());
+
+        // We are ready to actually run the job instance. Time for all event handlers.
+        if (job.getJD().getClassLoader() != null)
+        {
+            for (ClHandler handler : job.getJD().getClassLoader().getHandlers())
             {
-                // Note we load the runner class inside the engine CL (with plugins), not the payload CL.
-                // NOTHING is allowed inside the payload CL which was not specifically asked for. (ext dir or lib dir)
-                runnerClass = clm.getPluginClassLoader().loadClass(runnerClassName);
+                String handlerClass = handler.getClassName();
+                Map<String, String> handlerPrms = new HashMap<String, String>();
+                for (Map.Entry<String, String> hprm : handler.getParameters().entrySet())
+                {
+                    handlerPrms.put(hprm.getKey(), hprm.getValue());
+                }
+
+                try
+                {
+                    getHandlerInvoker(handlerClass, injInt).run(c, proxy, handlerPrms);
+                }
+                catch (Exception e)
+                {
+                    throw new JqmEngineException("event handler could not be loaded or run: " + handlerClass, e);
+                }
             }
-            catch (Exception e)
+        }
+
+        // Go for real.
+        runner.run(c, metaprms, parameters, proxy);
+    }
+
+    /**
+     * The proxy class implementing the API is the same for all the launches inside this CL - only its invocation handler changes.
+     */
+    Constructor<?> getProxyConstructor(Class<?> injInt) throws NoSuchMethodException
+    {
+        Constructor<?> res = proxyConstructor;
+        if (res == null)
+        {
+            res = Proxy.getProxyClass(this, injInt).getConstructor(InvocationHandler.class);
+            proxyConstructor = res;
+        }
+        return res;
+    }
+
+    private Map<Method, JobManagerHandler.ApiMethod> getApiDispatchTable(Class<?> injInt)
+    {
+        Map<Method, JobManagerHandler.ApiMethod> res = apiDispatchTable;
+        if (res == null)
+        {
+            res = JobManagerHandler.getDispatchTable(injInt);
+            apiDispatchTable = res;
+        }
+        return res;
+    }
+
+    /**
+     * Handlers are instantiated only once per CL and are then shared by all the launches inside this CL.
+     */
+    private HandlerInvoker getHandlerInvoker(String handlerClass, Class<?> injInt) throws Exception
+    {
+        HandlerInvoker res = handlers.get(handlerClass);
+        if (res == null)
+        {
+            Class<?> hc = loadClass(handlerClass);
+            res = new HandlerInvoker(hc.newInstance(), hc.getMethod("run", Class.class, injInt, Map.class));
+            HandlerInvoker existing = handlers.putIfAbsent(handlerClass, res);
+            if (existing != null)
             {
-                throw new JqmEngineException(
-                        "could not load a runner: check you global parameters, or that the plugin for this runner is actually present "
-                                + runnerClassName,
-                        e);
+                res = existing;
             }
-            try
+        }
+        return res;
+    }
+
+    private static class HandlerInvoker
+    {
+        private final Object handler;
+        private final Method run;
+
+        private HandlerInvoker(Object handler, Method run)
+        {
+            this.handler = handler;
+            this.run = run;
+        }
+
+        private void run(Class<?> toRun, Object proxy, Map<String, String> handlerParameters) throws Exception
+        {
+            run.invoke(handler, toRun, proxy, handlerParameters);
+        }
+    }
+
+    RunnerInvoker getResolvedRunner(String key)
+    {
+        return resolvedRunners.get(key);
+    }
+
+    void setResolvedRunner(String key, RunnerInvoker runner)
+    {
+        resolvedRunners.put(key, runner);
+    }
+
+    /**
+     * Opens all the libraries and loads (without initializing them) the given classes, so that the launches do not have to.
+     * 
+     * @param preloadedClasses
+     *            comma-separated class names. May be null.
+     */
+    void prewarm(String preloadedClasses)
+    {
+        try
+        {
+            Enumeration<URL> manifests = findResources("META-INF/MANIFEST.MF");
+            while (manifests.hasMoreElements())
             {
-                runner = runnerClass.newInstance();
+                manifests.nextElement();
             }
-            catch (Exception e)
+        }
+        catch (IOException e)
+        {
+            jqmlogger.warn("Could not open all the libraries of the class loader", e);
+        }
+
+        if (preloadedClasses == null)
+        {
+            return;
+        }
+        for (String className : preloadedClasses.split(","))
+        {
+            String name = className.trim();
+            if (name.isEmpty())
             {
-                throw new JqmEngineException(
-                        "could not create an instance of a runner: it may not have a no-args constructor. " + runnerClassName, e);
+                continue;
             }
-
             try
             {
-                Method m = runnerClass.getMethod("canRun", Class.class);
-                canRun = (Boolean) m.invoke(runner, c);
+                Class.forName(name, false, this);
             }
-            catch (Exception e)
+            catch (ClassNotFoundException e)
             {
-                throw new JqmEngineException("invocation of canRun failed on the runner plugin " + runnerClassName, e);
+                jqmlogger.warn("Class " + name + " cannot be preloaded as it cannot be found");
             }
-
-            if (canRun)
+            catch (LinkageError e)
             {
-                jqmlogger.trace("Payload is of type: " + runnerClassName);
-
-                try
-                {
-                    run = runnerClass.getMethod("run", Class.class, Map.class, Map.class, Object.class);
-                }
-                catch (Exception e)
-                {
-                    throw new JqmEngineException("could not find run method for runner plugin " + runnerClassName, e);
-                }
-
-                // We are ready to actually run the job instance. Time for all event handlers.
-                if (job.getJD().getClassLoader() != null)
-                {
-                    for (ClHandler handler : job.getJD().getClassLoader().getHandlers())
-                    {
-                        String handlerClass = handler.getClassName();
-                        Map<String, String> handlerPrms = new HashMap<String, String>();
-                        for (Map.Entry<String, String> hprm : handler.getParameters().entrySet())
-                        {
-                            handlerPrms.put(hprm.getKey(), hprm.getValue());
-                        }
-
-                        try
-                        {
-                            Method handlerRun = loadClass(handlerClass).getMethod("run", Class.class, injInt, Map.class);
-                            Object handlerInstance = loadClass(handlerClass).newInstance();
-                            handlerRun.invoke(handlerInstance, c, proxy, handlerPrms);
-                        }
-                        catch (Exception e)
-                        {
-                            throw new JqmEngineException("event handler could not be loaded or run: " + handlerClass, e);
-                        }
-                    }
-                }
-
-                // Go for real.
-                try
-                {
-                    run.invoke(runner, c, metaprms, parameters, proxy);
-                    return;
-                }
-                catch (InvocationTargetException e)
-                {
-                    if (e.getCause() instanceof RuntimeException)
-                    {
-                        // it may be a Kill order, or whatever exception...
-                        throw (RuntimeException) e.getCause();
-                    }
-                    else
-                    {
-                        throw new JqmEngineException("Payload has failed", e);
-                    }
-                }
-                catch (Exception e)
-                {
-                    throw new JqmEngineException("Could not launch a job instance (engine issue, not a payload issue", e);
-                }
+                jqmlogger.warn("Class " + name + " cannot be preloaded", e);
             }
         }
-
-        throw new JqmEngineException(
-                "This type of class cannot be launched by JQM. Please consult the documentation for more details. Available runners: "
-                        + allowedRunners);
     }
 
     private Class<?> loadFromParentCL(String name) throws ClassNotFoundException
     {
+        if (isHidden(name))
+        {
+            jqmlogger.debug("Class " + name + " will not be loaded by parent CL because it matches hiddenJavaClasses parameter");
+            // Invoke findClass in order to find the class.
+            return findClass(name);
+        }
+        return loadClass(name, false);
+    }
+
+    private boolean isHidden(String name)
+    {
+        if (hiddenJavaClassesPattern != null)
+        {
+            return hiddenJavaClassesPattern.matcher(name).matches();
+        }
         for (Pattern pattern : hiddenJavaClassesPatterns)
         {
             Matcher matcher = pattern.matcher(name);
             if (matcher.matches())
             {
-                jqmlogger.debug("Class " + name + " will not be loaded by parent CL because it matches hiddenJavaClasses parameter");
-                // Invoke findClass in order to find the class.
-                return super.findClass(name);
+                return true;
             }
         }
-        return loadClass(name, false);
+        return false;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException
+    {
+        ClasspathIndex index = classpathIndex;
+        if (index != null && !index.contains(name.replace('.', '/').concat(".class")))
+        {
+            throw new ClassNotFoundException(name);
+        }
+        return super.findClass(name);
+    }
+
+    @Override
+    public URL findResource(String name)
+    {
+        ClasspathIndex index = classpathIndex;
+        if (index != null && !index.contains(name))
+        {
+            return null;
+        }
+        return super.findResource(name);
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException
+    {
+        ClasspathIndex index = classpathIndex;
+        if (index != null && !index.contains(name))
+        {
+            return Collections.enumeration(Collections.<URL> emptyList());
+        }
+        return super.findResources(name);
     }
 
     @Override
@@ -270,14 +482,18 @@ class JarClassLoader extends URLClassLoader
 
             if (c == null)
             {
-                // Try to find class from URLClassLoader
-                try
-                {
-                    c = super.findClass(name);
-                }
-                catch (ClassNotFoundException e)
+                // Try to find class from URLClassLoader (the index avoids an exception for the classes which are not inside the jars)
+                ClasspathIndex index = classpathIndex;
+                if (index == null || index.contains(name.replace('.', '/').concat(".class")))
                 {
-                    //
+                    try
+                    {
+                        c = super.findClass(name);
+                    }
+                    catch (ClassNotFoundException e)
+                    {
+                        //
+                    }
                 }
                 // If nothing was found, try parent class loader
                 if (c == null)
@@ -334,6 +550,20 @@ class JarClassLoader extends URLClassLoader
             jqmlogger.debug("Adding " + regex + " hiddenJavaClasses regex to CL");
             this.addHiddenJavaClassesPattern(Pattern.compile(regex));
         }
+
+        // A single regex is matched in one pass, instead of one pass per regex. Not possible with back references, as group numbers
+        // would change.
+        StringBuilder sb = new StringBuilder();
+        for (Pattern pattern : hiddenJavaClassesPatterns)
+        {
+            if (BACK_REFERENCE.matcher(pattern.pattern()).find())
+            {
+                this.hiddenJavaClassesPattern = null;
+                return;
+            }
+            sb.append(sb.length() == 0 ? "" : "|").append("(?:").append(pattern.pattern()).append(")");
+        }
+        this.hiddenJavaClassesPattern = Pattern.compile(sb.toString());
     }
 
     private void addHiddenJavaClassesPattern(Pattern hiddenJavaClassesPattern)
@@ -370,4 +600,27 @@ class JarClassLoader extends URLClassLoader
     {
         this.mayBeShared = val;
     }
+
+    ClassloaderPool getPool()
+    {
+        return pool;
+    }
+
+    void setPool(ClassloaderPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * Only called by the pool, which gives the CL to a single job instance at a time.
+     */
+    void incrementLaunchCount()
+    {
+        launchCount++;
+    }
+
+    int getLaunchCount()
+    {
+        return launchCount;
+    }
 }
@@ -0,0 +1,187 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enioka.jqm.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The list of the entries of a jar file, so that a {@link JarClassLoader} can tell at once if a class or a resource is inside one of its
+ * jars without opening and searching them all one after the other.<br>
+ * An index is immutable. It is built only once for a given jar file (same path, size and modification date) and shared by all the class
+ * loaders using this jar through a node-wide {@link Cache}.
+ */
+class JarIndex
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(JarIndex.class);
+
+    private final File file;
+    private final long length;
+    private final long lastModified;
+    private final Set<String> entries;
+    private final Set<String> packages;
+    private final List<File> manifestClassPath;
+
+    private JarIndex(File file) throws IOException
+    {
+        this.file = file;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+
+        Set<String> e = new HashSet<String>();
+        Set<String> p = new HashSet<String>();
+        List<File> cp = new ArrayList<File>();
+        JarFile jar = new JarFile(file);
+        try
+        {
+            Enumeration<JarEntry> it = jar.entries();
+            while (it.hasMoreElements())
+            {
+                String name = it.nextElement().getName();
+                e.add(name);
+                p.add(getPackage(name));
+            }
+
+            // Jars referenced inside the manifest are added to the class path by URLClassLoader - they must be indexed too.
+            Manifest manifest = jar.getManifest();
+            String classPath = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            if (classPath != null)
+            {
+                URL base = file.toURI().toURL();
+                for (String path : classPath.trim().split("\\s+"))
+                {
+                    if (path.isEmpty())
+                    {
+                        continue;
+                    }
+                    try
+                    {
+                        cp.add(new File(new URL(base, path).toURI()));
+                    }
+                    catch (Exception ex)
+                    {
+                        throw new IOException("invalid Class-Path manifest entry " + path + " inside " + file, ex);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            jar.close();
+        }
+
+        this.entries = Collections.unmodifiableSet(e);
+        this.packages = Collections.unmodifiableSet(p);
+        this.manifestClassPath = Collections.unmodifiableList(cp);
+    }
+
+    /**
+     * The directory part of a resource name ("" for the root of the jar).
+     */
+    static String getPackage(String resourceName)
+    {
+        int i = resourceName.lastIndexOf('/', resourceName.length() - 2);
+        return i < 0 ? "" : resourceName.substring(0, i);
+    }
+
+    /**
+     * Same rule as {@link JarFile#getEntry(String)}: a directory may be asked for with or without its trailing slash.
+     */
+    boolean contains(String resourceName)
+    {
+        return entries.contains(resourceName) || (!resourceName.endsWith("/") && entries.contains(resourceName + "/"));
+    }
+
+    Set<String> getPackages()
+    {
+        return packages;
+    }
+
+    List<File> getManifestClassPath()
+    {
+        return manifestClassPath;
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the file behind the URL, or null if the URL is not a local file.
+     */
+    static File toFile(URL url)
+    {
+        if (!"file".equals(url.getProtocol()))
+        {
+            return null;
+        }
+        try
+        {
+            return new File(url.toURI());
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    private boolean isUpToDate()
+    {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    /**
+     * The indexes of all the jars used by the class loaders of an engine. Thread safe.
+     */
+    static class Cache
+    {
+        private ConcurrentMap<String, JarIndex> indexes = new ConcurrentHashMap<String, JarIndex>();
+
+        /**
+         * @return the index of the given jar, created if needed or if the jar has changed since it was indexed.
+         */
+        JarIndex get(File jar) throws IOException
+        {
+            String key = jar.getCanonicalPath();
+            JarIndex res = indexes.get(key);
+            if (res == null || !res.isUpToDate())
+            {
+                jqmlogger.debug("Indexing jar " + key);
+                res = new JarIndex(new File(key));
+                indexes.put(key, res);
+            }
+            return res;
+        }
+    }
+}
@@ -50,6 +50,8 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.enioka.jqm.jdbc.PooledDataSource;
+
 /**
  * This class implements a basic JNDI context
  * 
@@ -223,7 +225,22 @@ class JndiContext extends InitialContext implements InitialContextFactoryBuilder
                     singletons.put(name, res);
 
                     // Pool JMX registration (only if cached - avoids leaks)
-                    if ("org.apache.tomcat.jdbc.pool.DataSourceFactory".equals(d.getFactoryClassName())
+                    if (res instanceof PooledDataSource
+                            && (d.get("jmxEnabled") == null ? true : Boolean.parseBoolean((String) d.get("jmxEnabled").getContent())))
+                    {
+                        try
+                        {
+                            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+                            ObjectName jmxname = new ObjectName("com.enioka.jqm:type=JdbcPool,name=" + name);
+                            mbs.registerMBean(res, jmxname);
+                            jmxNames.add(jmxname);
+                        }
+                        catch (Exception e)
+                        {
+                            jqmlogger.warn("Could not register JMX MBean for resource.", e);
+                        }
+                    }
+                    else if ("org.apache.tomcat.jdbc.pool.DataSourceFactory".equals(d.getFactoryClassName())
                             && (d.get("jmxEnabled") == null ? true : Boolean.parseBoolean((String) d.get("jmxEnabled").getContent())))
                     {
                         try
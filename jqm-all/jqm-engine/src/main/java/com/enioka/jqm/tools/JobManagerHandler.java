@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
@@ -54,11 +55,22 @@ class JobManagerHandler implements InvocationHandler
     private JobInstance ji;
     private Map<String, String> params = null;
     private Calendar lastPeek = null;
+    private MessageWriter writer = null;
+    private InstructionTable instructions = null;
+    private volatile Map<Method, ApiMethod> dispatchTable = null;
 
-    JobManagerHandler(JobInstance ji, Map<String, String> prms)
+    /**
+     * @param writer
+     *            if null, messages and progress are written synchronously.
+     * @param instructions
+     *            if null, instructions are read from the database.
+     */
+    JobManagerHandler(JobInstance ji, Map<String, String> prms, MessageWriter writer, InstructionTable instructions)
     {
         this.ji = ji;
         params = prms;
+        this.writer = writer;
+        this.instructions = instructions;
     }
 
     private JqmClient getJqmClient()
@@ -66,160 +78,397 @@ class JobManagerHandler implements InvocationHandler
         return JqmClientFactory.getClient();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Used by the class loader which creates the proxy, so that the table is only computed once per class loader. If not set, it is
+     * computed on first call.
+     */
+    void setDispatchTable(Map<Method, ApiMethod> dispatchTable)
+    {
+        this.dispatchTable = dispatchTable;
+    }
+
+    /**
+     * Associates the methods of the given <code>JobManager</code> interface with their implementation. There may be one version of the
+     * interface per payload class loader (different API versions), so the association is done on method name and parameter count.
+     */
+    static Map<Method, ApiMethod> getDispatchTable(Class<?> apiInterface)
+    {
+        Map<Method, ApiMethod> res = new HashMap<Method, ApiMethod>();
+        for (Method m : apiInterface.getMethods())
+        {
+            for (ApiMethod am : ApiMethod.values())
+            {
+                if (am.methodName.equals(m.getName()) && am.parameterCount == m.getParameterTypes().length)
+                {
+                    res.put(m, am);
+                }
+            }
+        }
+        return res;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
     {
-        ClassLoader initial = null;
-        String methodName = method.getName();
-        Class<?>[] classes = method.getParameterTypes();
-        jqmlogger.trace("An engine API method was called: " + methodName + " with nb arguments: " + classes.length);
+        Map<Method, ApiMethod> table = dispatchTable;
+        if (table == null)
+        {
+            // The first call may be a method of Object (toString...): its table is empty and must not be kept.
+            table = getDispatchTable(method.getDeclaringClass());
+            if (!table.isEmpty())
+            {
+                dispatchTable = table;
+            }
+        }
+        ApiMethod am = table.get(method);
+        if (am == null)
+        {
+            throw new NoSuchMethodException(method.getName());
+        }
+
+        // Getters only read data already in memory - they are often called inside loops, so nothing more than the call itself.
+        if (am.kind == Kind.GETTER)
+        {
+            return am.call(this, args);
+        }
+
+        jqmlogger.trace("An engine API method was called: " + am.methodName);
+        ClassLoader initial = Thread.currentThread().getContextClassLoader();
         try
         {
-            initial = Thread.currentThread().getContextClassLoader();
             Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
-            handleInstructions();
+            if (am.kind == Kind.INSTRUCTIONS)
+            {
+                handleInstructions();
+            }
+            return am.call(this, args);
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(initial);
+        }
+    }
+
+    private enum Kind
+    {
+        /**
+         * Simple read of the job instance data. Runs inside the payload context.
+         */
+        GETTER,
+        /**
+         * Needs the engine context (database, client API...).
+         */
+        ENGINE,
+        /**
+         * Needs the engine context and is a point where pause and kill instructions are applied.
+         */
+        INSTRUCTIONS
+    }
 
-            if (classes.length == 0)
+    /**
+     * The methods of the <code>JobManager</code> interface.
+     */
+    @SuppressWarnings("unchecked")
+    enum ApiMethod
+    {
+        JOB_APPLICATION_ID("jobApplicationId", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
             {
-                if ("jobApplicationId".equals(methodName))
-                {
-                    return this.ji.getJdId();
-                }
-                else if ("parentID".equals(methodName))
-                {
-                    return ji.getParentId();
-                }
-                else if ("jobInstanceID".equals(methodName))
-                {
-                    return ji.getId();
-                }
-                else if ("canBeRestarted".equals(methodName))
-                {
-                    return this.ji.getJD().isCanBeRestarted();
-                }
-                else if ("applicationName".equals(methodName))
-                {
-                    return ji.getJD().getApplicationName();
-                }
-                else if ("sessionID".equals(methodName))
-                {
-                    return ji.getSessionID();
-                }
-                else if ("application".equals(methodName))
-                {
-                    return ji.getJD().getApplication();
-                }
-                else if ("module".equals(methodName))
-                {
-                    return this.ji.getJD().getModule();
-                }
-                else if ("keyword1".equals(methodName))
-                {
-                    return ji.getKeyword1();
-                }
-                else if ("keyword2".equals(methodName))
-                {
-                    return ji.getKeyword2();
-                }
-                else if ("keyword3".equals(methodName))
-                {
-                    return ji.getKeyword3();
-                }
-                else if ("definitionKeyword1".equals(methodName))
-                {
-                    return this.ji.getJD().getKeyword1();
-                }
-                else if ("definitionKeyword2".equals(methodName))
-                {
-                    return this.ji.getJD().getKeyword2();
-                }
-                else if ("definitionKeyword3".equals(methodName))
-                {
-                    return this.ji.getJD().getKeyword3();
-                }
-                else if ("userName".equals(methodName))
-                {
-                    return ji.getUserName();
-                }
-                else if ("parameters".equals(methodName))
-                {
-                    return params;
-                }
-                else if ("defaultConnect".equals(methodName))
-                {
-                    return this.getDefaultConnectionName();
-                }
-                else if ("getDefaultConnection".equals(methodName))
-                {
-                    return this.getDefaultConnection();
-                }
-                else if ("getWorkDir".equals(methodName))
-                {
-                    return getWorkDir();
-                }
-                else if ("yield".equals(methodName))
-                {
-                    return null;
-                }
-                else if ("waitChildren".equals(methodName))
-                {
-                    waitChildren();
-                    return null;
-                }
+                return h.ji.getJdId();
             }
-            else if ("sendMsg".equals(methodName) && classes.length == 1 && classes[0] == String.class)
+        },
+
+        PARENT_ID("parentID", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
             {
-                sendMsg((String) args[0]);
-                return null;
+                return h.ji.getParentId();
             }
-            else if ("sendProgress".equals(methodName) && classes.length == 1 && classes[0] == Integer.class)
+        },
+
+        JOB_INSTANCE_ID("jobInstanceID", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
             {
-                sendProgress((Integer) args[0]);
-                return null;
+                return h.ji.getId();
+            }
+        },
+
+        CAN_BE_RESTARTED("canBeRestarted", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getJD().isCanBeRestarted();
+            }
+        },
+
+        APPLICATION_NAME("applicationName", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getJD().getApplicationName();
+            }
+        },
+
+        SESSION_ID("sessionID", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getSessionID();
+            }
+        },
+
+        APPLICATION("application", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getJD().getApplication();
+            }
+        },
+
+        MODULE("module", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getJD().getModule();
+            }
+        },
+
+        KEYWORD1("keyword1", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getKeyword1();
+            }
+        },
+
+        KEYWORD2("keyword2", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getKeyword2();
+            }
+        },
+
+        KEYWORD3("keyword3", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getKeyword3();
+            }
+        },
+
+        DEFINITION_KEYWORD1("definitionKeyword1", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getJD().getKeyword1();
+            }
+        },
+
+        DEFINITION_KEYWORD2("definitionKeyword2", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getJD().getKeyword2();
+            }
+        },
+
+        DEFINITION_KEYWORD3("definitionKeyword3", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getJD().getKeyword3();
+            }
+        },
+
+        USER_NAME("userName", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.ji.getUserName();
+            }
+        },
+
+        PARAMETERS("parameters", 0, Kind.GETTER)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args)
+            {
+                return h.params;
             }
-            else if ("enqueue".equals(methodName) && classes.length == 10 && classes[0] == String.class)
+        },
+
+        DEFAULT_CONNECT("defaultConnect", 0, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
             {
-                return enqueue((String) args[0], (String) args[1], (String) args[2], (String) args[3], (String) args[4], (String) args[5],
-                        (String) args[6], (String) args[7], (String) args[8], (Map<String, String>) args[9]);
+                return h.getDefaultConnectionName();
             }
-            else if ("enqueueSync".equals(methodName) && classes.length == 10 && classes[0] == String.class)
+        },
+
+        GET_DEFAULT_CONNECTION("getDefaultConnection", 0, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
             {
-                return enqueueSync((String) args[0], (String) args[1], (String) args[2], (String) args[3], (String) args[4],
+                return h.getDefaultConnection();
+            }
+        },
+
+        GET_WORK_DIR("getWorkDir", 0, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
+            {
+                return h.getWorkDir();
+            }
+        },
+
+        ENQUEUE("enqueue", 10, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
+            {
+                return h.enqueue((String) args[0], (String) args[1], (String) args[2], (String) args[3], (String) args[4],
                         (String) args[5], (String) args[6], (String) args[7], (String) args[8], (Map<String, String>) args[9]);
             }
-            else if ("addDeliverable".equals(methodName) && classes.length == 2 && classes[0] == String.class && classes[1] == String.class)
+        },
+
+        ENQUEUE_SYNC("enqueueSync", 10, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
+            {
+                return h.enqueueSync((String) args[0], (String) args[1], (String) args[2], (String) args[3], (String) args[4],
+                        (String) args[5], (String) args[6], (String) args[7], (String) args[8], (Map<String, String>) args[9]);
+            }
+        },
+
+        ADD_DELIVERABLE("addDeliverable", 2, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
+            {
+                return h.addDeliverable((String) args[0], (String) args[1]);
+            }
+        },
+
+        HAS_ENDED("hasEnded", 1, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
             {
-                return addDeliverable((String) args[0], (String) args[1]);
+                return h.hasEnded((Integer) args[0]);
             }
-            else if ("waitChild".equals(methodName) && classes.length == 1 && (args[0] instanceof Integer))
+        },
+
+        HAS_SUCCEEDED("hasSucceeded", 1, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
+            {
+                return h.hasSucceeded((Integer) args[0]);
+            }
+        },
+
+        HAS_FAILED("hasFailed", 1, Kind.ENGINE)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
+            {
+                return h.hasFailed((Integer) args[0]);
+            }
+        },
+
+        YIELD("yield", 0, Kind.INSTRUCTIONS)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
             {
-                waitChild((Integer) args[0]);
                 return null;
             }
-            else if ("hasEnded".equals(methodName) && classes.length == 1 && (args[0] instanceof Integer))
+        },
+
+        SEND_MSG("sendMsg", 1, Kind.INSTRUCTIONS)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
             {
-                return hasEnded((Integer) args[0]);
+                h.sendMsg((String) args[0]);
+                return null;
             }
-            else if ("hasSucceeded".equals(methodName) && classes.length == 1 && (args[0] instanceof Integer))
+        },
+
+        SEND_PROGRESS("sendProgress", 1, Kind.INSTRUCTIONS)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
             {
-                return hasSucceeded((Integer) args[0]);
+                h.sendProgress((Integer) args[0]);
+                return null;
             }
-            else if ("hasFailed".equals(methodName) && classes.length == 1 && (args[0] instanceof Integer))
+        },
+
+        WAIT_CHILD("waitChild", 1, Kind.INSTRUCTIONS)
+        {
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
             {
-                return hasFailed((Integer) args[0]);
+                h.waitChild((Integer) args[0]);
+                return null;
             }
+        },
 
-            throw new NoSuchMethodException(methodName);
-        }
-        finally
+        WAIT_CHILDREN("waitChildren", 0, Kind.INSTRUCTIONS)
         {
-            Thread.currentThread().setContextClassLoader(initial);
+            @Override
+            Object call(JobManagerHandler h, Object[] args) throws Exception
+            {
+                h.waitChildren();
+                return null;
+            }
+        };
+
+        private final String methodName;
+        private final int parameterCount;
+        private final Kind kind;
+
+        private ApiMethod(String methodName, int parameterCount, Kind kind)
+        {
+            this.methodName = methodName;
+            this.parameterCount = parameterCount;
+            this.kind = kind;
         }
+
+        abstract Object call(JobManagerHandler h, Object[] args) throws Exception;
     }
 
     private void handleInstructions()
     {
+        if (instructions != null)
+        {
+            handleInstructionsFromTable();
+            return;
+        }
+
         // Throttle: only peek once every 1 second.
         if (lastPeek != null && Calendar.getInstance().getTimeInMillis() - lastPeek.getTimeInMillis() < 1000L)
         {
@@ -266,6 +515,39 @@ class JobManagerHandler implements InvocationHandler
         }
     }
 
+    /**
+     * Same as {@link #handleInstructions()}, but with the instructions retrieved for the whole node by the engine - no database access here.
+     */
+    private void handleInstructionsFromTable()
+    {
+        Instruction s = instructions.get(ji.getId());
+        if (s.equals(Instruction.PAUSE))
+        {
+            jqmlogger.info("Job will be paused at the request of a user");
+            sendMsg("Pause is beginning");
+            try
+            {
+                s = instructions.waitWhilePaused(ji.getId());
+            }
+            catch (InterruptedException e)
+            {
+                throw new RuntimeException("job thread was interrupted");
+            }
+            if (!s.equals(Instruction.KILL))
+            {
+                jqmlogger.info("Job instance is resuming");
+                sendMsg("Job instance is resuming");
+            }
+        }
+
+        if (s.equals(Instruction.KILL))
+        {
+            jqmlogger.info("Job will be killed at the request of a user");
+            Thread.currentThread().interrupt();
+            throw new JqmKillException("This job" + "(ID: " + ji.getId() + ")" + " has been killed by a user");
+        }
+    }
+
     /**
      * Create a {@link com.enioka.jqm.model.Message} with the given message. The {@link com.enioka.jqm.model.History} to link to is deduced
      * from the context.
@@ -275,6 +557,12 @@ class JobManagerHandler implements InvocationHandler
      */
     private void sendMsg(String msg)
     {
+        if (writer != null)
+        {
+            writer.addMessage(ji.getId(), msg);
+            return;
+        }
+
         DbConn cnx = Helpers.getNewDbSession();
 
         try
@@ -296,10 +584,16 @@ class JobManagerHandler implements InvocationHandler
      */
     private void sendProgress(Integer msg)
     {
+        this.ji.setProgress(msg); // Not persisted, but useful to the Loader.
+        if (writer != null)
+        {
+            writer.setProgress(ji.getId(), msg);
+            return;
+        }
+
         DbConn cnx = Helpers.getNewDbSession();
         try
         {
-            this.ji.setProgress(msg); // Not persisted, but useful to the Loader.
             cnx.runUpdate("jj_update_progress_by_id", msg, ji.getId());
             cnx.commit();
         }
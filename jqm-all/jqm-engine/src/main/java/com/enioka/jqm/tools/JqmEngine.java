@@ -20,10 +20,10 @@ package com.enioka.jqm.tools;
 
 import java.lang.management.ManagementFactory;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
@@ -35,6 +35,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.EnqueueListener;
 import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.jdbc.QueryResult;
 import com.enioka.jqm.model.DeploymentParameter;
@@ -66,14 +67,20 @@ class JqmEngine implements JqmEngineMBean, JqmEngineOperations
     private final ClassloaderManager clManager = new ClassloaderManager();
 
     // Threads that together constitute the engine
-    private Map<Integer, QueuePoller> pollers = new HashMap<Integer, QueuePoller>();
+    private Map<Integer, QueuePoller> pollers = new ConcurrentHashMap<Integer, QueuePoller>();
     private InternalPoller intPoller = null;
     private CronScheduler scheduler = null;
+    private EnqueueListener enqueueListener = null;
+    private LoaderFinalizer finalizer = null;
+    private MessageWriter messageWriter = null;
+    private InstructionTable instructionTable = new InstructionTable();
+    private ExternalWorkerPool externalWorkerPool = null;
 
     // Misc data
     private Calendar startTime = Calendar.getInstance();
     private Thread killHook = null;
     boolean loadJmxBeans = true;
+    boolean virtualPayloadThreads = false;
     private AtomicLong endedInstances = new AtomicLong(0);
 
     // DB connection resilience data
@@ -155,6 +162,7 @@ class JqmEngine implements JqmEngineMBean, JqmEngineOperations
 
         // Log parameters
         Helpers.dumpParameters(cnx, node);
+        virtualPayloadThreads = Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "payloadVirtualThreads", "false"));
 
         // The handler may take any actions it wishes here - such as setting log levels, starting Jetty...
         if (this.handler != null)
@@ -208,10 +216,35 @@ class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         // Cleanup
         purgeDeadJobInstances(cnx, this.node);
 
+        // End of run DB operations
+        finalizer = new LoaderFinalizer(this, cnx);
+        new Thread(finalizer).start();
+
+        // Messages & progress sent by payloads
+        messageWriter = new MessageWriter(cnx);
+        new Thread(messageWriter).start();
+
+        // Pre-started JVMs for external payloads (0 means a new JVM is started on each launch)
+        if (Integer.parseInt(GlobalParameter.getParameter(cnx, "externalWorkerMaxRuns", "1")) > 0)
+        {
+            externalWorkerPool = new ExternalWorkerPool(cnx);
+        }
+
         // Pollers
         syncPollers(cnx, this.node);
         jqmlogger.info("All required queues are now polled");
 
+        // Local enqueues wake up the relevant pollers immediately
+        enqueueListener = new EnqueueListener()
+        {
+            @Override
+            public void onEnqueue(int queueId)
+            {
+                signalEnqueue(queueId);
+            }
+        };
+        Helpers.getDb().addEnqueueListener(enqueueListener);
+
         // Internal poller (stop notifications, keep alive)
         intPoller = new InternalPoller(this);
         Thread t = new Thread(intPoller);
@@ -360,6 +393,13 @@ class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         hasEnded = true;
 
         // If here, all pollers are down. Stop everythong else.
+        if (this.externalWorkerPool != null)
+        {
+            this.externalWorkerPool.stop();
+        }
+        this.messageWriter.stop();
+        this.finalizer.stop();
+        Helpers.getDb().removeEnqueueListener(enqueueListener);
         if (handler != null)
         {
             handler.onNodeStopped();
@@ -552,7 +592,14 @@ class JqmEngine implements JqmEngineMBean, JqmEngineOperations
                 while (l != null)
                 {
                     jqmlogger.warn("restarting (after db failure during initialization) loader " + l.getId());
-                    (new Thread(l)).start();
+                    if (l.getQueuePoller() != null)
+                    {
+                        l.getQueuePoller().launch(l);
+                    }
+                    else
+                    {
+                        (new Thread(l)).start();
+                    }
                     l = loaderToRestart.poll();
                 }
 
@@ -562,11 +609,48 @@ class JqmEngine implements JqmEngineMBean, JqmEngineOperations
         qpRestarter.start();
     }
 
+    LoaderFinalizer getLoaderFinalizer()
+    {
+        return this.finalizer;
+    }
+
+    MessageWriter getMessageWriter()
+    {
+        return this.messageWriter;
+    }
+
+    InstructionTable getInstructionTable()
+    {
+        return this.instructionTable;
+    }
+
+    /**
+     * May be null if external workers are disabled.
+     */
+    ExternalWorkerPool getExternalWorkerPool()
+    {
+        return this.externalWorkerPool;
+    }
+
     ClassloaderManager getClassloaderManager()
     {
         return this.clManager;
     }
 
+    /**
+     * Called when a new job instance was created inside this JVM. Pollers of its queue are woken up.
+     */
+    void signalEnqueue(int queueId)
+    {
+        for (QueuePoller p : this.pollers.values())
+        {
+            if (p.getQueue().getId() == queueId)
+            {
+                p.forceLoop();
+            }
+        }
+    }
+
     void signalEndOfRun()
     {
         this.endedInstances.incrementAndGet();
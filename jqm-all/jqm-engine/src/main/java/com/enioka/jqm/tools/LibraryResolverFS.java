@@ -21,10 +21,13 @@ import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -37,15 +40,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobDef;
 import com.enioka.jqm.model.Node;
 
 /**
  * The cache is responsible for resolving the dependencies of a payload (from a pom, from a lib directory, ...). As the resolution is
  * costly, it is only done the first time and cached afterwards. <br>
- * Cache invalidation is done by analyzing the last modification date of the payload jar and of the lib directory (if any) on each call.<br>
+ * Cache invalidation is done by analyzing the last modification date of the payload jar and of the lib directory (if any), at most once
+ * every libCacheCheckPeriodMs milliseconds for a given job definition.<br>
  * There is one library cache per engine.<br>
- * This object is thread-safe.
+ * This object is thread-safe and does not lock on reads: concurrent launches of the same job definition share a single resolution, and
+ * the resolution of a job definition never blocks the launches of another (unless they share the same jar directory).
  */
 class LibraryResolverFS
 {
@@ -54,10 +60,18 @@ class LibraryResolverFS
     private static class JobDefLibrary
     {
         URL[] urls;
-        Date loadTime;
+        long loadTime;
+        AtomicLong lastCheck = new AtomicLong();
     }
 
-    private Map<String, JobDefLibrary> cache = new HashMap<String, LibraryResolverFS.JobDefLibrary>();
+    private final ConcurrentMap<String, FutureTask<JobDefLibrary>> cache = new ConcurrentHashMap<String, FutureTask<JobDefLibrary>>();
+
+    /**
+     * Resolutions inside the same directory must not run concurrently (pom extraction...).
+     */
+    private final ConcurrentMap<String, Object> directoryLocks = new ConcurrentHashMap<String, Object>();
+
+    private volatile Long checkPeriodMs = null;
 
     /**
      * 
@@ -69,36 +83,84 @@ class LibraryResolverFS
      *            a DbConn that will be used only if not in cache, to fetch the Maven repository list from the database.
      * @throws JqmPayloadException
      */
-    synchronized URL[] getLibraries(Node n, JobDef jd, DbConn cnx) throws JqmPayloadException
+    URL[] getLibraries(final Node n, final JobDef jd, final DbConn cnx) throws JqmPayloadException
     {
-        if (shouldLoad(n, jd))
+        if (checkPeriodMs == null)
         {
-            loadCache(n, jd, cnx);
+            checkPeriodMs = Long.parseLong(GlobalParameter.getParameter(cnx, "libCacheCheckPeriodMs", "1000"));
+        }
+
+        String key = jd.getApplicationName();
+        while (true)
+        {
+            FutureTask<JobDefLibrary> f = cache.get(key);
+            if (f == null)
+            {
+                FutureTask<JobDefLibrary> newTask = new FutureTask<JobDefLibrary>(new Callable<JobDefLibrary>()
+                {
+                    @Override
+                    public JobDefLibrary call() throws Exception
+                    {
+                        return load(n, jd, cnx);
+                    }
+                });
+                f = cache.putIfAbsent(key, newTask);
+                if (f == null)
+                {
+                    // We are the one doing the resolution.
+                    f = newTask;
+                    f.run();
+                }
+            }
+
+            JobDefLibrary libs;
+            try
+            {
+                libs = f.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new JqmPayloadException("Interrupted while waiting for library resolution", e);
+            }
+            catch (ExecutionException e)
+            {
+                // Do not cache failures.
+                cache.remove(key, f);
+                if (e.getCause() instanceof JqmPayloadException)
+                {
+                    throw (JqmPayloadException) e.getCause();
+                }
+                throw new JqmPayloadException("Could not resolve libraries", e.getCause());
+            }
+
+            if (isStale(n, jd, libs))
+            {
+                cache.remove(key, f);
+                continue;
+            }
+            return libs.urls;
         }
-        return cache.get(jd.getApplicationName()).urls;
     }
 
     /**
-     * Returns true if the libraries should be loaded in cache. Two cases: never loaded and should be reloaded (jar is more recent than
-     * cache)
+     * Returns true if the libraries should be loaded again (jar is more recent than cache). The file system is only checked if it was not
+     * checked recently, and by a single thread.
      */
-    private boolean shouldLoad(Node node, JobDef jd)
+    private boolean isStale(Node node, JobDef jd, JobDefLibrary libs)
     {
-        if (!cache.containsKey(jd.getApplicationName()))
+        long now = System.currentTimeMillis();
+        long last = libs.lastCheck.get();
+        if (now - last < checkPeriodMs || !libs.lastCheck.compareAndSet(last, now))
         {
-            return true;
+            return false;
         }
-        // If here: cache exists.
-        JobDefLibrary libs = cache.get(jd.getApplicationName());
 
-        // Is cache stale?
-        Date lastLoaded = libs.loadTime;
         File jarFile = new File(FilenameUtils.concat(new File(node.getRepo()).getAbsolutePath(), jd.getJarPath()));
         File jarDir = jarFile.getParentFile();
         File libDir = new File(FilenameUtils.concat(jarDir.getAbsolutePath(), "lib"));
 
-        if (lastLoaded.before(new Date(jarFile.lastModified())) || lastLoaded.before(new Date(jarDir.lastModified()))
-                || lastLoaded.before(new Date(libDir.lastModified())))
+        if (libs.loadTime < jarFile.lastModified() || libs.loadTime < jarDir.lastModified() || libs.loadTime < libDir.lastModified())
         {
             jqmlogger.info("The cache for application " + jd.getApplicationName() + " will be reloaded");
             return true;
@@ -108,7 +170,24 @@ class LibraryResolverFS
         return false;
     }
 
-    private void loadCache(Node node, JobDef jd, DbConn cnx) throws JqmPayloadException
+    private JobDefLibrary load(Node node, JobDef jd, DbConn cnx) throws JqmPayloadException
+    {
+        File jarDir = new File(FilenameUtils.concat(new File(node.getRepo()).getAbsolutePath(), jd.getJarPath())).getParentFile();
+        Object lock = new Object();
+        Object previous = directoryLocks.putIfAbsent(jarDir.getAbsolutePath(), lock);
+
+        JobDefLibrary res = new JobDefLibrary();
+        synchronized (previous != null ? previous : lock)
+        {
+            res.urls = loadCache(node, jd, cnx);
+        }
+        // Date taken after the resolution, as the resolution itself may modify the jar directory (pom extraction).
+        res.loadTime = System.currentTimeMillis();
+        res.lastCheck.set(res.loadTime);
+        return res;
+    }
+
+    private URL[] loadCache(Node node, JobDef jd, DbConn cnx) throws JqmPayloadException
     {
         jqmlogger.debug("Resolving classpath for job definition " + jd.getApplicationName());
 
@@ -226,9 +305,7 @@ class LibraryResolverFS
                     throw new JqmPayloadException("Could not handle internal lib directory", e);
                 }
 
-                // Put in cache
-                putInCache(libUrls, jd.getApplicationName());
-                return;
+                return libUrls;
             }
         }
 
@@ -255,15 +332,12 @@ class LibraryResolverFS
             // Extract results
             URL[] tmp = LibraryResolverMaven.extractMavenResults(depFiles);
 
-            // Put in cache
-            putInCache(tmp, jd.getApplicationName());
-
             // Cleanup
             if (pomFromJar && !pomFile.delete())
             {
                 jqmlogger.warn("Could not delete the temp pom file extracted from the jar.");
             }
-            return;
+            return tmp;
         }
 
         // 4: if lib, use lib... (lib has priority over pom)
@@ -285,21 +359,10 @@ class LibraryResolverFS
                 }
             }
 
-            // Put in cache
-            putInCache(tmp, jd.getApplicationName());
-            return;
+            return tmp;
         }
 
         throw new JqmPayloadException(
                 "There is no lib dir or no pom.xml inside the directory containing the jar or inside the jar. The jar cannot be launched.");
     }
-
-    private void putInCache(URL[] urls, String applicationName)
-    {
-        JobDefLibrary jdl = new JobDefLibrary();
-        jdl.loadTime = new Date();
-        jdl.urls = urls;
-
-        this.cache.put(applicationName, jdl);
-    }
 }
@@ -1,12 +1,21 @@
 package com.enioka.jqm.tools;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.jboss.shrinkwrap.resolver.api.maven.ConfigurableMavenResolverSystem;
 import org.jboss.shrinkwrap.resolver.api.maven.Maven;
 import org.jboss.shrinkwrap.resolver.api.maven.repository.MavenRemoteRepositories;
@@ -15,24 +24,74 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.MetadataCache;
 import com.enioka.jqm.model.GlobalParameter;
 import com.enioka.jqm.model.JobInstance;
+import com.enioka.jqm.model.Node;
 
+/**
+ * Resolves the class path of payloads given as Maven coordinates.<br>
+ * Resolutions are cached in memory and in an index file inside the temporary directory of the node, so that neither a new launch nor a
+ * node restart needs a new resolution. Entries are keyed by coordinates and by the repository configuration. Releases are cached until
+ * their files disappear; SNAPSHOT (and other moving) versions are resolved again after mavenSnapshotTtlMs milliseconds.<br>
+ * This object is thread-safe.
+ */
 public class LibraryResolverMaven
 {
     private static Logger jqmlogger = LoggerFactory.getLogger(LibraryResolverMaven.class);
 
-    private static List<String> REPO_LIST = null;
-    private static String MAVEN_SETTINGS_CL = null;
-    private static String MAVEN_SETTINGS_FILE = null;
+    private static final String INDEX_FILE_NAME = "maven_resolution_cache.properties";
+
+    /**
+     * The resolver configuration, as read from the global parameters. Immutable.
+     */
+    private static class Configuration
+    {
+        final List<String> repoList;
+        final String mavenSettingsCl;
+        final String mavenSettingsFile;
+        final String hash;
+
+        Configuration(List<String> repoList, String mavenSettingsCl, String mavenSettingsFile)
+        {
+            this.repoList = repoList;
+            this.mavenSettingsCl = mavenSettingsCl;
+            this.mavenSettingsFile = mavenSettingsFile;
+            this.hash = Integer.toHexString((repoList + "|" + mavenSettingsCl + "|" + mavenSettingsFile).hashCode());
+        }
+    }
+
+    private static class Resolution
+    {
+        URL[] urls;
+        long resolutionTime;
+    }
+
+    private final Map<String, Resolution> cache = new ConcurrentHashMap<String, Resolution>();
+    private File indexFile = null;
+    private volatile Long snapshotTtlMs = null;
 
     URL[] resolve(JobInstance ji, DbConn cnx) throws JqmPayloadException
     {
-        ConfigurableMavenResolverSystem resolver = getMavenResolver(cnx);
+        Configuration conf = getConfiguration(cnx);
+        if (snapshotTtlMs == null)
+        {
+            init(ji.getNode(), cnx);
+        }
+
+        String gav = ji.getJD().getJarPath();
+        String key = gav + "|" + conf.hash;
+        Resolution r = cache.get(key);
+        if (r != null && (!isMoving(gav) || System.currentTimeMillis() - r.resolutionTime < snapshotTtlMs))
+        {
+            return r.urls;
+        }
 
         try
         {
-            return extractMavenResults(resolver.resolve(ji.getJD().getJarPath()).withTransitivity().asFile());
+            r = new Resolution();
+            r.urls = extractMavenResults(getMavenResolver(conf).resolve(gav).withTransitivity().asFile());
+            r.resolutionTime = System.currentTimeMillis();
         }
         catch (JqmPayloadException e)
         {
@@ -43,36 +102,182 @@ public class LibraryResolverMaven
             throw new JqmPayloadException("Could not resolve a Maven payload path", e);
         }
 
+        cache.put(key, r);
+        saveIndex();
+        return r.urls;
     }
 
-    static ConfigurableMavenResolverSystem getMavenResolver(DbConn cnx)
+    /**
+     * Versions which may point to different files over time.
+     */
+    private static boolean isMoving(String gav)
     {
-        // Retrieve resolver configuration
-        if (REPO_LIST == null)
+        return gav.endsWith("-SNAPSHOT") || gav.endsWith(":LATEST") || gav.endsWith(":RELEASE") || gav.contains("[") || gav.contains("(")
+                || gav.contains(",");
+    }
+
+    /**
+     * Loads the index file on first call. Entries whose files have disappeared (purged local repository...) are ignored.
+     */
+    private synchronized void init(Node node, DbConn cnx)
+    {
+        if (snapshotTtlMs != null)
+        {
+            return;
+        }
+        long ttl = Long.parseLong(GlobalParameter.getParameter(cnx, "mavenSnapshotTtlMs", "300000"));
+        try
+        {
+            loadIndex(node);
+        }
+        finally
+        {
+            snapshotTtlMs = ttl;
+        }
+    }
+
+    private void loadIndex(Node node)
+    {
+        if (node == null || node.getTmpDirectory() == null)
+        {
+            return;
+        }
+        indexFile = new File(node.getTmpDirectory(), INDEX_FILE_NAME);
+        if (!indexFile.isFile())
+        {
+            return;
+        }
+
+        Properties index = new Properties();
+        InputStream is = null;
+        try
+        {
+            is = new FileInputStream(indexFile);
+            index.load(is);
+        }
+        catch (IOException e)
+        {
+            jqmlogger.warn("Maven resolution cache index " + indexFile.getAbsolutePath() + " could not be read and will be rebuilt", e);
+            return;
+        }
+        finally
         {
-            List<GlobalParameter> repolist = GlobalParameter.select(cnx, "globalprm_select_by_key", "mavenRepo");
-            REPO_LIST = new ArrayList<String>(repolist.size());
-            for (GlobalParameter gp : repolist)
+            IOUtils.closeQuietly(is);
+        }
+
+        for (String key : index.stringPropertyNames())
+        {
+            String[] segments = index.getProperty(key).split(" ");
+            try
+            {
+                Resolution r = new Resolution();
+                r.resolutionTime = Long.parseLong(segments[0]);
+                r.urls = new URL[segments.length - 1];
+                for (int i = 1; i < segments.length; i++)
+                {
+                    r.urls[i - 1] = new URL(segments[i]);
+                    if (!new File(r.urls[i - 1].toURI()).exists())
+                    {
+                        throw new IOException("file has disappeared: " + segments[i]);
+                    }
+                }
+                cache.put(key, r);
+            }
+            catch (Exception e)
             {
-                REPO_LIST.add(gp.getValue());
+                jqmlogger.debug("Maven resolution cache entry " + key + " is ignored", e);
             }
+        }
+        jqmlogger.info("{} Maven payload resolutions were loaded from cache", cache.size());
+    }
 
-            MAVEN_SETTINGS_CL = GlobalParameter.getParameter(cnx, "mavenSettingsCL", null);
-            MAVEN_SETTINGS_FILE = GlobalParameter.getParameter(cnx, "mavenSettingsFile", null);
+    /**
+     * Writes the whole index. Done through a temporary file, so that a crash does not corrupt the index.
+     */
+    private synchronized void saveIndex()
+    {
+        if (indexFile == null)
+        {
+            return;
+        }
+
+        Properties index = new Properties();
+        for (Map.Entry<String, Resolution> e : cache.entrySet())
+        {
+            StringBuilder sb = new StringBuilder().append(e.getValue().resolutionTime);
+            for (URL u : e.getValue().urls)
+            {
+                sb.append(' ').append(u.toExternalForm());
+            }
+            index.setProperty(e.getKey(), sb.toString());
+        }
+
+        File tmp = new File(indexFile.getParentFile(), INDEX_FILE_NAME + ".tmp");
+        OutputStream os = null;
+        try
+        {
+            indexFile.getParentFile().mkdirs();
+            os = new FileOutputStream(tmp);
+            index.store(os, "JQM Maven resolution cache - can be safely removed");
+            os.close();
+            if (!tmp.renameTo(indexFile) && (!indexFile.delete() || !tmp.renameTo(indexFile)))
+            {
+                throw new IOException("could not rename " + tmp.getAbsolutePath());
+            }
+        }
+        catch (IOException e)
+        {
+            jqmlogger.warn("Maven resolution cache index could not be written - resolutions will be done again after restart", e);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(os);
         }
+    }
 
+    /**
+     * Retrieve resolver configuration. It is kept inside the metadata cache, so it is only read again when global parameters change - and
+     * no lock is taken on the way.
+     */
+    private static Configuration getConfiguration(DbConn cnx)
+    {
+        return cnx.getMetadataCache().get(cnx, "globalprm_maven:configuration", new MetadataCache.Loader<Configuration>()
+        {
+            @Override
+            public Configuration load(DbConn cnx)
+            {
+                List<GlobalParameter> repolist = GlobalParameter.select(cnx, "globalprm_select_by_key", "mavenRepo");
+                List<String> repos = new ArrayList<String>(repolist.size());
+                for (GlobalParameter gp : repolist)
+                {
+                    repos.add(gp.getValue());
+                }
+
+                return new Configuration(repos, GlobalParameter.getParameter(cnx, "mavenSettingsCL", null),
+                        GlobalParameter.getParameter(cnx, "mavenSettingsFile", null));
+            }
+        });
+    }
+
+    static ConfigurableMavenResolverSystem getMavenResolver(DbConn cnx)
+    {
+        return getMavenResolver(getConfiguration(cnx));
+    }
+
+    private static ConfigurableMavenResolverSystem getMavenResolver(Configuration conf)
+    {
         boolean withCentral = false;
         String withCustomSettings = null;
         String withCustomSettingsFile = null;
-        if (MAVEN_SETTINGS_CL != null && MAVEN_SETTINGS_FILE == null)
+        if (conf.mavenSettingsCl != null && conf.mavenSettingsFile == null)
         {
-            jqmlogger.trace("Custom settings file will be used: " + MAVEN_SETTINGS_CL);
-            withCustomSettings = MAVEN_SETTINGS_CL;
+            jqmlogger.trace("Custom settings file will be used: " + conf.mavenSettingsCl);
+            withCustomSettings = conf.mavenSettingsCl;
         }
-        if (MAVEN_SETTINGS_FILE != null)
+        if (conf.mavenSettingsFile != null)
         {
-            jqmlogger.trace("Custom settings file will be used: " + MAVEN_SETTINGS_FILE);
-            withCustomSettingsFile = MAVEN_SETTINGS_FILE;
+            jqmlogger.trace("Custom settings file will be used: " + conf.mavenSettingsFile);
+            withCustomSettingsFile = conf.mavenSettingsFile;
         }
 
         // Configure resolver
@@ -86,7 +291,7 @@ public class LibraryResolverMaven
             resolver.fromFile(withCustomSettingsFile);
         }
 
-        for (String repo : REPO_LIST)
+        for (String repo : conf.repoList)
         {
             if (repo.contains("repo1.maven.org"))
             {
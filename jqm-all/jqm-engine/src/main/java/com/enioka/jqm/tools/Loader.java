@@ -62,6 +62,7 @@ class Loader implements Runnable, LoaderMBean
 
     private ObjectName name = null;
     private ClassLoader classLoaderToRestoreAtEnd = null;
+    private JarClassLoader jobClassLoader = null;
     Boolean isDone = false, isDelayed = false;
     private String threadName;
 
@@ -131,7 +132,6 @@ class Loader implements Runnable, LoaderMBean
                 + " - class is: " + job.getJD().getJavaClassName());
 
         final Map<String, String> params;
-        final JarClassLoader jobClassLoader;
         final JobManagerHandler handler;
         this.node = this.job.getNode();
 
@@ -161,8 +161,11 @@ class Loader implements Runnable, LoaderMBean
 
             // Cache heating
             this.job.getJD().getClassLoader(cnx);
+            long clStart = System.nanoTime();
             jobClassLoader = this.clm.getClassloader(job, cnx);
-            handler = new JobManagerHandler(job, params);
+            Metrics.CLASSLOADER_BUILD.get().recordSince(clStart);
+            handler = new JobManagerHandler(job, params, engine != null ? engine.getMessageWriter() : null,
+                    engine != null ? engine.getInstructionTable() : null);
 
             // Update of the job status, dates & co
             this.job.setExecutionDate(Calendar.getInstance()); // For use in JMX
@@ -175,9 +178,15 @@ class Loader implements Runnable, LoaderMBean
                 {
                     p.decreaseNbThread(job.getId());
                 }
+                clm.releaseClassloader(jobClassLoader, State.CANCELLED);
                 return;
             }
             cnx.commit();
+            if (p != null && job.getCreationDate() != null)
+            {
+                p.getQueueToStart().record(
+                        Math.max(0, job.getExecutionDate().getTimeInMillis() - job.getCreationDate().getTimeInMillis()) * 1000000);
+            }
         }
         catch (JqmPayloadException e)
         {
@@ -250,6 +259,26 @@ class Loader implements Runnable, LoaderMBean
         jqmlogger.debug("End of loader for JobInstance " + this.job.getId() + ". Thread will now end");
     }
 
+    QueuePoller getQueuePoller()
+    {
+        return this.p;
+    }
+
+    JobInstance getJobInstance()
+    {
+        return this.job;
+    }
+
+    State getResultStatus()
+    {
+        return this.resultStatus;
+    }
+
+    Calendar getEndDate()
+    {
+        return this.endDate;
+    }
+
     /**
      * For external payloads. This is used to force the end of run.
      */
@@ -277,6 +306,14 @@ class Loader implements Runnable, LoaderMBean
             }
         }
 
+        // Metrics
+        Metrics.ENDED.get(this.resultStatus.name()).inc();
+        if (job.getExecutionDate() != null)
+        {
+            Metrics.RUN_DURATION.get(job.getJD().getApplicationName())
+                    .record(Math.max(0, endDate.getTimeInMillis() - job.getExecutionDate().getTimeInMillis()) * 1000000);
+        }
+
         // Release the slot so as to allow other job instances to run (first op!)
         if (p != null)
         {
@@ -296,10 +333,13 @@ class Loader implements Runnable, LoaderMBean
             }
         }
 
-        // Clean class loader
-        ClassLoaderLeakCleaner.clean(Thread.currentThread().getContextClassLoader());
+        // Clean class loader. Pooled class loaders are reused - they are only cleaned when thrown out of their pool.
+        if (this.jobClassLoader == null || this.jobClassLoader.getPool() == null)
+        {
+            ClassLoaderLeakCleaner.clean(Thread.currentThread().getContextClassLoader());
+        }
 
-        // Clean JDBC connections
+        // Clean JDBC connections (the ones leaked by this thread, whatever its class loader)
         ClassLoaderLeakCleaner.cleanJdbc(Thread.currentThread());
 
         // Restore class loader
@@ -309,6 +349,12 @@ class Loader implements Runnable, LoaderMBean
             jqmlogger.trace("Class Loader was correctly restored");
         }
 
+        // Give back the class loader if it is pooled, before the history is created so that the next launch can use it.
+        if (this.jobClassLoader != null)
+        {
+            clm.releaseClassloader(this.jobClassLoader, this.resultStatus);
+        }
+
         // Clean temp dir (if it exists)
         File tmpDir = new File(FilenameUtils.concat(node.getTmpDirectory(), "" + job.getId()));
         if (tmpDir.isDirectory())
@@ -351,8 +397,29 @@ class Loader implements Runnable, LoaderMBean
             this.engine.getHandler().onJobInstanceDone(job);
         }
 
-        // Part needing DB connection with specific failure handling code.
-        endOfRunDb();
+        // Messages and progress sent by the payload must be written before the History.
+        if (this.engine != null && this.engine.getMessageWriter() != null)
+        {
+            try
+            {
+                this.engine.getMessageWriter().flush();
+            }
+            catch (RuntimeException e)
+            {
+                // The writer keeps the data and will retry on its own.
+                jqmlogger.warn("Messages of job instance " + this.job.getId() + " could not be written before the end of run", e);
+            }
+        }
+
+        // Part needing DB connection with specific failure handling code. Grouped with other job instances when inside an engine.
+        if (this.engine != null && this.engine.getLoaderFinalizer() != null)
+        {
+            this.engine.getLoaderFinalizer().add(this);
+        }
+        else
+        {
+            endOfRunDb();
+        }
     }
 
     /**
@@ -364,6 +431,7 @@ class Loader implements Runnable, LoaderMBean
 
         try
         {
+            long start = System.nanoTime();
             cnx = Helpers.getNewDbSession();
 
             // Done: put inside history & remove instance from queue.
@@ -371,6 +439,7 @@ class Loader implements Runnable, LoaderMBean
             jqmlogger.trace("An History was just created for job instance " + this.job.getId());
             cnx.runUpdate("ji_delete_by_id", this.job.getId());
             cnx.commit();
+            Metrics.END_OF_RUN_DB.get().recordSince(start);
         }
         catch (RuntimeException e)
         {
@@ -489,12 +558,7 @@ class Loader implements Runnable, LoaderMBean
     @Override
     public Long getRunTimeSeconds()
     {
-        if (this.job.getExecutionDate() == null)
-        {
-            DbConn cnx = Helpers.getNewDbSession();
-            this.job.setExecutionDate(cnx.runSelectSingle("ji_select_execution_date_by_id", Calendar.class, this.job.getId()));
-            cnx.close();
-        }
+        // The execution date is set by the loader itself before the start, so no need to ask the database.
         if (this.job.getExecutionDate() == null)
         {
             return 0L;
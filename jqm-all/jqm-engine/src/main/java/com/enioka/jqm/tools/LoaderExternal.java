@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 
 import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.JobDef;
 import com.enioka.jqm.model.JobInstance;
 
 class LoaderExternal implements Runnable
@@ -32,19 +33,56 @@ class LoaderExternal implements Runnable
     {
         this.jobId = job.getId();
         this.qp = qp;
-        opts = job.getJD().getJavaOpts() == null
-                ? GlobalParameter.getParameter(cnx, "defaultExternalOpts", "-Xms32m -Xmx128m -XX:MaxPermSize=64m")
-                : job.getJD().getJavaOpts();
+        opts = getJavaOpts(cnx, job.getJD());
         killCheckPeriodMs = Integer.parseInt(GlobalParameter.getParameter(cnx, "internalPollingPeriodMs", "1000"));
 
         logFile = "./logs";
         logFile = FilenameUtils.concat(logFile, StringUtils.leftPad("" + jobId, 10, "0") + ".log");
     }
 
+    /**
+     * The options of the JVM running the given job definition.
+     */
+    static String getJavaOpts(DbConn cnx, JobDef jd)
+    {
+        return jd.getJavaOpts() == null ? GlobalParameter.getParameter(cnx, "defaultExternalOpts", "-Xms32m -Xmx128m -XX:MaxPermSize=64m")
+                : jd.getJavaOpts();
+    }
+
     @Override
     public void run()
     {
         jqmlogger.debug("Starting external loader for job " + jobId);
+
+        ExternalWorkerPool pool = qp.getEngine() == null ? null : qp.getEngine().getExternalWorkerPool();
+        boolean done = false;
+        try
+        {
+            if (pool != null)
+            {
+                done = pool.run(opts, jobId, logFile);
+                if (!done)
+                {
+                    jqmlogger.warn("No external worker available for job " + jobId + " - a dedicated JVM will be used");
+                }
+            }
+            if (!done)
+            {
+                runDedicatedJvm();
+            }
+        }
+        catch (Exception e)
+        {
+            jqmlogger.error("could not run external payload " + jobId, e);
+        }
+        finally
+        {
+            qp.decreaseNbThread(this.jobId);
+        }
+    }
+
+    private void runDedicatedJvm()
+    {
         String java_path = FilenameUtils.concat(System.getProperty("java.home"), "bin/java");
         List<String> args = new ArrayList<String>();
 
@@ -67,11 +105,11 @@ class LoaderExternal implements Runnable
         catch (IOException e)
         {
             jqmlogger.error("Could not launch an external payload", e);
-            qp.decreaseNbThread(this.jobId);
             return;
         }
 
-        // Wait for end, flushing logs.
+        // Wait for end, flushing logs. Reads are blocking: lines are written as soon as they are produced, and the stream ends with the
+        // process.
         int res = -1;
         InputStreamReader isr = null;
         BufferedReader br = null;
@@ -85,35 +123,15 @@ class LoaderExternal implements Runnable
             f = new FileWriter(logFile);
             br = new BufferedReader(isr);
 
-            while (true)
+            while ((buf = br.readLine()) != null)
             {
-                // Dump log file
-                while (br.ready())
-                {
-                    buf = br.readLine();
-                    if (buf != null)
-                    {
-                        f.write(buf + linesep);
-                        jqmlogger.debug(buf);
-                    }
-                }
-
-                // Done?
-                try
-                {
-                    res = p.exitValue();
-                    jqmlogger.debug("External payload " + jobId + " - the external process has exited with RC " + res);
-                    // if here, has exited.
-                    break;
-                }
-                catch (IllegalThreadStateException t)
-                {
-                    // Nothing to do - it means process still running
-                }
-
-                // Wait between loops.
-                Thread.sleep(1000);
+                f.write(buf + linesep);
+                f.flush();
+                jqmlogger.debug(buf);
             }
+
+            res = p.waitFor();
+            jqmlogger.debug("External payload " + jobId + " - the external process has exited with RC " + res);
         }
         catch (Exception e)
         {
@@ -124,8 +142,6 @@ class LoaderExternal implements Runnable
             IOUtils.closeQuietly(br);
             IOUtils.closeQuietly(f);
             IOUtils.closeQuietly(isr);
-
-            qp.decreaseNbThread(this.jobId);
         }
 
         if (res != 0)
@@ -0,0 +1,231 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+import com.enioka.jqm.model.History;
+
+/**
+ * The database part of the end of run of job instances (creating the {@link History} and removing the job instance from the queue) is done
+ * by this thread rather than by each {@link Loader}, so that many job instance ends can be written in a single transaction with JDBC
+ * batches.<br>
+ * The queue is bounded: if the database cannot keep up, the payload threads wait inside {@link #add(Loader)}.<br>
+ * Once the thread has stopped, loaders ending late (e.g. after the engine shutdown timeout) are finalized by their own thread, as they
+ * would be without this class.
+ */
+class LoaderFinalizer implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(LoaderFinalizer.class);
+
+    private final JqmEngine engine;
+    private final BlockingQueue<Loader> queue;
+    private final int maxBatchSize;
+    private final long maxDelayMs;
+
+    private volatile boolean run = true;
+    private volatile boolean stopped = false;
+    private Thread localThread = null;
+
+    LoaderFinalizer(JqmEngine engine, DbConn cnx)
+    {
+        this.engine = engine;
+        this.maxBatchSize = Math.max(1, Integer.parseInt(GlobalParameter.getParameter(cnx, "endOfRunMaxBatchSize", "100")));
+        this.maxDelayMs = Long.parseLong(GlobalParameter.getParameter(cnx, "endOfRunMaxDelayMs", "0"));
+        this.queue = new ArrayBlockingQueue<Loader>(10 * maxBatchSize);
+    }
+
+    /**
+     * Queue a loader for finalization. Blocks if the queue is full.
+     */
+    void add(Loader l)
+    {
+        if (stopped)
+        {
+            l.endOfRunDb();
+            return;
+        }
+
+        try
+        {
+            queue.put(l);
+        }
+        catch (InterruptedException e)
+        {
+            // Do not lose the result - write it directly.
+            Thread.currentThread().interrupt();
+            l.endOfRunDb();
+            return;
+        }
+
+        // The thread may have done its last drain between the test above and the put. Whoever removes the loader from the queue
+        // finalizes it.
+        if (stopped && queue.remove(l))
+        {
+            l.endOfRunDb();
+        }
+    }
+
+    /**
+     * Asks the thread to stop once all the queued loaders are finalized, and waits for it.
+     */
+    void stop()
+    {
+        this.run = false;
+        Thread t = this.localThread;
+        if (t != null)
+        {
+            try
+            {
+                t.join(60000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        this.localThread = Thread.currentThread();
+        Thread.currentThread().setName("JQM_FINALIZER;;");
+        jqmlogger.info("Start of the end of run finalizer");
+
+        List<Loader> batch = new ArrayList<Loader>(maxBatchSize);
+        while (true)
+        {
+            try
+            {
+                Loader first = queue.poll(1000, TimeUnit.MILLISECONDS);
+                if (first == null)
+                {
+                    if (!run)
+                    {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(first);
+
+                // Take everything already waiting, then wait a little more for other loaders if asked to.
+                queue.drainTo(batch, maxBatchSize - batch.size());
+                long limit = System.currentTimeMillis() + maxDelayMs;
+                long remaining = maxDelayMs;
+                while (batch.size() < maxBatchSize && remaining > 0)
+                {
+                    Loader l = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (l == null)
+                    {
+                        break;
+                    }
+                    batch.add(l);
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    remaining = limit - System.currentTimeMillis();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                run = false;
+            }
+
+            flush(batch);
+            batch.clear();
+        }
+
+        // From now on add() finalizes inline. Finish what was queued before that.
+        stopped = true;
+        while (queue.drainTo(batch, maxBatchSize) > 0)
+        {
+            flush(batch);
+            batch.clear();
+        }
+
+        this.localThread = null;
+        jqmlogger.info("End of the end of run finalizer");
+    }
+
+    private void flush(List<Loader> batch)
+    {
+        if (batch.isEmpty())
+        {
+            return;
+        }
+
+        DbConn cnx = null;
+        try
+        {
+            List<Object[]> histories = new ArrayList<Object[]>(batch.size());
+            List<Object[]> deletions = new ArrayList<Object[]>(batch.size());
+            for (Loader l : batch)
+            {
+                histories.add(History.getInsertParameters(l.getJobInstance(), l.getResultStatus(), l.getEndDate()));
+                deletions.add(new Object[] { l.getJobInstance().getId() });
+            }
+
+            long start = System.nanoTime();
+            cnx = Helpers.getNewDbSession();
+            cnx.runBatchUpdate("history_insert_with_end_date", histories);
+            cnx.runBatchUpdate("ji_delete_by_id", deletions);
+            cnx.commit();
+            Metrics.END_OF_RUN_DB.get().recordSince(start);
+            jqmlogger.trace("{} job instances were finalized in a single transaction", batch.size());
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            if (Helpers.testDbFailure(e))
+            {
+                jqmlogger.error("connection to database lost - " + batch.size() + " job instances will need delayed finalization");
+                jqmlogger.trace("connection error was:", e.getCause());
+                for (Loader l : batch)
+                {
+                    l.isDelayed = true;
+                    this.engine.loaderFinalizationNeeded(l);
+                }
+                return;
+            }
+            jqmlogger.warn("Batch finalization has failed - job instances will be finalized one by one", e);
+        }
+        finally
+        {
+            Helpers.closeQuietly(cnx);
+        }
+
+        // If here, something is wrong with at least one of the job instances. Isolate it.
+        for (Loader l : batch)
+        {
+            try
+            {
+                l.endOfRunDb();
+            }
+            catch (RuntimeException e)
+            {
+                jqmlogger.error("Could not finalize job instance " + l.getId(), e);
+            }
+        }
+    }
+}
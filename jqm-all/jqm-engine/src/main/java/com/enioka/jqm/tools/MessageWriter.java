@@ -0,0 +1,236 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.model.GlobalParameter;
+
+/**
+ * Write-behind buffer for the messages and progress sent by payloads through the engine API. Progress updates of a job instance are
+ * coalesced (only the latest value is written), messages are written in order with JDBC batches. The buffer is flushed every
+ * messageFlushIntervalMs milliseconds or as soon as messageFlushMaxEntries messages are waiting, and by {@link #flush()} which the
+ * {@link Loader} calls before creating the History of a job instance.<br>
+ * If the database is not available, pending data is kept and written on the next flush.
+ */
+class MessageWriter implements Runnable
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(MessageWriter.class);
+
+    private final ConcurrentMap<Integer, Integer> progress = new ConcurrentHashMap<Integer, Integer>();
+    private final LinkedBlockingDeque<Object[]> messages = new LinkedBlockingDeque<Object[]>();
+    private final Object flushLock = new Object();
+    private final Object wakeUp = new Object();
+    private final long flushIntervalMs;
+    private final int maxEntries;
+
+    private volatile boolean run = true;
+    private Thread localThread = null;
+
+    MessageWriter(DbConn cnx)
+    {
+        this.flushIntervalMs = Math.max(1, Long.parseLong(GlobalParameter.getParameter(cnx, "messageFlushIntervalMs", "1000")));
+        this.maxEntries = Math.max(1, Integer.parseInt(GlobalParameter.getParameter(cnx, "messageFlushMaxEntries", "100")));
+    }
+
+    void addMessage(int jobInstanceId, String text)
+    {
+        messages.add(new Object[] { jobInstanceId, text });
+        if (messages.size() >= maxEntries)
+        {
+            synchronized (wakeUp)
+            {
+                wakeUp.notify();
+            }
+        }
+    }
+
+    void setProgress(int jobInstanceId, Integer value)
+    {
+        progress.put(jobInstanceId, value);
+    }
+
+    /**
+     * Synchronously writes everything which was added before the call. Throws if the database cannot be reached (the data is kept for
+     * the next flush).
+     */
+    void flush()
+    {
+        synchronized (flushLock)
+        {
+            if (messages.isEmpty() && progress.isEmpty())
+            {
+                return;
+            }
+
+            List<Object[]> msgs = new ArrayList<Object[]>();
+            messages.drainTo(msgs);
+            List<Object[]> prgs = new ArrayList<Object[]>(progress.size());
+            for (Integer id : new ArrayList<Integer>(progress.keySet()))
+            {
+                Integer value = progress.remove(id);
+                prgs.add(new Object[] { value, id });
+            }
+
+            DbConn cnx = null;
+            try
+            {
+                cnx = Helpers.getNewDbSession();
+                cnx.runBatchUpdate("message_insert", msgs);
+                cnx.runBatchUpdate("jj_update_progress_by_id", prgs);
+                cnx.commit();
+                jqmlogger.trace("{} messages and {} progress updates were written", msgs.size(), prgs.size());
+                return;
+            }
+            catch (RuntimeException e)
+            {
+                if (Helpers.testDbFailure(e))
+                {
+                    // Put everything back, without overwriting newer progress values.
+                    for (int i = msgs.size() - 1; i >= 0; i--)
+                    {
+                        messages.addFirst(msgs.get(i));
+                    }
+                    for (Object[] prm : prgs)
+                    {
+                        progress.putIfAbsent((Integer) prm[1], (Integer) prm[0]);
+                    }
+                    throw e;
+                }
+                jqmlogger.warn("Batch write of messages has failed - they will be written one by one", e);
+            }
+            finally
+            {
+                Helpers.closeQuietly(cnx);
+            }
+
+            // If here, one of the entries is wrong. Isolate it.
+            writeOneByOne("message_insert", msgs);
+            writeOneByOne("jj_update_progress_by_id", prgs);
+        }
+    }
+
+    private void writeOneByOne(String queryKey, List<Object[]> paramSets)
+    {
+        for (Object[] prms : paramSets)
+        {
+            DbConn cnx = null;
+            try
+            {
+                cnx = Helpers.getNewDbSession();
+                cnx.runUpdate(queryKey, prms);
+                cnx.commit();
+            }
+            catch (RuntimeException e)
+            {
+                jqmlogger.error("Could not write message or progress for job instance " + prms[queryKey.startsWith("message") ? 0 : 1], e);
+            }
+            finally
+            {
+                Helpers.closeQuietly(cnx);
+            }
+        }
+    }
+
+    /**
+     * Asks the thread to do a last flush and stop, and waits for it.
+     */
+    void stop()
+    {
+        this.run = false;
+        synchronized (wakeUp)
+        {
+            wakeUp.notify();
+        }
+        Thread t = this.localThread;
+        if (t != null)
+        {
+            try
+            {
+                t.join(60000);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run()
+    {
+        this.localThread = Thread.currentThread();
+        Thread.currentThread().setName("JQM_MESSAGE_WRITER;;");
+        jqmlogger.info("Start of the message writer");
+
+        while (true)
+        {
+            synchronized (wakeUp)
+            {
+                if (run && messages.size() < maxEntries)
+                {
+                    try
+                    {
+                        wakeUp.wait(flushIntervalMs);
+                    }
+                    catch (InterruptedException e)
+                    {
+                        run = false;
+                    }
+                }
+            }
+
+            try
+            {
+                flush();
+            }
+            catch (RuntimeException e)
+            {
+                // Data is kept for the next try.
+                jqmlogger.warn("connection to database lost - messages and progress will be written later");
+                jqmlogger.trace("connection error was:", e.getCause());
+                if (!run)
+                {
+                    break;
+                }
+                try
+                {
+                    Thread.sleep(flushIntervalMs);
+                }
+                catch (InterruptedException e2)
+                {
+                    run = false;
+                }
+            }
+
+            if (!run && messages.isEmpty() && progress.isEmpty())
+            {
+                break;
+            }
+        }
+
+        this.localThread = null;
+        jqmlogger.info("End of the message writer");
+    }
+}
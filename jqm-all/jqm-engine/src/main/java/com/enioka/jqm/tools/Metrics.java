@@ -0,0 +1,336 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enioka.jqm.tools;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The in-process metrics of the engines of this JVM (so of the node in a standard deployment), exposed in OpenMetrics or Prometheus text
+ * format by the web server. Unlike the JMX beans, reading them never needs the database.<br>
+ * Counters and histograms are only made of atomic values: recording is lock free and does not allocate anything, so they can be used on
+ * the hot paths. Labelled metrics should be resolved once (see {@link Family#get(String)}) and kept by their users when possible.
+ */
+final class Metrics
+{
+    /** Bucket upper bounds for short technical operations (database, class loading), in ns. */
+    private static final long[] FAST_NS = seconds(0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10);
+
+    /** Bucket upper bounds for waits and runs, in ns. */
+    private static final long[] SLOW_NS = seconds(0.01, 0.1, 0.5, 1, 5, 10, 30, 60, 300, 600, 1800, 3600, 7200, 21600, 86400);
+
+    private static final long[] COUNT = new long[] { 0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000 };
+
+    private static final List<Family<?>> families = new ArrayList<Family<?>>();
+
+    static final Family<Histogram> POLL_DURATION = histograms("jqm_poll_duration_seconds",
+            "Time taken by a poller to look for and claim new job instances", "queue", FAST_NS, true);
+    static final Family<Histogram> POLL_CLAIMED = histograms("jqm_poll_claimed_job_instances",
+            "Number of job instances claimed by a single poll", "queue", COUNT, false);
+    static final Family<Histogram> QUEUE_TO_START = histograms("jqm_queue_to_start_seconds",
+            "Time between the enqueue of a job instance and its actual start", "queue", SLOW_NS, true);
+    static final Family<Histogram> RUN_DURATION = histograms("jqm_run_duration_seconds", "Run time of job instances", "jobdef", SLOW_NS,
+            true);
+    static final Family<Counter> ENDED = counters("jqm_job_instances_ended", "Number of job instances which have ended", "state");
+    static final Family<Histogram> END_OF_RUN_DB = histograms("jqm_end_of_run_db_seconds",
+            "Time taken by a single end of run database transaction (which may finalize multiple job instances)", null, FAST_NS, true);
+    static final Family<Histogram> CLASSLOADER_BUILD = histograms("jqm_classloader_build_seconds",
+            "Time taken to get the class loader of a launch, library resolution included", null, FAST_NS, true);
+    static final Family<Histogram> LIBRARY_RESOLUTION = histograms("jqm_library_resolution_seconds",
+            "Time taken to resolve the libraries of a payload", null, FAST_NS, true);
+    static final Family<Histogram> DB_BORROW = histograms("jqm_db_connection_borrow_seconds",
+            "Time taken by the engine to get a database connection", null, FAST_NS, true);
+
+    private Metrics()
+    {}
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Metric types
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * A monotonic counter.
+     */
+    static final class Counter
+    {
+        private final AtomicLong value = new AtomicLong();
+
+        void inc()
+        {
+            value.incrementAndGet();
+        }
+
+        long get()
+        {
+            return value.get();
+        }
+    }
+
+    /**
+     * A histogram with fixed buckets. Values are usually durations in nanoseconds.
+     */
+    static final class Histogram
+    {
+        private final long[] bounds;
+        private final AtomicLongArray buckets;
+        private final AtomicLong sum = new AtomicLong();
+
+        private Histogram(long[] bounds)
+        {
+            this.bounds = bounds;
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(long value)
+        {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i])
+            {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+            sum.addAndGet(value);
+        }
+
+        /**
+         * Records the time elapsed since the given {@link System#nanoTime()} value.
+         */
+        void recordSince(long startNs)
+        {
+            record(System.nanoTime() - startNs);
+        }
+
+        long getCount()
+        {
+            long res = 0;
+            for (int i = 0; i < buckets.length(); i++)
+            {
+                res += buckets.get(i);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * All the metrics with the same name. There is a metric per value of the label, or a single metric if there is no label.
+     */
+    abstract static class Family<T>
+    {
+        private final String name;
+        private final String help;
+        private final String labelName;
+        private final ConcurrentMap<String, T> children = new ConcurrentHashMap<String, T>();
+
+        private Family(String name, String help, String labelName)
+        {
+            this.name = name;
+            this.help = help;
+            this.labelName = labelName;
+        }
+
+        abstract T create();
+
+        abstract String getType();
+
+        abstract void write(Appendable out, String labels, T metric) throws IOException;
+
+        /**
+         * The metric with the given label value, created on first use.
+         */
+        T get(String labelValue)
+        {
+            String key = labelValue == null ? "" : labelValue;
+            T res = children.get(key);
+            if (res == null)
+            {
+                res = create();
+                T existing = children.putIfAbsent(key, res);
+                if (existing != null)
+                {
+                    res = existing;
+                }
+            }
+            return res;
+        }
+
+        /**
+         * The metric of a family without label.
+         */
+        T get()
+        {
+            return get("");
+        }
+
+        private void write(Appendable out, boolean openMetrics) throws IOException
+        {
+            // Unlike OpenMetrics, the Prometheus text format names counter families after their samples (with the _total suffix).
+            String familyName = openMetrics || !"counter".equals(getType()) ? name : name + "_total";
+            out.append("# TYPE ").append(familyName).append(' ').append(getType()).append('\n');
+            if (openMetrics && name.endsWith("_seconds"))
+            {
+                out.append("# UNIT ").append(name).append(" seconds\n");
+            }
+            out.append("# HELP ").append(familyName).append(' ').append(help).append('\n');
+
+            // Sorted, so that successive scrapes are easy to compare.
+            for (Map.Entry<String, T> e : new TreeMap<String, T>(children).entrySet())
+            {
+                String labels = labelName == null ? "" : labelName + "=\"" + escape(e.getKey()) + "\"";
+                write(out, labels, e.getValue());
+            }
+        }
+    }
+
+    private static Family<Counter> counters(final String name, String help, String labelName)
+    {
+        Family<Counter> res = new Family<Counter>(name, help, labelName)
+        {
+            @Override
+            Counter create()
+            {
+                return new Counter();
+            }
+
+            @Override
+            String getType()
+            {
+                return "counter";
+            }
+
+            @Override
+            void write(Appendable out, String labels, Counter metric) throws IOException
+            {
+                out.append(name).append("_total").append(braces(labels)).append(' ').append(String.valueOf(metric.get())).append('\n');
+            }
+        };
+        register(res);
+        return res;
+    }
+
+    private static Family<Histogram> histograms(final String name, String help, String labelName, final long[] bounds,
+            final boolean nanoseconds)
+    {
+        final String[] le = new String[bounds.length];
+        for (int i = 0; i < bounds.length; i++)
+        {
+            le[i] = format(bounds[i], nanoseconds);
+        }
+
+        Family<Histogram> res = new Family<Histogram>(name, help, labelName)
+        {
+            @Override
+            Histogram create()
+            {
+                return new Histogram(bounds);
+            }
+
+            @Override
+            String getType()
+            {
+                return "histogram";
+            }
+
+            @Override
+            void write(Appendable out, String labels, Histogram metric) throws IOException
+            {
+                String prefix = labels.isEmpty() ? "{le=\"" : "{" + labels + ",le=\"";
+                long cumulated = 0;
+                for (int i = 0; i <= bounds.length; i++)
+                {
+                    cumulated += metric.buckets.get(i);
+                    out.append(name).append("_bucket").append(prefix).append(i < bounds.length ? le[i] : "+Inf").append("\"} ")
+                            .append(String.valueOf(cumulated)).append('\n');
+                }
+                out.append(name).append("_count").append(braces(labels)).append(' ').append(String.valueOf(cumulated)).append('\n');
+                out.append(name).append("_sum").append(braces(labels)).append(' ').append(format(metric.sum.get(), nanoseconds))
+                        .append('\n');
+            }
+        };
+        register(res);
+        return res;
+    }
+
+    private static void register(Family<?> family)
+    {
+        if (family.labelName == null)
+        {
+            // Always shown, even before the first value.
+            family.get();
+        }
+        families.add(family);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Exposition
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes all the metrics.
+     * 
+     * @param openMetrics
+     *            true for the OpenMetrics text format (ending with the mandatory EOF marker), false for the Prometheus text format 0.0.4.
+     */
+    static void write(Appendable out, boolean openMetrics) throws IOException
+    {
+        for (Family<?> f : families)
+        {
+            f.write(out, openMetrics);
+        }
+        if (openMetrics)
+        {
+            out.append("# EOF\n");
+        }
+    }
+
+    private static String braces(String labels)
+    {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String escape(String labelValue)
+    {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(long value, boolean nanoseconds)
+    {
+        if (!nanoseconds)
+        {
+            return value + ".0";
+        }
+        String res = BigDecimal.valueOf(value, 9).stripTrailingZeros().toPlainString();
+        return res.indexOf('.') < 0 ? res + ".0" : res;
+    }
+
+    private static long[] seconds(double... bounds)
+    {
+        long[] res = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++)
+        {
+            res[i] = Math.round(bounds[i] * 1000000000L);
+        }
+        return res;
+    }
+}
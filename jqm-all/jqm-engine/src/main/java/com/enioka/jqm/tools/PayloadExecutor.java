@@ -0,0 +1,334 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enioka.jqm.tools;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads running the payloads of a {@link QueuePoller}. Threads are reused between job instances, and are reset after each run: name,
+ * priority, context class loader, interruption flag and all the thread locals. Thread locals are removed by emptying the thread local maps
+ * of the thread, so that a payload never sees the values left by a previous one and the previous class loaders are not kept alive by them.
+ * When the JVM does not allow this (Java 16+ without <code>--add-opens java.base/java.lang=ALL-UNNAMED</code>), the thread is replaced
+ * after each run instead, as every payload runs inside its own class loader.<br>
+ * The thread locals registered with {@link #registerThreadLocal(ThreadLocal)} belong to the engine and are always removed.<br>
+ * This executor is also the reference for slot accounting: a slot is used from {@link #submit(Runnable, Runnable)} until the end of the task.
+ */
+class PayloadExecutor
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(PayloadExecutor.class);
+
+    private static final Set<ThreadLocal<?>> engineThreadLocals = Collections.newSetFromMap(new WeakHashMap<ThreadLocal<?>, Boolean>());
+
+    /**
+     * Tasks only wait for a thread between the release of their slot by a previous task and the end of the reset of its thread - so there
+     * are never more waiting tasks than slots. The bound is only a safety net.
+     */
+    private static final int MAX_WAITING_TASKS = 1000;
+
+    private static final Field THREAD_LOCALS = getThreadField("threadLocals");
+    private static final Field INHERITABLE_THREAD_LOCALS = getThreadField("inheritableThreadLocals");
+
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final String name;
+    private final ClassLoader engineClassLoader;
+
+    PayloadExecutor(String name, int size, boolean virtualThreads)
+    {
+        this.name = name;
+        this.engineClassLoader = Thread.currentThread().getContextClassLoader();
+
+        final ThreadFactory virtualFactory = virtualThreads ? getVirtualThreadFactory() : null;
+        ThreadFactory factory = new ThreadFactory()
+        {
+            private AtomicInteger count = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = virtualFactory != null ? virtualFactory.newThread(r) : newPlatformThread(r);
+                t.setName(PayloadExecutor.this.name + ";" + count.incrementAndGet());
+                t.setUncaughtExceptionHandler(HANDLER);
+                return t;
+            }
+        };
+
+        int s = Math.max(1, size);
+        pool = new ThreadPoolExecutor(s, s, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_WAITING_TASKS), factory)
+        {
+            @Override
+            protected void afterExecute(Runnable r, Throwable t)
+            {
+                super.afterExecute(r, t);
+                if (t instanceof ThreadRetiredException)
+                {
+                    // Some JVMs call this again with the exception thrown by the first call.
+                    throw (ThreadRetiredException) t;
+                }
+                if (!resetThread(Thread.currentThread()))
+                {
+                    // Ends the thread. The executor creates a new one when needed.
+                    throw new ThreadRetiredException();
+                }
+            }
+        };
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the task on a pooled thread. A slot is counted as used until the task ends, whatever the way it ends.
+     *
+     * @param task
+     *            the payload to run.
+     * @param afterRun
+     *            called (on the payload thread) after the slot was released. Can be null.
+     */
+    void submit(final Runnable task, final Runnable afterRun)
+    {
+        running.incrementAndGet();
+        try
+        {
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        running.decrementAndGet();
+                        if (afterRun != null)
+                        {
+                            afterRun.run();
+                        }
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e)
+        {
+            running.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of tasks submitted and not ended yet.
+     */
+    int getRunningCount()
+    {
+        return running.get();
+    }
+
+    /**
+     * Live resize. Jobs which are already running are not impacted. Size 0 (paused poller) keeps a single idle thread.
+     */
+    void setSize(int size)
+    {
+        int s = Math.max(1, size);
+        if (s == pool.getMaximumPoolSize())
+        {
+            return;
+        }
+        if (s > pool.getMaximumPoolSize())
+        {
+            pool.setMaximumPoolSize(s);
+            pool.setCorePoolSize(s);
+        }
+        else
+        {
+            pool.setCorePoolSize(s);
+            pool.setMaximumPoolSize(s);
+        }
+    }
+
+    /**
+     * Threads end once idle. Running jobs are not interrupted.
+     */
+    void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    boolean isShutdown()
+    {
+        return pool.isShutdown();
+    }
+
+    /**
+     * Registers a thread local which belongs to the engine (and not to a payload) so that it is cleared on payload threads after each run.
+     * Registration does not prevent the thread local from being garbage collected.
+     */
+    static void registerThreadLocal(ThreadLocal<?> tl)
+    {
+        synchronized (engineThreadLocals)
+        {
+            engineThreadLocals.add(tl);
+        }
+    }
+
+    /**
+     * @return false if the thread could not be fully reset and must not be reused.
+     */
+    private boolean resetThread(Thread t)
+    {
+        Thread.interrupted();
+        t.setName(this.name + ";idle");
+        t.setPriority(Thread.NORM_PRIORITY);
+        t.setContextClassLoader(this.engineClassLoader);
+
+        List<ThreadLocal<?>> tls;
+        synchronized (engineThreadLocals)
+        {
+            tls = new ArrayList<ThreadLocal<?>>(engineThreadLocals);
+        }
+        for (ThreadLocal<?> tl : tls)
+        {
+            tl.remove();
+        }
+
+        return clearThreadLocals(t);
+    }
+
+    /**
+     * True if payload threads are reused, i.e. if their thread locals can be cleared on this JVM.
+     */
+    static boolean reusesThreads()
+    {
+        return THREAD_LOCALS != null && INHERITABLE_THREAD_LOCALS != null;
+    }
+
+    /**
+     * Removes all the thread locals of the given thread, including the ones created by payloads. Maps are recreated by the JDK when needed.
+     *
+     * @return false if not possible on this JVM.
+     */
+    static boolean clearThreadLocals(Thread t)
+    {
+        if (!reusesThreads())
+        {
+            return false;
+        }
+        try
+        {
+            THREAD_LOCALS.set(t, null);
+            INHERITABLE_THREAD_LOCALS.set(t, null);
+            return true;
+        }
+        catch (IllegalAccessException e)
+        {
+            return false;
+        }
+    }
+
+    private static Field getThreadField(String fieldName)
+    {
+        try
+        {
+            Field f = Thread.class.getDeclaredField(fieldName);
+            f.setAccessible(true);
+            return f;
+        }
+        catch (Exception e)
+        {
+            // Field does not exist or module is not open (InaccessibleObjectException is a RuntimeException).
+            jqmlogger.debug("Thread locals of payload threads cannot be cleared - threads will not be reused", e);
+            return null;
+        }
+    }
+
+    /**
+     * A thread which does not inherit the inheritable thread locals of its creator - threads replacing a retired thread are created by the
+     * retired thread itself. Java 9+ only: on older JVMs thread locals can always be cleared, so threads are not retired.
+     */
+    private static Thread newPlatformThread(Runnable r)
+    {
+        try
+        {
+            Constructor<Thread> c = Thread.class.getConstructor(ThreadGroup.class, Runnable.class, String.class, long.class, boolean.class);
+            return c.newInstance(null, r, "payload", 0L, false);
+        }
+        catch (NoSuchMethodException e)
+        {
+            return new Thread(r);
+        }
+        catch (Exception e)
+        {
+            throw new JqmRuntimeException("could not create payload thread", e);
+        }
+    }
+
+    /**
+     * Java 21+ virtual threads, if available. Reflection is used as the engine must still compile and run on old JVMs.
+     */
+    private static ThreadFactory getVirtualThreadFactory()
+    {
+        try
+        {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("inheritInheritableThreadLocals", boolean.class).invoke(builder, false);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Virtual threads were requested for payloads but are not available on this JVM - using platform threads");
+            return null;
+        }
+    }
+
+    private static final Thread.UncaughtExceptionHandler HANDLER = new Thread.UncaughtExceptionHandler()
+    {
+        @Override
+        public void uncaughtException(Thread t, Throwable e)
+        {
+            if (e instanceof ThreadRetiredException)
+            {
+                return;
+            }
+            jqmlogger.error("Payload thread " + t.getName() + " has ended abnormally", e);
+        }
+    };
+
+    /**
+     * Thrown at the end of a task to end a payload thread which cannot be reused.
+     */
+    private static class ThreadRetiredException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -19,6 +19,7 @@
 package com.enioka.jqm.tools;
 
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -26,7 +27,6 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
@@ -40,6 +40,7 @@ import com.enioka.jqm.jdbc.QueryResult;
 import com.enioka.jqm.model.DeploymentParameter;
 import com.enioka.jqm.model.JobInstance;
 import com.enioka.jqm.model.Queue;
+import com.enioka.jqm.model.State;
 
 /**
  * A thread that polls a queue according to the parameters defined inside a {@link DeploymentParameter}.
@@ -55,7 +56,6 @@ class QueuePoller implements Runnable, QueuePollerMBean
     private int dpId;
 
     private boolean run = true;
-    private AtomicInteger actualNbThread = new AtomicInteger(0);
     private boolean hasStopped = true;
     private Calendar lastLoop = null;
     private Map<Integer, Date> peremption = new ConcurrentHashMap<Integer, Date>();
@@ -64,6 +64,35 @@ class QueuePoller implements Runnable, QueuePollerMBean
 
     private Thread localThread = null;
     private Semaphore loop;
+    private PayloadExecutor executor = null;
+
+    // Metrics of this queue, resolved once.
+    private final Metrics.Histogram pollDuration;
+    private final Metrics.Histogram pollClaimed;
+    private final Metrics.Histogram queueToStart;
+
+    /**
+     * Called by the payload threads once their slot is free.
+     */
+    private final Runnable slotReleased = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            forceLoop();
+        }
+    };
+
+    /**
+     * True if the database can mark and return the job instances to run in a single query (SKIP LOCKED and the like).
+     */
+    private boolean claimMode = false;
+
+    /**
+     * True if the claim query only locks the job instances, which must then be marked with a second query (databases whose UPDATE cannot
+     * return rows).
+     */
+    private boolean claimInTwoSteps = false;
 
     @Override
     public void stop()
@@ -89,12 +118,21 @@ class QueuePoller implements Runnable, QueuePollerMBean
         run = true;
         lastLoop = null;
         loop = new Semaphore(0);
+        if (executor == null || executor.isShutdown())
+        {
+            executor = new PayloadExecutor("payload;" + this.queue.getName(), maxNbThread, engine.virtualPayloadThreads);
+        }
     }
 
     QueuePoller(JqmEngine engine, Queue q, DeploymentParameter dp)
     {
         this.engine = engine;
         this.queue = q;
+        this.claimMode = Helpers.getDb().hasQuery("ji_update_poll_claim");
+        this.claimInTwoSteps = Helpers.getDb().hasQuery("ji_update_poll_claimed");
+        this.pollDuration = Metrics.POLL_DURATION.get(q.getName());
+        this.pollClaimed = Metrics.POLL_CLAIMED.get(q.getName());
+        this.queueToStart = Metrics.QUEUE_TO_START.get(q.getName());
         applyDeploymentParameter(dp);
 
         reset();
@@ -106,6 +144,10 @@ class QueuePoller implements Runnable, QueuePollerMBean
         this.pollingInterval = dp.getPollingInterval();
         this.maxNbThread = dp.getEnabled() ? dp.getNbThread() : 0;
         this.dpId = dp.getId();
+        if (executor != null)
+        {
+            executor.setSize(maxNbThread);
+        }
 
         jqmlogger.info("Engine {}" + " will poll JobInstances on queue {} every {} s with {} threads for concurrent instances",
                 engine.getNode().getName(), queue.getName(), pollingInterval / 1000, maxNbThread);
@@ -164,14 +206,32 @@ class QueuePoller implements Runnable, QueuePollerMBean
     protected List<JobInstance> dequeue(DbConn cnx, int level)
     {
         // Free room?
-        int usedSlots = actualNbThread.get();
+        int usedSlots = executor.getRunningCount();
         if (usedSlots >= maxNbThread)
         {
             return null;
         }
+        if (level > 1)
+        {
+            return poll(cnx, level, maxNbThread - usedSlots);
+        }
+
+        long start = System.nanoTime();
+        List<JobInstance> res = poll(cnx, level, maxNbThread - usedSlots);
+        pollDuration.recordSince(start);
+        pollClaimed.record(res == null ? 0 : res.size());
+        return res;
+    }
+
+    private List<JobInstance> poll(DbConn cnx, int level, int freeSlots)
+    {
+        if (claimMode)
+        {
+            return claim(cnx, freeSlots);
+        }
 
         // Get the list of all jobInstance within the defined queue, ordered by position
-        QueryResult qr = cnx.runUpdate("ji_update_poll", this.engine.getNode().getId(), queue.getId(), maxNbThread - usedSlots);
+        QueryResult qr = cnx.runUpdate("ji_update_poll", this.engine.getNode().getId(), queue.getId(), freeSlots);
         if (qr.nbUpdated > 0)
         {
             jqmlogger.debug("Poller has found {} JI to run", qr.nbUpdated);
@@ -206,6 +266,64 @@ class QueuePoller implements Runnable, QueuePollerMBean
         }
     }
 
+    /**
+     * Single round trip version of the poll: rows locked by other pollers are skipped instead of waited for, and the marked rows are
+     * directly returned.
+     */
+    private List<JobInstance> claim(DbConn cnx, int freeSlots)
+    {
+        List<JobInstance> res;
+        try
+        {
+            res = JobInstance.select(cnx, "ji_update_poll_claim", this.engine.getNode().getId(), queue.getId(), freeSlots);
+            if (claimInTwoSteps && !res.isEmpty())
+            {
+                markClaimed(cnx, res);
+            }
+            cnx.commit();
+        }
+        catch (RuntimeException e)
+        {
+            try
+            {
+                cnx.rollback();
+            }
+            catch (RuntimeException e2)
+            {
+                // Nothing to do - connection is closed by the caller anyway.
+            }
+            throw e;
+        }
+
+        if (res.isEmpty())
+        {
+            return null;
+        }
+        jqmlogger.debug("Poller has found {} JI to run", res.size());
+        return res;
+    }
+
+    /**
+     * Second step of a two steps claim: the job instances are locked by the claim query, and are marked as attributed here.
+     */
+    private void markClaimed(DbConn cnx, List<JobInstance> claimed)
+    {
+        List<Object[]> prms = new ArrayList<Object[]>(claimed.size());
+        for (JobInstance ji : claimed)
+        {
+            prms.add(new Object[] { this.engine.getNode().getId(), ji.getId() });
+        }
+        cnx.runBatchUpdate("ji_update_poll_claimed", prms);
+
+        Calendar now = Calendar.getInstance();
+        for (JobInstance ji : claimed)
+        {
+            ji.setNode(this.engine.getNode().getId());
+            ji.setState(State.ATTRIBUTED);
+            ji.setAttributionDate(now);
+        }
+    }
+
     @Override
     public synchronized void run() // sync: avoid race condition on run when restarting after failure.
     {
@@ -230,8 +348,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
                     {
                         // We will run this JI!
                         jqmlogger.trace("JI number {} will be run by this poller this loop (already {}/{} on {})", ji.getId(),
-                                actualNbThread, maxNbThread, this.queue.getName());
-                        actualNbThread.incrementAndGet();
+                                executor.getRunningCount(), maxNbThread, this.queue.getName());
                         if (ji.getJD().getMaxTimeRunning() != null)
                         {
                             this.peremption.put(ji.getId(), new Date((new Date()).getTime() + ji.getJD().getMaxTimeRunning() * 60 * 1000));
@@ -240,11 +357,11 @@ class QueuePoller implements Runnable, QueuePollerMBean
                         // Run it
                         if (!ji.getJD().isExternal())
                         {
-                            (new Thread(new Loader(ji, this.engine, this, this.engine.getClassloaderManager()))).start();
+                            launch(new Loader(ji, this.engine, this, this.engine.getClassloaderManager()));
                         }
                         else
                         {
-                            (new Thread(new LoaderExternal(cnx, ji, this))).start();
+                            launch(new LoaderExternal(cnx, ji, this));
                         }
                     }
                 }
@@ -277,6 +394,8 @@ class QueuePoller implements Runnable, QueuePollerMBean
             try
             {
                 loop.tryAcquire(this.pollingInterval, TimeUnit.MILLISECONDS);
+                // A single poll is enough for all the notifications received since the previous one.
+                loop.drainPermits();
             }
             catch (InterruptedException e)
             {
@@ -299,6 +418,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
             jqmlogger
                     .info("Poller loop on queue " + this.queue.getName() + " is stopping [engine " + this.engine.getNode().getName() + "]");
             waitForAllThreads(60L * 1000);
+            executor.shutdown();
 
             // JMX
             if (this.engine.loadJmxBeans)
@@ -332,20 +452,34 @@ class QueuePoller implements Runnable, QueuePollerMBean
     @Override
     public Integer getCurrentActiveThreadCount()
     {
-        return actualNbThread.get();
+        return executor.getRunningCount();
     }
 
     /**
-     * Called when a payload thread has ended. This notifies the poller to free a slot and poll once again.
+     * Runs a loader on one of the payload threads of this poller. The slot is used until the loader ends.
+     */
+    void launch(Runnable loader)
+    {
+        executor.submit(loader, slotReleased);
+    }
+
+    /**
+     * Called when a payload has ended. Slot itself is freed (and the poller notified) by the executor when the loader exits.
      */
     void decreaseNbThread(int jobId)
     {
         this.peremption.remove(jobId);
-        this.actualNbThread.decrementAndGet();
-        loop.release(1);
         this.engine.signalEndOfRun();
     }
 
+    /**
+     * Makes the poller run its next loop right now instead of waiting for the end of the polling interval.
+     */
+    void forceLoop()
+    {
+        loop.release(1);
+    }
+
     boolean isRunning()
     {
         return !this.hasStopped;
@@ -357,15 +491,15 @@ class QueuePoller implements Runnable, QueuePollerMBean
         long stepMs = 1000;
         while (timeWaitedMs <= timeOutMs)
         {
-            jqmlogger.trace("Waiting the end of {} job(s)", actualNbThread);
+            jqmlogger.trace("Waiting the end of {} job(s)", executor.getRunningCount());
 
-            if (actualNbThread.get() == 0)
+            if (executor.getRunningCount() == 0)
             {
                 break;
             }
             if (timeWaitedMs == 0)
             {
-                jqmlogger.info("Waiting for the end of {} jobs on queue {} - timeout is {} ms", actualNbThread, this.queue.getName(),
+                jqmlogger.info("Waiting for the end of {} jobs on queue {} - timeout is {} ms", executor.getRunningCount(), this.queue.getName(),
                         timeOutMs);
             }
             try
@@ -397,6 +531,11 @@ class QueuePoller implements Runnable, QueuePollerMBean
         return this.engine;
     }
 
+    Metrics.Histogram getQueueToStart()
+    {
+        return this.queueToStart;
+    }
+
     void setMaxThreads(int max)
     {
         if (this.maxNbThread > 0 && max == 0)
@@ -408,6 +547,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
             jqmlogger.info("Poller is being resumed");
         }
         this.maxNbThread = max;
+        executor.setSize(max);
     }
 
     void setPollingInterval(int ms)
@@ -451,7 +591,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
     @Override
     public long getCurrentlyRunningJobCount()
     {
-        return this.actualNbThread.get();
+        return executor.getRunningCount();
     }
 
     @Override
@@ -476,7 +616,7 @@ class QueuePoller implements Runnable, QueuePollerMBean
     @Override
     public boolean isFull()
     {
-        return this.actualNbThread.get() >= maxNbThread;
+        return executor.getRunningCount() >= maxNbThread;
     }
 
     @Override
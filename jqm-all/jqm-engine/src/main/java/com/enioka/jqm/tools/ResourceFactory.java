@@ -50,15 +50,26 @@ class ResourceFactory implements ObjectFactory
         Class<?> factoryClass = null;
         ObjectFactory factory = null;
 
+        boolean builtInFactory = false;
         try
         {
             factoryClass = clResourceClasses.loadClass(resource.getFactoryClassName());
         }
         catch (ClassNotFoundException e)
         {
-            NamingException ex = new NamingException("Could not find resource or resource factory class in the classpath");
-            ex.initCause(e);
-            throw ex;
+            // Factories shipped with the engine itself (such as the JDBC pool) are not inside ext.
+            if (resource.getFactoryClassName().startsWith("com.enioka.jqm."))
+            {
+                try
+                {
+                    factoryClass = ResourceFactory.class.getClassLoader().loadClass(resource.getFactoryClassName());
+                    builtInFactory = true;
+                }
+                catch (ClassNotFoundException e2)
+                {
+                    // Error below.
+                }
+            }
         }
         catch (Exception e)
         {
@@ -66,6 +77,10 @@ class ResourceFactory implements ObjectFactory
             ex.initCause(e);
             throw ex;
         }
+        if (factoryClass == null)
+        {
+            throw new NamingException("Could not find resource or resource factory class in the classpath");
+        }
 
         try
         {
@@ -79,8 +94,14 @@ class ResourceFactory implements ObjectFactory
         }
 
         Object result = null;
+        ClassLoader previousCl = Thread.currentThread().getContextClassLoader();
         try
         {
+            if (builtInFactory)
+            {
+                // Built-in factories load their classes (e.g. JDBC drivers) through the context class loader.
+                Thread.currentThread().setContextClassLoader(clResourceClasses);
+            }
             result = factory.getObjectInstance(obj, name, nameCtx, environment);
         }
         catch (Exception e)
@@ -90,6 +111,10 @@ class ResourceFactory implements ObjectFactory
             ex.initCause(e);
             throw ex;
         }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(previousCl);
+        }
         return result;
     }
 
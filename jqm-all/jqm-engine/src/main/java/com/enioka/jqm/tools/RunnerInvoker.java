@@ -0,0 +1,121 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.enioka.jqm.tools;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * A job runner instance with its already resolved methods. Runners are loaded by the plugin class loader, which is the same for all
+ * launches, so one instance is created per runner class and per engine (see {@link ClassloaderManager#getRunner(String)}) and then shared
+ * by all the launches. This means runners must be thread safe.
+ */
+class RunnerInvoker
+{
+    private final String runnerClassName;
+    private final Object runner;
+    private final Method canRun;
+    private final Method run;
+
+    RunnerInvoker(ClassLoader pluginClassLoader, String runnerClassName) throws JqmEngineException
+    {
+        this.runnerClassName = runnerClassName;
+
+        Class<?> runnerClass;
+        try
+        {
+            // Note we load the runner class inside the engine CL (with plugins), not the payload CL.
+            // NOTHING is allowed inside the payload CL which was not specifically asked for. (ext dir or lib dir)
+            runnerClass = pluginClassLoader.loadClass(runnerClassName);
+        }
+        catch (Exception e)
+        {
+            throw new JqmEngineException(
+                    "could not load a runner: check you global parameters, or that the plugin for this runner is actually present "
+                            + runnerClassName,
+                    e);
+        }
+        try
+        {
+            this.runner = runnerClass.newInstance();
+        }
+        catch (Exception e)
+        {
+            throw new JqmEngineException(
+                    "could not create an instance of a runner: it may not have a no-args constructor. " + runnerClassName, e);
+        }
+        try
+        {
+            this.canRun = runnerClass.getMethod("canRun", Class.class);
+        }
+        catch (Exception e)
+        {
+            throw new JqmEngineException("could not find canRun method for runner plugin " + runnerClassName, e);
+        }
+        try
+        {
+            this.run = runnerClass.getMethod("run", Class.class, Map.class, Map.class, Object.class);
+        }
+        catch (Exception e)
+        {
+            throw new JqmEngineException("could not find run method for runner plugin " + runnerClassName, e);
+        }
+    }
+
+    String getRunnerClassName()
+    {
+        return runnerClassName;
+    }
+
+    boolean canRun(Class<?> toRun) throws JqmEngineException
+    {
+        try
+        {
+            return (Boolean) canRun.invoke(runner, toRun);
+        }
+        catch (Exception e)
+        {
+            throw new JqmEngineException("invocation of canRun failed on the runner plugin " + runnerClassName, e);
+        }
+    }
+
+    void run(Class<?> toRun, Map<String, String> metaParameters, Map<String, String> jobParameters, Object handlerProxy)
+            throws JqmEngineException
+    {
+        try
+        {
+            run.invoke(runner, toRun, metaParameters, jobParameters, handlerProxy);
+        }
+        catch (InvocationTargetException e)
+        {
+            if (e.getCause() instanceof RuntimeException)
+            {
+                // it may be a Kill order, or whatever exception...
+                throw (RuntimeException) e.getCause();
+            }
+            else
+            {
+                throw new JqmEngineException("Payload has failed", e);
+            }
+        }
+        catch (Exception e)
+        {
+            throw new JqmEngineException("Could not launch a job instance (engine issue, not a payload issue", e);
+        }
+    }
+}
@@ -15,15 +15,19 @@
  */
 package com.enioka.jqm.tools;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
@@ -33,6 +37,8 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -165,4 +171,226 @@ public class ApiSimpleTest extends JqmBaseTest
         Assert.assertEquals(State.ENDED, currentState);
     }
 
+    ///////////////////////////////////////////////////////////////////////////
+    // Job instance logs. The files are created by the tests, without any job instance.
+    ///////////////////////////////////////////////////////////////////////////
+
+    private static final int LOG_ID = 424242;
+    private static final String nl = System.getProperty("line.separator");
+
+    // No automatic decompression - the tests check what is actually sent.
+    private HttpClient logClient = HttpClients.custom().disableContentCompression().build();
+
+    @After
+    public void cleanLogs()
+    {
+        for (File f : FileUtils.listFiles(new File("./logs"), null, false))
+        {
+            if (f.getName().startsWith(StringUtils.leftPad("" + LOG_ID, 10, "0")))
+            {
+                f.delete();
+            }
+        }
+    }
+
+    private File logFile(String suffix)
+    {
+        return new File("./logs", StringUtils.leftPad("" + LOG_ID, 10, "0") + ".stdout.log" + suffix);
+    }
+
+    private void writeLog(String suffix, String content) throws IOException
+    {
+        FileUtils.writeStringToFile(logFile(suffix), content);
+    }
+
+    private byte[] writeGzipLog(String content) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        OutputStream os = new GZIPOutputStream(bos);
+        os.write(content.getBytes());
+        os.close();
+        FileUtils.writeByteArrayToFile(logFile(".gz"), bos.toByteArray());
+        return bos.toByteArray();
+    }
+
+    private HttpResponse getLog(String query, String... headers) throws IOException
+    {
+        HttpGet rq = new HttpGet("http://" + TestHelpers.node.getDns() + ":" + TestHelpers.node.getPort() + "/ws/simple/stdout?id="
+                + LOG_ID + (query == null ? "" : "&" + query));
+        for (int i = 0; i < headers.length; i += 2)
+        {
+            rq.addHeader(headers[i], headers[i + 1]);
+        }
+        return logClient.execute(rq);
+    }
+
+    private static String body(HttpResponse res) throws IOException
+    {
+        return res.getEntity() == null ? "" : EntityUtils.toString(res.getEntity());
+    }
+
+    private static String header(HttpResponse res, String name)
+    {
+        return res.getFirstHeader(name) == null ? null : res.getFirstHeader(name).getValue();
+    }
+
+    @Test
+    public void testLogRange() throws Exception
+    {
+        writeLog("", "0123456789");
+
+        HttpResponse res = getLog(null);
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes", header(res, "Accept-Ranges"));
+        Assert.assertEquals("0123456789", body(res));
+
+        res = getLog(null, "Range", "bytes=2-5");
+        Assert.assertEquals(206, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 2-5/10", header(res, "Content-Range"));
+        Assert.assertEquals("2345", body(res));
+
+        res = getLog(null, "Range", "bytes=7-");
+        Assert.assertEquals(206, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 7-9/10", header(res, "Content-Range"));
+        Assert.assertEquals("789", body(res));
+
+        // Suffix range.
+        res = getLog(null, "Range", "bytes=-3");
+        Assert.assertEquals(206, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 7-9/10", header(res, "Content-Range"));
+        Assert.assertEquals("789", body(res));
+
+        // End after the end of file is truncated.
+        res = getLog(null, "Range", "bytes=8-100");
+        Assert.assertEquals(206, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("89", body(res));
+
+        res = getLog(null, "Range", "bytes=20-30");
+        Assert.assertEquals(416, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes */10", header(res, "Content-Range"));
+        body(res);
+
+        // Multiple ranges are not supported: whole file.
+        res = getLog(null, "Range", "bytes=0-1,4-5");
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("0123456789", body(res));
+    }
+
+    @Test
+    public void testLogETag() throws Exception
+    {
+        writeLog("", "some log");
+
+        HttpResponse res = getLog(null);
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        String etag = header(res, "ETag");
+        Assert.assertNotNull(etag);
+        body(res);
+
+        res = getLog(null, "If-None-Match", etag);
+        Assert.assertEquals(304, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("", body(res));
+
+        res = getLog(null, "If-None-Match", "\"other\", W/" + etag);
+        Assert.assertEquals(304, res.getStatusLine().getStatusCode());
+        body(res);
+
+        res = getLog(null, "If-None-Match", "\"other\"");
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("some log", body(res));
+
+        // The file has changed: new ETag.
+        writeLog("", "some log, longer");
+        res = getLog(null, "If-None-Match", etag);
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertNotEquals(etag, header(res, "ETag"));
+        Assert.assertEquals("some log, longer", body(res));
+    }
+
+    @Test
+    public void testLogGzip() throws Exception
+    {
+        String content = "line 1" + nl + "line 2" + nl;
+        byte[] gz = writeGzipLog(content);
+
+        // Client accepting gzip: the file is sent as is, ranges applying to the compressed bytes.
+        HttpResponse res = getLog(null, "Accept-Encoding", "gzip");
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("gzip", header(res, "Content-Encoding"));
+        Assert.assertEquals("Accept-Encoding", header(res, "Vary"));
+        Assert.assertArrayEquals(gz, EntityUtils.toByteArray(res.getEntity()));
+        String gzEtag = header(res, "ETag");
+
+        res = getLog(null, "Accept-Encoding", "gzip", "Range", "bytes=0-9");
+        Assert.assertEquals(206, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 0-9/" + gz.length, header(res, "Content-Range"));
+        Assert.assertEquals(10, EntityUtils.toByteArray(res.getEntity()).length);
+
+        // Other clients: decompressed on the fly, no ranges.
+        res = getLog(null);
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertNull(header(res, "Content-Encoding"));
+        Assert.assertEquals("none", header(res, "Accept-Ranges"));
+        Assert.assertNotEquals(gzEtag, header(res, "ETag"));
+        Assert.assertEquals(content, body(res));
+
+        res = getLog(null, "Range", "bytes=0-3");
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertEquals(content, body(res));
+    }
+
+    @Test
+    public void testLogRotated() throws Exception
+    {
+        // Oldest first: .2, .1, then the current file.
+        writeLog(".2", "aaaa");
+        writeLog(".1", "bbbb");
+        writeLog("", "cccc");
+
+        HttpResponse res = getLog(null);
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("12", header(res, "Content-Length"));
+        Assert.assertEquals("aaaabbbbcccc", body(res));
+
+        // Range across the files.
+        res = getLog(null, "Range", "bytes=2-9");
+        Assert.assertEquals(206, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("bytes 2-9/12", header(res, "Content-Range"));
+        Assert.assertEquals("aabbbbcc", body(res));
+
+        // Rotated files without a current file (not written since the last rotation).
+        logFile("").delete();
+        res = getLog(null);
+        Assert.assertEquals("aaaabbbb", body(res));
+    }
+
+    @Test
+    public void testLogTail() throws Exception
+    {
+        writeLog(".1", "l1" + nl + "l2" + nl + "l3" + nl);
+        writeLog("", "l4" + nl + "l5" + nl);
+
+        // Lines are taken from the rotated files too.
+        HttpResponse res = getLog("tail=3");
+        Assert.assertEquals(200, res.getStatusLine().getStatusCode());
+        Assert.assertEquals("l3" + nl + "l4" + nl + "l5" + nl, body(res));
+
+        res = getLog("tail=100");
+        Assert.assertEquals("l1" + nl + "l2" + nl + "l3" + nl + "l4" + nl + "l5" + nl, body(res));
+
+        // Compressed log.
+        cleanLogs();
+        writeGzipLog("l1" + nl + "l2" + nl + "l3" + nl);
+        res = getLog("tail=2", "Accept-Encoding", "gzip");
+        Assert.assertNull(header(res, "Content-Encoding"));
+        Assert.assertEquals("l2" + nl + "l3" + nl, body(res));
+
+        // Not a number of lines.
+        res = getLog("tail=0");
+        Assert.assertEquals(400, res.getStatusLine().getStatusCode());
+        EntityUtils.consume(res.getEntity());
+        res = getLog("tail=-1");
+        Assert.assertEquals(400, res.getStatusLine().getStatusCode());
+        EntityUtils.consume(res.getEntity());
+    }
 }
@@ -0,0 +1,229 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.enioka.jqm.model.Cl;
+import com.enioka.jqm.model.State;
+
+/**
+ * Life cycle of pooled class loaders: filling, reuse, replacement, closing and detection of changes. No engine is needed.
+ */
+public class ClassloaderPoolTest extends JqmBaseTest
+{
+    private static final String RESOURCE = "com/enioka/pooltest/resource.txt";
+
+    private File dir = new File(System.getProperty("java.io.tmpdir"), "jqm-pool-test");
+    private File jar = new File(dir, "payload.jar");
+    private Cl cldef;
+
+    @Before
+    public void createJar() throws Exception
+    {
+        FileUtils.deleteQuietly(dir);
+        dir.mkdirs();
+        writeJar(jar, "v1");
+
+        cldef = new Cl();
+        cldef.setId(1);
+        cldef.setName("pooltest");
+        cldef.setPoolSize(2);
+        cldef.setPoolMaxUses(3);
+    }
+
+    @After
+    public void cleanJar()
+    {
+        FileUtils.deleteQuietly(dir);
+    }
+
+    private static void writeJar(File f, String content) throws Exception
+    {
+        JarOutputStream jos = new JarOutputStream(new FileOutputStream(f));
+        jos.putNextEntry(new ZipEntry(RESOURCE));
+        jos.write(content.getBytes());
+        jos.closeEntry();
+        jos.close();
+    }
+
+    private ClassloaderPool newPool() throws Exception
+    {
+        return new ClassloaderPool(cldef, "PoolTest", null, jar.toURI().toURL(), new URL[0], null);
+    }
+
+    private static boolean isClosed(JarClassLoader cl)
+    {
+        // A closed URLClassLoader does not find anything anymore.
+        return cl.getResource(RESOURCE) == null;
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        ClassloaderPool pool = newPool();
+        JarClassLoader cl1 = pool.acquire();
+        JarClassLoader cl2 = pool.acquire();
+        Assert.assertNotSame(cl1, cl2);
+        Assert.assertSame(pool, cl1.getPool());
+
+        // Most recently released first.
+        pool.release(cl1, State.ENDED);
+        pool.release(cl2, State.ENDED);
+        Assert.assertSame(cl2, pool.acquire());
+        Assert.assertSame(cl1, pool.acquire());
+        Assert.assertFalse(isClosed(cl1));
+        Assert.assertFalse(isClosed(cl2));
+    }
+
+    @Test
+    public void testDiscardedLoadersAreClosed() throws Exception
+    {
+        ClassloaderPool pool = newPool();
+
+        // Pool is full: the third loader is thrown out when given back.
+        JarClassLoader cl1 = pool.acquire();
+        JarClassLoader cl2 = pool.acquire();
+        JarClassLoader cl3 = pool.acquire();
+        pool.release(cl1, State.ENDED);
+        pool.release(cl2, State.ENDED);
+        pool.release(cl3, State.ENDED);
+        Assert.assertFalse(isClosed(cl1));
+        Assert.assertFalse(isClosed(cl2));
+        Assert.assertTrue(isClosed(cl3));
+
+        // Worn out loaders are replaced.
+        pool = newPool();
+        JarClassLoader cl = pool.acquire();
+        pool.release(cl, State.ENDED);
+        Assert.assertSame(cl, pool.acquire());
+        pool.release(cl, State.ENDED);
+        Assert.assertSame(cl, pool.acquire());
+        pool.release(cl, State.ENDED);
+        Assert.assertEquals(3, cl.getLaunchCount());
+        Assert.assertTrue(isClosed(cl));
+        JarClassLoader replacement = pool.acquire();
+        Assert.assertNotSame(cl, replacement);
+        Assert.assertEquals(1, replacement.getLaunchCount());
+        Assert.assertFalse(isClosed(replacement));
+    }
+
+    @Test
+    public void testLoadersOfFailedLaunchesAreDiscarded() throws Exception
+    {
+        ClassloaderPool pool = newPool();
+
+        JarClassLoader cl1 = pool.acquire();
+        pool.release(cl1, State.CRASHED);
+        Assert.assertTrue(isClosed(cl1));
+
+        JarClassLoader cl2 = pool.acquire();
+        Assert.assertNotSame(cl1, cl2);
+        pool.release(cl2, State.CANCELLED);
+        Assert.assertTrue(isClosed(cl2));
+
+        // Replacements are created in the background.
+        waitForIdle(pool, 2);
+    }
+
+    @Test
+    public void testPoolIsFilledInAdvance() throws Exception
+    {
+        ClassloaderPool pool = newPool();
+        Assert.assertEquals(0, pool.getIdleCount());
+
+        pool.fill();
+        waitForIdle(pool, 2);
+
+        // Launches use the class loaders built in advance.
+        JarClassLoader cl1 = pool.acquire();
+        JarClassLoader cl2 = pool.acquire();
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals(1, cl1.getLaunchCount());
+        Assert.assertFalse(isClosed(cl1));
+        Assert.assertFalse(isClosed(cl2));
+
+        // A retired pool is not filled anymore.
+        pool.retire();
+        pool.fill();
+        sleepms(200);
+        Assert.assertEquals(0, pool.getIdleCount());
+    }
+
+    private void waitForIdle(ClassloaderPool pool, int expected)
+    {
+        for (int i = 0; i < 100 && pool.getIdleCount() < expected; i++)
+        {
+            sleepms(100);
+        }
+        Assert.assertEquals(expected, pool.getIdleCount());
+    }
+
+    @Test
+    public void testRetiredPoolClosesItsLoaders() throws Exception
+    {
+        ClassloaderPool pool = newPool();
+        JarClassLoader idle = pool.acquire();
+        JarClassLoader busy = pool.acquire();
+        pool.release(idle, State.ENDED);
+
+        pool.retire();
+        Assert.assertTrue(isClosed(idle));
+        Assert.assertFalse(isClosed(busy));
+
+        // Given back after the pool was retired: not reused.
+        pool.release(busy, State.ENDED);
+        Assert.assertTrue(isClosed(busy));
+    }
+
+    @Test
+    public void testChangesAreDetected() throws Exception
+    {
+        ClassloaderPool pool = newPool();
+        URL jarUrl = jar.toURI().toURL();
+        Assert.assertTrue(pool.isUpToDate(cldef, jarUrl));
+
+        // Cl options (a new object, as given by the metadata cache after a change).
+        Cl other = new Cl();
+        other.setId(1);
+        other.setName("pooltest");
+        other.setPoolSize(2);
+        other.setPoolMaxUses(3);
+        Assert.assertTrue(pool.isUpToDate(other, jarUrl));
+        other.setChildFirst(true);
+        Assert.assertFalse(pool.isUpToDate(other, jarUrl));
+
+        // Other jar for the job definition.
+        File otherJar = new File(dir, "other.jar");
+        writeJar(otherJar, "v1");
+        Assert.assertFalse(pool.isUpToDate(cldef, otherJar.toURI().toURL()));
+
+        // Jar replaced.
+        writeJar(jar, "version 2");
+        jar.setLastModified(jar.lastModified() + 10000);
+        Assert.assertFalse(pool.isUpToDate(cldef, jarUrl));
+    }
+}
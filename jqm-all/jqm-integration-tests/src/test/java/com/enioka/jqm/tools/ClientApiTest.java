@@ -20,6 +20,7 @@ package com.enioka.jqm.tools;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -33,6 +34,7 @@ import com.enioka.jqm.api.JobDef;
 import com.enioka.jqm.api.JobInstance;
 import com.enioka.jqm.api.JobRequest;
 import com.enioka.jqm.api.JqmClientFactory;
+import com.enioka.jqm.api.JqmInvalidRequestException;
 import com.enioka.jqm.api.Query;
 import com.enioka.jqm.api.Query.Sort;
 import com.enioka.jqm.api.Queue;
@@ -264,6 +266,66 @@ public class ClientApiTest extends JqmBaseTest
         Assert.assertEquals("NormalQueue", ji.getQueue().getName());
     }
 
+    @Test
+    public void testBulkEnqueue() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+
+        List<JobRequest> jrs = new ArrayList<JobRequest>();
+        jrs.add(JobRequest.create("MarsuApplication", "TestUser"));
+        jrs.add(JobRequest.create("MarsuApplication", "TestUser").setQueueName("NormalQueue").addParameter("p1", "v1"));
+        jrs.add(JobRequest.create("MarsuApplication", "TestUser").setKeyword1("k1"));
+        List<Integer> ids = JqmClientFactory.getClient().enqueue(jrs);
+
+        Assert.assertEquals(3, ids.size());
+        Assert.assertEquals("VIPQueue", JqmClientFactory.getClient().getJob(ids.get(0)).getQueue().getName());
+        Assert.assertEquals("NormalQueue", JqmClientFactory.getClient().getJob(ids.get(1)).getQueue().getName());
+        Assert.assertEquals("v1", JqmClientFactory.getClient().getJob(ids.get(1)).getParameters().get("p1"));
+        Assert.assertEquals("k1", JqmClientFactory.getClient().getJob(ids.get(2)).getKeyword1());
+
+        addAndStartEngine();
+        TestHelpers.waitFor(3, 10000, cnx);
+        Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+    }
+
+    @Test
+    public void testBulkEnqueueInvalidRequestCreatesNothing() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+
+        // More than one creation transaction, with the invalid requests after the first one.
+        List<JobRequest> jrs = new ArrayList<JobRequest>();
+        for (int i = 0; i < 1500; i++)
+        {
+            jrs.add(JobRequest.create("MarsuApplication", "TestUser"));
+        }
+        jrs.add(JobRequest.create("MarsuApplication", "TestUser").setQueueName("NoSuchQueue"));
+        try
+        {
+            JqmClientFactory.getClient().enqueue(jrs);
+            Assert.fail("unknown queue was accepted");
+        }
+        catch (JqmInvalidRequestException e)
+        {
+            // Expected.
+        }
+        Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
+
+        jrs.set(1500, JobRequest.create("NoSuchApplication", "TestUser"));
+        try
+        {
+            JqmClientFactory.getClient().enqueue(jrs);
+            Assert.fail("unknown application was accepted");
+        }
+        catch (JqmInvalidRequestException e)
+        {
+            // Expected.
+        }
+        Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
+    }
+
     /**
      * Temp dir should be removed after run
      */
@@ -0,0 +1,86 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the most frequent queries use the expected indexes, so that an index or query change cannot silently degrade them. The
+ * plans are those of HSQLDB - the other databases have their own optimizers.
+ */
+public class DbIndexTest extends JqmBaseTest
+{
+    @Before
+    public void before()
+    {
+        // EXPLAIN PLAN FOR is HSQLDB syntax.
+        Assume.assumeTrue(JqmBaseTest.s != null);
+    }
+
+    private String explain(String sql) throws SQLException
+    {
+        StringBuilder sb = new StringBuilder();
+        ResultSet rs = cnx.runRawSelect("EXPLAIN PLAN FOR " + sql);
+        while (rs.next())
+        {
+            sb.append(rs.getString(1)).append("\n");
+        }
+        rs.close();
+        jqmlogger.debug(sb.toString());
+        return sb.toString();
+    }
+
+    private void assertUsesIndex(String sql, String index) throws SQLException
+    {
+        String plan = explain(sql);
+        Assert.assertTrue("query " + sql + " does not use index " + index, plan.contains("index=" + index + "\n"));
+    }
+
+    @Test
+    public void testPollQuery() throws Exception
+    {
+        assertUsesIndex(db.getQuery("ji_update_poll"), "IDX_JOB_INSTANCE_1");
+    }
+
+    @Test
+    public void testPollerStatsQuery() throws Exception
+    {
+        assertUsesIndex(db.getQuery("history_select_count_last_mn_for_poller"), "IDX_HISTORY_1");
+    }
+
+    @Test
+    public void testHistoryFilters() throws Exception
+    {
+        // Same predicates as the client API query on history.
+        String q = "SELECT ID FROM __T__HISTORY WHERE %s ORDER BY ID";
+        assertUsesIndex(String.format(q, "(DATE_END >= ?)"), "IDX_HISTORY_2");
+        assertUsesIndex(String.format(q, "(DATE_ENQUEUE >= ?) AND (DATE_ENQUEUE <= ?)"), "IDX_HISTORY_3");
+        assertUsesIndex(String.format(q, "STATUS IN(UNNEST(?))"), "IDX_HISTORY_4");
+        assertUsesIndex(String.format(q, "((JD_KEY = ?))"), "IDX_HISTORY_5");
+        assertUsesIndex(String.format(q, "((USERNAME = ?))"), "IDX_HISTORY_6");
+        assertUsesIndex(String.format(q, "PARENT = ?"), "IDX_HISTORY_7");
+        assertUsesIndex(String.format(q, "((SESSION_KEY = ?))"), "IDX_HISTORY_8");
+        assertUsesIndex(String.format(q, "((INSTANCE_KEYWORD1 = ?))"), "IDX_HISTORY_9");
+        assertUsesIndex(String.format(q, "((INSTANCE_KEYWORD2 = ?))"), "IDX_HISTORY_10");
+        assertUsesIndex(String.format(q, "((INSTANCE_KEYWORD3 = ?))"), "IDX_HISTORY_11");
+    }
+}
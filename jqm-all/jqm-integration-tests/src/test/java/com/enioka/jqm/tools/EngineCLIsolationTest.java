@@ -4,6 +4,8 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.enioka.jqm.api.JobRequest;
+import com.enioka.jqm.api.Query;
+import com.enioka.jqm.model.Cl;
 import com.enioka.jqm.test.helpers.CreationTools;
 import com.enioka.jqm.test.helpers.TestHelpers;
 
@@ -230,6 +232,55 @@ public class EngineCLIsolationTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
     }
 
+    /**
+     * Run test using a non persistent specific_isolation_context with a pool, shared by two job definitions.
+     * 
+     * Expected : isolation (pools are per job definition)
+     */
+    @Test
+    public void testJobDefSpecificPooled() throws Exception
+    {
+        Cl.create(cnx, "pooled", false, null, false, false, null, 2, 100, "com.enioka.jqm.TestCLIsolation.TestStatic");
+        cnx.commit();
+
+        addAndStartEngine();
+
+        createSubmitSetJob("pooled");
+        TestHelpers.waitFor(1, 10000, cnx);
+        createSubmitGetJob("pooled");
+        TestHelpers.waitFor(2, 10000, cnx);
+
+        Assert.assertEquals(2, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
+    /**
+     * Run test using a pooled specific_isolation_context of size 1 with class loaders replaced every two launches.
+     * 
+     * Expected : the static context is kept between the first and second launches, not with the third.
+     */
+    @Test
+    public void testJobDefSpecificPooledReuse() throws Exception
+    {
+        Cl.create(cnx, "pooled", false, null, false, false, null, 1, 2, null);
+        CreationTools.createJobDef(null, true, "pyl.EngineCLPooled", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, -1,
+                "EngineCLPooled", null, null, null, null, null, false, cnx, "pooled");
+
+        addAndStartEngine();
+
+        int i1 = JobRequest.create("EngineCLPooled", null).submit();
+        TestHelpers.waitFor(1, 10000, cnx);
+        int i2 = JobRequest.create("EngineCLPooled", null).submit();
+        TestHelpers.waitFor(2, 10000, cnx);
+        int i3 = JobRequest.create("EngineCLPooled", null).submit();
+        TestHelpers.waitFor(3, 10000, cnx);
+
+        Assert.assertEquals(3, TestHelpers.getOkCount(cnx));
+        Assert.assertTrue(Query.create().setJobInstanceId(i1).run().get(0).getMessages().contains("launch 1"));
+        Assert.assertTrue(Query.create().setJobInstanceId(i2).run().get(0).getMessages().contains("launch 2"));
+        Assert.assertTrue(Query.create().setJobInstanceId(i3).run().get(0).getMessages().contains("launch 1"));
+    }
+
     /**
      * Tests that using a static field for the JobManager API works even with shared CL, but shows a warning.
      */
@@ -45,4 +45,40 @@ public class EngineChildFirstCLTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getOkCount(cnx));
         Assert.assertEquals(1, TestHelpers.getNonOkCount(cnx));
     }
+
+    /**
+     * Resource and class lookups inside the payload jar and its libraries, with parent first method
+     */
+    @Test
+    public void testResourcesParentFirst() throws Exception
+    {
+        addAndStartEngine();
+
+        CreationTools.createJobDef(null, true, "pyl.EngineCLResources", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                -1, "EngineCLResources", null, null, null, null, null, false, cnx, null, false);
+        JobRequest.create("EngineCLResources", null).submit();
+
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
+
+    /**
+     * Resource and class lookups inside the payload jar and its libraries, with child first method
+     */
+    @Test
+    public void testResourcesChildFirst() throws Exception
+    {
+        addAndStartEngine();
+
+        CreationTools.createJobDef(null, true, "pyl.EngineCLResources", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip,
+                -1, "EngineCLResources", null, null, null, null, null, false, cnx, null, true);
+        JobRequest.create("EngineCLResources", null).submit();
+
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+    }
 }
@@ -40,4 +40,47 @@ public class ExternalTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getOkCount(cnx));
         Assert.assertEquals(1, TestHelpers.getNonOkCount(cnx));
     }
+
+    private void runExternalJobs(int count, int expectedStartedWorkers)
+    {
+        int jdId = CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar",
+                TestHelpers.qVip, 42, "TestJqmApplication", null, "Franquin", "ModuleMachin", "other", "other", false, cnx);
+        JobDef.setExternal(cnx, jdId);
+        cnx.commit();
+
+        JqmEngine engine = (JqmEngine) addAndStartEngine();
+        for (int i = 1; i <= count; i++)
+        {
+            // One at a time, so that each launch finds the workers left by the previous one. The history is written by the worker, a
+            // little before the engine is done with it.
+            JobRequest.create("TestJqmApplication", "TestUser").submit();
+            TestHelpers.waitFor(i, 20000, cnx);
+            for (int j = 0; j < 100 && engine.getCurrentlyRunningJobCount() > 0; j++)
+            {
+                sleepms(100);
+            }
+        }
+
+        Assert.assertEquals(count, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
+        Assert.assertEquals(expectedStartedWorkers, engine.getExternalWorkerPool().getStartedCount());
+    }
+
+    @Test
+    public void testExternalWorkerNoReuse() throws Exception
+    {
+        // Default: one JVM per launch, each started in advance - at engine startup for #1, then during the previous launch. The last
+        // spare is still idle.
+        runExternalJobs(3, 4);
+    }
+
+    @Test
+    public void testExternalWorkerReuse() throws Exception
+    {
+        Helpers.setSingleParam("externalWorkerMaxRuns", "2", cnx);
+
+        // First worker (started with the engine) runs #1 and #2, then is replaced by a spare started during #2 which runs #3 and #4. The
+        // next spare is started during #4.
+        runExternalJobs(4, 3);
+    }
 }
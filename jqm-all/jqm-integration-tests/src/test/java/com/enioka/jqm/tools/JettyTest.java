@@ -30,6 +30,7 @@ import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContexts;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -160,4 +161,55 @@ public class JettyTest extends JqmBaseTest
         rs.close();
         cl.close();
     }
+
+    @Test
+    public void testMetrics() throws Exception
+    {
+        Helpers.setSingleParam("enableWsApiSsl", "false", cnx);
+        Helpers.setSingleParam("disableWsApi", "false", cnx);
+        Helpers.setSingleParam("enableWsApiAuth", "false", cnx);
+        Helpers.setSingleParam("enableWsApiMetrics", "true", cnx);
+
+        addAndStartEngine();
+
+        // Launch a job so that there is something to measure
+        CreationTools.createJobDef(null, true, "App", null, "jqm-tests/jqm-test-datetimemaven/target/test.jar", TestHelpers.qVip, 42,
+                "MarsuApplication", null, "Franquin", "ModuleMachin", "other", "other", true, cnx);
+        JqmClientFactory.getClient().enqueue(new JobRequest("MarsuApplication", "TestUser"));
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        CloseableHttpClient cl = HttpClients.createDefault();
+        int port = Node.select_single(cnx, "node_select_by_id", TestHelpers.node.getId()).getPort();
+        HttpGet rq = new HttpGet("http://" + TestHelpers.node.getDns() + ":" + port + "/ws/metrics");
+        rq.addHeader("Accept", "application/openmetrics-text; version=1.0.0");
+        CloseableHttpResponse rs = cl.execute(rq);
+        Assert.assertEquals(200, rs.getStatusLine().getStatusCode());
+        Assert.assertTrue(rs.getFirstHeader("Content-Type").getValue().startsWith("application/openmetrics-text"));
+
+        String body = EntityUtils.toString(rs.getEntity());
+        Assert.assertTrue(body.contains("jqm_job_instances_ended_total{state=\"ENDED\"}"));
+        Assert.assertTrue(body.contains("jqm_run_duration_seconds_count{jobdef=\"MarsuApplication\"}"));
+        Assert.assertTrue(body.contains("jqm_poll_duration_seconds_bucket{queue=\"VIPQueue\",le=\"+Inf\"}"));
+        Assert.assertTrue(body.contains("# TYPE jqm_job_instances_ended counter\n"));
+        Assert.assertTrue(body.contains("# UNIT jqm_run_duration_seconds seconds\n"));
+        Assert.assertTrue(body.endsWith("# EOF\n"));
+        rs.close();
+
+        // Prometheus text format: counter families are named after their samples, no OpenMetrics-only lines.
+        rq = new HttpGet("http://" + TestHelpers.node.getDns() + ":" + port + "/ws/metrics");
+        rs = cl.execute(rq);
+        Assert.assertEquals(200, rs.getStatusLine().getStatusCode());
+        Assert.assertTrue(rs.getFirstHeader("Content-Type").getValue().startsWith("text/plain; version=0.0.4"));
+
+        body = EntityUtils.toString(rs.getEntity());
+        Assert.assertTrue(body.contains("# TYPE jqm_job_instances_ended_total counter\n"));
+        Assert.assertTrue(body.contains("# HELP jqm_job_instances_ended_total "));
+        Assert.assertTrue(body.contains("jqm_job_instances_ended_total{state=\"ENDED\"}"));
+        Assert.assertTrue(body.contains("# TYPE jqm_run_duration_seconds histogram\n"));
+        Assert.assertFalse(body.contains("# UNIT"));
+        Assert.assertFalse(body.contains("# EOF"));
+
+        rs.close();
+        cl.close();
+    }
 }
@@ -0,0 +1,193 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.naming.spi.NamingManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.enioka.jqm.model.JobInstance;
+
+/**
+ * The caches used by each launch: runner instances (per engine), runner selection and API proxy class (per payload class loader). No
+ * engine is needed - the runners come from the plugins directory, the API from the ext directory, as for a real launch.
+ */
+public class LaunchCacheTest extends JqmBaseTest
+{
+    private static final String MAIN_RUNNER = "com.enioka.jqm.tools.MainRunner";
+    private static final String RUNNABLE_RUNNER = "com.enioka.jqm.tools.RunnableRunner";
+
+    private ClassloaderManager clm = new ClassloaderManager();
+
+    public static class RunnablePayload implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            // Never launched.
+        }
+    }
+
+    public static class MainAndRunnablePayload implements Runnable
+    {
+        public static void main(String[] args)
+        {
+            // Never launched.
+        }
+
+        @Override
+        public void run()
+        {
+            // Never launched.
+        }
+    }
+
+    public static class NotAPayload
+    {
+        // Nothing
+    }
+
+    /**
+     * A payload class loader remembering how many runner selections were stored inside it.
+     */
+    private static class CountingClassLoader extends JarClassLoader
+    {
+        private List<String> stored = new ArrayList<String>();
+
+        private CountingClassLoader() throws Exception
+        {
+            super(((JndiContext) NamingManager.getInitialContext(null)).getExtCl());
+        }
+
+        @Override
+        void setResolvedRunner(String key, RunnerInvoker runner)
+        {
+            stored.add(key);
+            super.setResolvedRunner(key, runner);
+        }
+    }
+
+    @Test
+    public void testRunnerInstanceIsSharedInsideEngine() throws Exception
+    {
+        RunnerInvoker r1 = clm.getRunner(RUNNABLE_RUNNER);
+        Assert.assertSame(r1, clm.getRunner(RUNNABLE_RUNNER));
+        Assert.assertNotSame(r1, clm.getRunner(MAIN_RUNNER));
+        Assert.assertEquals(RUNNABLE_RUNNER, r1.getRunnerClassName());
+
+        // Another engine has its own runners.
+        Assert.assertNotSame(r1, new ClassloaderManager().getRunner(RUNNABLE_RUNNER));
+    }
+
+    @Test(expected = JqmEngineException.class)
+    public void testUnknownRunner() throws Exception
+    {
+        clm.getRunner("com.enioka.jqm.tools.NoSuchRunner");
+    }
+
+    @Test
+    public void testRunnerSelectionIsCachedInsideClassLoader() throws Exception
+    {
+        List<String> runners = Arrays.asList(MAIN_RUNNER, RUNNABLE_RUNNER);
+        CountingClassLoader cl1 = new CountingClassLoader();
+
+        RunnerInvoker r = clm.getRunner(cl1, RunnablePayload.class, runners);
+        Assert.assertEquals(RUNNABLE_RUNNER, r.getRunnerClassName());
+        Assert.assertSame(r, clm.getRunner(cl1, RunnablePayload.class, runners));
+        Assert.assertEquals(1, cl1.stored.size());
+
+        // A new class loader does not know about previous choices - but the runner instance is the same.
+        CountingClassLoader cl2 = new CountingClassLoader();
+        Assert.assertSame(r, clm.getRunner(cl2, RunnablePayload.class, runners));
+        Assert.assertEquals(1, cl2.stored.size());
+        Assert.assertEquals(1, cl1.stored.size());
+    }
+
+    @Test
+    public void testRunnerSelectionDependsOnAllowedRunners() throws Exception
+    {
+        CountingClassLoader cl = new CountingClassLoader();
+
+        // First allowed runner able to run the class wins, even if the same class was already resolved with other runners.
+        Assert.assertEquals(MAIN_RUNNER,
+                clm.getRunner(cl, MainAndRunnablePayload.class, Arrays.asList(MAIN_RUNNER, RUNNABLE_RUNNER)).getRunnerClassName());
+        Assert.assertEquals(RUNNABLE_RUNNER,
+                clm.getRunner(cl, MainAndRunnablePayload.class, Arrays.asList(RUNNABLE_RUNNER, MAIN_RUNNER)).getRunnerClassName());
+        Assert.assertEquals(RUNNABLE_RUNNER,
+                clm.getRunner(cl, MainAndRunnablePayload.class, Arrays.asList(RUNNABLE_RUNNER)).getRunnerClassName());
+        Assert.assertNull(clm.getRunner(cl, RunnablePayload.class, Arrays.asList(MAIN_RUNNER)));
+        Assert.assertEquals(3, cl.stored.size());
+    }
+
+    @Test
+    public void testNoRunnerIsNotCached() throws Exception
+    {
+        CountingClassLoader cl = new CountingClassLoader();
+        List<String> runners = Arrays.asList(MAIN_RUNNER, RUNNABLE_RUNNER);
+
+        Assert.assertNull(clm.getRunner(cl, NotAPayload.class, runners));
+        Assert.assertNull(clm.getRunner(cl, NotAPayload.class, runners));
+        Assert.assertEquals(0, cl.stored.size());
+    }
+
+    @Test
+    public void testProxyClassIsCachedInsideClassLoader() throws Exception
+    {
+        CountingClassLoader cl1 = new CountingClassLoader();
+        Class<?> api = cl1.loadClass("com.enioka.jqm.api.JobManager");
+        Constructor<?> c1 = cl1.getProxyConstructor(api);
+        Assert.assertSame(c1, cl1.getProxyConstructor(api));
+        Assert.assertSame(cl1, c1.getDeclaringClass().getClassLoader());
+
+        // Proxy classes are defined inside the payload class loader: each class loader has its own.
+        CountingClassLoader cl2 = new CountingClassLoader();
+        Constructor<?> c2 = cl2.getProxyConstructor(cl2.loadClass("com.enioka.jqm.api.JobManager"));
+        Assert.assertNotSame(c1.getDeclaringClass(), c2.getDeclaringClass());
+        Assert.assertSame(cl2, c2.getDeclaringClass().getClassLoader());
+    }
+
+    @Test
+    public void testApiDispatchNotBrokenByObjectMethods() throws Exception
+    {
+        CountingClassLoader cl = new CountingClassLoader();
+        Class<?> api = cl.loadClass("com.enioka.jqm.api.JobManager");
+
+        // No dispatch table given by the class loader: the handler computes it on first call.
+        JobManagerHandler h = new JobManagerHandler(new JobInstance(), new HashMap<String, String>(), null, null);
+        Object proxy = cl.getProxyConstructor(api).newInstance(h);
+
+        // First call is not an API method (as when a payload logs the API object).
+        try
+        {
+            proxy.toString();
+        }
+        catch (UndeclaredThrowableException e)
+        {
+            // Object methods are not part of the API.
+        }
+
+        Assert.assertEquals(0, api.getMethod("jobApplicationId").invoke(proxy));
+        Assert.assertNull(api.getMethod("parentID").invoke(proxy));
+    }
+}
@@ -90,6 +90,22 @@ public class MiscTest extends JqmBaseTest
         Assert.assertEquals(0, TestHelpers.getNonOkCount(cnx));
     }
 
+    @Test
+    public void testEndOfRunAfterFinalizerStop() throws Exception
+    {
+        CreationTools.createJobDef(null, true, "pyl.EngineApiSendMsg", null, "jqm-tests/jqm-test-pyl/target/test.jar", TestHelpers.qVip, -1,
+                "TestJqmApplication", "appFreeName", "TestModule", "kw1", "kw2", "kw3", false, cnx);
+        JqmEngine engine = (JqmEngine) addAndStartEngine();
+
+        // Same situation as a job instance ending after the engine has given up waiting for it during shutdown.
+        engine.getLoaderFinalizer().stop();
+        JobRequest.create("TestJqmApplication", "TestUser").submit();
+        TestHelpers.waitFor(1, 10000, cnx);
+
+        Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
+        Assert.assertEquals(0, TestHelpers.getQueueAllCount(cnx));
+    }
+
     @Test
     public void testJobWithSystemExit() throws Exception
     {
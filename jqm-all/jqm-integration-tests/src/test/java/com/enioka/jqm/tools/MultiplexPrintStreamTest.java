@@ -0,0 +1,298 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Per job instance stdout/stderr flows. No engine is needed - the registrations done by the engine for each launch are done by the tests
+ * themselves.
+ */
+public class MultiplexPrintStreamTest extends JqmBaseTest
+{
+    private File logDir = new File(System.getProperty("java.io.tmpdir"), "jqm-mps-test");
+    private ByteArrayOutputStream original = new ByteArrayOutputStream();
+    private MultiplexPrintStream mps;
+
+    @After
+    public void cleanLogs() throws Exception
+    {
+        if (mps != null)
+        {
+            mps.stop();
+        }
+        FileUtils.deleteDirectory(logDir);
+    }
+
+    private MultiplexPrintStream create(String bufferSize, String flushIntervalMs, String async, boolean both)
+    {
+        Helpers.setSingleParam("logBufferSize", bufferSize, cnx);
+        Helpers.setSingleParam("logFlushIntervalMs", flushIntervalMs, cnx);
+        Helpers.setSingleParam("logAsyncFlush", async, cnx);
+        FileUtils.deleteQuietly(logDir);
+        mps = new MultiplexPrintStream(original, logDir.getAbsolutePath(), both, cnx);
+        return mps;
+    }
+
+    private String content(String fileName) throws Exception
+    {
+        File f = new File(logDir, fileName);
+        return f.isFile() ? FileUtils.readFileToString(f) : "";
+    }
+
+    /**
+     * Runs the given code inside a new thread registered as a job instance, and waits for its end.
+     */
+    private void runAsJob(final String fileName, final boolean unregister, final Runnable r) throws Exception
+    {
+        Thread t = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                mps.registerThread(fileName);
+                r.run();
+                if (unregister)
+                {
+                    mps.unregisterThread();
+                }
+            }
+        };
+        t.start();
+        t.join(10000);
+    }
+
+    @Test
+    public void testBytesAreMultiplexed() throws Exception
+    {
+        create("16", "60000", "false", false);
+
+        runAsJob("1.log", true, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mps.print("job 1 ");
+                mps.write('a');
+                mps.println(42);
+            }
+        });
+        runAsJob("2.log", true, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                byte[] b = "xxjob 2 - longer than the buffer of sixteen bytesxx".getBytes();
+                mps.write(b, 2, b.length - 4);
+            }
+        });
+        mps.print("engine");
+
+        Assert.assertEquals("job 1 a42" + System.getProperty("line.separator"), content("1.log"));
+        Assert.assertEquals("job 2 - longer than the buffer of sixteen bytes", content("2.log"));
+        Assert.assertEquals("engine", original.toString());
+    }
+
+    @Test
+    public void testPerThreadRouting() throws Exception
+    {
+        create("8192", "60000", "false", false);
+
+        // Two concurrent job instances, one of them with a child thread.
+        final List<Thread> jobs = new ArrayList<Thread>();
+        for (final String name : new String[] { "1", "2" })
+        {
+            Thread t = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    mps.registerThread(name + ".log");
+                    for (int i = 0; i < 100; i++)
+                    {
+                        mps.print(name);
+                    }
+                    if ("2".equals(name))
+                    {
+                        Thread child = new Thread()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                mps.print("c");
+                            }
+                        };
+                        child.start();
+                        try
+                        {
+                            child.join();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            // Test will fail.
+                        }
+                    }
+                    mps.unregisterThread();
+                }
+            };
+            jobs.add(t);
+            t.start();
+        }
+        for (Thread t : jobs)
+        {
+            t.join(10000);
+        }
+
+        Assert.assertEquals(new String(new char[100]).replace('\0', '1'), content("1.log"));
+        Assert.assertEquals(new String(new char[100]).replace('\0', '2') + "c", content("2.log"));
+        Assert.assertEquals("", original.toString());
+    }
+
+    @Test
+    public void testOutputAfterJobEndGoesToOriginalFlow() throws Exception
+    {
+        create("8192", "60000", "false", false);
+        runAsJob("1.log", true, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mps.print("in job");
+                mps.unregisterThread();
+                mps.print("after job");
+            }
+        });
+
+        Assert.assertEquals("in job", content("1.log"));
+        Assert.assertEquals("after job", original.toString());
+    }
+
+    @Test
+    public void testFlushAtJobEnd() throws Exception
+    {
+        create("8192", "60000", "false", false);
+        final List<String> during = new ArrayList<String>();
+        runAsJob("1.log", true, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mps.print("buffered");
+                mps.flush(); // Ignored.
+                try
+                {
+                    during.add(content("1.log"));
+                }
+                catch (Exception e)
+                {
+                    during.add(null);
+                }
+            }
+        });
+
+        Assert.assertEquals("", during.get(0));
+        Assert.assertEquals("buffered", content("1.log"));
+    }
+
+    @Test
+    public void testAsyncFlusher() throws Exception
+    {
+        create("8192", "100", "true", false);
+
+        // The job instance is still running and silent - its output must still reach the file.
+        runAsJob("1.log", false, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mps.print("silent job");
+            }
+        });
+        for (int i = 0; i < 50 && content("1.log").isEmpty(); i++)
+        {
+            sleepms(100);
+        }
+
+        Assert.assertEquals("silent job", content("1.log"));
+    }
+
+    @Test
+    public void testCommonLogReceivesAllWrites() throws Exception
+    {
+        final List<String> common = new ArrayList<String>();
+        AppenderSkeleton appender = new AppenderSkeleton()
+        {
+            @Override
+            public boolean requiresLayout()
+            {
+                return false;
+            }
+
+            @Override
+            public void close()
+            {
+                // Nothing to close.
+            }
+
+            @Override
+            protected void append(LoggingEvent event)
+            {
+                synchronized (common)
+                {
+                    common.add(event.getRenderedMessage());
+                }
+            }
+        };
+        Logger.getLogger("alljobslogger").addAppender(appender);
+        try
+        {
+            create("16", "60000", "false", true);
+            runAsJob("1.log", true, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mps.print("small");
+                    mps.print("a write larger than the buffer");
+                    mps.print("end");
+                }
+            });
+        }
+        finally
+        {
+            Logger.getLogger("alljobslogger").removeAppender(appender);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String s : common)
+        {
+            sb.append(s);
+        }
+        Assert.assertEquals("smalla write larger than the bufferend", content("1.log"));
+        Assert.assertEquals("smalla write larger than the bufferend", sb.toString());
+    }
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Payload thread reuse. No engine is needed - these are the threads of a single poller.
+ */
+public class PayloadExecutorTest
+{
+    private static final ThreadLocal<String> engineState = new ThreadLocal<String>();
+
+    private PayloadExecutor executor;
+    private BlockingQueue<Object> results = new ArrayBlockingQueue<Object>(10);
+
+    @Before
+    public void before()
+    {
+        PayloadExecutor.registerThreadLocal(engineState);
+        executor = new PayloadExecutor("test", 1, false);
+    }
+
+    @After
+    public void after()
+    {
+        executor.shutdown();
+    }
+
+    private Object next() throws InterruptedException
+    {
+        Object res = results.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull("task did not run", res);
+        return res;
+    }
+
+    @Test
+    public void testThreadIsReused() throws Exception
+    {
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                results.add(Thread.currentThread());
+            }
+        };
+
+        executor.submit(task, null);
+        Thread first = (Thread) next();
+        executor.submit(task, null);
+        Thread second = (Thread) next();
+
+        // Threads which cannot be cleaned are replaced.
+        if (PayloadExecutor.reusesThreads())
+        {
+            Assert.assertSame(first, second);
+        }
+        else
+        {
+            Assert.assertNotSame(first, second);
+        }
+    }
+
+    @Test
+    public void testPayloadThreadLocalsAreRemoved() throws Exception
+    {
+        final ThreadLocal<String> payloadState = new ThreadLocal<String>();
+        final InheritableThreadLocal<String> inheritedPayloadState = new InheritableThreadLocal<String>();
+        executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                payloadState.set("job 1");
+                inheritedPayloadState.set("job 1");
+                results.add(true);
+            }
+        }, null);
+        next();
+
+        executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                results.add(payloadState.get() == null);
+                results.add(inheritedPayloadState.get() == null);
+            }
+        }, null);
+
+        Assert.assertEquals(true, next());
+        Assert.assertEquals(true, next());
+    }
+
+    @Test
+    public void testThreadIsResetBetweenRuns() throws Exception
+    {
+        final ClassLoader payloadCl = new URLClassLoader(new URL[0]);
+        executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                engineState.set("job 1");
+                Thread.currentThread().setName("job 1");
+                Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
+                Thread.currentThread().setContextClassLoader(payloadCl);
+                Thread.currentThread().interrupt();
+                results.add(Thread.currentThread());
+            }
+        }, null);
+        final Thread first = (Thread) next();
+
+        executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                results.add(Thread.currentThread() == first);
+                results.add(engineState.get() == null);
+                results.add(Thread.currentThread().getName());
+                results.add(Thread.currentThread().getPriority());
+                results.add(Thread.currentThread().getContextClassLoader() != payloadCl);
+                results.add(Thread.currentThread().isInterrupted());
+            }
+        }, null);
+
+        Assert.assertEquals(PayloadExecutor.reusesThreads(), next());
+        Assert.assertEquals(true, next());
+        Assert.assertFalse("job 1".equals(next()));
+        Assert.assertEquals(Thread.NORM_PRIORITY, next());
+        Assert.assertEquals(true, next());
+        Assert.assertEquals(false, next());
+    }
+}
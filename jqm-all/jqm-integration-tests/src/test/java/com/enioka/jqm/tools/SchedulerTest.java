@@ -1,8 +1,11 @@
 package com.enioka.jqm.tools;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
 import java.util.Calendar;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 import com.enioka.admin.MetaService;
@@ -190,4 +193,29 @@ public class SchedulerTest extends JqmBaseTest
         TestHelpers.waitFor(1, 10000, cnx);
         Assert.assertEquals(1, TestHelpers.getOkCount(cnx));
     }
+
+    @Test
+    public void testHistoryPurge() throws Exception
+    {
+        // History is aged directly inside the HSQLDB database.
+        Assume.assumeTrue(JqmBaseTest.s != null);
+
+        int old = JqmSimpleTest.create(cnx, "pyl.EngineApiSend3Msg").run(this);
+        int recent = JqmClientFactory.getClient().enqueue("TestJqmApplication", "TestUser");
+        TestHelpers.waitFor(2, 10000, cnx);
+        Assert.assertEquals(3, JqmClientFactory.getClient().getJobMessages(old).size());
+
+        Connection c = DriverManager.getConnection("jdbc:hsqldb:hsql://localhost/testdbengine", "SA", "");
+        c.createStatement().executeUpdate("UPDATE HISTORY SET DATE_ENQUEUE = DATE_ENQUEUE - 40 DAY WHERE ID=" + old);
+        c.commit();
+        c.close();
+
+        Helpers.setSingleParam("historyRetentionDays", "30", cnx);
+        new HistoryPurger(TestHelpers.node).purge();
+
+        Assert.assertEquals(1, TestHelpers.getHistoryAllCount(cnx));
+        Assert.assertEquals(recent, (int) Query.create().run().get(0).getId());
+        Assert.assertEquals(0, JqmClientFactory.getClient().getJobMessages(old).size());
+        Assert.assertEquals(3, JqmClientFactory.getClient().getJobMessages(recent).size());
+    }
 }
@@ -3,13 +3,20 @@ package com.enioka.jqm.jdbc;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
@@ -28,7 +35,7 @@ public class Db
     /**
      * The version of the schema as it described in the current Maven artifact
      */
-    private static final int SCHEMA_VERSION = 1;
+    private static final int SCHEMA_VERSION = 4;
 
     /**
      * The SCHEMA_VERSION version is backward compatible until this version
@@ -46,6 +53,33 @@ public class Db
     private String product;
     private Properties p = null;
 
+    /**
+     * True if connections come from a {@link PooledDataSource} which already gives them in the right transaction state.
+     */
+    private boolean pooledInState = false;
+
+    /**
+     * Components of this JVM which should be told about new job instances. (typically the engine pollers)
+     */
+    private List<EnqueueListener> enqueueListeners = new CopyOnWriteArrayList<EnqueueListener>();
+
+    /**
+     * Prepared statements are kept per physical connection (i.e. the connection behind the pool proxy). 0 means no cache.
+     */
+    private int statementCacheSize = 0;
+    private final Map<Connection, StatementCache> statementCaches = new IdentityHashMap<Connection, StatementCache>();
+    private int borrowCount = 0;
+
+    /**
+     * For each query key, the way each of its parameters was last bound.
+     */
+    private final Map<String, ParameterType[]> bindingPlans = new ConcurrentHashMap<String, ParameterType[]>();
+
+    /**
+     * Job definitions, queues, global parameters... See {@link MetadataCache}.
+     */
+    private MetadataCache metadataCache = new MetadataCache(0);
+
     /**
      * Connects to the database by retrieving a DataDource from JNDI (with every parameter set to default, including the JNDI alias for the
      * DataSource being jdbc/jqm).
@@ -117,7 +151,10 @@ public class Db
                 throw new IllegalArgumentException("this constructor does not support this database type - URL " + url);
             }
 
-            this._ds = ds;
+            // The driver DataSource does not pool connections.
+            PooledDataSource pool = new PooledDataSource(ds, Integer.parseInt(p.getProperty("com.enioka.jqm.jdbc.pool.maxActive", "20")));
+            registerPoolBean(pool, "jdbc/jqm");
+            this._ds = pool;
             init(upgrade);
         }
         else
@@ -214,6 +251,15 @@ public class Db
      */
     private void init(boolean upgrade)
     {
+        // Our own pool can give connections which are already in the state we need - as long as it has not lent any yet.
+        if (_ds instanceof PooledDataSource && ((PooledDataSource) _ds).getCreatedCount() == 0)
+        {
+            PooledDataSource pool = (PooledDataSource) _ds;
+            pool.setDefaultAutoCommit(false);
+            pool.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            pooledInState = true;
+        }
+
         initAdapter();
         initQueries();
         if (upgrade)
@@ -221,6 +267,35 @@ public class Db
             dbUpgrade();
         }
         checkSchemaVersion();
+
+        // Only cache statements once the schema is stable.
+        statementCacheSize = Integer.parseInt(p.getProperty("com.enioka.jqm.jdbc.statementCacheSize", "50"));
+
+        initMetadataCache();
+    }
+
+    private void initMetadataCache()
+    {
+        long probePeriodMs = Long.parseLong(p.getProperty("com.enioka.jqm.jdbc.metadataCacheProbeMs", "1000"));
+        if (probePeriodMs > 0)
+        {
+            // The change counter only exists since schema version 4, and the library may run on an older compatible schema.
+            DbConn cnx = getConn();
+            try
+            {
+                cnx.runSelectSingle("mdv_select", Integer.class);
+            }
+            catch (DatabaseException e)
+            {
+                jqmlogger.warn("Metadata change counter is missing from the database (schema not upgraded?) - metadata cache is disabled");
+                probePeriodMs = 0;
+            }
+            finally
+            {
+                cnx.close();
+            }
+        }
+        metadataCache = new MetadataCache(probePeriodMs);
     }
 
     private void checkSchemaVersion()
@@ -342,6 +417,11 @@ public class Db
                 jqmlogger.info("Running migration script {}", s);
                 ScriptRunner.run(cnx, s);
             }
+            for (String s : adapter.postSchemaCreationScripts())
+            {
+                jqmlogger.info("Running post migration script {}", s);
+                ScriptRunner.run(cnx, s);
+            }
             cnx.commit(); // Yes, really. For advanced DB!
 
             cnx.close(); // HSQLDB does not refresh its schema without this.
@@ -358,6 +438,28 @@ public class Db
         cnx.close();
     }
 
+    /**
+     * JMX registration of a pool created by this class (pools created through JNDI are registered by the JNDI context). A pool registered
+     * by a previous instance is replaced.
+     */
+    private static void registerPoolBean(PooledDataSource pool, String name)
+    {
+        try
+        {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName jmxname = new ObjectName("com.enioka.jqm:type=JdbcPool,name=" + name);
+            if (mbs.isRegistered(jmxname))
+            {
+                mbs.unregisterMBean(jmxname);
+            }
+            mbs.registerMBean(pool, jmxname);
+        }
+        catch (Exception e)
+        {
+            jqmlogger.warn("Could not register JMX MBean for the JDBC pool", e);
+        }
+    }
+
     /**
      * Creates the adapter for the target database.
      */
@@ -437,10 +539,13 @@ public class Db
         try
         {
             Connection cnx = _ds.getConnection();
-            cnx.setAutoCommit(false);
-            cnx.rollback(); // To ensure no open transaction created by the pool before changing TX mode
-            cnx.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
-            return new DbConn(this, cnx);
+            if (!pooledInState)
+            {
+                cnx.setAutoCommit(false);
+                cnx.rollback(); // To ensure no open transaction created by the pool before changing TX mode
+                cnx.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            }
+            return new DbConn(this, cnx, getStatementCache(cnx));
         }
         catch (SQLException e)
         {
@@ -449,13 +554,85 @@ public class Db
     }
 
     /**
-     * Gets the interpolated text of a query from cache. If key does not exist, an exception is thrown.
+     * The statement cache of the physical connection behind a pooled connection. Null if caching is disabled or if there is no pool (in
+     * which case a statement cannot be reused anyway).
+     */
+    private StatementCache getStatementCache(Connection cnx)
+    {
+        if (statementCacheSize <= 0)
+        {
+            return null;
+        }
+
+        Connection physical;
+        try
+        {
+            // Most pools do not wrap the metadata object - it gives the real connection.
+            physical = cnx.getMetaData().getConnection();
+        }
+        catch (SQLException e)
+        {
+            return null;
+        }
+        if (physical == null || physical == cnx)
+        {
+            return null;
+        }
+
+        synchronized (statementCaches)
+        {
+            // Forget the caches of connections closed by the pool from time to time.
+            if (++borrowCount % 1000 == 0)
+            {
+                Iterator<Connection> it = statementCaches.keySet().iterator();
+                while (it.hasNext())
+                {
+                    try
+                    {
+                        if (it.next().isClosed())
+                        {
+                            it.remove();
+                        }
+                    }
+                    catch (SQLException e)
+                    {
+                        it.remove();
+                    }
+                }
+            }
+
+            StatementCache res = statementCaches.get(physical);
+            if (res == null)
+            {
+                res = new StatementCache(physical, statementCacheSize);
+                statementCaches.put(physical, res);
+            }
+            return res;
+        }
+    }
+
+    /**
+     * The binding plan of a query. The returned array is shared, and may be updated by the caller.
+     */
+    ParameterType[] getBindingPlan(String key, int parameterCount)
+    {
+        ParameterType[] res = bindingPlans.get(key);
+        if (res == null || res.length != parameterCount)
+        {
+            res = new ParameterType[parameterCount];
+            bindingPlans.put(key, res);
+        }
+        return res;
+    }
+
+    /**
+     * Gets the interpolated text of a query (as adapted to the target database) from cache. If key does not exist, an exception is thrown.
      * 
      * @param key
      *            name of the query
      * @return the query text
      */
-    String getQuery(String key)
+    public String getQuery(String key)
     {
         String res = this.adapter.getSqlText(key);
         if (res == null)
@@ -465,11 +642,62 @@ public class Db
         return res;
     }
 
+    /**
+     * Some queries are optional and only exist for databases which support a specific feature. This tests if a query is available.
+     * 
+     * @param key
+     *            name of the query
+     * @return true if the query can be used
+     */
+    public boolean hasQuery(String key)
+    {
+        return this.adapter.getSqlText(key) != null;
+    }
+
+    /**
+     * Registers a listener which will be called each time a job instance is enqueued through this object.
+     */
+    public void addEnqueueListener(EnqueueListener listener)
+    {
+        this.enqueueListeners.add(listener);
+    }
+
+    public void removeEnqueueListener(EnqueueListener listener)
+    {
+        this.enqueueListeners.remove(listener);
+    }
+
+    /**
+     * Should be called after the commit of a new job instance inside the given queue. Listener failures are only logged.
+     * 
+     * @param queueId
+     *            the queue on which the new job instance waits.
+     */
+    public void signalEnqueue(int queueId)
+    {
+        for (EnqueueListener listener : this.enqueueListeners)
+        {
+            try
+            {
+                listener.onEnqueue(queueId);
+            }
+            catch (RuntimeException e)
+            {
+                jqmlogger.warn("An enqueue listener has failed", e);
+            }
+        }
+    }
+
     DbAdapter getAdapter()
     {
         return this.adapter;
     }
 
+    public MetadataCache getMetadataCache()
+    {
+        return this.metadataCache;
+    }
+
     public String getProduct()
     {
         return this.product;
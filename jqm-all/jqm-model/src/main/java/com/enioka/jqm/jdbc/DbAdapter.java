@@ -45,6 +45,11 @@ public interface DbAdapter
      */
     public List<String> preSchemaCreationScripts();
 
+    /**
+     * A list of files to run (from the classpath) after running schema upgrades. They are run on each upgrade, so they must be idempotent.
+     */
+    public List<String> postSchemaCreationScripts();
+
     /**
      * Hook run before creating a new update Statement.
      * 
@@ -1,15 +1,12 @@
 package com.enioka.jqm.jdbc;
 
 import java.io.Closeable;
-import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Time;
-import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -33,12 +30,16 @@ public class DbConn implements Closeable
     Connection _cnx;
     private boolean transac_open = false;
     private boolean rollbackOnly = false;
+    private boolean metadataChanged = false;
     private List<Statement> toClose = new ArrayList<Statement>();
+    private final StatementCache statementCache;
+    private List<ResultSet> cachedResults = null;
 
-    DbConn(Db parent, Connection cnx)
+    DbConn(Db parent, Connection cnx, StatementCache statementCache)
     {
         this.parent = parent;
         this._cnx = cnx;
+        this.statementCache = statementCache;
     }
 
     public void commit()
@@ -56,6 +57,11 @@ public class DbConn implements Closeable
         {
             throw new DatabaseException(e);
         }
+        if (metadataChanged)
+        {
+            metadataChanged = false;
+            parent.getMetadataCache().clear();
+        }
     }
 
     public void rollback()
@@ -65,6 +71,7 @@ public class DbConn implements Closeable
             _cnx.rollback();
             transac_open = false;
             rollbackOnly = false;
+            metadataChanged = false;
         }
         catch (SQLException e)
         {
@@ -77,13 +84,14 @@ public class DbConn implements Closeable
         rollbackOnly = true;
     }
 
-    private QueryPreparation adapterPreparation(String query_key, boolean forUpdate, Object... params)
+    private QueryPreparation adapterPreparation(String query_key, boolean forUpdate, boolean select, Object... params)
     {
         QueryPreparation qp = new QueryPreparation();
         qp.parameters = new ArrayList<Object>(Arrays.asList(params));
         qp.queryKey = query_key;
         qp.sqlText = parent.getQuery(query_key);
         qp.forUpdate = forUpdate;
+        qp.select = select;
 
         this.parent.getAdapter().beforeUpdate(_cnx, qp);
         return qp;
@@ -92,13 +100,14 @@ public class DbConn implements Closeable
     public QueryResult runUpdate(String query_key, Object... params)
     {
         transac_open = true;
+        metadataChanged = metadataChanged || MetadataCache.isMetadataQuery(query_key);
         PreparedStatement ps = null;
-        QueryPreparation qp = adapterPreparation(query_key, false, params);
+        QueryPreparation qp = adapterPreparation(query_key, false, false, params);
         try
         {
             ps = prepare(qp);
             QueryResult qr = new QueryResult();
-            qr.nbUpdated = ps.executeUpdate();
+            qr.nbUpdated = executeUpdate(qp, ps);
             qr.generatedKey = qp.preGeneratedKey;
             if (query_key.contains("insert") && !query_key.equals("history_insert_with_end_date"))
             {
@@ -112,6 +121,7 @@ public class DbConn implements Closeable
                     {
                         // nothing to do.
                     }
+                closeQuietly(gen);
             }
 
             jqmlogger.debug("Updated rows: {}", qr.nbUpdated);
@@ -122,6 +132,60 @@ public class DbConn implements Closeable
             throw new DatabaseException(e);
         }
         finally
+        {
+            if (qp.cachedStatement == null)
+            {
+                closeQuietly(ps);
+            }
+        }
+    }
+
+    /**
+     * Runs the same update query many times in a single JDBC batch (i.e. usually a single round trip). Generated keys are not retrieved.
+     * 
+     * @param query_key
+     *            the query to run
+     * @param paramSets
+     *            one array of parameters per execution of the query. Can be empty (nothing is done in that case).
+     * @return the number of updated rows, summed on all the executions (when the driver is able to return this information).
+     */
+    public int runBatchUpdate(String query_key, List<Object[]> paramSets)
+    {
+        if (paramSets.isEmpty())
+        {
+            return 0;
+        }
+
+        transac_open = true;
+        metadataChanged = metadataChanged || MetadataCache.isMetadataQuery(query_key);
+        PreparedStatement ps = null;
+        try
+        {
+            for (Object[] params : paramSets)
+            {
+                QueryPreparation qp = adapterPreparation(query_key, false, false, params);
+                if (ps == null)
+                {
+                    jqmlogger.debug("Running batch {} : {} with {} parameter sets.", query_key, qp.sqlText, paramSets.size());
+                    ps = _cnx.prepareStatement(qp.sqlText);
+                }
+                bindParameters(qp, ps);
+                ps.addBatch();
+            }
+
+            int res = 0;
+            for (int nb : ps.executeBatch())
+            {
+                res += nb > 0 ? nb : 0;
+            }
+            jqmlogger.debug("Updated rows: {}", res);
+            return res;
+        }
+        catch (SQLException e)
+        {
+            throw new DatabaseException(e);
+        }
+        finally
         {
             closeQuietly(ps);
         }
@@ -177,11 +241,7 @@ public class DbConn implements Closeable
 
             ps = _cnx.prepareStatement(q.sqlText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
             toClose.add(ps);
-            int i = 0;
-            for (Object prm : q.parameters)
-            {
-                addParameter(prm, ++i, ps);
-            }
+            bindParameters(q, ps);
 
             return ps.executeQuery();
         }
@@ -203,12 +263,33 @@ public class DbConn implements Closeable
     public ResultSet runSelect(boolean for_update, String query_key, Object... params)
     {
         PreparedStatement ps = null;
-        QueryPreparation qp = adapterPreparation(query_key, for_update, params);
+        QueryPreparation qp = adapterPreparation(query_key, for_update, true, params);
         try
         {
             ps = prepare(qp);
-            toClose.add(ps);
-            return ps.executeQuery();
+            if (qp.cachedStatement == null)
+            {
+                toClose.add(ps);
+                return ps.executeQuery();
+            }
+
+            ResultSet rs;
+            try
+            {
+                rs = ps.executeQuery();
+            }
+            catch (SQLException e)
+            {
+                statementCache.remove(qp.cachedStatement);
+                throw e;
+            }
+            qp.cachedStatement.rs = rs;
+            if (cachedResults == null)
+            {
+                cachedResults = new ArrayList<ResultSet>();
+            }
+            cachedResults.add(rs);
+            return rs;
         }
         catch (SQLException e)
         {
@@ -330,6 +411,22 @@ public class DbConn implements Closeable
         }
     }
 
+    /**
+     * The metadata cache of the database this session belongs to.
+     */
+    public MetadataCache getMetadataCache()
+    {
+        return parent.getMetadataCache();
+    }
+
+    /**
+     * True if this session has modified metadata which is not committed yet.
+     */
+    boolean hasMetadataChanges()
+    {
+        return metadataChanged;
+    }
+
     /**
      * Close all JDBC objects related to this connection.
      */
@@ -340,6 +437,15 @@ public class DbConn implements Closeable
             closeQuietly(s);
         }
         toClose.clear();
+        if (cachedResults != null)
+        {
+            // Cached statements stay open, but must be ready for the next user of the physical connection.
+            for (ResultSet rs : cachedResults)
+            {
+                closeQuietly(rs);
+            }
+            cachedResults = null;
+        }
 
         if (transac_open)
         {
@@ -426,88 +532,98 @@ public class DbConn implements Closeable
             }
         }
 
+        // Statement cache - only for queries with an immutable text (some adapters rewrite queries depending on the parameters)
+        boolean cacheable = statementCache != null && !q.forUpdate && q.queryKey != null && q.sqlText == parent.getQuery(q.queryKey);
+        if (cacheable)
+        {
+            StatementCache.CachedStatement cs = statementCache.get(q.queryKey);
+            if (cs != null && !cs.isInUse())
+            {
+                q.cachedStatement = cs;
+                ps = cs.ps;
+            }
+            else if (cs != null)
+            {
+                // Same query is already running on this connection (nested loops) - use a throw away statement.
+                cacheable = false;
+            }
+        }
+
         try
         {
-            if (q.forUpdate)
+            if (ps != null)
+                ps.clearParameters();
+            else if (q.forUpdate)
                 ps = _cnx.prepareStatement(q.sqlText, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_UPDATABLE);
+            else if (q.select)
+                ps = _cnx.prepareStatement(q.sqlText);
             else
                 ps = _cnx.prepareStatement(q.sqlText, this.parent.getAdapter().keyRetrievalColumn());
         }
         catch (SQLException e)
         {
+            if (q.cachedStatement != null)
+            {
+                statementCache.remove(q.cachedStatement);
+            }
             throw new DatabaseException(e);
         }
 
-        // Add parameters
-        int i = 0;
-        for (Object prm : q.parameters)
+        if (cacheable && q.cachedStatement == null)
         {
-            addParameter(prm, ++i, ps);
+            q.cachedStatement = new StatementCache.CachedStatement(q.queryKey, ps);
+            statementCache.put(q.cachedStatement);
         }
 
+        bindParameters(q, ps);
         return ps;
     }
 
-    private void addParameter(Object value, int position, PreparedStatement s)
+    private int executeUpdate(QueryPreparation q, PreparedStatement ps) throws SQLException
     {
-        // TODO: cache meta call and use setObject.
         try
         {
-            if (value == null)
+            return ps.executeUpdate();
+        }
+        catch (SQLException e)
+        {
+            if (q.cachedStatement != null)
             {
-                parent.getAdapter().setNullParameter(position, s);
+                statementCache.remove(q.cachedStatement);
+                q.cachedStatement = null; // So that it is closed by the caller.
             }
-            else if (Integer.class == value.getClass())
-                s.setInt(position, (Integer) value);
-            else if (Long.class == value.getClass())
-                s.setLong(position, (Long) value);
-            else if (String.class == value.getClass())
-                s.setString(position, (String) value);
-            else if (Timestamp.class == value.getClass())
-                s.setTimestamp(position, (Timestamp) value);
-            else if (Time.class == value.getClass())
-                s.setTime(position, (Time) value);
-            else if (Boolean.class == value.getClass())
-                s.setBoolean(position, (Boolean) value);
-            else if (value instanceof Calendar)
-                s.setTimestamp(position, new Timestamp(((Calendar) value).getTimeInMillis()));
-            else if (value instanceof List<?>)
+            throw e;
+        }
+    }
+
+    /**
+     * Binds all the parameters of a query, using (and updating) the binding plan of the query.
+     */
+    private void bindParameters(QueryPreparation q, PreparedStatement ps)
+    {
+        DbAdapter adapter = this.parent.getAdapter();
+        ParameterType[] plan = q.queryKey == null ? null : this.parent.getBindingPlan(q.queryKey, q.parameters.size());
+        int i = 0;
+        for (Object prm : q.parameters)
+        {
+            ParameterType t = plan == null ? null : plan[i];
+            if (t == null || !t.accepts(prm))
             {
-                Array a;
-                List<?> vv = (List<?>) value;
-                if (vv.size() == 0)
-                {
-                    throw new DatabaseException("Cannot do a query whith an empty list parameter");
-                }
-                if (vv.get(0) instanceof Integer)
+                t = ParameterType.of(prm);
+                if (plan != null && prm != null)
                 {
-                    a = _cnx.createArrayOf("INTEGER", ((List<?>) value).toArray(new Integer[0]));
+                    plan[i] = t;
                 }
-                else if (vv.get(0) instanceof String)
-                {
-                    a = _cnx.createArrayOf("VARCHAR", ((List<?>) value).toArray(new String[0]));
-                }
-                else
-                {
-                    String[] vvv = new String[vv.size()];
-                    int i = 0;
-                    for (Object o : vv)
-                    {
-                        vvv[i++] = o.toString();
-                    }
-                    a = _cnx.createArrayOf("VARCHAR", vvv);
-                }
-                s.setArray(position, a);
-
             }
-            else
+            i++;
+            try
             {
-                s.setString(position, value.toString());
+                t.bind(adapter, _cnx, ps, i, prm);
+            }
+            catch (SQLException e)
+            {
+                throw new DatabaseException("Could not set parameter at position " + i, e);
             }
-        }
-        catch (SQLException e)
-        {
-            throw new DatabaseException("Could not set parameter at position " + position, e);
         }
     }
 
@@ -80,11 +80,11 @@ public class DbImplBase
         queries.put("dp_select_with_names_by_id", queries.get("dp_select_all_with_names") + " WHERE ID=?");
         
         // CL
-        queries.put("cl_insert", "INSERT INTO __T__CL(ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS) VALUES(JQM_PK.nextval, ?, ?, ?, ?, ?, ?)");
+        queries.put("cl_insert", "INSERT INTO __T__CL(ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS, POOL_SIZE, POOL_MAX_USES, PRELOADED_CLASSES) VALUES(JQM_PK.nextval, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
         queries.put("cl_delete_all", "DELETE FROM __T__CL");
         queries.put("cl_delete_by_id", "DELETE FROM __T__CL WHERE ID=?");
-        queries.put("cl_update_all_fields_by_id", "UPDATE __T__CL SET NAME=?, CHILD_FIRST=?, HIDDEN_CLASSES=?, TRACING=?, PERSISTENT=?, ALLOWED_RUNNERS=? WHERE ID=?");
-        queries.put("cl_select_all", "SELECT ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS FROM __T__CL ");
+        queries.put("cl_update_all_fields_by_id", "UPDATE __T__CL SET NAME=?, CHILD_FIRST=?, HIDDEN_CLASSES=?, TRACING=?, PERSISTENT=?, ALLOWED_RUNNERS=?, POOL_SIZE=?, POOL_MAX_USES=?, PRELOADED_CLASSES=? WHERE ID=?");
+        queries.put("cl_select_all", "SELECT ID, NAME, CHILD_FIRST, HIDDEN_CLASSES, TRACING, PERSISTENT, ALLOWED_RUNNERS, POOL_SIZE, POOL_MAX_USES, PRELOADED_CLASSES FROM __T__CL ");
         queries.put("cl_select_by_id", queries.get("cl_select_all") + " WHERE ID=?");
         queries.put("cl_select_by_key", queries.get("cl_select_all") + " WHERE NAME=?");
         
@@ -203,6 +203,7 @@ public class DbImplBase
         queries.put("ji_select_existing_highlander", "SELECT ID FROM __T__JOB_INSTANCE WHERE JOBDEF=? AND STATUS='SUBMITTED'");
         queries.put("ji_select_changequeuepos_by_id", "SELECT QUEUE, INTERNAL_POSITION FROM __T__JOB_INSTANCE WHERE ID=? AND STATUS='SUBMITTED'");
         queries.put("ji_select_instruction_by_id", "SELECT INSTRUCTION FROM __T__JOB_INSTANCE WHERE ID=?");
+        queries.put("ji_select_instructions_by_node", "SELECT ID, INSTRUCTION FROM __T__JOB_INSTANCE WHERE NODE=? AND STATUS='RUNNING' AND INSTRUCTION<>'RUN'");
         queries.put("ji_select_execution_date_by_id", "SELECT DATE_START FROM __T__JOB_INSTANCE WHERE ID=?");
         queries.put("ji_select_cnx_data_by_id", "SELECT DNS||':'||PORT AS HOST FROM __T__JOB_INSTANCE ji LEFT JOIN __T__Node n ON ji.NODE = n.ID WHERE ji.ID=?");
         
@@ -223,6 +224,7 @@ public class DbImplBase
         
         queries.put("history_delete_all", "DELETE FROM __T__HISTORY");
         queries.put("history_delete_by_id", "DELETE FROM __T__HISTORY WHERE ID=?");
+        queries.put("history_delete_by_id_list", "DELETE FROM __T__HISTORY WHERE ID IN(UNNEST(?))");
         queries.put("history_select_count_all", "SELECT COUNT(1) FROM __T__History");
         queries.put("history_select_count_for_poller", "SELECT COUNT(1) FROM __T__History WHERE QUEUE=? AND NODE=?");
         queries.put("history_select_count_last_mn_for_poller", "SELECT COUNT(1)/60 FROM __T__History WHERE QUEUE=? AND NODE=? AND DATE_END > (CURRENT_TIMESTAMP - 1 MINUTE)");
@@ -239,11 +241,14 @@ public class DbImplBase
         queries.put("deliverable_select_by_id", queries.get("deliverable_select_all") +  " WHERE ID=?");
         queries.put("deliverable_select_by_randomid", queries.get("deliverable_select_all") +  " WHERE RANDOM_ID=?");
         queries.put("deliverable_select_all_for_ji", queries.get("deliverable_select_all") +  " WHERE JOB_INSTANCE=?");
+        queries.put("deliverable_select_by_ji_list", queries.get("deliverable_select_all") +  " WHERE JOB_INSTANCE IN(UNNEST(?))");
+        queries.put("deliverable_delete_by_ji_list", "DELETE FROM __T__DELIVERABLE WHERE JOB_INSTANCE IN(UNNEST(?))");
         
         // RUNTIME PRM
         queries.put("jiprm_insert", "INSERT INTO __T__JOB_INSTANCE_PARAMETER(ID, JOB_INSTANCE, KEYNAME, VALUE) VALUES(JQM_PK.nextval, ?, ?, ?)");
         queries.put("jiprm_delete_all", "DELETE FROM __T__JOB_INSTANCE_PARAMETER ");
         queries.put("jiprm_delete_by_ji",queries.get("jiprm_delete_all") + " WHERE JOB_INSTANCE=?");
+        queries.put("jiprm_delete_by_ji_list",queries.get("jiprm_delete_all") + " WHERE JOB_INSTANCE IN(UNNEST(?))");
         queries.put("jiprm_select_by_ji", "SELECT ID, JOB_INSTANCE, KEYNAME, VALUE FROM __T__JOB_INSTANCE_PARAMETER WHERE JOB_INSTANCE=?");
         queries.put("jiprm_select_by_ji_list", "SELECT ID, JOB_INSTANCE, KEYNAME, VALUE FROM __T__JOB_INSTANCE_PARAMETER WHERE JOB_INSTANCE IN(UNNEST(?))");
         
@@ -251,6 +256,7 @@ public class DbImplBase
         queries.put("message_insert",  "INSERT INTO __T__MESSAGE(ID, JOB_INSTANCE, TEXT_MESSAGE) VALUES(JQM_PK.nextval, ?, ?)");
         queries.put("message_delete_all", "DELETE FROM __T__MESSAGE");
         queries.put("message_delete_by_ji",queries.get("message_delete_all") + " WHERE JOB_INSTANCE=?");
+        queries.put("message_delete_by_ji_list",queries.get("message_delete_all") + " WHERE JOB_INSTANCE IN(UNNEST(?))");
         queries.put("message_select_all", "SELECT ID, JOB_INSTANCE, TEXT_MESSAGE FROM __T__MESSAGE");
         queries.put("message_select_by_ji_list", queries.get("message_select_all") + " WHERE JOB_INSTANCE IN(UNNEST(?))");
         queries.put("message_select_count_all", "SELECT COUNT(1) FROM __T__MESSAGE");
@@ -324,11 +330,14 @@ public class DbImplBase
         queries.put("globalprm_select_all", "SELECT ID, KEYNAME, VALUE, LAST_MODIFIED FROM __T__GLOBAL_PARAMETER");
         queries.put("globalprm_select_by_key", queries.get("globalprm_select_all") + " WHERE KEYNAME=?");
         queries.put("globalprm_select_by_id", queries.get("globalprm_select_all") + " WHERE ID=?");
-        queries.put("globalprm_select_count_modified_jetty", "SELECT COUNT(1) FROM __T__GLOBAL_PARAMETER WHERE LAST_MODIFIED > ? AND KEYNAME IN('disableWsApi', 'enableWsApiSsl', 'enableInternalPki', 'pfxPassword', 'enableWsApiAuth')");
+        queries.put("globalprm_select_count_modified_jetty", "SELECT COUNT(1) FROM __T__GLOBAL_PARAMETER WHERE LAST_MODIFIED > ? AND KEYNAME IN('disableWsApi', 'enableWsApiSsl', 'enableInternalPki', 'pfxPassword', 'enableWsApiAuth', 'enableWsApiMetrics')");
         
         // WITNESS
         queries.put("w_insert", "INSERT INTO __T__WITNESS(ID, KEYNAME, NODE, LATEST_CONTACT) VALUES(JQM_PK.nextval, 'SCHEDULER', ?, CURRENT_TIMESTAMP)");
         queries.put("w_update_take", "UPDATE __T__WITNESS SET NODE=?, LATEST_CONTACT=CURRENT_TIMESTAMP WHERE KEYNAME='SCHEDULER' AND (NODE=? OR (NODE<>? AND LATEST_CONTACT < (CURRENT_TIMESTAMP - ? SECOND)))");
+
+        // METADATA VERSION (incremented by triggers)
+        queries.put("mdv_select", "SELECT CHANGE_COUNT FROM __T__METADATA_VERSION WHERE ID=1");
     }
    
 }
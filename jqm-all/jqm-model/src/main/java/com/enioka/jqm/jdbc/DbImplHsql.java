@@ -58,6 +58,14 @@ public class DbImplHsql implements DbAdapter
         return new ArrayList<String>();
     }
 
+    @Override
+    public List<String> postSchemaCreationScripts()
+    {
+        List<String> res = new ArrayList<String>();
+        res.add("/sql/metadata_version_hsqldb.sql");
+        return res;
+    }
+
     @Override
     public void beforeUpdate(Connection cnx, QueryPreparation q)
     {
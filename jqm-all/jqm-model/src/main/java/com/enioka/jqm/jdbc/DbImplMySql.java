@@ -57,7 +57,8 @@ public class DbImplMySql implements DbAdapter
                 .replace("CURRENT_TIMESTAMP - ? SECOND", "(NOW() - INTERVAL ? SECOND)").replace("FROM (VALUES(0))", "FROM DUAL")
                 .replace("DNS||':'||PORT", "CONCAT(DNS, ':', PORT)").replace(" TIMESTAMP ", " TIMESTAMP(3) ")
                 .replace("CURRENT_TIMESTAMP", "FFFFFFFFFFFFFFFFF@@@@").replace("FFFFFFFFFFFFFFFFF@@@@", "CURRENT_TIMESTAMP(3)")
-                .replace("TIMESTAMP(3) NOT NULL", "TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)").replace("__T__", this.tablePrefix);
+                .replace("TIMESTAMP(3) NOT NULL", "TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3)")
+                .replace("DROP INDEX IDX_JOB_INSTANCE_1", "DROP INDEX IDX_JOB_INSTANCE_1 ON __T__JOB_INSTANCE").replace("__T__", this.tablePrefix);
     }
 
     @Override
@@ -80,6 +81,14 @@ public class DbImplMySql implements DbAdapter
         return res;
     }
 
+    @Override
+    public List<String> postSchemaCreationScripts()
+    {
+        List<String> res = new ArrayList<String>();
+        res.add("/sql/metadata_version_mysql.sql");
+        return res;
+    }
+
     @Override
     public void beforeUpdate(Connection cnx, QueryPreparation q)
     {
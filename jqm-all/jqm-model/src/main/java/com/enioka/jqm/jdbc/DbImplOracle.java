@@ -34,6 +34,37 @@ public class DbImplOracle implements DbAdapter
 
         queries.put("ji_update_poll",
                 "UPDATE tmpjqm.JOB_INSTANCE j1 SET NODE=?, STATUS='ATTRIBUTED', DATE_ATTRIBUTION=CURRENT_TIMESTAMP WHERE rowid IN (SELECT rid FROM (SELECT rowid as rid FROM tmpjqm.JOB_INSTANCE j2 WHERE j2.STATUS='SUBMITTED' AND j2.QUEUE=? AND (j2.HIGHLANDER=0 OR (j2.HIGHLANDER=1 AND (SELECT COUNT(1) FROM tmpjqm.JOB_INSTANCE j3 WHERE j3.STATUS IN('ATTRIBUTED', 'RUNNING') AND j3.JOBDEF=j2.JOBDEF)=0)) ORDER BY INTERNAL_POSITION) WHERE rownum < ?)");
+
+        // Poll with SKIP LOCKED, so that concurrent pollers do not wait on each other. An UPDATE cannot return rows without PL/SQL, so
+        // the claim is a locking SELECT (same parameters as on PostgreSQL: node, queue, max count - the node is joined from its
+        // parameter, as the job instances are not attributed yet) followed by ji_update_poll_claimed on the returned rows.
+        if (supportsSkipLocked(cnx))
+        {
+            queries.put("ji_update_poll_claim", this.adaptSql(DbImplBase.queries.get("ji_select_all")
+                    .replace("ON ji.NODE=n.ID", "ON n.ID=?")
+                    + "WHERE ji.STATUS='SUBMITTED' AND ji.rowid IN (SELECT rid FROM (SELECT j2.rowid AS rid FROM __T__JOB_INSTANCE j2 "
+                    + "WHERE j2.STATUS='SUBMITTED' AND j2.QUEUE=? "
+                    + "AND (j2.HIGHLANDER=false OR (j2.HIGHLANDER=true AND (SELECT COUNT(1) FROM __T__JOB_INSTANCE j3 WHERE j3.STATUS IN('ATTRIBUTED', 'RUNNING') AND j3.JOBDEF=j2.JOBDEF)=0 )) "
+                    + "ORDER BY PRIORITY DESC, INTERNAL_POSITION) WHERE rownum <= ?) "
+                    + "ORDER BY ji.PRIORITY DESC, ji.INTERNAL_POSITION FOR UPDATE OF ji.STATUS SKIP LOCKED"));
+            queries.put("ji_update_poll_claimed", this.adaptSql("UPDATE __T__JOB_INSTANCE SET NODE=?, STATUS='ATTRIBUTED', "
+                    + "DATE_ATTRIBUTION=CURRENT_TIMESTAMP WHERE ID=? AND STATUS='SUBMITTED'"));
+        }
+    }
+
+    /**
+     * SKIP LOCKED is documented since Oracle 11g.
+     */
+    private boolean supportsSkipLocked(Connection cnx)
+    {
+        try
+        {
+            return cnx.getMetaData().getDatabaseMajorVersion() >= 11;
+        }
+        catch (SQLException e)
+        {
+            return false;
+        }
     }
 
     @Override
@@ -43,7 +74,8 @@ public class DbImplOracle implements DbAdapter
                 .replace("UNIX_MILLIS()", "JQM_PK.currval").replace("IN(UNNEST(?))", "IN(?)")
                 .replace("CURRENT_TIMESTAMP - 1 MINUTE", "(SYSDATE - 1/1440)")
                 .replace("CURRENT_TIMESTAMP - ? SECOND", "(SYSDATE - ?/86400)").replace("FROM (VALUES(0))", "FROM DUAL")
-                .replace("BOOLEAN", "NUMBER(1)").replace("true", "1").replace("false", "0").replace("__T__", this.tablePrefix);
+                .replace("BOOLEAN", "NUMBER(1)").replace("true", "1").replace("false", "0").replace(" ADD COLUMN ", " ADD ")
+                .replace("__T__", this.tablePrefix);
     }
 
     @Override
@@ -64,6 +96,14 @@ public class DbImplOracle implements DbAdapter
         return new ArrayList<String>();
     }
 
+    @Override
+    public List<String> postSchemaCreationScripts()
+    {
+        List<String> res = new ArrayList<String>();
+        res.add("/sql/metadata_version_oracle.sql");
+        return res;
+    }
+
     @Override
     public void beforeUpdate(Connection cnx, QueryPreparation q)
     {
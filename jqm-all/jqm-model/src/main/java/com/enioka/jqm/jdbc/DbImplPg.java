@@ -1,13 +1,16 @@
 package com.enioka.jqm.jdbc;
 
 import java.sql.Connection;
+import java.sql.ParameterMetaData;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.WeakHashMap;
 
 public class DbImplPg implements DbAdapter
 {
@@ -16,6 +19,12 @@ public class DbImplPg implements DbAdapter
     private Map<String, String> queries = new HashMap<String, String>();
     private String tablePrefix = null;
 
+    /**
+     * Retrieving parameter metadata is a round trip to the server, so it is kept as long as the (usually cached) statement lives.
+     */
+    private Map<PreparedStatement, ParameterMetaData> parameterMetaData = Collections
+            .synchronizedMap(new WeakHashMap<PreparedStatement, ParameterMetaData>());
+
     @Override
     public void prepare(Properties p, Connection cnx)
     {
@@ -25,6 +34,35 @@ public class DbImplPg implements DbAdapter
         {
             queries.put(entry.getKey(), this.adaptSql(entry.getValue()));
         }
+
+        // Single round trip poll (claim and fetch) with SKIP LOCKED, so that concurrent pollers do not wait on each other.
+        if (supportsSkipLocked(cnx))
+        {
+            queries.put("ji_update_poll_claim", this.adaptSql("WITH claimed AS (UPDATE __T__JOB_INSTANCE j1 SET NODE=?, STATUS='ATTRIBUTED', "
+                    + "DATE_ATTRIBUTION=CURRENT_TIMESTAMP WHERE j1.STATUS='SUBMITTED' AND j1.ID IN "
+                    + "(SELECT j2.ID FROM __T__JOB_INSTANCE j2 WHERE j2.STATUS='SUBMITTED' AND j2.QUEUE=? "
+                    + "AND (j2.HIGHLANDER=false OR (j2.HIGHLANDER=true AND (SELECT COUNT(1) FROM __T__JOB_INSTANCE j3 WHERE j3.STATUS IN('ATTRIBUTED', 'RUNNING') AND j3.JOBDEF=j2.JOBDEF)=0 )) "
+                    + "ORDER BY PRIORITY DESC, INTERNAL_POSITION LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING j1.*) "
+                    + DbImplBase.queries.get("ji_select_all").replace("FROM __T__JOB_INSTANCE ji", "FROM claimed ji")
+                    + "ORDER BY ji.PRIORITY DESC, ji.INTERNAL_POSITION"));
+        }
+    }
+
+    /**
+     * SKIP LOCKED exists since PostgreSQL 9.5.
+     */
+    private boolean supportsSkipLocked(Connection cnx)
+    {
+        try
+        {
+            int major = cnx.getMetaData().getDatabaseMajorVersion();
+            int minor = cnx.getMetaData().getDatabaseMinorVersion();
+            return major > 9 || (major == 9 && minor >= 5);
+        }
+        catch (SQLException e)
+        {
+            return false;
+        }
     }
 
     @Override
@@ -61,6 +99,14 @@ public class DbImplPg implements DbAdapter
         return new ArrayList<String>();
     }
 
+    @Override
+    public List<String> postSchemaCreationScripts()
+    {
+        List<String> res = new ArrayList<String>();
+        res.add("/sql/metadata_version_pg.sql");
+        return res;
+    }
+
     @Override
     public void beforeUpdate(Connection cnx, QueryPreparation q)
     {
@@ -70,7 +116,13 @@ public class DbImplPg implements DbAdapter
     @Override
     public void setNullParameter(int position, PreparedStatement s) throws SQLException
     {
-        s.setNull(position, s.getParameterMetaData().getParameterType(position));
+        ParameterMetaData meta = parameterMetaData.get(s);
+        if (meta == null)
+        {
+            meta = s.getParameterMetaData();
+            parameterMetaData.put(s, meta);
+        }
+        s.setNull(position, meta.getParameterType(position));
     }
 
     @Override
@@ -0,0 +1,16 @@
+package com.enioka.jqm.jdbc;
+
+/**
+ * Callback for components which must know (inside the same JVM) that new job instances were just committed, without having to wait for
+ * their next database poll.
+ */
+public interface EnqueueListener
+{
+    /**
+     * Called after the commit of a new job instance in state SUBMITTED. Must return quickly.
+     * 
+     * @param queueId
+     *            ID of the queue on which the job instance waits.
+     */
+    void onEnqueue(int queueId);
+}
@@ -0,0 +1,164 @@
+package com.enioka.jqm.jdbc;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-through cache for metadata which is read on every enqueue and every launch but very seldom modified: job definitions and their
+ * parameters, queues, class loaders, global parameters. The typed accessors are inside the model classes (e.g.
+ * <code>JobDef.select_key_cached</code>).<br>
+ * <br>
+ * Invalidation:
+ * <ul>
+ * <li>a commit which has modified metadata through this {@link Db} empties the cache at once.</li>
+ * <li>every modification of the metadata tables, whatever its origin (this or another node, the admin web services, direct SQL...),
+ * increments a change counter (METADATA_VERSION table) through database triggers. The cache compares this counter with the last seen value
+ * at most once every probe period (Db property com.enioka.jqm.jdbc.metadataCacheProbeMs, 1000ms by default, 0 disables the cache), and
+ * empties itself if it has changed. So changes made elsewhere are seen after at most one probe period. Engines also probe on every internal
+ * poller loop.</li>
+ * </ul>
+ * A session which has uncommitted metadata modifications always bypasses the cache.<br>
+ * Cached objects are shared: they must never be modified.
+ */
+public class MetadataCache
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(MetadataCache.class);
+
+    private static final Object NULL_VALUE = new Object();
+    private static final String[] METADATA_QUERY_PREFIXES = new String[] { "jd_", "jdprm_", "q_", "cl_", "cleh_", "clehprm_",
+            "globalprm_" };
+
+    /**
+     * Loads a value from the database on a cache miss. May return null (which is cached too).
+     */
+    public interface Loader<T>
+    {
+        T load(DbConn cnx);
+    }
+
+    // Emptying the cache means replacing the map, so that a load which began before the invalidation cannot put a stale value in the new
+    // map.
+    private volatile ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+    private final long probePeriodMs;
+    private final ReentrantLock probeLock = new ReentrantLock();
+    private volatile long lastProbe = 0;
+    private volatile Integer lastStamp = null;
+    private volatile boolean stampAvailable = false;
+
+    MetadataCache(long probePeriodMs)
+    {
+        this.probePeriodMs = probePeriodMs;
+    }
+
+    /**
+     * True if the given update query modifies cached metadata.
+     */
+    static boolean isMetadataQuery(String queryKey)
+    {
+        for (String prefix : METADATA_QUERY_PREFIXES)
+        {
+            if (queryKey.startsWith(prefix))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the cached value for the given key, or loads it with the given loader.
+     *
+     * @param cnx
+     *            the session used for loading the value and for the change probe if it is due.
+     * @param key
+     *            the cache key. It should be prefixed by the type of the value (e.g. "jd_key:")
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(DbConn cnx, String key, Loader<T> loader)
+    {
+        if (probePeriodMs <= 0 || cnx.hasMetadataChanges())
+        {
+            return loader.load(cnx);
+        }
+
+        if (System.currentTimeMillis() - lastProbe >= probePeriodMs && probeLock.tryLock())
+        {
+            try
+            {
+                refresh(cnx);
+            }
+            finally
+            {
+                probeLock.unlock();
+            }
+        }
+        if (!stampAvailable)
+        {
+            // Changes from other nodes could not be detected.
+            return loader.load(cnx);
+        }
+
+        ConcurrentMap<String, Object> map = values;
+        Object res = map.get(key);
+        if (res == null)
+        {
+            T loaded = loader.load(cnx);
+            map.put(key, loaded == null ? NULL_VALUE : loaded);
+            return loaded;
+        }
+        return res == NULL_VALUE ? null : (T) res;
+    }
+
+    /**
+     * Checks if the metadata was modified since the previous check and empties the cache if so. A single primary key query.
+     */
+    public void refresh(DbConn cnx)
+    {
+        if (probePeriodMs <= 0)
+        {
+            return;
+        }
+        lastProbe = System.currentTimeMillis();
+
+        Integer stamp;
+        try
+        {
+            stamp = cnx.runSelectSingle("mdv_select", Integer.class);
+        }
+        catch (NoResultException e)
+        {
+            stamp = null;
+        }
+
+        if (stamp == null)
+        {
+            if (stampAvailable)
+            {
+                jqmlogger.warn("Metadata change counter is missing from the database - metadata cache is disabled");
+            }
+            stampAvailable = false;
+            lastStamp = null;
+            clear();
+            return;
+        }
+        if (!stamp.equals(lastStamp))
+        {
+            jqmlogger.debug("Metadata has changed - emptying metadata cache");
+            clear();
+            lastStamp = stamp;
+        }
+        stampAvailable = true;
+    }
+
+    /**
+     * Empties the cache.
+     */
+    public void clear()
+    {
+        values = new ConcurrentHashMap<String, Object>();
+    }
+}
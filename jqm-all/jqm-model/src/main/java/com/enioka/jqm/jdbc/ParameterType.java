@@ -0,0 +1,174 @@
+package com.enioka.jqm.jdbc;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * The different ways of binding a query parameter. The type of each parameter of a query is determined on first use and then remembered
+ * inside a binding plan (see {@link Db#getBindingPlan(String, int)}), so the type resolution is only done again when the value class
+ * changes.
+ */
+enum ParameterType
+{
+    NULL {
+        @Override
+        boolean accepts(Object value)
+        {
+            return value == null;
+        }
+
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            adapter.setNullParameter(position, s);
+        }
+    },
+    INTEGER {
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setInt(position, (Integer) value);
+        }
+    },
+    LONG {
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setLong(position, (Long) value);
+        }
+    },
+    STRING {
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setString(position, (String) value);
+        }
+    },
+    TIMESTAMP {
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setTimestamp(position, (Timestamp) value);
+        }
+    },
+    TIME {
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setTime(position, (Time) value);
+        }
+    },
+    BOOLEAN {
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setBoolean(position, (Boolean) value);
+        }
+    },
+    CALENDAR {
+        @Override
+        boolean accepts(Object value)
+        {
+            return value instanceof Calendar;
+        }
+
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setTimestamp(position, new Timestamp(((Calendar) value).getTimeInMillis()));
+        }
+    },
+    LIST {
+        @Override
+        boolean accepts(Object value)
+        {
+            return value instanceof List<?>;
+        }
+
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            Array a;
+            List<?> vv = (List<?>) value;
+            if (vv.size() == 0)
+            {
+                throw new DatabaseException("Cannot do a query whith an empty list parameter");
+            }
+            if (vv.get(0) instanceof Integer)
+            {
+                a = cnx.createArrayOf("INTEGER", vv.toArray(new Integer[0]));
+            }
+            else if (vv.get(0) instanceof String)
+            {
+                a = cnx.createArrayOf("VARCHAR", vv.toArray(new String[0]));
+            }
+            else
+            {
+                String[] vvv = new String[vv.size()];
+                int i = 0;
+                for (Object o : vv)
+                {
+                    vvv[i++] = o.toString();
+                }
+                a = cnx.createArrayOf("VARCHAR", vvv);
+            }
+            s.setArray(position, a);
+        }
+    },
+    OTHER {
+        @Override
+        boolean accepts(Object value)
+        {
+            return value != null;
+        }
+
+        @Override
+        void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException
+        {
+            s.setString(position, value.toString());
+        }
+    };
+
+    private Class<?> clazz;
+
+    static
+    {
+        INTEGER.clazz = Integer.class;
+        LONG.clazz = Long.class;
+        STRING.clazz = String.class;
+        TIMESTAMP.clazz = Timestamp.class;
+        TIME.clazz = Time.class;
+        BOOLEAN.clazz = Boolean.class;
+    }
+
+    /**
+     * True if this binding can be used for the given value. By default, an exact class match.
+     */
+    boolean accepts(Object value)
+    {
+        return value != null && value.getClass() == clazz;
+    }
+
+    abstract void bind(DbAdapter adapter, Connection cnx, PreparedStatement s, int position, Object value) throws SQLException;
+
+    /**
+     * The full type resolution. Order matters (OTHER is the fallback).
+     */
+    static ParameterType of(Object value)
+    {
+        for (ParameterType t : values())
+        {
+            if (t.accepts(value))
+            {
+                return t;
+            }
+        }
+        return OTHER; // Not reachable.
+    }
+}
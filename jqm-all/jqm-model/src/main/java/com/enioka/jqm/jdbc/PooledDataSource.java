@@ -0,0 +1,660 @@
+package com.enioka.jqm.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small JDBC connection pool, used when no pool is provided by a container. Physical connections come either from a non-pooling
+ * {@link DataSource} or from a JDBC {@link Driver}.<br>
+ * Connections are put in their default state (auto commit, isolation) once at creation, and are only reset when given back if the
+ * borrower has changed that state. An open transaction is always rolled back when a connection is given back. Connections which have been
+ * idle for more than the validation interval are validated before being lent.<br>
+ * <br>
+ * The borrowed connections are proxies - their close method gives the physical connection back to the pool. Only the connection is
+ * proxied: {@link Connection#getMetaData()} and the statements give access to the physical connection.
+ */
+public class PooledDataSource implements DataSource, PooledDataSourceMBean
+{
+    private static Logger jqmlogger = LoggerFactory.getLogger(PooledDataSource.class);
+
+    private static final long[] LATENCY_BUCKETS_MS = new long[] { 1, 5, 10, 50, 100, 500, 1000, 5000 };
+
+    // Connection source
+    private final DataSource source;
+    private final Driver driver;
+    private final String url;
+    private final Properties driverProperties;
+
+    // Parameters
+    private final int maxActive;
+    private int maxIdle;
+    private long maxWaitMs = 30000;
+    private long validationIntervalMs = 3000;
+    private String validationQuery = null;
+    private int validationQueryTimeout = 5;
+    private Boolean defaultAutoCommit = null;
+    private Integer defaultTransactionIsolation = null;
+
+    // Pool
+    private final Semaphore permits;
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<PooledConnection>();
+    private volatile boolean closed = false;
+
+    // Stats
+    private final AtomicInteger active = new AtomicInteger(0);
+    private final AtomicLong createdCount = new AtomicLong(0);
+    private final AtomicLong destroyedCount = new AtomicLong(0);
+    private final AtomicLong borrowCount = new AtomicLong(0);
+    private final AtomicLong waitCount = new AtomicLong(0);
+    private final AtomicLong waitTimeNs = new AtomicLong(0);
+    private final AtomicLong timeoutCount = new AtomicLong(0);
+    private final AtomicLong validationFailureCount = new AtomicLong(0);
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS_MS.length + 1);
+
+    private PrintWriter logWriter = null;
+    private int loginTimeout = 0;
+
+    /**
+     * A pool of connections created by a non-pooling DataSource.
+     */
+    public PooledDataSource(DataSource source, int maxActive)
+    {
+        this(source, null, null, null, maxActive);
+    }
+
+    /**
+     * A pool of connections created by a JDBC driver.
+     *
+     * @param driverProperties
+     *            the connection properties, usually including user and password. Can be null.
+     */
+    public PooledDataSource(Driver driver, String url, Properties driverProperties, int maxActive)
+    {
+        this(null, driver, url, driverProperties != null ? driverProperties : new Properties(), maxActive);
+    }
+
+    private PooledDataSource(DataSource source, Driver driver, String url, Properties driverProperties, int maxActive)
+    {
+        if (maxActive <= 0)
+        {
+            throw new IllegalArgumentException("maxActive must be strictly positive");
+        }
+        this.source = source;
+        this.driver = driver;
+        this.url = url;
+        this.driverProperties = driverProperties;
+        this.maxActive = maxActive;
+        this.maxIdle = maxActive;
+        this.permits = new Semaphore(maxActive);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Borrow & give back
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public Connection getConnection() throws SQLException
+    {
+        if (closed)
+        {
+            throw new SQLException("connection pool is closed");
+        }
+
+        long start = System.nanoTime();
+        acquirePermit(start);
+
+        boolean ok = false;
+        try
+        {
+            PooledConnection pc;
+            while ((pc = idle.pollFirst()) != null)
+            {
+                if (validate(pc))
+                {
+                    break;
+                }
+                validationFailureCount.incrementAndGet();
+                destroy(pc);
+            }
+            if (pc == null)
+            {
+                pc = create();
+            }
+
+            Connection res = pc.lend();
+            active.incrementAndGet();
+            borrowCount.incrementAndGet();
+            recordLatency(System.nanoTime() - start);
+            ok = true;
+            return res;
+        }
+        finally
+        {
+            if (!ok)
+            {
+                permits.release();
+            }
+        }
+    }
+
+    private void acquirePermit(long start) throws SQLException
+    {
+        if (permits.tryAcquire())
+        {
+            return;
+        }
+
+        waitCount.incrementAndGet();
+        try
+        {
+            if (maxWaitMs <= 0)
+            {
+                permits.acquire();
+            }
+            else if (!permits.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS))
+            {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timeout: pool empty. Unable to fetch a connection in " + maxWaitMs + " ms, none available["
+                        + active.get() + " in use]");
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for a connection", e);
+        }
+        finally
+        {
+            waitTimeNs.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void giveBack(PooledConnection pc)
+    {
+        active.decrementAndGet();
+        try
+        {
+            if (!closed && pc.reset() && idle.size() < maxIdle)
+            {
+                pc.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pc); // LIFO, so that extra connections become idle and do not need validation often.
+            }
+            else
+            {
+                destroy(pc);
+            }
+        }
+        finally
+        {
+            permits.release();
+        }
+    }
+
+    private PooledConnection create() throws SQLException
+    {
+        Connection cnx = source != null ? source.getConnection() : driver.connect(url, driverProperties);
+        if (cnx == null)
+        {
+            throw new SQLException("driver " + driver.getClass().getCanonicalName() + " does not accept URL " + url);
+        }
+        try
+        {
+            if (defaultAutoCommit != null)
+            {
+                cnx.setAutoCommit(defaultAutoCommit);
+            }
+            if (defaultTransactionIsolation != null)
+            {
+                cnx.setTransactionIsolation(defaultTransactionIsolation);
+            }
+        }
+        catch (SQLException e)
+        {
+            DbHelper.closeQuietly(cnx);
+            throw e;
+        }
+        createdCount.incrementAndGet();
+        return new PooledConnection(cnx);
+    }
+
+    private void destroy(PooledConnection pc)
+    {
+        destroyedCount.incrementAndGet();
+        DbHelper.closeQuietly(pc.physical);
+    }
+
+    private boolean validate(PooledConnection pc)
+    {
+        if (System.currentTimeMillis() - pc.lastUsed < validationIntervalMs)
+        {
+            return true;
+        }
+
+        if (validationQuery == null)
+        {
+            try
+            {
+                return pc.physical.isValid(validationQueryTimeout);
+            }
+            catch (SQLException e)
+            {
+                return false;
+            }
+            catch (AbstractMethodError e)
+            {
+                // Pre JDBC 4 driver. Nothing cheap to do.
+                return true;
+            }
+        }
+
+        Statement s = null;
+        try
+        {
+            s = pc.physical.createStatement();
+            s.setQueryTimeout(validationQueryTimeout);
+            s.execute(validationQuery);
+            if (!pc.physical.getAutoCommit())
+            {
+                pc.physical.rollback();
+            }
+            return true;
+        }
+        catch (SQLException e)
+        {
+            jqmlogger.debug("Connection validation has failed", e);
+            return false;
+        }
+        finally
+        {
+            DbHelper.closeQuietly(s);
+        }
+    }
+
+    private void recordLatency(long ns)
+    {
+        long ms = ns / 1000000;
+        int i = 0;
+        while (i < LATENCY_BUCKETS_MS.length && ms > LATENCY_BUCKETS_MS[i])
+        {
+            i++;
+        }
+        latencyHistogram.incrementAndGet(i);
+    }
+
+    /**
+     * Closes all idle connections. Borrowed connections are closed when given back. The pool cannot be used anymore afterwards.
+     */
+    public void close()
+    {
+        closed = true;
+        PooledConnection pc;
+        while ((pc = idle.pollFirst()) != null)
+        {
+            destroy(pc);
+        }
+    }
+
+    /**
+     * A physical connection, and the state it must be in when inside the pool.
+     */
+    private class PooledConnection
+    {
+        private final Connection physical;
+        private final boolean autoCommit;
+        private final int transactionIsolation;
+        private final boolean readOnly;
+        private volatile long lastUsed;
+        private volatile boolean stateChanged = false;
+
+        private PooledConnection(Connection physical) throws SQLException
+        {
+            this.physical = physical;
+            this.autoCommit = physical.getAutoCommit();
+            this.transactionIsolation = physical.getTransactionIsolation();
+            this.readOnly = physical.isReadOnly();
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        private Connection lend()
+        {
+            return (Connection) Proxy.newProxyInstance(PooledDataSource.class.getClassLoader(), new Class<?>[] { Connection.class },
+                    new Handle(this));
+        }
+
+        /**
+         * Puts the connection back in its pooled state. False if the connection cannot be reused.
+         */
+        private boolean reset()
+        {
+            try
+            {
+                if (!physical.getAutoCommit())
+                {
+                    physical.rollback();
+                }
+                if (stateChanged)
+                {
+                    physical.setAutoCommit(autoCommit);
+                    physical.setTransactionIsolation(transactionIsolation);
+                    physical.setReadOnly(readOnly);
+                    stateChanged = false;
+                }
+                physical.clearWarnings();
+                return true;
+            }
+            catch (SQLException e)
+            {
+                jqmlogger.debug("Connection cannot be given back to the pool and will be closed", e);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The connection as seen by a borrower. Unusable once closed.
+     */
+    private class Handle implements InvocationHandler
+    {
+        private PooledConnection pc;
+
+        private Handle(PooledConnection pc)
+        {
+            this.pc = pc;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            String name = method.getName();
+            if ("equals".equals(name))
+            {
+                return proxy == args[0];
+            }
+            if ("hashCode".equals(name))
+            {
+                return System.identityHashCode(proxy);
+            }
+
+            PooledConnection c;
+            synchronized (this)
+            {
+                c = this.pc;
+                if ("close".equals(name))
+                {
+                    this.pc = null;
+                }
+            }
+            if ("close".equals(name))
+            {
+                if (c != null)
+                {
+                    giveBack(c);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name))
+            {
+                return c == null || c.physical.isClosed();
+            }
+            if ("toString".equals(name))
+            {
+                return "PooledConnection[" + (c == null ? "closed" : c.physical.toString()) + "]";
+            }
+            if (c == null)
+            {
+                throw new SQLException("connection has already been given back to the pool");
+            }
+
+            if ("setAutoCommit".equals(name) || "setTransactionIsolation".equals(name) || "setReadOnly".equals(name))
+            {
+                c.stateChanged = true;
+            }
+
+            try
+            {
+                return method.invoke(c.physical, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Parameters
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Idle connections above this number are closed when given back. Default is maxActive.
+     */
+    public void setMaxIdle(int maxIdle)
+    {
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Maximum time to wait for a connection when all are in use, in milliseconds. 0 or less means forever. Default is 30s.
+     */
+    public void setMaxWait(long maxWaitMs)
+    {
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    /**
+     * Connections idle for less than this time (milliseconds) are not validated on borrow. Default is 3s.
+     */
+    public void setValidationInterval(long validationIntervalMs)
+    {
+        this.validationIntervalMs = validationIntervalMs;
+    }
+
+    /**
+     * Query used to validate connections. If null (the default) {@link Connection#isValid(int)} is used.
+     */
+    public void setValidationQuery(String validationQuery)
+    {
+        this.validationQuery = validationQuery;
+    }
+
+    /**
+     * Timeout of the validation, in seconds.
+     */
+    public void setValidationQueryTimeout(int validationQueryTimeout)
+    {
+        this.validationQueryTimeout = validationQueryTimeout;
+    }
+
+    /**
+     * Auto commit mode set on new connections. If null (the default) the driver default is kept.
+     */
+    public void setDefaultAutoCommit(Boolean defaultAutoCommit)
+    {
+        this.defaultAutoCommit = defaultAutoCommit;
+    }
+
+    /**
+     * Transaction isolation set on new connections. If null (the default) the driver default is kept.
+     */
+    public void setDefaultTransactionIsolation(Integer defaultTransactionIsolation)
+    {
+        this.defaultTransactionIsolation = defaultTransactionIsolation;
+    }
+
+    public Boolean getDefaultAutoCommit()
+    {
+        return defaultAutoCommit;
+    }
+
+    public Integer getDefaultTransactionIsolation()
+    {
+        return defaultTransactionIsolation;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // Stats
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public int getActive()
+    {
+        return active.get();
+    }
+
+    @Override
+    public int getIdle()
+    {
+        return idle.size();
+    }
+
+    @Override
+    public int getMaxActive()
+    {
+        return maxActive;
+    }
+
+    @Override
+    public int getMaxIdle()
+    {
+        return maxIdle;
+    }
+
+    @Override
+    public long getCreatedCount()
+    {
+        return createdCount.get();
+    }
+
+    @Override
+    public long getDestroyedCount()
+    {
+        return destroyedCount.get();
+    }
+
+    @Override
+    public long getBorrowCount()
+    {
+        return borrowCount.get();
+    }
+
+    @Override
+    public long getWaitCount()
+    {
+        return waitCount.get();
+    }
+
+    @Override
+    public long getWaitTimeMs()
+    {
+        return waitTimeNs.get() / 1000000;
+    }
+
+    @Override
+    public long getTimeoutCount()
+    {
+        return timeoutCount.get();
+    }
+
+    @Override
+    public long getValidationFailureCount()
+    {
+        return validationFailureCount.get();
+    }
+
+    @Override
+    public long[] getBorrowLatencyBucketsMs()
+    {
+        return LATENCY_BUCKETS_MS.clone();
+    }
+
+    @Override
+    public long[] getBorrowLatencyHistogram()
+    {
+        long[] res = new long[latencyHistogram.length()];
+        for (int i = 0; i < res.length; i++)
+        {
+            res[i] = latencyHistogram.get(i);
+        }
+        return res;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // DataSource boilerplate
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException
+    {
+        throw new SQLFeatureNotSupportedException("a connection pool cannot change the database account");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException
+    {
+        return logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException
+    {
+        this.logWriter = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException
+    {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException
+    {
+        return loginTimeout;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException
+    {
+        if (iface.isInstance(this))
+        {
+            return iface.cast(this);
+        }
+        if (source != null)
+        {
+            return source.unwrap(iface);
+        }
+        throw new SQLException("not a wrapper for " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException
+    {
+        return iface.isInstance(this) || (source != null && source.isWrapperFor(iface));
+    }
+
+    // No @Override - Java 7 method.
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException
+    {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
@@ -0,0 +1,123 @@
+package com.enioka.jqm.jdbc;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.util.Hashtable;
+import java.util.Properties;
+
+import javax.naming.Context;
+import javax.naming.Name;
+import javax.naming.NamingException;
+import javax.naming.RefAddr;
+import javax.naming.Reference;
+import javax.naming.spi.ObjectFactory;
+
+/**
+ * JNDI factory for {@link PooledDataSource}. Parameter names are the same as with tomcat-jdbc so that a resource definition can switch
+ * from one to the other by changing only the factory name: url, driverClassName, username, password, connectionProperties (k=v;k=v),
+ * maxActive, maxIdle, maxWait, validationQuery, validationQueryTimeout, validationInterval, defaultAutoCommit,
+ * defaultTransactionIsolation.<br>
+ * The driver is loaded with the context class loader.
+ */
+public class PooledDataSourceFactory implements ObjectFactory
+{
+    @Override
+    public Object getObjectInstance(Object obj, Name name, Context nameCtx, Hashtable<?, ?> environment) throws Exception
+    {
+        Reference ref = (Reference) obj;
+
+        String url = get(ref, "url", null);
+        if (url == null)
+        {
+            throw new NamingException("a JDBC pool resource must have an url parameter");
+        }
+
+        Properties props = new Properties();
+        String connectionProperties = get(ref, "connectionProperties", null);
+        if (connectionProperties != null)
+        {
+            for (String kv : connectionProperties.split(";"))
+            {
+                int i = kv.indexOf('=');
+                if (i > 0)
+                {
+                    props.setProperty(kv.substring(0, i).trim(), kv.substring(i + 1).trim());
+                }
+            }
+        }
+        if (get(ref, "username", null) != null)
+        {
+            props.setProperty("user", get(ref, "username", null));
+        }
+        if (get(ref, "password", null) != null)
+        {
+            props.setProperty("password", get(ref, "password", null));
+        }
+
+        Driver driver;
+        String driverClassName = get(ref, "driverClassName", null);
+        if (driverClassName != null)
+        {
+            ClassLoader cl = Thread.currentThread().getContextClassLoader();
+            driver = (Driver) Class.forName(driverClassName, true, cl != null ? cl : PooledDataSourceFactory.class.getClassLoader())
+                    .newInstance();
+        }
+        else
+        {
+            driver = DriverManager.getDriver(url);
+        }
+
+        PooledDataSource res = new PooledDataSource(driver, url, props, Integer.parseInt(get(ref, "maxActive", "10")));
+        res.setMaxIdle(Integer.parseInt(get(ref, "maxIdle", String.valueOf(res.getMaxActive()))));
+        res.setMaxWait(Long.parseLong(get(ref, "maxWait", "30000")));
+        res.setValidationQuery(get(ref, "validationQuery", null));
+        res.setValidationQueryTimeout(Integer.parseInt(get(ref, "validationQueryTimeout", "5")));
+        res.setValidationInterval(Long.parseLong(get(ref, "validationInterval", "3000")));
+        if (get(ref, "defaultAutoCommit", null) != null)
+        {
+            res.setDefaultAutoCommit(Boolean.parseBoolean(get(ref, "defaultAutoCommit", null)));
+        }
+        if (get(ref, "defaultTransactionIsolation", null) != null)
+        {
+            res.setDefaultTransactionIsolation(getIsolation(get(ref, "defaultTransactionIsolation", null)));
+        }
+        return res;
+    }
+
+    private static String get(Reference ref, String key, String defaultValue)
+    {
+        RefAddr ra = ref.get(key);
+        if (ra == null || ra.getContent() == null)
+        {
+            return defaultValue;
+        }
+        return ra.getContent().toString();
+    }
+
+    /**
+     * Either a number or the name of a {@link Connection} TRANSACTION_ constant, with or without its prefix.
+     */
+    private static int getIsolation(String value) throws NamingException
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e)
+        {
+            // Not a number - continue.
+        }
+        String n = value.toUpperCase().startsWith("TRANSACTION_") ? value.toUpperCase() : "TRANSACTION_" + value.toUpperCase();
+        try
+        {
+            Field f = Connection.class.getField(n);
+            return f.getInt(null);
+        }
+        catch (Exception e)
+        {
+            throw new NamingException("unknown transaction isolation level " + value);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.enioka.jqm.jdbc;
+
+/**
+ * JMX view of a {@link PooledDataSource}.
+ */
+public interface PooledDataSourceMBean
+{
+    /**
+     * Connections currently borrowed.
+     */
+    int getActive();
+
+    /**
+     * Connections currently waiting inside the pool.
+     */
+    int getIdle();
+
+    int getMaxActive();
+
+    int getMaxIdle();
+
+    /**
+     * Number of physical connections opened since the pool was created.
+     */
+    long getCreatedCount();
+
+    /**
+     * Number of physical connections closed since the pool was created (including validation failures).
+     */
+    long getDestroyedCount();
+
+    long getBorrowCount();
+
+    /**
+     * Number of borrows which had to wait for a connection to be given back.
+     */
+    long getWaitCount();
+
+    /**
+     * Total time spent waiting for a connection to be given back, in milliseconds.
+     */
+    long getWaitTimeMs();
+
+    /**
+     * Number of borrows which have failed after waiting for maxWait milliseconds.
+     */
+    long getTimeoutCount();
+
+    long getValidationFailureCount();
+
+    /**
+     * Upper bounds (inclusive, in milliseconds) of the borrow latency histogram buckets. The histogram has one more bucket for the
+     * borrows above the last bound.
+     */
+    long[] getBorrowLatencyBucketsMs();
+
+    /**
+     * Number of borrows for each bucket of {@link #getBorrowLatencyBucketsMs()}.
+     */
+    long[] getBorrowLatencyHistogram();
+}
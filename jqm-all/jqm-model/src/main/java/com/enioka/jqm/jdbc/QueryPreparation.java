@@ -30,6 +30,16 @@ class QueryPreparation
      */
     boolean forUpdate = false;
 
+    /**
+     * True if the query returns a result set. There are no generated keys to retrieve in that case.
+     */
+    boolean select = false;
+
+    /**
+     * Set during preparation if the statement comes from (or was just added to) the statement cache. Such statements must not be closed.
+     */
+    StatementCache.CachedStatement cachedStatement = null;
+
     boolean isKey(String key)
     {
         return queryKey != null && this.queryKey.equals(key);
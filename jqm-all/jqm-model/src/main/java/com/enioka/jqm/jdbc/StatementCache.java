@@ -0,0 +1,105 @@
+package com.enioka.jqm.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The prepared statements of a physical connection, by query key. A physical connection is only used by one {@link DbConn} at a time, so
+ * there is no synchronization here.<br>
+ * The cache is bounded (least recently used statements are closed first) as some databases limit the number of open cursors.
+ */
+class StatementCache
+{
+    /**
+     * A cached statement, with the last result set it has returned so as to know if it is still in use.
+     */
+    static class CachedStatement
+    {
+        final String key;
+        final PreparedStatement ps;
+        ResultSet rs = null;
+
+        CachedStatement(String key, PreparedStatement ps)
+        {
+            this.key = key;
+            this.ps = ps;
+        }
+
+        boolean isInUse()
+        {
+            try
+            {
+                return rs != null && !rs.isClosed();
+            }
+            catch (SQLException e)
+            {
+                return true;
+            }
+        }
+    }
+
+    final Connection physicalConnection;
+    private final int maxSize;
+    private final LinkedHashMap<String, CachedStatement> statements;
+
+    StatementCache(Connection physicalConnection, int maxSize)
+    {
+        this.physicalConnection = physicalConnection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<String, CachedStatement>(maxSize, 0.75f, true);
+    }
+
+    /**
+     * The cached statement for this key, or null if none. Statements closed behind our back (by a pool interceptor for example) are
+     * forgotten.
+     */
+    CachedStatement get(String key)
+    {
+        CachedStatement res = statements.get(key);
+        try
+        {
+            if (res != null && res.ps.isClosed())
+            {
+                statements.remove(key);
+                res = null;
+            }
+        }
+        catch (SQLException e)
+        {
+            remove(res);
+            res = null;
+        }
+        return res;
+    }
+
+    void put(CachedStatement s)
+    {
+        statements.put(s.key, s);
+
+        // Evict the least recently used statements - except those with a result set still open.
+        Iterator<Map.Entry<String, CachedStatement>> it = statements.entrySet().iterator();
+        while (statements.size() > maxSize && it.hasNext())
+        {
+            CachedStatement old = it.next().getValue();
+            if (old != s && !old.isInUse())
+            {
+                it.remove();
+                DbHelper.closeQuietly(old.ps);
+            }
+        }
+    }
+
+    void remove(CachedStatement s)
+    {
+        if (statements.get(s.key) == s)
+        {
+            statements.remove(s.key);
+        }
+        DbHelper.closeQuietly(s.ps);
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Map;
 
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.MetadataCache;
 import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.jdbc.QueryResult;
 
@@ -34,6 +35,12 @@ public class Cl implements Serializable
 
     private String allowedRunners;
 
+    private int poolSize = 0;
+
+    private int poolMaxUses = 100;
+
+    private String preloadedClasses;
+
     /**
      * A technical ID without any meaning. Generated by the database.
      */
@@ -163,6 +170,57 @@ public class Cl implements Serializable
         this.allowedRunners = allowedRunners;
     }
 
+    /**
+     * Default is 0. Only used when the context is not {@link #isPersistent()}. When greater than 0, the class loaders are not thrown out at
+     * the end of a launch but kept (at most this number of them for each {@link JobDef}) to be reused by the next launches. A class loader
+     * is only used by one job instance at a time, but the static context is kept from one launch to the next.
+     */
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    /**
+     * See {@link #getPoolSize()}
+     */
+    public void setPoolSize(int poolSize)
+    {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Default is 100. The number of launches after which a pooled class loader is thrown out and replaced by a new one. 0 means never.
+     */
+    public int getPoolMaxUses()
+    {
+        return poolMaxUses;
+    }
+
+    /**
+     * See {@link #getPoolMaxUses()}
+     */
+    public void setPoolMaxUses(int poolMaxUses)
+    {
+        this.poolMaxUses = poolMaxUses;
+    }
+
+    /**
+     * A comma-separated list of classes which are loaded (but not initialized) as soon as a pooled class loader is created, so that the
+     * launches do not have to do it. May be null.
+     */
+    public String getPreloadedClasses()
+    {
+        return preloadedClasses;
+    }
+
+    /**
+     * See {@link #getPreloadedClasses()}
+     */
+    public void setPreloadedClasses(String preloadedClasses)
+    {
+        this.preloadedClasses = preloadedClasses;
+    }
+
     /**
      * ResultSet is not modified (no rs.next called).
      * 
@@ -182,6 +240,9 @@ public class Cl implements Serializable
             tmp.tracingEnabled = rs.getBoolean(5 + colShift);
             tmp.persistent = rs.getBoolean(6 + colShift);
             tmp.allowedRunners = rs.getString(7 + colShift);
+            tmp.poolSize = rs.getInt(8 + colShift);
+            tmp.poolMaxUses = rs.getInt(9 + colShift);
+            tmp.preloadedClasses = rs.getString(10 + colShift);
         }
         catch (SQLException e)
         {
@@ -227,10 +288,33 @@ public class Cl implements Serializable
         return res.get(0);
     }
 
+    /**
+     * The {@link Cl} with the given ID (or null if none), through the {@link MetadataCache}. The result is shared and must not be modified.
+     */
+    public static Cl select_id_cached(DbConn cnx, final int id)
+    {
+        return cnx.getMetadataCache().get(cnx, "cl_id:" + id, new MetadataCache.Loader<Cl>()
+        {
+            @Override
+            public Cl load(DbConn cnx)
+            {
+                List<Cl> cls = select(cnx, "cl_select_by_id", id);
+                return cls.size() > 0 ? cls.get(0) : null;
+            }
+        });
+    }
+
     public static int create(DbConn cnx, String name, boolean childFirst, String hiddenClasses, boolean tracing, boolean persistent,
             String allowedRunners)
     {
-        QueryResult r = cnx.runUpdate("cl_insert", name, childFirst, hiddenClasses, tracing, persistent, allowedRunners);
+        return create(cnx, name, childFirst, hiddenClasses, tracing, persistent, allowedRunners, 0, 100, null);
+    }
+
+    public static int create(DbConn cnx, String name, boolean childFirst, String hiddenClasses, boolean tracing, boolean persistent,
+            String allowedRunners, int poolSize, int poolMaxUses, String preloadedClasses)
+    {
+        QueryResult r = cnx.runUpdate("cl_insert", name, childFirst, hiddenClasses, tracing, persistent, allowedRunners, poolSize,
+                poolMaxUses, preloadedClasses);
         int newId = r.getGeneratedId();
 
         return newId;
@@ -240,11 +324,13 @@ public class Cl implements Serializable
     {
         if (id == null)
         {
-            this.id = Cl.create(cnx, name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners);
+            this.id = Cl.create(cnx, name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners, poolSize, poolMaxUses,
+                    preloadedClasses);
         }
         else
         {
-            cnx.runUpdate("cl_update_all_fields_by_id", name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners, id);
+            cnx.runUpdate("cl_update_all_fields_by_id", name, childFirst, hiddenClasses, tracingEnabled, persistent, allowedRunners,
+                    poolSize, poolMaxUses, preloadedClasses, id);
         }
     }
 }
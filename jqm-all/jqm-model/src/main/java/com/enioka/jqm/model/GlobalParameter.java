@@ -27,6 +27,7 @@ import java.util.List;
 
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.MetadataCache;
 import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.jdbc.QueryResult;
 
@@ -151,16 +152,24 @@ public class GlobalParameter implements Serializable
      * @param defaultValue
      * @param cnx
      */
-    public static String getParameter(DbConn cnx, String key, String defaultValue)
+    public static String getParameter(DbConn cnx, final String key, String defaultValue)
     {
-        try
-        {
-            return cnx.runSelectSingle("globalprm_select_by_key", 3, String.class, key);
-        }
-        catch (NoResultException e)
+        String res = cnx.getMetadataCache().get(cnx, "globalprm_key:" + key, new MetadataCache.Loader<String>()
         {
-            return defaultValue;
-        }
+            @Override
+            public String load(DbConn cnx)
+            {
+                try
+                {
+                    return cnx.runSelectSingle("globalprm_select_by_key", 3, String.class, key);
+                }
+                catch (NoResultException e)
+                {
+                    return null;
+                }
+            }
+        });
+        return res == null ? defaultValue : res;
     }
 
     public static void setParameter(DbConn cnx, String key, String value)
@@ -586,15 +586,26 @@ public class History implements Serializable
         }
         else
         {
-            cnx.runUpdate("history_insert_with_end_date", ji.getId(), jd.getApplication(), jd.getApplicationName(), ji.getAttributionDate(),
-                    ji.getEmail(), endDate, ji.getCreationDate(), ji.getExecutionDate(), jd.isHighlander(), ji.getApplication(),
-                    ji.getKeyword1(), ji.getKeyword2(), ji.getKeyword3(), ji.getModule(), jd.getKeyword1(), jd.getKeyword2(),
-                    jd.getKeyword3(), jd.getModule(), n.getName(), ji.getParentId(), ji.getProgress(), q.getName(), 0, ji.getSessionID(),
-                    finalState.toString(), ji.getUserName(), ji.getJdId(), ji.getNode().getId(), ji.getQueue(), ji.isFromSchedule(),
-                    ji.getPriority());
+            cnx.runUpdate("history_insert_with_end_date", getInsertParameters(ji, finalState, endDate));
         }
     }
 
+    /**
+     * The parameters of query <code>history_insert_with_end_date</code> for a given {@link JobInstance}. Mostly used for batch inserts.
+     */
+    public static Object[] getInsertParameters(JobInstance ji, State finalState, Calendar endDate)
+    {
+        JobDef jd = ji.getJD();
+        Node n = ji.getNode();
+        Queue q = ji.getQ();
+
+        return new Object[] { ji.getId(), jd.getApplication(), jd.getApplicationName(), ji.getAttributionDate(), ji.getEmail(), endDate,
+                ji.getCreationDate(), ji.getExecutionDate(), jd.isHighlander(), ji.getApplication(), ji.getKeyword1(), ji.getKeyword2(),
+                ji.getKeyword3(), ji.getModule(), jd.getKeyword1(), jd.getKeyword2(), jd.getKeyword3(), jd.getModule(), n.getName(),
+                ji.getParentId(), ji.getProgress(), q.getName(), 0, ji.getSessionID(), finalState.toString(), ji.getUserName(), ji.getJdId(),
+                ji.getNode().getId(), ji.getQueue(), ji.isFromSchedule(), ji.getPriority() };
+    }
+
     /**
      * Create an History object from a {@link JobInstance}. (if it does not exist, exception).
      * 
@@ -27,6 +27,7 @@ import java.util.Map;
 
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.MetadataCache;
 import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.jdbc.QueryResult;
 
@@ -372,8 +373,7 @@ public class JobDef implements Serializable
 
     public Cl getClassLoader(DbConn cnx)
     {
-        List<Cl> cls = Cl.select(cnx, "cl_select_by_id", this.classLoader);
-        clCache = cls.size() > 0 ? cls.get(0) : null;
+        clCache = this.classLoader == null ? null : Cl.select_id_cached(cnx, this.classLoader);
         return clCache;
     }
 
@@ -537,6 +537,21 @@ public class JobDef implements Serializable
         return res.get(0);
     }
 
+    /**
+     * Same as {@link #select_key(DbConn, String)} but through the {@link MetadataCache}. The result is shared and must not be modified.
+     */
+    public static JobDef select_key_cached(DbConn cnx, final String name)
+    {
+        return cnx.getMetadataCache().get(cnx, "jd_key:" + name, new MetadataCache.Loader<JobDef>()
+        {
+            @Override
+            public JobDef load(DbConn cnx)
+            {
+                return select_key(cnx, name);
+            }
+        });
+    }
+
     public void update(DbConn cnx, Map<String, String> parameters)
     {
         if (id == null)
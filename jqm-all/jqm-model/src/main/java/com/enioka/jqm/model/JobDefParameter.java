@@ -22,12 +22,14 @@ import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.MetadataCache;
 import com.enioka.jqm.jdbc.QueryResult;
 
 /**
@@ -134,6 +136,21 @@ public class JobDefParameter implements Serializable
         return res;
     }
 
+    /**
+     * The parameters of a {@link JobDef} as a key/value map, through the {@link MetadataCache}. The map is read-only.
+     */
+    public static Map<String, String> select_map_cached(DbConn cnx, final int jdId)
+    {
+        return cnx.getMetadataCache().get(cnx, "jdprm_jd:" + jdId, new MetadataCache.Loader<Map<String, String>>()
+        {
+            @Override
+            public Map<String, String> load(DbConn cnx)
+            {
+                return Collections.unmodifiableMap(select_map(cnx, "jdprm_select_all_for_jd", jdId));
+            }
+        });
+    }
+
     public static int create(DbConn cnx, String key, String value, int jdId)
     {
         QueryResult qr = cnx.runUpdate("jdprm_insert", key, value, jdId);
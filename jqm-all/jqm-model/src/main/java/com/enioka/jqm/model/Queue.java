@@ -26,6 +26,7 @@ import java.util.List;
 
 import com.enioka.jqm.jdbc.DatabaseException;
 import com.enioka.jqm.jdbc.DbConn;
+import com.enioka.jqm.jdbc.MetadataCache;
 import com.enioka.jqm.jdbc.NoResultException;
 import com.enioka.jqm.jdbc.QueryResult;
 
@@ -193,6 +194,21 @@ public class Queue implements Serializable
         return res.get(0);
     }
 
+    /**
+     * Same as {@link #select_key(DbConn, String)} but through the {@link MetadataCache}. The result is shared and must not be modified.
+     */
+    public static Queue select_key_cached(DbConn cnx, final String name)
+    {
+        return cnx.getMetadataCache().get(cnx, "q_key:" + name, new MetadataCache.Loader<Queue>()
+        {
+            @Override
+            public Queue load(DbConn cnx)
+            {
+                return select_key(cnx, name);
+            }
+        });
+    }
+
     public void update(DbConn cnx)
     {
         if (this.id == null)
@@ -0,0 +1,21 @@
+/* Indexes for the most frequent queries. Designed for HSQLDB. JQM will adapt it to other compatible databases. */
+
+/* Poller: QUEUE and STATUS filter, then PRIORITY DESC, INTERNAL_POSITION order (ji_update_poll). */
+/* The index keeps its name, as some adapters use it in hints. */
+DROP INDEX IDX_JOB_INSTANCE_1;
+CREATE INDEX IDX_JOB_INSTANCE_1 ON __T__JOB_INSTANCE(QUEUE, STATUS, PRIORITY DESC, INTERNAL_POSITION);
+
+/* Poller statistics: count of recent ends per queue and node (history_select_count_last_mn_for_poller). */
+CREATE INDEX IDX_HISTORY_1 ON __T__HISTORY(QUEUE, NODE, DATE_END);
+
+/* Client query filters on history (JdbcClient.getJobs). */
+CREATE INDEX IDX_HISTORY_2 ON __T__HISTORY(DATE_END);
+CREATE INDEX IDX_HISTORY_3 ON __T__HISTORY(DATE_ENQUEUE);
+CREATE INDEX IDX_HISTORY_4 ON __T__HISTORY(STATUS, DATE_END);
+CREATE INDEX IDX_HISTORY_5 ON __T__HISTORY(JD_KEY, DATE_END);
+CREATE INDEX IDX_HISTORY_6 ON __T__HISTORY(USERNAME);
+CREATE INDEX IDX_HISTORY_7 ON __T__HISTORY(PARENT);
+CREATE INDEX IDX_HISTORY_8 ON __T__HISTORY(SESSION_KEY);
+CREATE INDEX IDX_HISTORY_9 ON __T__HISTORY(INSTANCE_KEYWORD1);
+CREATE INDEX IDX_HISTORY_10 ON __T__HISTORY(INSTANCE_KEYWORD2);
+CREATE INDEX IDX_HISTORY_11 ON __T__HISTORY(INSTANCE_KEYWORD3);
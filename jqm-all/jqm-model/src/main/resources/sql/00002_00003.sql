@@ -0,0 +1,10 @@
+/* Pooled class loaders for non persistent execution contexts. Designed for HSQLDB. JQM will adapt it to other compatible databases. */
+
+/* Number of class loaders kept ready for each job definition using the context. 0 means no pooling (one new class loader per launch). */
+ALTER TABLE __T__CL ADD COLUMN POOL_SIZE INTEGER DEFAULT 0 NOT NULL;
+
+/* Number of launches after which a pooled class loader is replaced by a new one. 0 means never. */
+ALTER TABLE __T__CL ADD COLUMN POOL_MAX_USES INTEGER DEFAULT 100 NOT NULL;
+
+/* Comma separated list of classes loaded when a pooled class loader is created. */
+ALTER TABLE __T__CL ADD COLUMN PRELOADED_CLASSES VARCHAR(4000);
@@ -0,0 +1,14 @@
+/* Metadata change counter. Designed for HSQLDB. JQM will adapt it to other compatible databases. */
+
+/* Single line, incremented by triggers (created by each database adapter) on every modification of the metadata tables cached by the */
+/* engines and clients: JOB_DEFINITION, JOB_DEFINITION_PARAMETER, QUEUE, CL, CL_HANDLER, CL_HANDLER_PARAMETER, GLOBAL_PARAMETER. */
+CREATE MEMORY TABLE __T__METADATA_VERSION
+(
+	ID INTEGER NOT NULL,
+	CHANGE_COUNT INTEGER NOT NULL,
+	CONSTRAINT PK_METADATA_VERSION PRIMARY KEY (ID)
+);
+INSERT INTO __T__METADATA_VERSION(ID, CHANGE_COUNT) VALUES(1, 0);
+
+/* The counter used to be a line of the WITNESS table. */
+DELETE FROM __T__WITNESS WHERE KEYNAME='METADATA';
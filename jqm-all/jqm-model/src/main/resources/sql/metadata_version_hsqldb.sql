@@ -0,0 +1,52 @@
+/* This file must be idempotent - it is run on each db upgrade */
+
+/* Metadata change counter: see 00003_00004.sql. */
+
+DROP TRIGGER __T__MDV_JD_I IF EXISTS;
+CREATE TRIGGER __T__MDV_JD_I AFTER INSERT ON __T__JOB_DEFINITION FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_JD_U IF EXISTS;
+CREATE TRIGGER __T__MDV_JD_U AFTER UPDATE ON __T__JOB_DEFINITION FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_JD_D IF EXISTS;
+CREATE TRIGGER __T__MDV_JD_D AFTER DELETE ON __T__JOB_DEFINITION FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER __T__MDV_JDPRM_I IF EXISTS;
+CREATE TRIGGER __T__MDV_JDPRM_I AFTER INSERT ON __T__JOB_DEFINITION_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_JDPRM_U IF EXISTS;
+CREATE TRIGGER __T__MDV_JDPRM_U AFTER UPDATE ON __T__JOB_DEFINITION_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_JDPRM_D IF EXISTS;
+CREATE TRIGGER __T__MDV_JDPRM_D AFTER DELETE ON __T__JOB_DEFINITION_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER __T__MDV_Q_I IF EXISTS;
+CREATE TRIGGER __T__MDV_Q_I AFTER INSERT ON __T__QUEUE FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_Q_U IF EXISTS;
+CREATE TRIGGER __T__MDV_Q_U AFTER UPDATE ON __T__QUEUE FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_Q_D IF EXISTS;
+CREATE TRIGGER __T__MDV_Q_D AFTER DELETE ON __T__QUEUE FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER __T__MDV_CL_I IF EXISTS;
+CREATE TRIGGER __T__MDV_CL_I AFTER INSERT ON __T__CL FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_CL_U IF EXISTS;
+CREATE TRIGGER __T__MDV_CL_U AFTER UPDATE ON __T__CL FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_CL_D IF EXISTS;
+CREATE TRIGGER __T__MDV_CL_D AFTER DELETE ON __T__CL FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER __T__MDV_CLEH_I IF EXISTS;
+CREATE TRIGGER __T__MDV_CLEH_I AFTER INSERT ON __T__CL_HANDLER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_CLEH_U IF EXISTS;
+CREATE TRIGGER __T__MDV_CLEH_U AFTER UPDATE ON __T__CL_HANDLER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_CLEH_D IF EXISTS;
+CREATE TRIGGER __T__MDV_CLEH_D AFTER DELETE ON __T__CL_HANDLER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER __T__MDV_CLEHPRM_I IF EXISTS;
+CREATE TRIGGER __T__MDV_CLEHPRM_I AFTER INSERT ON __T__CL_HANDLER_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_CLEHPRM_U IF EXISTS;
+CREATE TRIGGER __T__MDV_CLEHPRM_U AFTER UPDATE ON __T__CL_HANDLER_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_CLEHPRM_D IF EXISTS;
+CREATE TRIGGER __T__MDV_CLEHPRM_D AFTER DELETE ON __T__CL_HANDLER_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER __T__MDV_GP_I IF EXISTS;
+CREATE TRIGGER __T__MDV_GP_I AFTER INSERT ON __T__GLOBAL_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_GP_U IF EXISTS;
+CREATE TRIGGER __T__MDV_GP_U AFTER UPDATE ON __T__GLOBAL_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER __T__MDV_GP_D IF EXISTS;
+CREATE TRIGGER __T__MDV_GP_D AFTER DELETE ON __T__GLOBAL_PARAMETER FOR EACH STATEMENT UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
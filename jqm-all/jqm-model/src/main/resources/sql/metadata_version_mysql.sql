@@ -0,0 +1,52 @@
+/* This file must be idempotent - it is run on each db upgrade */
+
+/* Metadata change counter: see 00003_00004.sql. */
+
+DROP TRIGGER IF EXISTS __T__MDV_JD_I;
+CREATE TRIGGER __T__MDV_JD_I AFTER INSERT ON __T__JOB_DEFINITION FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_JD_U;
+CREATE TRIGGER __T__MDV_JD_U AFTER UPDATE ON __T__JOB_DEFINITION FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_JD_D;
+CREATE TRIGGER __T__MDV_JD_D AFTER DELETE ON __T__JOB_DEFINITION FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER IF EXISTS __T__MDV_JDPRM_I;
+CREATE TRIGGER __T__MDV_JDPRM_I AFTER INSERT ON __T__JOB_DEFINITION_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_JDPRM_U;
+CREATE TRIGGER __T__MDV_JDPRM_U AFTER UPDATE ON __T__JOB_DEFINITION_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_JDPRM_D;
+CREATE TRIGGER __T__MDV_JDPRM_D AFTER DELETE ON __T__JOB_DEFINITION_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER IF EXISTS __T__MDV_Q_I;
+CREATE TRIGGER __T__MDV_Q_I AFTER INSERT ON __T__QUEUE FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_Q_U;
+CREATE TRIGGER __T__MDV_Q_U AFTER UPDATE ON __T__QUEUE FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_Q_D;
+CREATE TRIGGER __T__MDV_Q_D AFTER DELETE ON __T__QUEUE FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER IF EXISTS __T__MDV_CL_I;
+CREATE TRIGGER __T__MDV_CL_I AFTER INSERT ON __T__CL FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_CL_U;
+CREATE TRIGGER __T__MDV_CL_U AFTER UPDATE ON __T__CL FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_CL_D;
+CREATE TRIGGER __T__MDV_CL_D AFTER DELETE ON __T__CL FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER IF EXISTS __T__MDV_CLEH_I;
+CREATE TRIGGER __T__MDV_CLEH_I AFTER INSERT ON __T__CL_HANDLER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_CLEH_U;
+CREATE TRIGGER __T__MDV_CLEH_U AFTER UPDATE ON __T__CL_HANDLER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_CLEH_D;
+CREATE TRIGGER __T__MDV_CLEH_D AFTER DELETE ON __T__CL_HANDLER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER IF EXISTS __T__MDV_CLEHPRM_I;
+CREATE TRIGGER __T__MDV_CLEHPRM_I AFTER INSERT ON __T__CL_HANDLER_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_CLEHPRM_U;
+CREATE TRIGGER __T__MDV_CLEHPRM_U AFTER UPDATE ON __T__CL_HANDLER_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_CLEHPRM_D;
+CREATE TRIGGER __T__MDV_CLEHPRM_D AFTER DELETE ON __T__CL_HANDLER_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+
+DROP TRIGGER IF EXISTS __T__MDV_GP_I;
+CREATE TRIGGER __T__MDV_GP_I AFTER INSERT ON __T__GLOBAL_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_GP_U;
+CREATE TRIGGER __T__MDV_GP_U AFTER UPDATE ON __T__GLOBAL_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
+DROP TRIGGER IF EXISTS __T__MDV_GP_D;
+CREATE TRIGGER __T__MDV_GP_D AFTER DELETE ON __T__GLOBAL_PARAMETER FOR EACH ROW UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1;
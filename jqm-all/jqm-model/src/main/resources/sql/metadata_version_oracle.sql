@@ -0,0 +1,38 @@
+/* This file must be idempotent - it is run on each db upgrade */
+
+/* Metadata change counter: see 00003_00004.sql. */
+
+CREATE OR REPLACE TRIGGER __T__MDV_JD AFTER INSERT OR UPDATE OR DELETE ON __T__JOB_DEFINITION
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+END~;
+
+CREATE OR REPLACE TRIGGER __T__MDV_JDPRM AFTER INSERT OR UPDATE OR DELETE ON __T__JOB_DEFINITION_PARAMETER
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+END~;
+
+CREATE OR REPLACE TRIGGER __T__MDV_Q AFTER INSERT OR UPDATE OR DELETE ON __T__QUEUE
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+END~;
+
+CREATE OR REPLACE TRIGGER __T__MDV_CL AFTER INSERT OR UPDATE OR DELETE ON __T__CL
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+END~;
+
+CREATE OR REPLACE TRIGGER __T__MDV_CLEH AFTER INSERT OR UPDATE OR DELETE ON __T__CL_HANDLER
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+END~;
+
+CREATE OR REPLACE TRIGGER __T__MDV_CLEHPRM AFTER INSERT OR UPDATE OR DELETE ON __T__CL_HANDLER_PARAMETER
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+END~;
+
+CREATE OR REPLACE TRIGGER __T__MDV_GP AFTER INSERT OR UPDATE OR DELETE ON __T__GLOBAL_PARAMETER
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+END~;
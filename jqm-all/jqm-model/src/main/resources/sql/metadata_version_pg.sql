@@ -0,0 +1,31 @@
+/* This file must be idempotent - it is run on each db upgrade */
+
+/* Metadata change counter: see 00003_00004.sql. */
+
+CREATE OR REPLACE FUNCTION __T__MDV_BUMP() RETURNS TRIGGER AS $$
+BEGIN
+	UPDATE __T__METADATA_VERSION SET CHANGE_COUNT=CHANGE_COUNT+1 WHERE ID=1~
+	RETURN NULL~
+END~
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS __T__MDV_JD ON __T__JOB_DEFINITION;
+CREATE TRIGGER __T__MDV_JD AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON __T__JOB_DEFINITION FOR EACH STATEMENT EXECUTE PROCEDURE __T__MDV_BUMP();
+
+DROP TRIGGER IF EXISTS __T__MDV_JDPRM ON __T__JOB_DEFINITION_PARAMETER;
+CREATE TRIGGER __T__MDV_JDPRM AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON __T__JOB_DEFINITION_PARAMETER FOR EACH STATEMENT EXECUTE PROCEDURE __T__MDV_BUMP();
+
+DROP TRIGGER IF EXISTS __T__MDV_Q ON __T__QUEUE;
+CREATE TRIGGER __T__MDV_Q AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON __T__QUEUE FOR EACH STATEMENT EXECUTE PROCEDURE __T__MDV_BUMP();
+
+DROP TRIGGER IF EXISTS __T__MDV_CL ON __T__CL;
+CREATE TRIGGER __T__MDV_CL AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON __T__CL FOR EACH STATEMENT EXECUTE PROCEDURE __T__MDV_BUMP();
+
+DROP TRIGGER IF EXISTS __T__MDV_CLEH ON __T__CL_HANDLER;
+CREATE TRIGGER __T__MDV_CLEH AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON __T__CL_HANDLER FOR EACH STATEMENT EXECUTE PROCEDURE __T__MDV_BUMP();
+
+DROP TRIGGER IF EXISTS __T__MDV_CLEHPRM ON __T__CL_HANDLER_PARAMETER;
+CREATE TRIGGER __T__MDV_CLEHPRM AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON __T__CL_HANDLER_PARAMETER FOR EACH STATEMENT EXECUTE PROCEDURE __T__MDV_BUMP();
+
+DROP TRIGGER IF EXISTS __T__MDV_GP ON __T__GLOBAL_PARAMETER;
+CREATE TRIGGER __T__MDV_GP AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON __T__GLOBAL_PARAMETER FOR EACH STATEMENT EXECUTE PROCEDURE __T__MDV_BUMP();
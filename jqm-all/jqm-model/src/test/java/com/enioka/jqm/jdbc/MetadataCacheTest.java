@@ -0,0 +1,195 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.enioka.jqm.model.Queue;
+
+/**
+ * Invalidation of the {@link MetadataCache}, on an in-memory HSQLDB database created by {@link Db} itself (schema and triggers included).
+ */
+public class MetadataCacheTest
+{
+    private Db db;
+
+    @Before
+    public void before()
+    {
+        db = newDb(100);
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_delete_all");
+        cnx.runUpdate("q_insert", false, "initial", "Q1");
+        cnx.commit();
+        cnx.close();
+    }
+
+    @After
+    public void after()
+    {
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_delete_all");
+        cnx.commit();
+        cnx.close();
+    }
+
+    private static Db newDb(long probePeriodMs)
+    {
+        Properties p = new Properties();
+        p.setProperty("com.enioka.jqm.jdbc.url", "jdbc:hsqldb:mem:testdbengine");
+        p.setProperty("com.enioka.jqm.jdbc.metadataCacheProbeMs", String.valueOf(probePeriodMs));
+        return new Db(p);
+    }
+
+    /**
+     * Runs an order outside of JQM, as an administrator would.
+     */
+    private static void directSql(String sql) throws Exception
+    {
+        Connection c = DriverManager.getConnection("jdbc:hsqldb:mem:testdbengine", "SA", "");
+        Statement s = c.createStatement();
+        s.executeUpdate(sql);
+        s.close();
+        c.commit();
+        c.close();
+    }
+
+    private int changeCount()
+    {
+        DbConn cnx = db.getConn();
+        try
+        {
+            return cnx.runSelectSingle("mdv_select", Integer.class);
+        }
+        finally
+        {
+            cnx.close();
+        }
+    }
+
+    private String description(String queueName)
+    {
+        DbConn cnx = db.getConn();
+        try
+        {
+            return Queue.select_key_cached(cnx, queueName).getDescription();
+        }
+        finally
+        {
+            cnx.close();
+        }
+    }
+
+    @Test
+    public void testCounterIsIncrementedByEveryWriter() throws Exception
+    {
+        int count = changeCount();
+
+        // Through JQM.
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_insert", false, "other", "Q2");
+        cnx.commit();
+        cnx.close();
+        Assert.assertTrue(changeCount() > count);
+        count = changeCount();
+
+        // Direct SQL, for every kind of order and on every metadata table (statement triggers: even when no line is modified).
+        directSql("UPDATE QUEUE SET DESCRIPTION='changed' WHERE NAME='Q2'");
+        Assert.assertTrue(changeCount() > count);
+        count = changeCount();
+
+        directSql("DELETE FROM QUEUE WHERE NAME='Q2'");
+        Assert.assertTrue(changeCount() > count);
+        count = changeCount();
+
+        directSql("UPDATE GLOBAL_PARAMETER SET ID=ID WHERE 1=0");
+        Assert.assertTrue(changeCount() > count);
+        count = changeCount();
+
+        for (String table : new String[] { "JOB_DEFINITION", "JOB_DEFINITION_PARAMETER", "CL", "CL_HANDLER", "CL_HANDLER_PARAMETER" })
+        {
+            directSql("UPDATE " + table + " SET ID=ID WHERE 1=0");
+            Assert.assertTrue(table, changeCount() > count);
+            count = changeCount();
+        }
+
+        // Not metadata.
+        directSql("UPDATE MESSAGE SET ID=ID WHERE 1=0");
+        Assert.assertEquals(count, changeCount());
+    }
+
+    @Test
+    public void testCacheHit() throws Exception
+    {
+        DbConn cnx = db.getConn();
+        Queue q1 = Queue.select_key_cached(cnx, "Q1");
+        Queue q2 = Queue.select_key_cached(cnx, "Q1");
+        cnx.close();
+
+        Assert.assertSame(q1, q2);
+        Assert.assertEquals("initial", q1.getDescription());
+    }
+
+    @Test
+    public void testLocalCommitInvalidatesAtOnce() throws Exception
+    {
+        Db slow = newDb(3600000);
+        DbConn cnx = slow.getConn();
+        Queue q = Queue.select_key_cached(cnx, "Q1");
+        cnx.runUpdate("q_update_all_fields_by_id", false, "local", "Q1", q.getId());
+
+        // Uncommitted changes are seen by their own session only.
+        Assert.assertEquals("local", Queue.select_key_cached(cnx, "Q1").getDescription());
+        cnx.commit();
+        Assert.assertEquals("local", Queue.select_key_cached(cnx, "Q1").getDescription());
+        cnx.close();
+    }
+
+    @Test
+    public void testDirectSqlInvalidatesAfterProbe() throws Exception
+    {
+        Assert.assertEquals("initial", description("Q1"));
+
+        directSql("UPDATE QUEUE SET DESCRIPTION='direct' WHERE NAME='Q1'");
+        Thread.sleep(200);
+        Assert.assertEquals("direct", description("Q1"));
+    }
+
+    @Test
+    public void testOtherNodeInvalidatesAfterProbe() throws Exception
+    {
+        Assert.assertEquals("initial", description("Q1"));
+
+        // Another node is another Db, with its own cache.
+        Db other = newDb(100);
+        DbConn cnx = other.getConn();
+        Queue q = Queue.select_key_cached(cnx, "Q1");
+        cnx.runUpdate("q_update_all_fields_by_id", false, "other node", "Q1", q.getId());
+        cnx.commit();
+        cnx.close();
+
+        Thread.sleep(200);
+        Assert.assertEquals("other node", description("Q1"));
+    }
+}
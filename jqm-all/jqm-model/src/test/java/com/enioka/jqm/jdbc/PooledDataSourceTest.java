@@ -0,0 +1,417 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the built-in connection pool, directly on top of an in-memory HSQLDB database.
+ */
+public class PooledDataSourceTest
+{
+    private static final String VALIDATION_QUERY = "SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS";
+
+    private PooledDataSource pool;
+
+    @Before
+    public void before()
+    {
+        JDBCDataSource ds = new JDBCDataSource();
+        ds.setDatabase("jdbc:hsqldb:mem:pooltest");
+        ds.setUser("SA");
+        ds.setPassword("");
+        pool = new PooledDataSource(ds, 3);
+    }
+
+    @After
+    public void after()
+    {
+        pool.close();
+    }
+
+    private static Connection physical(Connection c) throws SQLException
+    {
+        return c.getMetaData().getConnection();
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        Connection c1 = pool.getConnection();
+        Connection p1 = physical(c1);
+        c1.close();
+
+        Connection c2 = pool.getConnection();
+        Assert.assertNotSame(c1, c2);
+        Assert.assertSame(p1, physical(c2));
+        c2.close();
+
+        Assert.assertEquals(1, pool.getCreatedCount());
+        Assert.assertEquals(2, pool.getBorrowCount());
+        Assert.assertEquals(0, pool.getActive());
+        Assert.assertEquals(1, pool.getIdle());
+    }
+
+    @Test
+    public void testClosedHandleIsUnusable() throws Exception
+    {
+        Connection c = pool.getConnection();
+        c.close();
+        c.close(); // No effect - the physical connection must not be given back twice.
+
+        Assert.assertTrue(c.isClosed());
+        Assert.assertEquals(1, pool.getIdle());
+        try
+        {
+            c.createStatement();
+            Assert.fail("a closed connection was usable");
+        }
+        catch (SQLException e)
+        {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testExhaustionTimeout() throws Exception
+    {
+        pool.setMaxWait(200);
+        List<Connection> borrowed = new ArrayList<Connection>();
+        for (int i = 0; i < 3; i++)
+        {
+            borrowed.add(pool.getConnection());
+        }
+
+        long start = System.currentTimeMillis();
+        try
+        {
+            pool.getConnection();
+            Assert.fail("pool should have been exhausted");
+        }
+        catch (SQLException e)
+        {
+            Assert.assertTrue(e.getMessage().contains("Timeout"));
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 190);
+        Assert.assertEquals(1, pool.getTimeoutCount());
+        Assert.assertEquals(3, pool.getActive());
+
+        // A connection given back can be borrowed at once.
+        borrowed.remove(0).close();
+        borrowed.add(pool.getConnection());
+        Assert.assertEquals(3, pool.getCreatedCount());
+
+        for (Connection c : borrowed)
+        {
+            c.close();
+        }
+        Assert.assertEquals(0, pool.getActive());
+    }
+
+    @Test
+    public void testWaitingBorrowerIsServed() throws Exception
+    {
+        pool.setMaxWait(5000);
+        final List<Connection> borrowed = new ArrayList<Connection>();
+        for (int i = 0; i < 3; i++)
+        {
+            borrowed.add(pool.getConnection());
+        }
+
+        final AtomicReference<Connection> res = new AtomicReference<Connection>();
+        Thread t = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    res.set(pool.getConnection());
+                }
+                catch (SQLException e)
+                {
+                    // res stays null.
+                }
+            }
+        };
+        t.start();
+        Thread.sleep(100);
+        Connection p0 = physical(borrowed.get(0));
+        borrowed.get(0).close();
+        t.join(5000);
+
+        Assert.assertNotNull(res.get());
+        Assert.assertSame(p0, physical(res.get()));
+        Assert.assertEquals(1, pool.getWaitCount());
+        Assert.assertEquals(0, pool.getTimeoutCount());
+        res.get().close();
+        borrowed.get(1).close();
+        borrowed.get(2).close();
+    }
+
+    @Test
+    public void testValidationOnBorrow() throws Exception
+    {
+        pool.setValidationInterval(0);
+
+        Connection c = pool.getConnection();
+        Connection p = physical(c);
+        c.close();
+
+        // A connection which is still fine is lent again.
+        c = pool.getConnection();
+        Assert.assertSame(p, physical(c));
+        c.close();
+        Assert.assertEquals(0, pool.getValidationFailureCount());
+
+        // A connection broken while idle is replaced.
+        p.close();
+        c = pool.getConnection();
+        Assert.assertNotSame(p, physical(c));
+        Assert.assertFalse(c.isClosed());
+        c.close();
+        Assert.assertEquals(1, pool.getValidationFailureCount());
+        Assert.assertEquals(1, pool.getDestroyedCount());
+        Assert.assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testValidationQuery() throws Exception
+    {
+        pool.setValidationInterval(0);
+        pool.setValidationQuery(VALIDATION_QUERY);
+
+        Connection c = pool.getConnection();
+        Connection p = physical(c);
+        c.close();
+        p.close();
+
+        c = pool.getConnection();
+        Assert.assertNotSame(p, physical(c));
+        c.close();
+        Assert.assertEquals(1, pool.getValidationFailureCount());
+    }
+
+    @Test
+    public void testNoValidationWithinInterval() throws Exception
+    {
+        pool.setValidationInterval(60000);
+
+        Connection c = pool.getConnection();
+        Connection p = physical(c);
+        c.close();
+        p.close();
+
+        // Recently used connections are trusted - this is the price of not validating on every borrow.
+        c = pool.getConnection();
+        Assert.assertTrue(c.isClosed());
+        c.close();
+        Assert.assertEquals(0, pool.getValidationFailureCount());
+    }
+
+    @Test
+    public void testEvictionAboveMaxIdle() throws Exception
+    {
+        pool.setMaxIdle(1);
+        Connection c1 = pool.getConnection();
+        Connection c2 = pool.getConnection();
+        Connection c3 = pool.getConnection();
+        Connection p2 = physical(c2);
+        Connection p3 = physical(c3);
+
+        c1.close();
+        c2.close();
+        c3.close();
+
+        Assert.assertEquals(1, pool.getIdle());
+        Assert.assertEquals(2, pool.getDestroyedCount());
+        Assert.assertTrue(p2.isClosed());
+        Assert.assertTrue(p3.isClosed());
+    }
+
+    @Test
+    public void testEvictionOfBrokenConnection() throws Exception
+    {
+        Connection c = pool.getConnection();
+        Connection p = physical(c);
+        c.setAutoCommit(false);
+        p.close();
+
+        // The rollback done when giving the connection back fails - the connection is not kept.
+        c.close();
+        Assert.assertEquals(0, pool.getIdle());
+        Assert.assertEquals(1, pool.getDestroyedCount());
+        Assert.assertEquals(0, pool.getActive());
+    }
+
+    @Test
+    public void testCloseEvictsIdleConnections() throws Exception
+    {
+        Connection c = pool.getConnection();
+        Connection p = physical(c);
+        c.close();
+
+        pool.close();
+        Assert.assertTrue(p.isClosed());
+        Assert.assertEquals(0, pool.getIdle());
+        try
+        {
+            pool.getConnection();
+            Assert.fail("a closed pool has lent a connection");
+        }
+        catch (SQLException e)
+        {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void testStateIsReset() throws Exception
+    {
+        pool.setDefaultAutoCommit(false);
+        pool.setDefaultTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+
+        Connection c = pool.getConnection();
+        Statement s = c.createStatement();
+        s.execute("CREATE TABLE POOLTEST(ID INTEGER)");
+        s.close();
+        c.commit();
+        c.close();
+
+        // Borrower changes the state and leaves a transaction open.
+        c = pool.getConnection();
+        Assert.assertFalse(c.getAutoCommit());
+        s = c.createStatement();
+        s.execute("INSERT INTO POOLTEST VALUES(1)");
+        s.close();
+        c.setAutoCommit(true);
+        c.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+        c.setAutoCommit(false);
+        s = c.createStatement();
+        s.execute("INSERT INTO POOLTEST VALUES(2)");
+        s.close();
+        c.close();
+
+        c = pool.getConnection();
+        Assert.assertFalse(c.getAutoCommit());
+        Assert.assertEquals(Connection.TRANSACTION_READ_COMMITTED, c.getTransactionIsolation());
+        s = c.createStatement();
+        ResultSet rs = s.executeQuery("SELECT COUNT(1) FROM POOLTEST");
+        rs.next();
+        // First row was committed by setAutoCommit(true), second one was rolled back.
+        Assert.assertEquals(1, rs.getInt(1));
+        rs.close();
+        s.execute("DROP TABLE POOLTEST");
+        s.close();
+        c.commit();
+        c.close();
+
+        Assert.assertEquals(1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testConcurrentBorrowAndReturn() throws Exception
+    {
+        final int threadCount = 10, loops = 300;
+        pool.setMaxWait(0);
+        pool.setValidationInterval(0);
+        pool.setValidationQuery(VALIDATION_QUERY);
+
+        final AtomicInteger inUse = new AtomicInteger(0);
+        final AtomicInteger maxInUse = new AtomicInteger(0);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int i = 0; i < threadCount; i++)
+        {
+            Thread t = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                        for (int j = 0; j < loops; j++)
+                        {
+                            Connection c = pool.getConnection();
+                            int nb = inUse.incrementAndGet();
+                            int max;
+                            while (nb > (max = maxInUse.get()) && !maxInUse.compareAndSet(max, nb))
+                            {
+                                // Retry.
+                            }
+
+                            Statement s = c.createStatement();
+                            ResultSet rs = s.executeQuery(VALIDATION_QUERY);
+                            rs.next();
+                            rs.close();
+                            s.close();
+
+                            inUse.decrementAndGet();
+                            c.close();
+                        }
+                    }
+                    catch (Exception e)
+                    {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : threads)
+        {
+            t.join(60000);
+        }
+
+        if (error.get() != null)
+        {
+            AssertionError e = new AssertionError("a borrower has failed: " + error.get());
+            e.initCause(error.get());
+            throw e;
+        }
+        Assert.assertTrue(maxInUse.get() <= 3);
+        Assert.assertEquals(threadCount * loops, pool.getBorrowCount());
+        Assert.assertEquals(0, pool.getActive());
+        Assert.assertTrue(pool.getCreatedCount() <= 3);
+        Assert.assertEquals(pool.getCreatedCount() - pool.getDestroyedCount(), pool.getIdle());
+
+        long total = 0;
+        for (long l : pool.getBorrowLatencyHistogram())
+        {
+            total += l;
+        }
+        Assert.assertEquals(threadCount * loops, total);
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Prepared statement reuse through {@link DbConn}, on an in-memory HSQLDB database created by {@link Db} itself (schema included). The
+ * pool lends its most recently used connection first, so successive sessions of a single thread use the same physical connection.
+ */
+public class StatementCacheTest
+{
+    private Db db;
+
+    @Before
+    public void before()
+    {
+        db = newDb(3);
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_delete_all");
+        cnx.commit();
+        cnx.close();
+    }
+
+    @After
+    public void after()
+    {
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_delete_all");
+        cnx.commit();
+        cnx.close();
+    }
+
+    private static Db newDb(int cacheSize)
+    {
+        Properties p = new Properties();
+        p.setProperty("com.enioka.jqm.jdbc.url", "jdbc:hsqldb:mem:testdbengine");
+        p.setProperty("com.enioka.jqm.jdbc.statementCacheSize", String.valueOf(cacheSize));
+        return new Db(p);
+    }
+
+    private Statement selectAndClose(DbConn cnx, String key, Object... prms) throws Exception
+    {
+        ResultSet rs = cnx.runSelect(key, prms);
+        Statement res = rs.getStatement();
+        while (rs.next())
+        {
+            // Consume.
+        }
+        rs.close();
+        return res;
+    }
+
+    private int countQueues(DbConn cnx)
+    {
+        return cnx.runSelectSingle("q_select_count_all", Integer.class);
+    }
+
+    @Test
+    public void testCacheHitAcrossSessions() throws Exception
+    {
+        DbConn cnx = db.getConn();
+        Statement s1 = selectAndClose(cnx, "q_select_all");
+        Statement s2 = selectAndClose(cnx, "q_select_all");
+        cnx.close();
+
+        cnx = db.getConn();
+        Statement s3 = selectAndClose(cnx, "q_select_all");
+        cnx.close();
+
+        Assert.assertSame(s1, s2);
+        Assert.assertSame(s1, s3);
+        Assert.assertFalse(s1.isClosed());
+    }
+
+    @Test
+    public void testCacheHitWithParameters() throws Exception
+    {
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_insert", false, "first", "Q1");
+        cnx.runUpdate("q_insert", false, "second", "Q2");
+        cnx.commit();
+
+        ResultSet rs = cnx.runSelect("q_select_by_key", "Q1");
+        Statement s1 = rs.getStatement();
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("first", rs.getString(3));
+        rs.close();
+
+        // Same statement, new parameter value.
+        rs = cnx.runSelect("q_select_by_key", "Q2");
+        Assert.assertSame(s1, rs.getStatement());
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("second", rs.getString(3));
+        Assert.assertFalse(rs.next());
+        rs.close();
+        cnx.close();
+    }
+
+    @Test
+    public void testNestedUseBypassesCache() throws Exception
+    {
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_insert", false, "first", "Q1");
+        cnx.runUpdate("q_insert", false, "second", "Q2");
+        cnx.commit();
+
+        ResultSet outer = cnx.runSelect("q_select_all");
+        int nb = 0;
+        while (outer.next())
+        {
+            // Same query while the first result set is still open: a different statement is needed.
+            ResultSet inner = cnx.runSelect("q_select_all");
+            Assert.assertNotSame(outer.getStatement(), inner.getStatement());
+            while (inner.next())
+            {
+                // Consume.
+            }
+            inner.close();
+            nb++;
+        }
+        Assert.assertEquals(2, nb);
+        Statement cached = outer.getStatement();
+        outer.close();
+
+        // The cached statement is available again.
+        Assert.assertSame(cached, selectAndClose(cnx, "q_select_all"));
+        cnx.close();
+    }
+
+    @Test
+    public void testEviction() throws Exception
+    {
+        Db small = newDb(2);
+        DbConn cnx = small.getConn();
+        Statement s1 = selectAndClose(cnx, "q_select_all");
+        Statement s2 = selectAndClose(cnx, "node_select_all");
+        Assert.assertSame(s1, selectAndClose(cnx, "q_select_all")); // s1 is now the most recently used.
+        Statement s3 = selectAndClose(cnx, "q_select_count_all");
+
+        // Least recently used statement was closed when the third one came in.
+        Assert.assertTrue(s2.isClosed());
+        Assert.assertFalse(s1.isClosed());
+        Assert.assertFalse(s3.isClosed());
+        Assert.assertNotSame(s2, selectAndClose(cnx, "node_select_all"));
+        cnx.close();
+    }
+
+    @Test
+    public void testOpenStatementIsNotEvicted() throws Exception
+    {
+        Db small = newDb(1);
+        DbConn cnx = small.getConn();
+        ResultSet rs = cnx.runSelect("q_select_all");
+        Statement s1 = rs.getStatement();
+        selectAndClose(cnx, "node_select_all");
+
+        // Still in use - kept even if the cache is over its size.
+        Assert.assertFalse(s1.isClosed());
+        Assert.assertFalse(rs.isClosed());
+        rs.close();
+        cnx.close();
+    }
+
+    @Test
+    public void testCachedStatementUsableAfterRollback() throws Exception
+    {
+        DbConn cnx = db.getConn();
+        Assert.assertEquals(0, countQueues(cnx));
+        cnx.runUpdate("q_insert", false, "rolled back", "Q1");
+        Assert.assertEquals(1, countQueues(cnx));
+        cnx.rollback();
+
+        // Both the update and the select statements are reused after the rollback.
+        Assert.assertEquals(0, countQueues(cnx));
+        cnx.runUpdate("q_insert", false, "committed", "Q2");
+        cnx.commit();
+        Assert.assertEquals(1, countQueues(cnx));
+        cnx.close();
+
+        // Session closed with an open transaction: the physical connection is rolled back, the statements stay usable.
+        cnx = db.getConn();
+        Statement s1 = selectAndClose(cnx, "q_select_all");
+        cnx.runUpdate("q_insert", false, "never committed", "Q3");
+        cnx.close();
+
+        cnx = db.getConn();
+        Assert.assertSame(s1, selectAndClose(cnx, "q_select_all"));
+        Assert.assertEquals(1, countQueues(cnx));
+        cnx.close();
+    }
+
+    @Test
+    public void testFailedStatementIsDropped() throws Exception
+    {
+        DbConn cnx = db.getConn();
+        cnx.runUpdate("q_insert", false, "first", "Q1");
+        cnx.commit();
+        try
+        {
+            // Unique key violation.
+            cnx.runUpdate("q_insert", false, "duplicate", "Q1");
+            Assert.fail("duplicate queue name was accepted");
+        }
+        catch (DatabaseException e)
+        {
+            cnx.rollback();
+        }
+
+        cnx.runUpdate("q_insert", false, "second", "Q2");
+        cnx.commit();
+        Assert.assertEquals(2, countQueues(cnx));
+        cnx.close();
+    }
+}
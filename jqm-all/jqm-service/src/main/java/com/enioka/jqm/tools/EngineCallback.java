@@ -76,10 +76,10 @@ public class EngineCallback implements JqmEngineHandler
         {
             oneLogPerLaunch = true;
             RollingFileAppender a = (RollingFileAppender) Logger.getRootLogger().getAppender("rollingfile");
-            MultiplexPrintStream s = new MultiplexPrintStream(System.out, FilenameUtils.getFullPath(a.getFile()), "both".equals(gp1));
+            MultiplexPrintStream s = new MultiplexPrintStream(System.out, FilenameUtils.getFullPath(a.getFile()), "both".equals(gp1), cnx);
             System.setOut(s);
             ((ConsoleAppender) Logger.getRootLogger().getAppender("consoleAppender")).setWriter(new OutputStreamWriter(s));
-            s = new MultiplexPrintStream(System.err, FilenameUtils.getFullPath(a.getFile()), "both".equals(gp1));
+            s = new MultiplexPrintStream(System.err, FilenameUtils.getFullPath(a.getFile()), "both".equals(gp1), cnx);
             System.setErr(s);
         }
 
@@ -94,6 +94,14 @@ public class EngineCallback implements JqmEngineHandler
     public void onNodeStopped()
     {
         this.server.stop();
+        if (System.out instanceof MultiplexPrintStream)
+        {
+            ((MultiplexPrintStream) System.out).stop();
+        }
+        if (System.err instanceof MultiplexPrintStream)
+        {
+            ((MultiplexPrintStream) System.err).stop();
+        }
     }
 
     @Override
@@ -28,9 +28,11 @@ import org.eclipse.jetty.annotations.AnnotationConfiguration;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.server.handler.HandlerCollection;
+import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.server.ssl.SslSocketConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.webapp.Configuration;
 import org.eclipse.jetty.webapp.FragmentConfiguration;
@@ -52,7 +54,7 @@ class JettyServer
     private static Logger jqmlogger = Logger.getLogger(JettyServer.class);
 
     private Server server = null;
-    private HandlerCollection h = new HandlerCollection();
+    private ContextHandlerCollection h = null;
     private Node node;
     WebAppContext webAppContext = null;
 
@@ -162,12 +164,19 @@ class JettyServer
         }
         server.setConnectors(ls.toArray(new Connector[ls.size()]));
 
-        // Collection handler
+        // Collection handler (each context is given the requests of its own path)
+        h = new ContextHandlerCollection();
         server.setHandler(h);
 
         // Load the webapp context
         loadWar();
 
+        // Metrics are served by the engine itself
+        if (Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "enableWsApiMetrics", "false")))
+        {
+            loadMetrics();
+        }
+
         // Start the server
         jqmlogger.trace("Starting Jetty (port " + node.getPort() + ")");
         try
@@ -275,4 +284,15 @@ class JettyServer
 
         h.addHandler(webAppContext);
     }
+
+    private void loadMetrics()
+    {
+        jqmlogger.info("Jetty will serve the engine metrics on /ws/metrics");
+        ServletContextHandler metricsContext = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+        metricsContext.setContextPath("/ws/metrics");
+        metricsContext.setDisplayName("JqmMetrics");
+        metricsContext.setAllowNullPathInfo(true); // No redirection to /ws/metrics/
+        metricsContext.addServlet(new ServletHolder(new MetricsServlet()), "/*");
+        h.addHandler(metricsContext);
+    }
 }
@@ -124,6 +124,7 @@ public class Main
                 .withLongOpt("gui").create("w");
         Option o121 = OptionBuilder.withArgName("id[,logfilepath]").hasArg().withDescription("single launch mode").isRequired()
                 .withLongOpt("gui").create("s");
+        Option o122 = OptionBuilder.withDescription("external worker mode (used by the engine only)").isRequired().create("worker");
         Option o131 = OptionBuilder.withArgName("resourcefile").hasArg()
                 .withDescription("resource parameter file to use. Default is resources.xml").withLongOpt("resources").create("p");
         Option o141 = OptionBuilder.withArgName("login,password,role1,role2,...").hasArgs(Option.UNLIMITED_VALUES).withValueSeparator(',')
@@ -146,6 +147,7 @@ public class Main
         og1.addOption(o101);
         og1.addOption(o111);
         og1.addOption(o121);
+        og1.addOption(o122);
         og1.addOption(o141);
         options.addOptionGroup(og1);
         OptionGroup og2 = new OptionGroup();
@@ -252,6 +254,10 @@ public class Main
             {
                 single(line.getOptionValue(o121.getOpt()));
             }
+            else if (line.hasOption(o122.getOpt()))
+            {
+                ExternalWorker.run();
+            }
             // User handling
             else if (line.hasOption(o141.getOpt()))
             {
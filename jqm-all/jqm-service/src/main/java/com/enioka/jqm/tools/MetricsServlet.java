@@ -0,0 +1,53 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.tools;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Exposes the engine {@link Metrics} in OpenMetrics text format, or in Prometheus text format 0.0.4 for clients which do not ask for
+ * OpenMetrics (older Prometheus versions). The two formats only differ by the counter family names and the UNIT and EOF lines.<br>
+ * This servlet is loaded by the engine itself and not by the web service application, as the latter cannot see the engine classes.
+ */
+class MetricsServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException
+    {
+        String accept = req.getHeader("Accept");
+        boolean openMetrics = accept != null && accept.contains("application/openmetrics-text");
+
+        StringBuilder sb = new StringBuilder(8192);
+        Metrics.write(sb, openMetrics);
+
+        if (openMetrics)
+        {
+            resp.setContentType("application/openmetrics-text; version=1.0.0; charset=utf-8");
+        }
+        else
+        {
+            resp.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        }
+        resp.setHeader("Cache-Control", "no-cache");
+        resp.getWriter().write(sb.toString());
+    }
+}
@@ -15,66 +15,126 @@
  */
 package com.enioka.jqm.tools;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintStream;
-import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 
+import com.enioka.jqm.jdbc.DbConn;
 import com.enioka.jqm.model.GlobalParameter;
 
 /**
  * The goal of this Stream is to provide a replacement for stdout/err in which every running job instance has its own personal flow. This is
  * basically flow multiplexing, with the multiplexing key being the caller Thread object. Used by default, can be disabled with a
  * {@link GlobalParameter}. <br>
- * Should a payload create a new thread, its stdout would go to the global log as the multiplexing key is the Thread. But is not a big deal
- * as creating threads inside an app server is not a good idea anyway.
+ * The flow of a job instance is inherited by the threads it creates, so their output goes to the job instance log too (as long as the job
+ * instance is running - afterwards it goes to the original flow).<br>
+ * Bytes are written as is (no String conversion) inside a per job instance buffer, which is written to the log file when full, when it is
+ * older than the flush interval and when the job instance ends. The time based flush is done either by the writing thread itself, or (async
+ * mode) by a background thread so that even a silent job instance has its latest output on disk. Explicit flushes are ignored for job
+ * instance flows, as loggers flush after each event.<br>
+ * Log files can be rotated once they reach a given size: file.log is renamed file.log.1 (the previous file.log.1 becomes file.log.2 and so
+ * on, the oldest file being removed). They can also be compressed once the job instance has ended: all the remaining files (oldest first)
+ * are then concatenated into file.log.gz and removed. This is done by a background thread - the web services can read both forms.
  */
 class MultiplexPrintStream extends PrintStream
 {
     private static Logger jqmlogger = Logger.getLogger(MultiplexPrintStream.class);
     private static Logger alljobslogger = Logger.getLogger("alljobslogger");
-    private static String ls = System.getProperty("line.separator");
-
-    private BufferedWriter original = null;
-    private boolean useCommonLogFile = false;
-    private ThreadLocal<BufferedWriter> logger = new ThreadLocal<BufferedWriter>()
-    {
-        protected BufferedWriter initialValue()
-        {
-            return original;
-        }
-    };
+    private static byte[] ls = System.getProperty("line.separator").getBytes();
+
+    private final boolean useCommonLogFile;
+    private final int bufferSize;
+    private final long flushIntervalMs;
+    private final long rotateSize;
+    private final int rotateBackups;
+    private volatile boolean async;
+    private Thread flusher = null;
+    private ExecutorService compressor = null;
+
+    private final InheritableThreadLocal<JobLog> logger = new InheritableThreadLocal<JobLog>();
+    private final Set<JobLog> openLogs = Collections.newSetFromMap(new ConcurrentHashMap<JobLog, Boolean>());
+    private final ConcurrentLinkedQueue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
     String rootLogDir;
 
-    MultiplexPrintStream(OutputStream out, String rootLogDir, boolean alsoWriteToCommonLog)
+    MultiplexPrintStream(OutputStream out, String rootLogDir, boolean alsoWriteToCommonLog, DbConn cnx)
     {
         super(out);
+        PayloadExecutor.registerThreadLocal(logger);
         this.useCommonLogFile = alsoWriteToCommonLog;
-        this.original = new BufferedWriter(new OutputStreamWriter(out));
         this.rootLogDir = rootLogDir;
+        this.bufferSize = Integer.parseInt(GlobalParameter.getParameter(cnx, "logBufferSize", "8192"));
+        this.flushIntervalMs = Long.parseLong(GlobalParameter.getParameter(cnx, "logFlushIntervalMs", "1000"));
+        this.async = Boolean.parseBoolean(GlobalParameter.getParameter(cnx, "logAsyncFlush", "true")) && flushIntervalMs > 0;
+        this.rotateSize = Long.parseLong(GlobalParameter.getParameter(cnx, "logRotateSizeMb", "0")) * 1024 * 1024;
+        this.rotateBackups = Integer.parseInt(GlobalParameter.getParameter(cnx, "logRotateBackups", "5"));
 
         File d = new File(this.rootLogDir);
         if (!d.isDirectory() && !d.mkdir())
         {
             throw new JqmInitError("could not create log dir " + this.rootLogDir);
         }
+
+        if (this.async)
+        {
+            flusher = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    flushLoop();
+                }
+            }, "log flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+
+        if ("gzip".equals(GlobalParameter.getParameter(cnx, "logCompression", "none")))
+        {
+            compressor = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread t = new Thread(r, "log compressor");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
     }
 
     void registerThread(String fileName)
     {
+        unregisterThread();
         try
         {
-            unregisterThread();
-            Writer w = new FileWriter(FilenameUtils.concat(rootLogDir, fileName), true);
-            logger.set(new BufferedWriter(w));
+            ByteBuffer buffer = freeBuffers.poll();
+            if (buffer == null)
+            {
+                buffer = ByteBuffer.allocateDirect(bufferSize);
+            }
+            JobLog l = new JobLog(FilenameUtils.concat(rootLogDir, fileName), buffer);
+            openLogs.add(l);
+            logger.set(l);
         }
         catch (IOException e)
         {
@@ -85,13 +145,31 @@ class MultiplexPrintStream extends PrintStream
 
     void unregisterThread()
     {
+        JobLog l = logger.get();
+        if (l == null)
+        {
+            return;
+        }
+        logger.remove();
+        openLogs.remove(l);
         try
         {
-            BufferedWriter bf = logger.get();
-            if (bf != original)
+            ByteBuffer buffer = l.close();
+            if (buffer != null)
+            {
+                freeBuffers.add(buffer);
+            }
+            if (compressor != null)
             {
-                bf.close();
-                logger.remove();
+                final JobLog toCompress = l;
+                compressor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        toCompress.compress();
+                    }
+                });
             }
         }
         catch (IOException e)
@@ -101,36 +179,62 @@ class MultiplexPrintStream extends PrintStream
         }
     }
 
-    /** Check to make sure that the stream has not been closed */
-    private void ensureOpen() throws IOException
+    /**
+     * Stops the background threads. Job instance flows are then flushed by the writing threads, and pending compressions are still done.
+     */
+    void stop()
     {
-        if (out == null)
+        async = false;
+        if (flusher != null)
+        {
+            flusher.interrupt();
+            flusher = null;
+        }
+        if (compressor != null)
         {
-            throw new IOException("Stream closed");
+            compressor.shutdown();
         }
     }
 
-    private void write(String s)
+    private void flushLoop()
     {
-        write(s, false);
+        while (async)
+        {
+            try
+            {
+                Thread.sleep(flushIntervalMs);
+            }
+            catch (InterruptedException e)
+            {
+                break;
+            }
+            for (JobLog l : openLogs)
+            {
+                try
+                {
+                    l.flushIfOlderThan(flushIntervalMs);
+                }
+                catch (IOException e)
+                {
+                    setError();
+                }
+            }
+        }
     }
 
-    private void write(String s, boolean newLine)
+    // ///////////////////////////////////////////////////////////////////
+    // Byte output - everything ends here.
+    // ///////////////////////////////////////////////////////////////////
+
+    @Override
+    public void write(byte[] buf, int off, int len)
     {
-        BufferedWriter textOut = logger.get();
+        JobLog l = logger.get();
         try
         {
-            ensureOpen();
-            textOut.write(s);
-            if (newLine)
+            if (l == null || !l.write(buf, off, len))
             {
-                textOut.newLine();
-            }
-            textOut.flush();
-
-            if (useCommonLogFile && textOut != original)
-            {
-                alljobslogger.info(s + (newLine ? ls : ""));
+                out.write(buf, off, len);
             }
         }
         catch (InterruptedIOException x)
@@ -140,14 +244,249 @@ class MultiplexPrintStream extends PrintStream
         catch (IOException x)
         {
             // don't log exceptions, it could trigger a StackOverflow
+            setError();
         }
     }
 
-    // TODO: write something that's not a performance hog...
     @Override
-    public void write(byte[] buf, int off, int len)
+    public void write(int b)
+    {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void flush()
+    {
+        if (logger.get() == null)
+        {
+            super.flush();
+        }
+    }
+
+    private void write(String s, boolean newLine)
     {
-        write(new String(buf, off, len));
+        byte[] b = s.getBytes();
+        if (!newLine)
+        {
+            write(b, 0, b.length);
+            return;
+        }
+
+        // A single write, so that lines from different threads are not mixed.
+        byte[] line = new byte[b.length + ls.length];
+        System.arraycopy(b, 0, line, 0, b.length);
+        System.arraycopy(ls, 0, line, b.length, ls.length);
+        write(line, 0, line.length);
+        if (logger.get() == null)
+        {
+            super.flush();
+        }
+    }
+
+    /**
+     * The log file of a single job instance.
+     */
+    private class JobLog
+    {
+        private final String path;
+        private FileChannel channel;
+        private ByteBuffer buffer;
+        private long lastFlush = System.currentTimeMillis();
+        private long size;
+
+        private JobLog(String path, ByteBuffer buffer) throws IOException
+        {
+            this.path = path;
+            this.buffer = buffer;
+            this.channel = new FileOutputStream(path, true).getChannel();
+            this.size = channel.size();
+        }
+
+        /**
+         * @return false if the log is already closed (the job instance has ended but one of its threads is still writing).
+         */
+        synchronized boolean write(byte[] buf, int off, int len) throws IOException
+        {
+            if (buffer == null)
+            {
+                return false;
+            }
+
+            if (len > buffer.remaining())
+            {
+                drain();
+                if (len > buffer.capacity())
+                {
+                    output(ByteBuffer.wrap(buf, off, len));
+                    return true;
+                }
+            }
+            buffer.put(buf, off, len);
+
+            if (!async && System.currentTimeMillis() - lastFlush >= flushIntervalMs)
+            {
+                drain();
+            }
+            return true;
+        }
+
+        synchronized void flushIfOlderThan(long ms) throws IOException
+        {
+            if (buffer != null && buffer.position() > 0 && System.currentTimeMillis() - lastFlush >= ms)
+            {
+                drain();
+            }
+        }
+
+        /**
+         * Writes the remaining bytes and closes the file.
+         *
+         * @return the now unused buffer.
+         */
+        synchronized ByteBuffer close() throws IOException
+        {
+            if (buffer == null)
+            {
+                return null;
+            }
+            ByteBuffer res = buffer;
+            try
+            {
+                drain();
+            }
+            finally
+            {
+                buffer = null;
+                channel.close();
+            }
+            res.clear();
+            return res;
+        }
+
+        private void drain() throws IOException
+        {
+            lastFlush = System.currentTimeMillis();
+            if (buffer.position() == 0)
+            {
+                return;
+            }
+
+            buffer.flip();
+            output(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Sends the given bytes to all the destinations of the flow: the log file and (if enabled) the common log.
+         */
+        private void output(ByteBuffer b) throws IOException
+        {
+            if (useCommonLogFile)
+            {
+                byte[] copy = new byte[b.remaining()];
+                b.duplicate().get(copy);
+                alljobslogger.info(new String(copy));
+            }
+            writeToChannel(b);
+        }
+
+        private void writeToChannel(ByteBuffer b) throws IOException
+        {
+            size += b.remaining();
+            try
+            {
+                while (b.hasRemaining())
+                {
+                    channel.write(b);
+                }
+            }
+            catch (ClosedByInterruptException e)
+            {
+                // The channel is closed when the writing thread is interrupted (e.g. a killed job instance). Reopen it, keeping the
+                // interruption for the payload.
+                Thread.interrupted();
+                channel = new FileOutputStream(path, true).getChannel();
+                try
+                {
+                    while (b.hasRemaining())
+                    {
+                        channel.write(b);
+                    }
+                }
+                finally
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            if (rotateSize > 0 && size >= rotateSize)
+            {
+                rotate();
+            }
+        }
+
+        private void rotate() throws IOException
+        {
+            channel.close();
+            new File(path + "." + rotateBackups).delete();
+            for (int i = rotateBackups - 1; i >= 1; i--)
+            {
+                new File(path + "." + i).renameTo(new File(path + "." + (i + 1)));
+            }
+            if (rotateBackups == 0 || !new File(path).renameTo(new File(path + ".1")))
+            {
+                new File(path).delete();
+            }
+            channel = new FileOutputStream(path, true).getChannel();
+            size = 0;
+        }
+
+        /**
+         * Concatenates the (closed) log file and its rotated files into a single gzip file.
+         */
+        void compress()
+        {
+            File tmp = new File(path + ".gz.tmp");
+            OutputStream os = null;
+            try
+            {
+                os = new GZIPOutputStream(new FileOutputStream(tmp), 65536);
+                for (int i = rotateBackups; i >= 0; i--)
+                {
+                    File f = new File(i == 0 ? path : path + "." + i);
+                    if (!f.isFile())
+                    {
+                        continue;
+                    }
+                    FileInputStream is = new FileInputStream(f);
+                    try
+                    {
+                        IOUtils.copyLarge(is, os);
+                    }
+                    finally
+                    {
+                        is.close();
+                    }
+                }
+                os.close();
+                os = null;
+
+                if (!tmp.renameTo(new File(path + ".gz")))
+                {
+                    throw new IOException("could not rename " + tmp);
+                }
+                for (int i = rotateBackups; i >= 0; i--)
+                {
+                    new File(i == 0 ? path : path + "." + i).delete();
+                }
+            }
+            catch (IOException e)
+            {
+                jqmlogger.warn("could not compress log file " + path + " - it is left uncompressed", e);
+                IOUtils.closeQuietly(os);
+                tmp.delete();
+            }
+        }
     }
 
     // ///////////////////////////////////////////////////////////////////
@@ -215,7 +554,7 @@ class MultiplexPrintStream extends PrintStream
     @Override
     public void print(boolean b)
     {
-        write(b ? "true" : "false");
+        write(b ? "true" : "false", false);
     }
 
     @Override
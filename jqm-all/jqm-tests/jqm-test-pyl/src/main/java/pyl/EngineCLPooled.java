@@ -0,0 +1,17 @@
+package pyl;
+
+import com.enioka.jqm.api.JobManager;
+
+public class EngineCLPooled implements Runnable
+{
+    private static int launches = 0;
+
+    JobManager jm;
+
+    @Override
+    public void run()
+    {
+        launches++;
+        jm.sendMsg("launch " + launches);
+    }
+}
@@ -0,0 +1,62 @@
+package pyl;
+
+import java.io.IOException;
+import java.util.Collections;
+
+public class EngineCLResources implements Runnable
+{
+    @Override
+    public void run()
+    {
+        ClassLoader cl = this.getClass().getClassLoader();
+
+        // From the payload jar itself
+        if (cl.getResource("pyl/EngineCLResources.class") == null || cl.getResource("pyl") == null)
+        {
+            throw new RuntimeException("could not find resources of the payload jar");
+        }
+        // From a library
+        if (cl.getResource("com/enioka/jqm/api/JobManager.class") == null)
+        {
+            throw new RuntimeException("could not find resources of a library");
+        }
+        // Nowhere
+        if (cl.getResource("pyl/DoesNotExist.txt") != null || cl.getResource("nowhere/DoesNotExist.class") != null)
+        {
+            throw new RuntimeException("found a resource which does not exist");
+        }
+        try
+        {
+            if (Collections.list(cl.getResources("META-INF/MANIFEST.MF")).size() < 2)
+            {
+                throw new RuntimeException("the manifests of the payload jar and its libraries should all be found");
+            }
+            if (cl.getResources("nowhere/DoesNotExist.class").hasMoreElements())
+            {
+                throw new RuntimeException("found a resource which does not exist");
+            }
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+
+        try
+        {
+            cl.loadClass("pyl.DoesNotExist");
+            throw new RuntimeException("loaded a class which does not exist");
+        }
+        catch (ClassNotFoundException e)
+        {
+            // Expected
+        }
+        try
+        {
+            cl.loadClass("java.util.ArrayList");
+        }
+        catch (ClassNotFoundException e)
+        {
+            throw new RuntimeException("could not load a JDK class", e);
+        }
+    }
+}
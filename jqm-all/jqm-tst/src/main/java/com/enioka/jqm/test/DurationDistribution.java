@@ -0,0 +1,118 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.test;
+
+import java.util.Random;
+
+/**
+ * The distribution of the run times of the job instances launched by a {@link JqmLoadTester}. The usual distributions are given by the
+ * static factory methods, others can be created by implementing {@link #nextMs(Random)}.
+ */
+public abstract class DurationDistribution
+{
+    /**
+     * @return a duration in milliseconds. Must not be negative.
+     */
+    public abstract long nextMs(Random random);
+
+    /**
+     * All job instances run for the same time.
+     */
+    public static DurationDistribution constant(final long durationMs)
+    {
+        return new DurationDistribution()
+        {
+            @Override
+            public long nextMs(Random random)
+            {
+                return durationMs;
+            }
+
+            @Override
+            public String toString()
+            {
+                return "constant(" + durationMs + "ms)";
+            }
+        };
+    }
+
+    /**
+     * Run times are uniformly distributed between the two bounds (included).
+     */
+    public static DurationDistribution uniform(final long minMs, final long maxMs)
+    {
+        if (minMs < 0 || maxMs < minMs)
+        {
+            throw new IllegalArgumentException("invalid bounds");
+        }
+        return new DurationDistribution()
+        {
+            @Override
+            public long nextMs(Random random)
+            {
+                return minMs + (long) (random.nextDouble() * (maxMs - minMs + 1));
+            }
+
+            @Override
+            public String toString()
+            {
+                return "uniform(" + minMs + "ms-" + maxMs + "ms)";
+            }
+        };
+    }
+
+    /**
+     * Run times follow an exponential distribution: many short job instances, a few long ones.
+     */
+    public static DurationDistribution exponential(final long meanMs)
+    {
+        return new DurationDistribution()
+        {
+            @Override
+            public long nextMs(Random random)
+            {
+                return (long) (-meanMs * Math.log(1 - random.nextDouble()));
+            }
+
+            @Override
+            public String toString()
+            {
+                return "exponential(mean " + meanMs + "ms)";
+            }
+        };
+    }
+
+    /**
+     * Run times follow a normal distribution (negative values are replaced by zero).
+     */
+    public static DurationDistribution normal(final long meanMs, final long standardDeviationMs)
+    {
+        return new DurationDistribution()
+        {
+            @Override
+            public long nextMs(Random random)
+            {
+                return Math.max(0, (long) (meanMs + random.nextGaussian() * standardDeviationMs));
+            }
+
+            @Override
+            public String toString()
+            {
+                return "normal(mean " + meanMs + "ms, sd " + standardDeviationMs + "ms)";
+            }
+        };
+    }
+}
@@ -378,6 +378,19 @@ public class JqmAsyncTester
         this.engines.clear();
     }
 
+    boolean isStarted()
+    {
+        return hasStarted;
+    }
+
+    /**
+     * The database used by the nodes, for helpers needing a direct access to it.
+     */
+    Db getDb()
+    {
+        return db;
+    }
+
     private void waitDbStop()
     {
         while (s.getState() != 16)
@@ -0,0 +1,158 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.test;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * The result of a {@link JqmLoadTester} run. Latencies are in milliseconds and are computed from the timestamps stored by the engine inside
+ * the history of each job instance:
+ * <ul>
+ * <li>enqueue to attribution: time spent waiting inside the queue, until a poller took the job instance for its node</li>
+ * <li>attribution to start: time spent by the node between the poll and the actual start of the payload</li>
+ * <li>end to history: time between the end of the payload and the moment its history became visible to clients. This one is measured
+ * with the resolution of the sampling interval of the tester.</li>
+ * </ul>
+ * Only job instances which have ended are taken into account.
+ */
+public class JqmLoadTestResult
+{
+    private final Histogram enqueueToAttribution = new Histogram(3);
+    private final Histogram attributionToStart = new Histogram(3);
+    private final Histogram endToHistory = new Histogram(3);
+
+    private int enqueued = 0;
+    private int completed = 0;
+    private int completedDuringMeasure = 0;
+    private long measureMs = 0;
+    private long enqueuedDuringMeasure = 0;
+
+    JqmLoadTestResult()
+    {}
+
+    void recordEnqueue(boolean duringMeasure)
+    {
+        enqueued++;
+        if (duringMeasure)
+        {
+            enqueuedDuringMeasure++;
+        }
+    }
+
+    void recordCompletion(long enqueueMs, long attributionMs, long startMs, long endMs, long seenMs, boolean duringMeasure)
+    {
+        completed++;
+        if (duringMeasure)
+        {
+            completedDuringMeasure++;
+        }
+        enqueueToAttribution.recordValue(Math.max(0, attributionMs - enqueueMs));
+        attributionToStart.recordValue(Math.max(0, startMs - attributionMs));
+        endToHistory.recordValue(Math.max(0, seenMs - endMs));
+    }
+
+    void setMeasureMs(long measureMs)
+    {
+        this.measureMs = measureMs;
+    }
+
+    /**
+     * @return the count of job instances enqueued during the whole run (warm up included).
+     */
+    public int getEnqueuedCount()
+    {
+        return enqueued;
+    }
+
+    /**
+     * @return the count of job instances which have ended before the end of the run (warm up included).
+     */
+    public int getCompletedCount()
+    {
+        return completed;
+    }
+
+    /**
+     * @return the count of job instances which were enqueued but had not ended at the end of the run (including the drain period).
+     */
+    public int getMissingCount()
+    {
+        return enqueued - completed;
+    }
+
+    /**
+     * @return the number of job instances ended per second during the measure period (that is, after the warm up and before the end of
+     *         the load).
+     */
+    public double getSustainedThroughput()
+    {
+        return measureMs == 0 ? 0 : completedDuringMeasure * 1000.0 / measureMs;
+    }
+
+    /**
+     * @return the number of job instances enqueued per second during the measure period. When the engines keep up, this is equal to
+     *         {@link #getSustainedThroughput()}.
+     */
+    public double getOfferedRate()
+    {
+        return measureMs == 0 ? 0 : enqueuedDuringMeasure * 1000.0 / measureMs;
+    }
+
+    public Histogram getEnqueueToAttribution()
+    {
+        return enqueueToAttribution;
+    }
+
+    public Histogram getAttributionToStart()
+    {
+        return attributionToStart;
+    }
+
+    public Histogram getEndToHistory()
+    {
+        return endToHistory;
+    }
+
+    /**
+     * Prints a summary of the results: counts, rates and the main percentiles of each latency.
+     */
+    public void print(PrintStream out)
+    {
+        out.println(String.format(Locale.ENGLISH, "Enqueued: %d, completed: %d, missing: %d", enqueued, completed, getMissingCount()));
+        out.println(String.format(Locale.ENGLISH, "Offered rate: %.2f/s, sustained throughput: %.2f/s", getOfferedRate(),
+                getSustainedThroughput()));
+        out.println(String.format(Locale.ENGLISH, "%-24s %8s %8s %8s %8s %8s", "Latency (ms)", "p50", "p90", "p99", "p99.9", "max"));
+        print(out, "enqueue to attribution", enqueueToAttribution);
+        print(out, "attribution to start", attributionToStart);
+        print(out, "end to history", endToHistory);
+    }
+
+    private static void print(PrintStream out, String title, Histogram h)
+    {
+        out.println(String.format(Locale.ENGLISH, "%-24s %8d %8d %8d %8d %8d", title, h.getValueAtPercentile(50),
+                h.getValueAtPercentile(90), h.getValueAtPercentile(99), h.getValueAtPercentile(99.9), h.getMaxValue()));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(Locale.ENGLISH, "%d/%d job instances completed, %.2f/s sustained", completed, enqueued,
+                getSustainedThroughput());
+    }
+}
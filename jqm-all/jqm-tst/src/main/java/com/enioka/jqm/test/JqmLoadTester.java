@@ -0,0 +1,388 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.test;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import com.enioka.jqm.api.JobRequest;
+import com.enioka.jqm.api.JqmClient;
+import com.enioka.jqm.api.JqmClientFactory;
+import com.enioka.jqm.jdbc.DatabaseException;
+import com.enioka.jqm.jdbc.DbConn;
+
+/**
+ * A load generator running on top of a {@link JqmAsyncTester}. It enqueues job instances on one or more queues at given rates (Poisson
+ * arrivals), each job instance running for a time taken from a {@link DurationDistribution}, and measures how the engines cope: latencies
+ * between the different steps of a launch as well as the sustained throughput. See {@link JqmLoadTestResult}.<br>
+ * <br>
+ * The nodes, queues and deployment parameters (polling interval, max running job instances) are those of the given tester, which makes it
+ * easy to compare different configurations. Typical use:
+ *
+ * <pre>
+ * JqmAsyncTester tester = JqmAsyncTester.create().setNodesLogLevel("WARN").addNode("node1").addNode("node2").addQueue("queue1")
+ *         .deployQueueToNode("queue1", 20, 100, "node1", "node2");
+ * JqmLoadTestResult res = JqmLoadTester.create(tester).addLoad("queue1", 50, DurationDistribution.exponential(200))
+ *         .setWarmupMs(10000).setDurationMs(60000).run();
+ * res.print(System.out);
+ * tester.stop();
+ * </pre>
+ *
+ * The tester is started by {@link #run()} if needed, but is never stopped. Like the underlying tester, this class is not thread safe.<br>
+ * The latency histograms need HdrHistogram, which is an optional dependency of this library: it must be added to the test dependencies of
+ * the project using the load tester.
+ */
+public class JqmLoadTester
+{
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    private final JqmAsyncTester tester;
+    private final List<Load> loads = new ArrayList<Load>();
+    private Random random = new Random();
+
+    private long warmupMs = 10000;
+    private long durationMs = 60000;
+    private long drainTimeoutMs = 60000;
+    private int samplingIntervalMs = 50;
+
+    private static class Load
+    {
+        private String jobDefName;
+        private double ratePerSecond;
+        private DurationDistribution duration;
+        private long nextArrival;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // CONSTRUCTION
+    ///////////////////////////////////////////////////////////////////////////
+
+    public JqmLoadTester(JqmAsyncTester tester)
+    {
+        this.tester = tester;
+    }
+
+    /**
+     * Equivalent to simply calling the constructor. Present for consistency with {@link JqmAsyncTester}.
+     */
+    public static JqmLoadTester create(JqmAsyncTester tester)
+    {
+        return new JqmLoadTester(tester);
+    }
+
+    /**
+     * Adds a stream of job instances. A specific job definition is created for each stream.
+     *
+     * @param queueName
+     *            the queue on which the job instances are enqueued. It must exist inside the tester.
+     * @param ratePerSecond
+     *            the mean number of job instances enqueued per second. The arrivals are random (Poisson process).
+     * @param duration
+     *            how long each job instance runs.
+     */
+    public JqmLoadTester addLoad(String queueName, double ratePerSecond, DurationDistribution duration)
+    {
+        if (ratePerSecond <= 0)
+        {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+
+        Load l = new Load();
+        l.jobDefName = "LoadPayload" + (loads.size() + 1);
+        l.ratePerSecond = ratePerSecond;
+        l.duration = duration;
+        tester.addJobDefinition(
+                TestJobDefinition.createFromClassPath(l.jobDefName, "load test on " + queueName, LoadPayload.class).setQueueName(queueName));
+        loads.add(l);
+        return this;
+    }
+
+    /**
+     * Time during which the load is applied but not measured, to let the engines reach their steady state. Default is 10s.
+     */
+    public JqmLoadTester setWarmupMs(long warmupMs)
+    {
+        this.warmupMs = warmupMs;
+        return this;
+    }
+
+    /**
+     * Time during which the load is applied and measured, after the warm up. Default is 60s.
+     */
+    public JqmLoadTester setDurationMs(long durationMs)
+    {
+        this.durationMs = durationMs;
+        return this;
+    }
+
+    /**
+     * Maximum time to wait for the end of the already enqueued job instances once the load has stopped. Default is 60s.
+     */
+    public JqmLoadTester setDrainTimeoutMs(long drainTimeoutMs)
+    {
+        this.drainTimeoutMs = drainTimeoutMs;
+        return this;
+    }
+
+    /**
+     * How often the history is checked for newly ended job instances. This is the resolution of the end to history latency. Default is
+     * 50ms.
+     */
+    public JqmLoadTester setSamplingIntervalMs(int samplingIntervalMs)
+    {
+        this.samplingIntervalMs = samplingIntervalMs;
+        return this;
+    }
+
+    /**
+     * Fixes the seed of the random generator used for arrivals and durations, so that two runs get exactly the same load.
+     */
+    public JqmLoadTester setSeed(long seed)
+    {
+        this.random = new Random(seed);
+        return this;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    // RUN
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Applies the load (warm up then measure), waits for the enqueued job instances to end and returns the measures. This method blocks
+     * for the whole duration of the test.
+     */
+    public JqmLoadTestResult run()
+    {
+        if (loads.isEmpty())
+        {
+            throw new IllegalStateException("no load was defined");
+        }
+        if (!tester.isStarted())
+        {
+            tester.start();
+        }
+
+        JqmClient client = JqmClientFactory.getClient();
+        JqmLoadTestResult res = new JqmLoadTestResult();
+        long start = System.currentTimeMillis();
+        long measureStart = start + warmupMs;
+        long loadEnd = measureStart + durationMs;
+        res.setMeasureMs(durationMs);
+
+        Collector collector = new Collector(res, measureStart, loadEnd);
+        Thread collectorThread = new Thread(collector, "load test collector");
+        collectorThread.setDaemon(true);
+        collectorThread.start();
+
+        try
+        {
+            for (Load l : loads)
+            {
+                l.nextArrival = start + nextInterArrivalMs(l);
+            }
+
+            // Generate the load
+            while (true)
+            {
+                Load next = loads.get(0);
+                for (Load l : loads)
+                {
+                    if (l.nextArrival < next.nextArrival)
+                    {
+                        next = l;
+                    }
+                }
+                if (next.nextArrival >= loadEnd)
+                {
+                    sleepUntil(loadEnd);
+                    break;
+                }
+                if (!sleepUntil(next.nextArrival))
+                {
+                    break;
+                }
+
+                // Arrival time is the theoretical one - if enqueues are slower than the arrival rate, the offered rate will show it.
+                int id = client.enqueue(JobRequest.create(next.jobDefName, "loadtester").addParameter(LoadPayload.DURATION_PARAMETER,
+                        String.valueOf(next.duration.nextMs(random))));
+                collector.pending.add(id);
+                res.recordEnqueue(next.nextArrival >= measureStart);
+                next.nextArrival += nextInterArrivalMs(next);
+            }
+
+            // Wait for the backlog to be processed
+            long drainEnd = System.currentTimeMillis() + drainTimeoutMs;
+            while (!collector.pending.isEmpty() && System.currentTimeMillis() < drainEnd)
+            {
+                if (!sleepUntil(Math.min(drainEnd, System.currentTimeMillis() + samplingIntervalMs)))
+                {
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            collector.stop = true;
+            try
+            {
+                collectorThread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (collector.failure != null)
+        {
+            throw collector.failure;
+        }
+
+        return res;
+    }
+
+    private long nextInterArrivalMs(Load l)
+    {
+        return (long) (-Math.log(1 - random.nextDouble()) * 1000 / l.ratePerSecond);
+    }
+
+    /**
+     * @return false if interrupted.
+     */
+    private static boolean sleepUntil(long time)
+    {
+        long wait = time - System.currentTimeMillis();
+        if (wait <= 0)
+        {
+            return true;
+        }
+        try
+        {
+            Thread.sleep(wait);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Regularly looks inside the history for the job instances which have ended since last time, and records their timestamps.
+     */
+    private class Collector implements Runnable
+    {
+        private final NavigableSet<Integer> pending = new ConcurrentSkipListSet<Integer>();
+        private final JqmLoadTestResult res;
+        private final long measureStart;
+        private final long loadEnd;
+
+        private volatile boolean stop = false;
+        private volatile RuntimeException failure = null;
+
+        private Collector(JqmLoadTestResult res, long measureStart, long loadEnd)
+        {
+            this.res = res;
+            this.measureStart = measureStart;
+            this.loadEnd = loadEnd;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                boolean last = false;
+                while (!last)
+                {
+                    // Read the flag before collecting, so that the last collection happens after the end of the generation.
+                    last = stop;
+                    collect();
+                    if (!last)
+                    {
+                        Thread.sleep(samplingIntervalMs);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // Simply end.
+            }
+            catch (RuntimeException e)
+            {
+                failure = e;
+            }
+        }
+
+        private void collect()
+        {
+            List<Integer> ids = new ArrayList<Integer>(MAX_IDS_PER_QUERY);
+            Iterator<Integer> it = pending.iterator();
+            while (it.hasNext())
+            {
+                ids.add(it.next());
+                if (ids.size() == MAX_IDS_PER_QUERY || !it.hasNext())
+                {
+                    collect(ids);
+                    ids.clear();
+                }
+            }
+        }
+
+        private void collect(List<Integer> ids)
+        {
+            DbConn cnx = tester.getDb().getConn();
+            try
+            {
+                ResultSet rs = cnx.runRawSelect(
+                        "SELECT ID, DATE_ENQUEUE, DATE_ATTRIBUTION, DATE_START, DATE_END FROM __T__HISTORY WHERE ID IN(UNNEST(?))", ids);
+                long seen = System.currentTimeMillis();
+                while (rs.next())
+                {
+                    pending.remove(rs.getInt(1));
+                    Calendar enqueue = cnx.getCal(rs, 2);
+                    Calendar attribution = cnx.getCal(rs, 3);
+                    Calendar begin = cnx.getCal(rs, 4);
+                    Calendar end = cnx.getCal(rs, 5);
+                    if (attribution == null || begin == null)
+                    {
+                        // Killed before running. Not a normal case in a load test.
+                        continue;
+                    }
+                    long endMs = end.getTimeInMillis();
+                    res.recordCompletion(enqueue.getTimeInMillis(), attribution.getTimeInMillis(), begin.getTimeInMillis(), endMs, seen,
+                            endMs >= measureStart && endMs < loadEnd);
+                }
+                rs.close();
+            }
+            catch (SQLException e)
+            {
+                throw new DatabaseException(e);
+            }
+            finally
+            {
+                cnx.close();
+            }
+        }
+    }
+}
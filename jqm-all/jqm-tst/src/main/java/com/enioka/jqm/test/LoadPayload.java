@@ -13,37 +13,35 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.enioka.jqm.api;
+package com.enioka.jqm.test;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
+import com.enioka.jqm.api.JobManager;
 
-class SelfDestructFileStream extends FileInputStream
+/**
+ * The payload launched by {@link JqmLoadTester}. It does nothing but wait for the time given by its <code>durationMs</code> parameter.
+ */
+public class LoadPayload implements Runnable
 {
-    File f = null;
-    String nameHint = null;
+    static final String DURATION_PARAMETER = "durationMs";
 
-    SelfDestructFileStream(File file) throws FileNotFoundException
-    {
-        super(file);
-        this.f = file;
-    }
+    // Injected by the engine.
+    private JobManager jm;
 
     @Override
-    public void close() throws IOException
+    public void run()
     {
-        super.close();
-
+        String duration = jm.parameters().get(DURATION_PARAMETER);
+        if (duration == null || "0".equals(duration))
+        {
+            return;
+        }
         try
         {
-            f.delete();
+            Thread.sleep(Long.parseLong(duration));
         }
-        catch (Exception e)
+        catch (InterruptedException e)
         {
-            // Nothing
+            Thread.currentThread().interrupt();
         }
-        f = null;
     }
 }
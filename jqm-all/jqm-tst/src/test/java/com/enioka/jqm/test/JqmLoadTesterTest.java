@@ -0,0 +1,50 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * A short load on two nodes and two queues - only checks that everything is measured.
+ */
+public class JqmLoadTesterTest
+{
+    @Test
+    public void testLoad()
+    {
+        JqmAsyncTester tester = JqmAsyncTester.create().setNodesLogLevel("WARN").addNode("node1").addNode("node2").addQueue("queue1")
+                .addQueue("queue2").deployQueueToNode("queue1", 5, 50, "node1", "node2").deployQueueToNode("queue2", 5, 50, "node2");
+
+        JqmLoadTestResult res;
+        try
+        {
+            res = JqmLoadTester.create(tester).addLoad("queue1", 20, DurationDistribution.uniform(0, 50))
+                    .addLoad("queue2", 10, DurationDistribution.constant(10)).setSeed(42).setWarmupMs(1000).setDurationMs(3000)
+                    .setDrainTimeoutMs(10000).run();
+        }
+        finally
+        {
+            tester.stop();
+        }
+
+        Assert.assertTrue(res.getEnqueuedCount() > 0);
+        Assert.assertEquals(0, res.getMissingCount());
+        Assert.assertEquals(res.getCompletedCount(), res.getEnqueueToAttribution().getTotalCount());
+        Assert.assertEquals(res.getCompletedCount(), res.getEndToHistory().getTotalCount());
+        Assert.assertTrue(res.getSustainedThroughput() > 0);
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright © 2013 enioka. All rights reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.enioka.jqm.api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.ReversedLinesFileReader;
+
+/**
+ * A job instance log file, as written by the engine: either a single gzip file (compressed once the job instance has ended) or a plain file
+ * with its rotated files (file.log.1 being the most recent one). In the second case, the files are seen as a single file, oldest first.<br>
+ * Answers to HTTP requests with support for ETag/If-None-Match, single byte ranges and gzip passthrough (the compressed file is sent as is to
+ * clients accepting gzip encoding, ranges then applying to the compressed bytes).
+ */
+class JobLogFile
+{
+    private static final int MAX_TAIL = 10000;
+
+    private final List<File> files;
+    private final boolean gzip;
+    private final long length;
+    private final long lastModified;
+
+    private JobLogFile(List<File> files, boolean gzip)
+    {
+        this.files = files;
+        this.gzip = gzip;
+        long l = 0;
+        for (File f : files)
+        {
+            l += f.length();
+        }
+        this.length = l;
+        this.lastModified = files.get(files.size() - 1).lastModified();
+    }
+
+    /**
+     * @param path
+     *            the path of the plain log file, e.g. ./logs/0000000012.stdout.log
+     * @return null if there is no such log.
+     */
+    static JobLogFile get(String path)
+    {
+        File gz = new File(path + ".gz");
+        if (gz.isFile())
+        {
+            return new JobLogFile(Collections.singletonList(gz), true);
+        }
+
+        List<File> res = new ArrayList<File>();
+        for (int i = 1; new File(path + "." + i).isFile(); i++)
+        {
+            res.add(new File(path + "." + i));
+        }
+        Collections.reverse(res);
+        if (new File(path).isFile())
+        {
+            res.add(new File(path));
+        }
+        if (res.isEmpty())
+        {
+            // May have just been compressed.
+            return gz.isFile() ? new JobLogFile(Collections.singletonList(gz), true) : null;
+        }
+        return new JobLogFile(res, false);
+    }
+
+    Response toResponse(HttpHeaders headers, String fileName, Integer tail) throws IOException
+    {
+        if (tail != null)
+        {
+            if (tail < 1)
+            {
+                throw new ErrorDto("tail must be a number of lines greater than zero", "", 6, Status.BAD_REQUEST);
+            }
+            return Response.ok(tail(Math.min(tail, MAX_TAIL)), MediaType.TEXT_PLAIN).build();
+        }
+
+        String acceptEncoding = headers.getHeaderString(HttpHeaders.ACCEPT_ENCODING);
+        boolean passthrough = gzip && acceptEncoding != null && acceptEncoding.contains("gzip");
+        String etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + (passthrough ? "-gz" : "") + "\"";
+
+        ResponseBuilder rb;
+        String ifNoneMatch = headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null && matches(ifNoneMatch, etag))
+        {
+            rb = Response.notModified();
+        }
+        else if (gzip && !passthrough)
+        {
+            // Decompressed on the fly - length is unknown, so no ranges.
+            rb = Response.ok(new GZIPInputStream(open(0), 65536)).header("Accept-Ranges", "none");
+        }
+        else
+        {
+            long[] range = getRange(headers.getHeaderString("Range"), length);
+            if (range == null)
+            {
+                rb = Response.ok(open(0)).header(HttpHeaders.CONTENT_LENGTH, length);
+            }
+            else if (range[0] >= length || range[0] > range[1])
+            {
+                rb = Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + length);
+            }
+            else
+            {
+                long end = Math.min(range[1], length - 1);
+                rb = Response.status(Status.PARTIAL_CONTENT).entity(new BoundedInputStream(open(range[0]), end - range[0] + 1))
+                        .header("Content-Range", "bytes " + range[0] + "-" + end + "/" + length)
+                        .header(HttpHeaders.CONTENT_LENGTH, end - range[0] + 1);
+            }
+            rb.header("Accept-Ranges", "bytes");
+            if (passthrough)
+            {
+                rb.header(HttpHeaders.CONTENT_ENCODING, "gzip");
+            }
+        }
+
+        if (gzip)
+        {
+            rb.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        return rb.tag(etag.substring(1, etag.length() - 1)).type(MediaType.APPLICATION_OCTET_STREAM)
+                .header("Content-Disposition", "attachment; filename=" + fileName).build();
+    }
+
+    static boolean matches(String ifNoneMatch, String etag)
+    {
+        for (String s : ifNoneMatch.split(","))
+        {
+            s = s.trim();
+            if (s.startsWith("W/"))
+            {
+                s = s.substring(2);
+            }
+            if (s.equals("*") || s.equals(etag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Only single ranges are supported ("bytes=a-b", "bytes=a-" or "bytes=-n"). Others are ignored and the whole file is sent.
+     *
+     * @return the first and last byte positions, or null for the whole file.
+     */
+    static long[] getRange(String header, long length)
+    {
+        if (header == null || !header.startsWith("bytes=") || header.contains(","))
+        {
+            return null;
+        }
+        String[] bounds = header.substring(6).trim().split("-", -1);
+        if (bounds.length != 2)
+        {
+            return null;
+        }
+        try
+        {
+            if (bounds[0].isEmpty())
+            {
+                long suffix = Long.parseLong(bounds[1]);
+                return new long[] { Math.max(0, length - suffix), length - 1 };
+            }
+            long start = Long.parseLong(bounds[0]);
+            long end = bounds[1].isEmpty() ? length - 1 : Long.parseLong(bounds[1]);
+            return new long[] { start, end };
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private InputStream open(long skip) throws IOException
+    {
+        final Iterator<File> it = files.iterator();
+        InputStream res = new SequenceInputStream(new Enumeration<InputStream>()
+        {
+            @Override
+            public boolean hasMoreElements()
+            {
+                return it.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement()
+            {
+                try
+                {
+                    return new FileInputStream(it.next());
+                }
+                catch (IOException e)
+                {
+                    throw new ErrorDto("Could not find the desired file", 8, e, Status.NO_CONTENT);
+                }
+            }
+        });
+        if (skip > 0)
+        {
+            IOUtils.skipFully(res, skip);
+        }
+        return res;
+    }
+
+    /**
+     * @return the last lines of the log (decompressed).
+     */
+    String tail(int lines) throws IOException
+    {
+        Deque<String> res = new ArrayDeque<String>(lines);
+        if (gzip)
+        {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new GZIPInputStream(open(0), 65536)));
+            try
+            {
+                String line;
+                while ((line = r.readLine()) != null)
+                {
+                    if (res.size() == lines)
+                    {
+                        res.removeFirst();
+                    }
+                    res.addLast(line);
+                }
+            }
+            finally
+            {
+                r.close();
+            }
+        }
+        else
+        {
+            for (int i = files.size() - 1; i >= 0 && res.size() < lines; i--)
+            {
+                ReversedLinesFileReader r = new ReversedLinesFileReader(files.get(i));
+                try
+                {
+                    String line;
+                    while (res.size() < lines && (line = r.readLine()) != null)
+                    {
+                        res.addFirst(line);
+                    }
+                }
+                finally
+                {
+                    r.close();
+                }
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String line : res)
+        {
+            sb.append(line);
+            sb.append(System.getProperty("line.separator"));
+        }
+        return sb.toString();
+    }
+}
@@ -16,6 +16,8 @@
 package com.enioka.jqm.api;
 
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -62,6 +64,29 @@ public class ServiceClient implements JqmClient
         return getJi(jd, i);
     }
 
+    @Override
+    // Not directly mapped: returning a list of integers would be weird. See enqueueObjects.
+    public List<Integer> enqueue(List<JobRequest> jds)
+    {
+        throw new NotSupportedException();
+    }
+
+    @POST
+    @Path("ji/bulk")
+    @Consumes({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+    @Produces({ MediaType.APPLICATION_XML, MediaType.APPLICATION_JSON })
+    public List<JobInstance> enqueueObjects(List<JobRequest> jds)
+    {
+        List<Integer> ids = JqmClientFactory.getClient().enqueue(jds);
+
+        List<JobInstance> res = new ArrayList<JobInstance>(ids.size());
+        for (int i = 0; i < ids.size(); i++)
+        {
+            res.add(getJi(jds.get(i), ids.get(i)));
+        }
+        return res;
+    }
+
     // Not exposed. Client side work.
     @Override
     public int enqueue(String applicationName, String userName)
@@ -329,7 +354,7 @@ public class ServiceClient implements JqmClient
     @POST
     public InputStream getDeliverableContent(Deliverable file)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) JqmClientFactory.getClient().getDeliverableContent(file);
+        RemoteFileStream fs = (RemoteFileStream) JqmClientFactory.getClient().getDeliverableContent(file);
         res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
         return fs;
     }
@@ -340,18 +365,24 @@ public class ServiceClient implements JqmClient
     @GET
     public InputStream getDeliverableContent(@PathParam("id") int delId)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) JqmClientFactory.getClient().getDeliverableContent(delId);
+        RemoteFileStream fs = (RemoteFileStream) JqmClientFactory.getClient().getDeliverableContent(delId);
         res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
         return fs;
     }
 
+    @Override
+    public long getDeliverableContent(int fileId, WritableByteChannel target)
+    {
+        throw new NotSupportedException();
+    }
+
     @Override
     @Path("ji/{jobId}/stderr")
     @Produces("application/octet-stream")
     @GET
     public InputStream getJobLogStdErr(@PathParam("jobId") int jobId)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) JqmClientFactory.getClient().getJobLogStdErr(jobId);
+        RemoteFileStream fs = (RemoteFileStream) JqmClientFactory.getClient().getJobLogStdErr(jobId);
         res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
         return fs;
     }
@@ -362,7 +393,7 @@ public class ServiceClient implements JqmClient
     @GET
     public InputStream getJobLogStdOut(@PathParam("jobId") int jobId)
     {
-        SelfDestructFileStream fs = (SelfDestructFileStream) JqmClientFactory.getClient().getJobLogStdOut(jobId);
+        RemoteFileStream fs = (RemoteFileStream) JqmClientFactory.getClient().getJobLogStdOut(jobId);
         res.setHeader("Content-Disposition", "attachment; filename=" + fs.nameHint);
         return fs;
     }
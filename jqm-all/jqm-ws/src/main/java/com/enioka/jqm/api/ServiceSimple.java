@@ -17,12 +17,11 @@ package com.enioka.jqm.api;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 
 import javax.servlet.ServletContext;
-import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
@@ -31,9 +30,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.SecurityContext;
+import javax.ws.rs.core.StreamingOutput;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
@@ -57,7 +60,6 @@ public class ServiceSimple
 {
     private static Logger log = LoggerFactory.getLogger(ServiceSimple.class);
 
-    private @Context HttpServletResponse res;
     private @Context SecurityContext security;
     private Node n = null;
     @Context
@@ -110,26 +112,44 @@ public class ServiceSimple
 
     @GET
     @Path("stdout")
-    @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getLogOut(@QueryParam("id") int id)
+    @Produces({ MediaType.APPLICATION_OCTET_STREAM, MediaType.TEXT_PLAIN })
+    public Response getLogOut(@QueryParam("id") int id, @QueryParam("tail") Integer tail, @Context HttpHeaders headers)
     {
-        res.setHeader("Content-Disposition", "attachment; filename=" + id + ".stdout.txt");
-        return getFile(FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0") + ".stdout.log"));
+        return getLog(id, "stdout", tail, headers);
     }
 
     @GET
     @Path("stderr")
-    @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getLogErr(@QueryParam("id") int id)
+    @Produces({ MediaType.APPLICATION_OCTET_STREAM, MediaType.TEXT_PLAIN })
+    public Response getLogErr(@QueryParam("id") int id, @QueryParam("tail") Integer tail, @Context HttpHeaders headers)
+    {
+        return getLog(id, "stderr", tail, headers);
+    }
+
+    private Response getLog(int id, String type, Integer tail, HttpHeaders headers)
     {
-        res.setHeader("Content-Disposition", "attachment; filename=" + id + ".stderr.txt");
-        return getFile(FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0") + ".stderr.log"));
+        String path = FilenameUtils.concat("./logs", StringUtils.leftPad("" + id, 10, "0") + "." + type + ".log");
+        log.debug("log retrieval service called by user " + getUserName() + " for file " + path);
+        JobLogFile f = JobLogFile.get(path);
+        if (f == null)
+        {
+            throw new ErrorDto("Could not find the desired file", "", 8, Status.NO_CONTENT);
+        }
+
+        try
+        {
+            return f.toResponse(headers, id + "." + type + ".txt", tail);
+        }
+        catch (IOException e)
+        {
+            throw new ErrorDto("Could not return the desired file", 8, e, Status.NO_CONTENT);
+        }
     }
 
     @GET
     @Path("file")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public InputStream getDeliverableStream(@QueryParam("id") String randomId)
+    public Response getDeliverableStream(@QueryParam("id") String randomId, @Context HttpHeaders headers)
     {
         if (n == null)
         {
@@ -163,20 +183,73 @@ public class ServiceSimple
         }
 
         String ext = FilenameUtils.getExtension(d.getOriginalFileName());
-        res.setHeader("Content-Disposition", "attachment; filename=" + d.getFileFamily() + "." + d.getId() + "." + ext);
-        return getFile(FilenameUtils.concat(n.getDlRepo(), d.getFilePath()));
+        String path = FilenameUtils.concat(n.getDlRepo(), d.getFilePath());
+        log.debug("file retrieval service called by user " + getUserName() + " for file " + path);
+        final File f = new File(path);
+        if (!f.isFile())
+        {
+            throw new ErrorDto("Could not find the desired file", "", 8, Status.NO_CONTENT);
+        }
+
+        // Deliverables never change once created, so the random ID is a strong validator.
+        final long length = f.length();
+        String etag = "\"" + d.getRandomId() + "-" + Long.toHexString(length) + "\"";
+        ResponseBuilder rb;
+        String ifNoneMatch = headers.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        long[] range = JobLogFile.getRange(headers.getHeaderString("Range"), length);
+        if (ifNoneMatch != null && JobLogFile.matches(ifNoneMatch, etag))
+        {
+            rb = Response.notModified();
+        }
+        else if (range == null)
+        {
+            rb = Response.ok(new FileRangeOutput(f, 0, length)).header(HttpHeaders.CONTENT_LENGTH, length);
+        }
+        else if (range[0] >= length || range[0] > range[1])
+        {
+            rb = Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + length);
+        }
+        else
+        {
+            long end = Math.min(range[1], length - 1);
+            rb = Response.status(Status.PARTIAL_CONTENT).entity(new FileRangeOutput(f, range[0], end - range[0] + 1))
+                    .header("Content-Range", "bytes " + range[0] + "-" + end + "/" + length)
+                    .header(HttpHeaders.CONTENT_LENGTH, end - range[0] + 1);
+        }
+
+        return rb.tag(etag.substring(1, etag.length() - 1)).header("Accept-Ranges", "bytes").type(MediaType.APPLICATION_OCTET_STREAM)
+                .header("Content-Disposition", "attachment; filename=" + d.getFileFamily() + "." + d.getId() + "." + ext).build();
     }
 
-    public InputStream getFile(String path)
+    /**
+     * Sends a part of a file. The servlet output stream is not a channel, so there is no zero-copy path here (FileChannel.transferTo
+     * towards it would only add a copy through a temporary buffer): this is a plain copy through a single buffer.
+     */
+    private static class FileRangeOutput implements StreamingOutput
     {
-        try
+        private final File file;
+        private final long start, count;
+
+        private FileRangeOutput(File file, long start, long count)
         {
-            log.debug("file retrieval service called by user " + getUserName() + " for file " + path);
-            return new FileInputStream(path);
+            this.file = file;
+            this.start = start;
+            this.count = count;
         }
-        catch (FileNotFoundException e)
+
+        @Override
+        public void write(OutputStream output) throws IOException
         {
-            throw new ErrorDto("Could not find the desired file", 8, e, Status.NO_CONTENT);
+            FileInputStream fis = new FileInputStream(file);
+            try
+            {
+                // Stops early if the file was truncated.
+                IOUtils.copyLarge(fis, output, start, count, new byte[65536]);
+            }
+            finally
+            {
+                fis.close();
+            }
         }
     }
 
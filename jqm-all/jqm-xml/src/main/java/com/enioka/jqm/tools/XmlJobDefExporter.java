@@ -177,6 +177,9 @@ class XmlJobDefExporter
         addTextElementToParentElement(res, "tracingEnabled", cl.isTracingEnabled());
         addTextElementToParentElement(res, "persistent", cl.isPersistent());
         addTextElementToParentElement(res, "runners", cl.getAllowedRunners());
+        addTextElementToParentElement(res, "poolSize", String.valueOf(cl.getPoolSize()));
+        addTextElementToParentElement(res, "poolMaxUses", String.valueOf(cl.getPoolMaxUses()));
+        addTextElementToParentElement(res, "preloadedClasses", cl.getPreloadedClasses());
 
         Element handlers = new Element("eventHandlers");
         res.addContent(handlers);
@@ -172,6 +172,30 @@ class XmlJobDefParser
                 {
                     cl.setAllowedRunners(null);
                 }
+                if (clElement.getElementsByTagName("poolSize").getLength() > 0)
+                {
+                    cl.setPoolSize(Integer.parseInt(clElement.getElementsByTagName("poolSize").item(0).getTextContent().trim()));
+                }
+                else
+                {
+                    cl.setPoolSize(0);
+                }
+                if (clElement.getElementsByTagName("poolMaxUses").getLength() > 0)
+                {
+                    cl.setPoolMaxUses(Integer.parseInt(clElement.getElementsByTagName("poolMaxUses").item(0).getTextContent().trim()));
+                }
+                else
+                {
+                    cl.setPoolMaxUses(100);
+                }
+                if (clElement.getElementsByTagName("preloadedClasses").getLength() > 0)
+                {
+                    cl.setPreloadedClasses(clElement.getElementsByTagName("preloadedClasses").item(0).getTextContent().trim());
+                }
+                else
+                {
+                    cl.setPreloadedClasses(null);
+                }
                 cl.update(cnx);
 
                 if (clElement.getElementsByTagName("eventHandlers").getLength() > 0)